@@ -0,0 +1,156 @@
+package org.istsos.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Additive-increase / multiplicative-decrease controller for insert batches.
+ * <p>
+ * The batch size grows by a fixed step after every insert answered within the
+ * target latency, and the flush interval shrinks by the same ratio. Slow answers
+ * shrink the batch gently, timeouts and server errors halve it and double the
+ * flush interval. All settings are bounded by the configured minimum and maximum.
+ *
+ */
+public class AimdController {
+
+	private final int minBatchSize;
+	private final int maxBatchSize;
+	private final int batchIncrement;
+
+	private final long minFlushInterval;
+	private final long maxFlushInterval;
+
+	private final long targetLatency;
+
+	private int batchSize;
+	private long flushInterval;
+
+	private double latencyAverage = -1;
+	private long lastLatency = -1;
+
+	private long successes = 0;
+	private long failures = 0;
+	private long increases = 0;
+	private long decreases = 0;
+
+	/**
+	 * Initialize a controller with defaults: batches between 10 and 10000 rows starting at 100,
+	 * flush interval between 100 ms and 60 s starting at 1 s, target latency of 1 s.
+	 */
+	public AimdController() {
+		this(10, 10000, 100, 100, 60000, 1000, 1000);
+	}
+	/**
+	 * Initialize a controller.
+	 * @param minBatchSize smallest batch size
+	 * @param maxBatchSize largest batch size
+	 * @param initialBatchSize starting batch size
+	 * @param minFlushInterval shortest flush interval in milliseconds
+	 * @param maxFlushInterval longest flush interval in milliseconds
+	 * @param initialFlushInterval starting flush interval in milliseconds
+	 * @param targetLatency insert latency in milliseconds the controller aims to stay under
+	 */
+	public AimdController(int minBatchSize, int maxBatchSize, int initialBatchSize,
+			long minFlushInterval, long maxFlushInterval, long initialFlushInterval, long targetLatency) {
+		if(minBatchSize < 1 || maxBatchSize < minBatchSize || minFlushInterval < 1 || maxFlushInterval < minFlushInterval){
+			throw new IllegalArgumentException("Invalid batch size or flush interval bounds");
+		}
+		this.minBatchSize = minBatchSize;
+		this.maxBatchSize = maxBatchSize;
+		this.minFlushInterval = minFlushInterval;
+		this.maxFlushInterval = maxFlushInterval;
+		this.targetLatency = targetLatency;
+		this.batchIncrement = Math.max(1, minBatchSize);
+		this.batchSize = clamp(initialBatchSize, minBatchSize, maxBatchSize);
+		this.flushInterval = clamp(initialFlushInterval, minFlushInterval, maxFlushInterval);
+	}
+	/**
+	 * Record a successful insert.
+	 * @param latency round trip time in milliseconds
+	 */
+	public synchronized void onSuccess(long latency) {
+
+		successes++;
+		lastLatency = latency;
+		latencyAverage = latencyAverage < 0 ? latency : 0.8 * latencyAverage + 0.2 * latency;
+
+		if(latency <= targetLatency){
+			// additive increase
+			int previous = batchSize;
+			batchSize = clamp(batchSize + batchIncrement, minBatchSize, maxBatchSize);
+			flushInterval = clamp(flushInterval * previous / batchSize, minFlushInterval, maxFlushInterval);
+			if(batchSize != previous){
+				increases++;
+			}
+		}else{
+			// over target but answered: back off gently
+			decrease(0.75, 1.0);
+		}
+	}
+	/**
+	 * Record a failed insert.
+	 * @param timeoutOrServerError true for timeouts and 5xx answers
+	 */
+	public synchronized void onFailure(boolean timeoutOrServerError) {
+		failures++;
+		if(timeoutOrServerError){
+			decrease(0.5, 2.0);
+		}
+	}
+
+	private void decrease(double batchFactor, double intervalFactor) {
+		int previous = batchSize;
+		batchSize = clamp((int) (batchSize * batchFactor), minBatchSize, maxBatchSize);
+		flushInterval = clamp((long) (flushInterval * intervalFactor), minFlushInterval, maxFlushInterval);
+		if(batchSize != previous){
+			decreases++;
+		}
+	}
+
+	public synchronized int getBatchSize() {
+		return batchSize;
+	}
+
+	public synchronized long getFlushInterval() {
+		return flushInterval;
+	}
+
+	public long getTargetLatency() {
+		return targetLatency;
+	}
+
+	public synchronized long getLastLatency() {
+		return lastLatency;
+	}
+
+	public synchronized double getAverageLatency() {
+		return latencyAverage;
+	}
+	/**
+	 * Retrieve the current settings and counters, for export to a metrics system.
+	 * @return map of metric name to value
+	 */
+	public synchronized Map<String, Number> getMetrics() {
+		Map<String, Number> metrics = new LinkedHashMap<String, Number>();
+		metrics.put("batchSize", batchSize);
+		metrics.put("flushInterval", flushInterval);
+		metrics.put("targetLatency", targetLatency);
+		metrics.put("lastLatency", lastLatency);
+		metrics.put("averageLatency", latencyAverage);
+		metrics.put("successes", successes);
+		metrics.put("failures", failures);
+		metrics.put("increases", increases);
+		metrics.put("decreases", decreases);
+		return metrics;
+	}
+
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+	private static long clamp(long value, long min, long max) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+}
@@ -0,0 +1,427 @@
+package org.istsos.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the services of several servers and the full catalog of every
+ * service in one operation.
+ * <p>
+ * The services of all servers are requested at once. As soon as the list of
+ * a server arrives, each of its services requests procedures, offerings,
+ * observed properties, units of measure, data qualities and virtual
+ * procedures concurrently, without waiting for the other servers. Requests in
+ * flight are bounded by the maximum concurrency. The returned future
+ * completes with a {@link Report} once every request answered; failed
+ * requests are listed in the report and do not stop the others.
+ *
+ */
+public class Bootstrap {
+
+	public static final int DEFAULT_MAX_CONCURRENCY = 32;
+
+	/**
+	 * Steps of the bootstrap, each one request per server or per service.
+	 */
+	public enum Phase {
+		SERVICES,
+		PROCEDURES,
+		OFFERINGS,
+		OBSERVED_PROPERTIES,
+		UNITS_OF_MEASURE,
+		DATA_QUALITIES,
+		VIRTUAL_PROCEDURES
+	}
+
+	private final Collection<Server> servers;
+	private final int maxConcurrency;
+
+	private final ConcurrentLinkedQueue<Task> queue = new ConcurrentLinkedQueue<Task>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	// requests issued or queued and not answered yet
+	private final AtomicInteger outstanding = new AtomicInteger();
+
+	private final CompletableFuture<Report> future = new CompletableFuture<Report>();
+	private final Report report = new Report();
+	private long started;
+
+	/**
+	 * Initialize a bootstrap of the given servers with {@link #DEFAULT_MAX_CONCURRENCY}.
+	 * @param servers collection of {@link Server}
+	 */
+	public Bootstrap(Collection<Server> servers) {
+		this(servers, DEFAULT_MAX_CONCURRENCY);
+	}
+	/**
+	 * Initialize a bootstrap.
+	 * @param servers collection of {@link Server}
+	 * @param maxConcurrency maximum requests in flight
+	 */
+	public Bootstrap(Collection<Server> servers, int maxConcurrency) {
+		this.servers = new ArrayList<Server>(servers);
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+	}
+	/**
+	 * Start loading; calling it again returns the same future.
+	 * @return future completed with the {@link Report}, also published as
+	 * {@link Event#BOOTSTRAP_COMPLETED}
+	 */
+	public synchronized CompletableFuture<Report> start() {
+		if(started != 0){
+			return future;
+		}
+		started = System.nanoTime();
+		if(servers.isEmpty()){
+			finish();
+			return future;
+		}
+		outstanding.addAndGet(servers.size());
+		for(final Server server : servers){
+			submit(new Task(Phase.SERVICES, server, null) {
+				@Override
+				void run(IstSOSListener callback) {
+					server.loadServices(callback);
+				}
+
+				@Override
+				void succeeded() {
+					loadCatalog(server);
+				}
+			});
+		}
+		return future;
+	}
+
+	public CompletableFuture<Report> getFuture() {
+		return future;
+	}
+
+	private void loadCatalog(Server server) {
+		List<Service> services = new ArrayList<Service>(server.getServices());
+		// counted before queuing, so the bootstrap cannot finish in between
+		outstanding.addAndGet(services.size() * (Phase.values().length - 1));
+		for(final Service service : services){
+			submit(new Task(Phase.PROCEDURES, server, service) {
+				@Override
+				void run(IstSOSListener callback) {
+					service.loadProcedures(callback);
+				}
+			});
+			submit(new Task(Phase.OFFERINGS, server, service) {
+				@Override
+				void run(IstSOSListener callback) {
+					service.loadOfferings(callback);
+				}
+			});
+			submit(new Task(Phase.OBSERVED_PROPERTIES, server, service) {
+				@Override
+				void run(IstSOSListener callback) {
+					service.loadObservedProperties(callback);
+				}
+			});
+			submit(new Task(Phase.UNITS_OF_MEASURE, server, service) {
+				@Override
+				void run(IstSOSListener callback) {
+					service.loadUnitsOfMeasure(callback);
+				}
+			});
+			submit(new Task(Phase.DATA_QUALITIES, server, service) {
+				@Override
+				void run(IstSOSListener callback) {
+					service.loadDataQualities(callback);
+				}
+			});
+			submit(new Task(Phase.VIRTUAL_PROCEDURES, server, service) {
+				@Override
+				void run(IstSOSListener callback) {
+					service.loadVirtualProcedures(callback);
+				}
+			});
+		}
+	}
+
+	private void submit(Task task) {
+		queue.add(task);
+		drain();
+	}
+
+	private void drain() {
+		while(true){
+			int current = inFlight.get();
+			if(current >= maxConcurrency){
+				return;
+			}
+			if(!inFlight.compareAndSet(current, current + 1)){
+				continue;
+			}
+			Task task = queue.poll();
+			if(task == null){
+				inFlight.decrementAndGet();
+				// a task may have been queued after the poll
+				if(queue.isEmpty()){
+					return;
+				}
+				continue;
+			}
+			task.start();
+		}
+	}
+
+	private void done() {
+		inFlight.decrementAndGet();
+		drain();
+		if(outstanding.decrementAndGet() == 0){
+			finish();
+		}
+	}
+
+	private void finish() {
+		report.elapsed = (System.nanoTime() - started) / 1000000;
+		EventObject eventObject = new EventObject(Event.BOOTSTRAP_COMPLETED, report);
+		IstSOS.getInstance().getEventBus().publish(eventObject);
+		future.complete(report);
+	}
+
+	/**
+	 * One request of a phase.
+	 */
+	private abstract class Task {
+
+		final Phase phase;
+		final Server server;
+		final Service service;
+		private long begin;
+		private volatile boolean answered;
+
+		Task(Phase phase, Server server, Service service) {
+			this.phase = phase;
+			this.server = server;
+			this.service = service;
+		}
+
+		abstract void run(IstSOSListener callback);
+
+		void succeeded() {}
+
+		void start() {
+			begin = System.nanoTime();
+			try {
+				run(new IstSOSListener() {
+					@Override
+					public void onSuccess(EventObject event) {
+						answered = true;
+						long end = System.nanoTime();
+						try {
+							succeeded();
+							report.record(phase, begin, end, null, null);
+						} catch (RuntimeException e) {
+							// an answer that cannot be used fails the task
+							report.record(phase, begin, end, Task.this, e);
+						} finally {
+							done();
+						}
+					}
+
+					@Override
+					public void onError(EventObject event) {
+						answered = true;
+						report.record(phase, begin, System.nanoTime(), Task.this, event.getObject());
+						done();
+					}
+				});
+			} catch (RuntimeException e) {
+				if(answered){
+					throw e;
+				}
+				report.record(phase, begin, System.nanoTime(), this, e);
+				done();
+			}
+		}
+	}
+
+	/**
+	 * Timings and failures of a bootstrap.
+	 */
+	public class Report {
+
+		private final EnumMap<Phase, Timing> timings = new EnumMap<Phase, Timing>(Phase.class);
+		private final List<Failure> failures = new ArrayList<Failure>();
+		private volatile long elapsed;
+
+		Report() {
+			for(Phase phase : Phase.values()){
+				timings.put(phase, new Timing());
+			}
+		}
+
+		synchronized void record(Phase phase, long begin, long end, Task task, Object cause) {
+			Timing timing = timings.get(phase);
+			long duration = (end - begin) / 1000000;
+			timing.requests++;
+			timing.total += duration;
+			timing.max = Math.max(timing.max, duration);
+			timing.first = timing.requests == 1 ? begin : Math.min(timing.first, begin);
+			timing.last = Math.max(timing.last, end);
+			if(task != null){
+				timing.failures++;
+				failures.add(new Failure(phase, task.server, task.service, cause));
+			}
+		}
+		/**
+		 *
+		 * @return time from start to the last answer, in milliseconds
+		 */
+		public long getElapsed() {
+			return elapsed;
+		}
+		/**
+		 *
+		 * @return true if every request succeeded
+		 */
+		public synchronized boolean isComplete() {
+			return failures.isEmpty();
+		}
+
+		public synchronized List<Failure> getFailures() {
+			return new ArrayList<Failure>(failures);
+		}
+		/**
+		 * Retrieve the timing of a phase.
+		 * @param phase {@link Phase}
+		 * @return {@link Timing}
+		 */
+		public synchronized Timing getTiming(Phase phase) {
+			return timings.get(phase).copy();
+		}
+
+		public synchronized Map<Phase, Timing> getTimings() {
+			Map<Phase, Timing> copy = new EnumMap<Phase, Timing>(Phase.class);
+			for(Map.Entry<Phase, Timing> entry : timings.entrySet()){
+				copy.put(entry.getKey(), entry.getValue().copy());
+			}
+			return Collections.unmodifiableMap(copy);
+		}
+
+		@Override
+		public synchronized String toString() {
+			StringBuilder builder = new StringBuilder("bootstrap " + elapsed + " ms");
+			for(Map.Entry<Phase, Timing> entry : timings.entrySet()){
+				builder.append("\n  ").append(entry.getKey()).append(' ').append(entry.getValue());
+			}
+			if(!failures.isEmpty()){
+				builder.append("\n  ").append(failures.size()).append(" failed");
+			}
+			return builder.toString();
+		}
+	}
+
+	/**
+	 * Requests of a phase: count, failures and durations in milliseconds.
+	 */
+	public static class Timing {
+
+		private int requests;
+		private int failures;
+		private long total;
+		private long max;
+		// nano times of the first request and the last answer
+		private long first;
+		private long last;
+
+		public int getRequests() {
+			return requests;
+		}
+
+		public int getFailures() {
+			return failures;
+		}
+		/**
+		 *
+		 * @return sum of the request durations
+		 */
+		public long getTotal() {
+			return total;
+		}
+
+		public long getMax() {
+			return max;
+		}
+		/**
+		 *
+		 * @return time from the first request of the phase to its last answer
+		 */
+		public long getWall() {
+			return requests == 0 ? 0 : (last - first) / 1000000;
+		}
+
+		Timing copy() {
+			Timing copy = new Timing();
+			copy.requests = requests;
+			copy.failures = failures;
+			copy.total = total;
+			copy.max = max;
+			copy.first = first;
+			copy.last = last;
+			return copy;
+		}
+
+		@Override
+		public String toString() {
+			return requests + " requests, " + failures + " failed, wall " + getWall()
+					+ " ms, max " + max + " ms, total " + total + " ms";
+		}
+	}
+
+	/**
+	 * A failed request.
+	 */
+	public static class Failure {
+
+		private final Phase phase;
+		private final Server server;
+		private final Service service;
+		private final Object cause;
+
+		Failure(Phase phase, Server server, Service service, Object cause) {
+			this.phase = phase;
+			this.server = server;
+			this.service = service;
+			this.cause = cause;
+		}
+
+		public Phase getPhase() {
+			return phase;
+		}
+
+		public Server getServer() {
+			return server;
+		}
+		/**
+		 *
+		 * @return {@link Service}, null for the {@link Phase#SERVICES} phase
+		 */
+		public Service getService() {
+			return service;
+		}
+		/**
+		 *
+		 * @return {@link RequestException} or the exception thrown
+		 */
+		public Object getCause() {
+			return cause;
+		}
+
+		@Override
+		public String toString() {
+			return phase + " " + server.getServerName() + (service != null ? "/" + service.getName() : "") + ": " + cause;
+		}
+	}
+
+}
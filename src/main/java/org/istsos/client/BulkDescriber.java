@@ -0,0 +1,157 @@
+package org.istsos.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs describeSensor for many procedures with at most {@code maxConcurrency}
+ * requests in flight. Each completion starts the next request, so no thread
+ * waits. Procedures are read from and stored into the service
+ * {@link ProcedureDetailCache}, so cached ones are not requested again, while
+ * the catalog keeps the getlist summaries. Described procedures are streamed
+ * to the listener as {@link Event#PROCEDURE_LOADED} and indexed for search in
+ * batches.
+ *
+ */
+class BulkDescriber {
+
+	static final int DEFAULT_CONCURRENCY = 8;
+
+	// procedures added to the search index at once
+	private static final int INDEX_BATCH = 64;
+
+	private final Service service;
+	private final IstSOSListener callback;
+	private final int total;
+
+	private final Queue<String> queue;
+	private final AtomicInteger completed = new AtomicInteger();
+
+	private final List<Procedure> described = new ArrayList<Procedure>();
+	private final List<Procedure> unindexed = new ArrayList<Procedure>();
+
+	BulkDescriber(Service service, Collection<String> procedureNames, IstSOSListener callback) {
+		this.service = service;
+		this.callback = callback;
+		this.queue = new ConcurrentLinkedQueue<String>(procedureNames);
+		this.total = queue.size();
+	}
+
+	void start(int maxConcurrency) {
+		if(total == 0){
+			finish();
+			return;
+		}
+		int slots = Math.min(Math.max(1, maxConcurrency), total);
+		for(int i = 0; i < slots; i++){
+			next();
+		}
+	}
+
+	private void next() {
+
+		String name;
+		// cached procedures are answered in a loop rather than recursively
+		while((name = queue.poll()) != null){
+			Procedure cached = service.getDetailCache().getIfPresent(name);
+			if(cached == null){
+				load(name);
+				return;
+			}
+			loaded(name, cached);
+			if(completed.incrementAndGet() == total){
+				finish();
+				return;
+			}
+		}
+	}
+
+	private void load(final String name) {
+
+		service.getDetailCache().get(name, new IstSOSListener() {
+
+			@Override
+			public void onSuccess(EventObject event) {
+				loaded(name, (Procedure) event.getObject());
+				completed();
+			}
+
+			@Override
+			public void onError(EventObject event) {
+				if(callback != null){
+					callback.onError(event);
+				}
+				completed();
+			}
+		});
+	}
+
+	private void completed() {
+		if(completed.incrementAndGet() == total){
+			finish();
+		}else{
+			next();
+		}
+	}
+
+	private void loaded(String name, Procedure procedure) {
+		index(name, procedure);
+		if(callback != null){
+			callback.onSuccess(new EventObject(Event.PROCEDURE_LOADED, procedure));
+		}
+	}
+
+	private void index(String name, Procedure procedure) {
+
+		// describeSensor has no offerings nor getlist observed properties, keep the summary ones
+		Procedure summary = service.getCatalog().getProcedure(name);
+		if(summary != null){
+			if(procedure.getOfferings() == null){
+				procedure.setOfferings(summary.getOfferings());
+			}
+			if(procedure.getObservedproperties() == null){
+				procedure.setObservedproperties(summary.getObservedproperties());
+			}
+			if(procedure.getSensorType() == null){
+				procedure.setSensorType(summary.getSensorType());
+			}
+		}
+		if(procedure.getSystem() == null){
+			procedure.setSystem(name);
+		}
+
+		List<Procedure> batch = null;
+		synchronized (this) {
+			described.add(procedure);
+			unindexed.add(procedure);
+			if(unindexed.size() >= INDEX_BATCH){
+				batch = new ArrayList<Procedure>(unindexed);
+				unindexed.clear();
+			}
+		}
+		if(batch != null){
+			service.getSearchIndex().putAll(batch);
+		}
+	}
+
+	private void finish() {
+		ArrayList<Procedure> result;
+		List<Procedure> batch;
+		synchronized (this) {
+			batch = new ArrayList<Procedure>(unindexed);
+			unindexed.clear();
+			result = new ArrayList<Procedure>(described);
+		}
+		if(!batch.isEmpty()){
+			service.getSearchIndex().putAll(batch);
+		}
+		if(callback != null){
+			callback.onSuccess(new EventObject(Event.PROCEDURES_DESCRIBED, result));
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+package org.istsos.client;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed size direct {@link ByteBuffer} chunks used for request payloads.
+ * <p>
+ * Buffers are handed out cleared and must be given back with {@link #release(ByteBuffer)}
+ * once the request using them has completed. At most {@code maxPooled} idle chunks are kept,
+ * extra chunks are left to the garbage collector.
+ *
+ */
+public class ByteBufferPool {
+
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	public static final int DEFAULT_MAX_POOLED = 64;
+
+	private static final ByteBufferPool defaultPool = new ByteBufferPool(DEFAULT_CHUNK_SIZE, DEFAULT_MAX_POOLED);
+
+	private final ConcurrentLinkedQueue<ByteBuffer> idle = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+
+	private final int chunkSize;
+	private final int maxPooled;
+
+	/**
+	 * Initialize a pool of direct buffers.
+	 * @param chunkSize size in bytes of every buffer
+	 * @param maxPooled maximum number of idle buffers kept in the pool
+	 */
+	public ByteBufferPool(int chunkSize, int maxPooled) {
+		if(chunkSize <= 0){
+			throw new IllegalArgumentException("chunkSize must be positive");
+		}
+		this.chunkSize = chunkSize;
+		this.maxPooled = maxPooled;
+	}
+	/**
+	 * Retrieve the pool shared by all services
+	 * @return default ByteBufferPool
+	 */
+	public static ByteBufferPool getDefault() {
+		return defaultPool;
+	}
+	/**
+	 * Take a cleared buffer from the pool, allocating a new one when the pool is empty.
+	 * @return direct ByteBuffer of {@link #getChunkSize()} bytes
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = idle.poll();
+		if(buffer == null){
+			return ByteBuffer.allocateDirect(chunkSize);
+		}
+		idleCount.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+	/**
+	 * Give a buffer back to the pool.
+	 * @param buffer previously obtained from {@link #acquire()}
+	 */
+	public void release(ByteBuffer buffer) {
+		if(buffer == null || buffer.capacity() != chunkSize || !buffer.isDirect()){
+			return;
+		}
+		if(idleCount.incrementAndGet() > maxPooled){
+			idleCount.decrementAndGet();
+			return;
+		}
+		idle.offer(buffer);
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public int getIdleCount() {
+		return idleCount.get();
+	}
+
+}
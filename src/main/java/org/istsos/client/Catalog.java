@@ -0,0 +1,387 @@
+package org.istsos.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Indexed metadata catalog of a service.
+ * <p>
+ * Holds the current {@link CatalogSnapshot}. Loaders build complete lists and
+ * swap them in atomically, so a reload replaces a section instead of appending
+ * duplicates, and readers always see a consistent snapshot without locking.
+ * A reload returning the same content as the current section, compared by
+ * fingerprint, leaves the section and its instances untouched.
+ *
+ */
+public class Catalog {
+
+	/**
+	 * Sections of the catalog.
+	 */
+	public enum Section {
+		PROCEDURES,
+		OFFERINGS,
+		OBSERVED_PROPERTIES,
+		UOMS,
+		DATA_QUALITIES,
+		VIRTUAL_PROCEDURES
+	}
+
+	private final AtomicReference<CatalogSnapshot> current =
+			new AtomicReference<CatalogSnapshot>(CatalogSnapshot.EMPTY);
+
+	/**
+	 * Retrieve the current snapshot. Lookups on the returned instance are consistent
+	 * with each other even if a loader completes meanwhile.
+	 * @return {@link CatalogSnapshot}
+	 */
+	public CatalogSnapshot getSnapshot() {
+		return current.get();
+	}
+	/**
+	 * Replace the procedures section unless its content is unchanged.
+	 * @return true if the section was replaced
+	 */
+	public boolean replaceProcedures(final Collection<Procedure> procedures) {
+		final long[] entries = CatalogSnapshot.fingerprints(procedures);
+		final long fingerprint = CatalogSnapshot.combine(entries);
+		return update(new Update() {
+			@Override
+			public CatalogSnapshot apply(CatalogSnapshot snapshot) {
+				if(snapshot.getFingerprint(Section.PROCEDURES) == fingerprint){
+					return snapshot;
+				}
+				return snapshot.withProcedures(procedures, entries);
+			}
+		});
+	}
+	/**
+	 * Replace the offerings section unless its content is unchanged.
+	 * @return true if the section was replaced
+	 */
+	public boolean replaceOfferings(final Collection<Offering> offerings) {
+		final long[] entries = CatalogSnapshot.fingerprints(offerings);
+		final long fingerprint = CatalogSnapshot.combine(entries);
+		return update(new Update() {
+			@Override
+			public CatalogSnapshot apply(CatalogSnapshot snapshot) {
+				if(snapshot.getFingerprint(Section.OFFERINGS) == fingerprint){
+					return snapshot;
+				}
+				return snapshot.withOfferings(offerings, entries);
+			}
+		});
+	}
+	/**
+	 * Replace the observed properties section unless its content is unchanged.
+	 * @return true if the section was replaced
+	 */
+	public boolean replaceObservedProperties(final Collection<ObservedProperty> observedProperties) {
+		final long[] entries = CatalogSnapshot.fingerprints(observedProperties);
+		final long fingerprint = CatalogSnapshot.combine(entries);
+		return update(new Update() {
+			@Override
+			public CatalogSnapshot apply(CatalogSnapshot snapshot) {
+				if(snapshot.getFingerprint(Section.OBSERVED_PROPERTIES) == fingerprint){
+					return snapshot;
+				}
+				return snapshot.withObservedProperties(observedProperties, entries);
+			}
+		});
+	}
+	/**
+	 * Replace the units of measure section unless its content is unchanged.
+	 * @return true if the section was replaced
+	 */
+	public boolean replaceUnitsOfMeasure(final Collection<UnitOfMeasure> uoms) {
+		final long[] entries = CatalogSnapshot.fingerprints(uoms);
+		final long fingerprint = CatalogSnapshot.combine(entries);
+		return update(new Update() {
+			@Override
+			public CatalogSnapshot apply(CatalogSnapshot snapshot) {
+				if(snapshot.getFingerprint(Section.UOMS) == fingerprint){
+					return snapshot;
+				}
+				return snapshot.withUoms(uoms, entries);
+			}
+		});
+	}
+	/**
+	 * Replace the data qualities section unless its content is unchanged.
+	 * @return true if the section was replaced
+	 */
+	public boolean replaceDataQualities(final Collection<DataQuality> dataQualities) {
+		final long[] entries = CatalogSnapshot.fingerprints(dataQualities);
+		final long fingerprint = CatalogSnapshot.combine(entries);
+		return update(new Update() {
+			@Override
+			public CatalogSnapshot apply(CatalogSnapshot snapshot) {
+				if(snapshot.getFingerprint(Section.DATA_QUALITIES) == fingerprint){
+					return snapshot;
+				}
+				return snapshot.withDataQualities(dataQualities, entries);
+			}
+		});
+	}
+	/**
+	 * Replace the virtual procedures section unless its content is unchanged.
+	 * @return true if the section was replaced
+	 */
+	public boolean replaceVirtualProcedures(final Collection<VirtualProcedure> virtualProcedures) {
+		final long[] entries = CatalogSnapshot.fingerprints(virtualProcedures);
+		final long fingerprint = CatalogSnapshot.combine(entries);
+		return update(new Update() {
+			@Override
+			public CatalogSnapshot apply(CatalogSnapshot snapshot) {
+				if(snapshot.getFingerprint(Section.VIRTUAL_PROCEDURES) == fingerprint){
+					return snapshot;
+				}
+				return snapshot.withVirtualProcedures(virtualProcedures, entries);
+			}
+		});
+	}
+	/**
+	 * Apply the differences between a fresh procedure list and the procedures section.
+	 * Procedures are matched by name; unchanged procedures keep their current instance.
+	 * @param procedures complete fresh list
+	 * @return {@link ChangeSet} of the applied differences
+	 */
+	public ChangeSet<Procedure> syncProcedures(Collection<Procedure> procedures) {
+		final List<Procedure> fresh = new ArrayList<Procedure>(procedures);
+		final long[] entries = CatalogSnapshot.fingerprints(fresh);
+		final AtomicReference<Delta<Procedure>> result = new AtomicReference<Delta<Procedure>>();
+		update(new Update() {
+			@Override
+			public CatalogSnapshot apply(CatalogSnapshot snapshot) {
+				Delta<Procedure> delta = new Delta<Procedure>(Section.PROCEDURES, snapshot.getProcedures(),
+						snapshot.getEntryFingerprints(Section.PROCEDURES), fresh, entries, PROCEDURE_KEY);
+				result.set(delta);
+				if(delta.changes.isEmpty()){
+					return snapshot;
+				}
+				return snapshot.withProcedures(delta.merged, entries);
+			}
+		});
+		return result.get().changes;
+	}
+	/**
+	 * Apply the differences between a fresh offering list and the offerings section.
+	 * Offerings are matched by name; unchanged offerings keep their current instance.
+	 * @param offerings complete fresh list
+	 * @return {@link ChangeSet} of the applied differences
+	 */
+	public ChangeSet<Offering> syncOfferings(Collection<Offering> offerings) {
+		final List<Offering> fresh = new ArrayList<Offering>(offerings);
+		final long[] entries = CatalogSnapshot.fingerprints(fresh);
+		final AtomicReference<Delta<Offering>> result = new AtomicReference<Delta<Offering>>();
+		update(new Update() {
+			@Override
+			public CatalogSnapshot apply(CatalogSnapshot snapshot) {
+				Delta<Offering> delta = new Delta<Offering>(Section.OFFERINGS, snapshot.getOfferings(),
+						snapshot.getEntryFingerprints(Section.OFFERINGS), fresh, entries, OFFERING_KEY);
+				result.set(delta);
+				if(delta.changes.isEmpty()){
+					return snapshot;
+				}
+				return snapshot.withOfferings(delta.merged, entries);
+			}
+		});
+		return result.get().changes;
+	}
+	/**
+	 * Add a procedure or replace the one with the same name.
+	 * @param procedure {@link Procedure}
+	 */
+	public void putProcedure(Procedure procedure) {
+		this.putProcedures(Collections.singletonList(procedure));
+	}
+	/**
+	 * Add procedures or replace the ones with the same name, with a single swap.
+	 * @param procedures collection of {@link Procedure}
+	 */
+	public void putProcedures(Collection<Procedure> procedures) {
+		final List<Procedure> added = new ArrayList<Procedure>(procedures);
+		final long[] addedEntries = CatalogSnapshot.fingerprints(added);
+		update(new Update() {
+			@Override
+			public CatalogSnapshot apply(CatalogSnapshot snapshot) {
+
+				Map<String, Integer> positions = new HashMap<String, Integer>();
+				for(int i = 0; i < added.size(); i++){
+					if(added.get(i).getSystem() != null){
+						positions.put(added.get(i).getSystem(), i);
+					}
+				}
+
+				List<Procedure> current = snapshot.getProcedures();
+				long[] currentEntries = snapshot.getEntryFingerprints(Section.PROCEDURES);
+				List<Procedure> merged = new ArrayList<Procedure>(current.size() + added.size());
+				long[] entries = new long[current.size() + added.size()];
+				boolean[] used = new boolean[added.size()];
+
+				for(int i = 0; i < current.size(); i++){
+					Integer position = positions.get(current.get(i).getSystem());
+					if(position != null){
+						entries[merged.size()] = addedEntries[position];
+						merged.add(added.get(position));
+						used[position] = true;
+					}else{
+						entries[merged.size()] = currentEntries[i];
+						merged.add(current.get(i));
+					}
+				}
+				for(int i = 0; i < added.size(); i++){
+					if(!used[i]){
+						entries[merged.size()] = addedEntries[i];
+						merged.add(added.get(i));
+					}
+				}
+
+				return snapshot.withProcedures(merged, Arrays.copyOf(entries, merged.size()));
+			}
+		});
+	}
+	/**
+	 * Remove all entries.
+	 */
+	public void clear() {
+		current.set(CatalogSnapshot.EMPTY);
+	}
+
+	public Procedure getProcedure(String name) {
+		return current.get().getProcedure(name);
+	}
+
+	public Offering getOffering(String name) {
+		return current.get().getOffering(name);
+	}
+
+	public ObservedProperty getObservedProperty(String definition) {
+		return current.get().getObservedProperty(definition);
+	}
+
+	public UnitOfMeasure getUom(String name) {
+		return current.get().getUom(name);
+	}
+
+	public DataQuality getDataQuality(int code) {
+		return current.get().getDataQuality(code);
+	}
+
+	public VirtualProcedure getVirtualProcedure(String name) {
+		return current.get().getVirtualProcedure(name);
+	}
+
+	public List<Procedure> getProceduresByOffering(String offering) {
+		return current.get().getProceduresByOffering(offering);
+	}
+
+	public List<Procedure> getProceduresByObservedProperty(String definition) {
+		return current.get().getProceduresByObservedProperty(definition);
+	}
+
+	public List<Procedure> getProceduresBySensorType(String sensorType) {
+		return current.get().getProceduresBySensorType(sensorType);
+	}
+
+	// retry until no other loader swapped a snapshot in between
+	private boolean update(Update update) {
+		while(true){
+			CatalogSnapshot snapshot = current.get();
+			CatalogSnapshot updated = update.apply(snapshot);
+			if(updated == snapshot){
+				return false;
+			}
+			if(current.compareAndSet(snapshot, updated)){
+				return true;
+			}
+		}
+	}
+
+	private interface Update {
+		CatalogSnapshot apply(CatalogSnapshot snapshot);
+	}
+
+	private interface Key<T> {
+		String of(T entry);
+	}
+
+	private static final Key<Procedure> PROCEDURE_KEY = new Key<Procedure>() {
+		@Override
+		public String of(Procedure procedure) {
+			return procedure.getSystem();
+		}
+	};
+
+	private static final Key<Offering> OFFERING_KEY = new Key<Offering>() {
+		@Override
+		public String of(Offering offering) {
+			return offering.getName();
+		}
+	};
+
+	/**
+	 * Key and fingerprint comparison of a fresh list against the current section.
+	 * The merged list follows the fresh order; entries without key are taken as they are.
+	 */
+	private static class Delta<T> {
+
+		final List<T> merged;
+		final ChangeSet<T> changes;
+
+		Delta(Section section, List<T> current, long[] currentEntries, List<T> fresh, long[] freshEntries, Key<T> key) {
+
+			Map<String, Integer> positions = new HashMap<String, Integer>(current.size() * 2);
+			for(int i = 0; i < current.size(); i++){
+				String k = key.of(current.get(i));
+				if(k != null){
+					positions.put(k, i);
+				}
+			}
+
+			List<T> inserted = new ArrayList<T>();
+			List<T> updated = new ArrayList<T>();
+			List<T> deleted = new ArrayList<T>();
+			merged = new ArrayList<T>(fresh.size());
+			Set<String> keys = new HashSet<String>(fresh.size() * 2);
+
+			for(int i = 0; i < fresh.size(); i++){
+				T entry = fresh.get(i);
+				String k = key.of(entry);
+				Integer position = k != null ? positions.get(k) : null;
+				if(k != null){
+					keys.add(k);
+				}
+				if(k == null){
+					merged.add(entry);
+				}else if(position == null){
+					inserted.add(entry);
+					merged.add(entry);
+				}else if(currentEntries[position] != freshEntries[i]){
+					updated.add(entry);
+					merged.add(entry);
+				}else{
+					merged.add(current.get(position));
+				}
+			}
+
+			for(T entry : current){
+				String k = key.of(entry);
+				if(k != null && !keys.contains(k)){
+					deleted.add(entry);
+				}
+			}
+
+			changes = new ChangeSet<T>(section, inserted, updated, deleted);
+		}
+	}
+
+}
@@ -0,0 +1,432 @@
+package org.istsos.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+
+/**
+ * Immutable view of the metadata of a service with hash indexes.
+ * <p>
+ * Primary indexes: procedures and virtual procedures by name, offerings by name,
+ * observed properties by definition URN, units of measure by name and data
+ * qualities by code. Secondary indexes: procedures by offering, by observed
+ * property definition and by sensor type. Instances are never modified: the
+ * {@link Catalog} swaps in a new snapshot when a section is reloaded, rebuilding
+ * only the indexes of that section. Each section carries a fingerprint of its
+ * content, so reloads can detect that nothing changed.
+ *
+ */
+public final class CatalogSnapshot {
+
+	private static final Gson GSON = new Gson();
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	static final CatalogSnapshot EMPTY = new CatalogSnapshot(
+			Collections.<Procedure>emptyList(), Collections.<Offering>emptyList(),
+			Collections.<ObservedProperty>emptyList(), Collections.<UnitOfMeasure>emptyList(),
+			Collections.<DataQuality>emptyList(), Collections.<VirtualProcedure>emptyList());
+
+	private final List<Procedure> procedures;
+	private final List<Offering> offerings;
+	private final List<ObservedProperty> observedProperties;
+	private final List<UnitOfMeasure> uoms;
+	private final List<DataQuality> dataQualities;
+	private final List<VirtualProcedure> virtualProcedures;
+
+	private final ProcedureIndex procedureIndex;
+	private final Map<String, Offering> offeringsByName;
+	private final Map<String, ObservedProperty> observedPropertiesByUrn;
+	private final Map<String, UnitOfMeasure> uomsByName;
+	private final Map<Integer, DataQuality> dataQualitiesByCode;
+	private final Map<String, VirtualProcedure> virtualProceduresByName;
+
+	// content fingerprint of each section and of each of its entries, indexed by Catalog.Section ordinal
+	private final long[] fingerprints;
+	private final long[][] entryFingerprints;
+
+	private CatalogSnapshot(List<Procedure> procedures, List<Offering> offerings,
+			List<ObservedProperty> observedProperties, List<UnitOfMeasure> uoms,
+			List<DataQuality> dataQualities, List<VirtualProcedure> virtualProcedures) {
+		this(procedures, new ProcedureIndex(procedures),
+				offerings, indexOfferings(offerings),
+				observedProperties, indexObservedProperties(observedProperties),
+				uoms, indexUoms(uoms),
+				dataQualities, indexDataQualities(dataQualities),
+				virtualProcedures, indexVirtualProcedures(virtualProcedures),
+				emptyFingerprints(), new long[Catalog.Section.values().length][0]);
+	}
+
+	private CatalogSnapshot(List<Procedure> procedures, ProcedureIndex procedureIndex,
+			List<Offering> offerings, Map<String, Offering> offeringsByName,
+			List<ObservedProperty> observedProperties, Map<String, ObservedProperty> observedPropertiesByUrn,
+			List<UnitOfMeasure> uoms, Map<String, UnitOfMeasure> uomsByName,
+			List<DataQuality> dataQualities, Map<Integer, DataQuality> dataQualitiesByCode,
+			List<VirtualProcedure> virtualProcedures, Map<String, VirtualProcedure> virtualProceduresByName,
+			long[] fingerprints, long[][] entryFingerprints) {
+		this.procedures = procedures;
+		this.procedureIndex = procedureIndex;
+		this.offerings = offerings;
+		this.offeringsByName = offeringsByName;
+		this.observedProperties = observedProperties;
+		this.observedPropertiesByUrn = observedPropertiesByUrn;
+		this.uoms = uoms;
+		this.uomsByName = uomsByName;
+		this.dataQualities = dataQualities;
+		this.dataQualitiesByCode = dataQualitiesByCode;
+		this.virtualProcedures = virtualProcedures;
+		this.virtualProceduresByName = virtualProceduresByName;
+		this.fingerprints = fingerprints;
+		this.entryFingerprints = entryFingerprints;
+	}
+
+	CatalogSnapshot withProcedures(Collection<Procedure> list, long[] entries) {
+		List<Procedure> copy = freeze(list);
+		return new CatalogSnapshot(copy, new ProcedureIndex(copy),
+				offerings, offeringsByName, observedProperties, observedPropertiesByUrn,
+				uoms, uomsByName, dataQualities, dataQualitiesByCode,
+				virtualProcedures, virtualProceduresByName,
+				fingerprints(Catalog.Section.PROCEDURES, entries), entryFingerprints(Catalog.Section.PROCEDURES, entries));
+	}
+
+	CatalogSnapshot withOfferings(Collection<Offering> list, long[] entries) {
+		List<Offering> copy = freeze(list);
+		return new CatalogSnapshot(procedures, procedureIndex,
+				copy, indexOfferings(copy), observedProperties, observedPropertiesByUrn,
+				uoms, uomsByName, dataQualities, dataQualitiesByCode,
+				virtualProcedures, virtualProceduresByName,
+				fingerprints(Catalog.Section.OFFERINGS, entries), entryFingerprints(Catalog.Section.OFFERINGS, entries));
+	}
+
+	CatalogSnapshot withObservedProperties(Collection<ObservedProperty> list, long[] entries) {
+		List<ObservedProperty> copy = freeze(list);
+		return new CatalogSnapshot(procedures, procedureIndex,
+				offerings, offeringsByName, copy, indexObservedProperties(copy),
+				uoms, uomsByName, dataQualities, dataQualitiesByCode,
+				virtualProcedures, virtualProceduresByName,
+				fingerprints(Catalog.Section.OBSERVED_PROPERTIES, entries), entryFingerprints(Catalog.Section.OBSERVED_PROPERTIES, entries));
+	}
+
+	CatalogSnapshot withUoms(Collection<UnitOfMeasure> list, long[] entries) {
+		List<UnitOfMeasure> copy = freeze(list);
+		return new CatalogSnapshot(procedures, procedureIndex,
+				offerings, offeringsByName, observedProperties, observedPropertiesByUrn,
+				copy, indexUoms(copy), dataQualities, dataQualitiesByCode,
+				virtualProcedures, virtualProceduresByName,
+				fingerprints(Catalog.Section.UOMS, entries), entryFingerprints(Catalog.Section.UOMS, entries));
+	}
+
+	CatalogSnapshot withDataQualities(Collection<DataQuality> list, long[] entries) {
+		List<DataQuality> copy = freeze(list);
+		return new CatalogSnapshot(procedures, procedureIndex,
+				offerings, offeringsByName, observedProperties, observedPropertiesByUrn,
+				uoms, uomsByName, copy, indexDataQualities(copy),
+				virtualProcedures, virtualProceduresByName,
+				fingerprints(Catalog.Section.DATA_QUALITIES, entries), entryFingerprints(Catalog.Section.DATA_QUALITIES, entries));
+	}
+
+	CatalogSnapshot withVirtualProcedures(Collection<VirtualProcedure> list, long[] entries) {
+		List<VirtualProcedure> copy = freeze(list);
+		return new CatalogSnapshot(procedures, procedureIndex,
+				offerings, offeringsByName, observedProperties, observedPropertiesByUrn,
+				uoms, uomsByName, dataQualities, dataQualitiesByCode,
+				copy, indexVirtualProcedures(copy),
+				fingerprints(Catalog.Section.VIRTUAL_PROCEDURES, entries), entryFingerprints(Catalog.Section.VIRTUAL_PROCEDURES, entries));
+	}
+
+	/**
+	 * Retrieve the content fingerprint of a section, equal for sections with equal JSON content.
+	 * @param section {@link Catalog.Section}
+	 * @return fingerprint as long
+	 */
+	public long getFingerprint(Catalog.Section section) {
+		return fingerprints[section.ordinal()];
+	}
+	// fingerprints of the entries of a section in list order, not to be modified
+	long[] getEntryFingerprints(Catalog.Section section) {
+		return entryFingerprints[section.ordinal()];
+	}
+	/**
+	 * Retrieve the entries of a section.
+	 * @param section {@link Catalog.Section}
+	 * @return unmodifiable list
+	 */
+	public List<?> getSection(Catalog.Section section) {
+		switch(section){
+		case PROCEDURES:
+			return procedures;
+		case OFFERINGS:
+			return offerings;
+		case OBSERVED_PROPERTIES:
+			return observedProperties;
+		case UOMS:
+			return uoms;
+		case DATA_QUALITIES:
+			return dataQualities;
+		default:
+			return virtualProcedures;
+		}
+	}
+
+	public List<Procedure> getProcedures() {
+		return procedures;
+	}
+
+	public List<Offering> getOfferings() {
+		return offerings;
+	}
+
+	public List<ObservedProperty> getObservedProperties() {
+		return observedProperties;
+	}
+
+	public List<UnitOfMeasure> getUnitsOfMeasure() {
+		return uoms;
+	}
+
+	public List<DataQuality> getDataQualities() {
+		return dataQualities;
+	}
+
+	public List<VirtualProcedure> getVirtualProcedures() {
+		return virtualProcedures;
+	}
+
+	public Procedure getProcedure(String name) {
+		return procedureIndex.byName.get(name);
+	}
+
+	public Offering getOffering(String name) {
+		return offeringsByName.get(name);
+	}
+
+	public ObservedProperty getObservedProperty(String definition) {
+		return observedPropertiesByUrn.get(definition);
+	}
+
+	public UnitOfMeasure getUom(String name) {
+		return uomsByName.get(name);
+	}
+
+	public DataQuality getDataQuality(int code) {
+		return dataQualitiesByCode.get(code);
+	}
+
+	public VirtualProcedure getVirtualProcedure(String name) {
+		return virtualProceduresByName.get(name);
+	}
+	/**
+	 * Retrieve the procedures member of an offering.
+	 * @param offering offering name
+	 * @return list of {@link Procedure}, empty if none
+	 */
+	public List<Procedure> getProceduresByOffering(String offering) {
+		return lookup(procedureIndex.byOffering, offering);
+	}
+	/**
+	 * Retrieve the procedures observing a property.
+	 * @param definition observed property definition URN
+	 * @return list of {@link Procedure}, empty if none
+	 */
+	public List<Procedure> getProceduresByObservedProperty(String definition) {
+		return lookup(procedureIndex.byObservedProperty, definition);
+	}
+	/**
+	 * Retrieve the procedures of a sensor type, e.g. insitu-fixed-point.
+	 * @param sensorType as String
+	 * @return list of {@link Procedure}, empty if none
+	 */
+	public List<Procedure> getProceduresBySensorType(String sensorType) {
+		return lookup(procedureIndex.bySensorType, sensorType);
+	}
+
+	private static List<Procedure> lookup(Map<String, List<Procedure>> index, String key) {
+		List<Procedure> result = index.get(key);
+		return result != null ? result : Collections.<Procedure>emptyList();
+	}
+
+	/**
+	 * Compute a 64 bit FNV-1a hash of the JSON form of an entry.
+	 * @param entry catalog entry
+	 * @return fingerprint as long
+	 */
+	static long fingerprint(Object entry) {
+		String json = GSON.toJson(entry);
+		long hash = FNV_OFFSET;
+		for(int i = 0; i < json.length(); i++){
+			hash ^= json.charAt(i);
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+	/**
+	 * Compute the fingerprints of the entries of a list.
+	 * @param list catalog entries
+	 * @return fingerprints in list order
+	 */
+	static long[] fingerprints(Collection<?> list) {
+		long[] entries = new long[list.size()];
+		int i = 0;
+		for(Object entry : list){
+			entries[i++] = fingerprint(entry);
+		}
+		return entries;
+	}
+	/**
+	 * Combine entry fingerprints into the fingerprint of a section.
+	 * @param entries fingerprints in list order
+	 * @return fingerprint as long
+	 */
+	static long combine(long[] entries) {
+		long hash = FNV_OFFSET;
+		for(long entry : entries){
+			for(int shift = 0; shift < 64; shift += 8){
+				hash ^= (entry >>> shift) & 0xff;
+				hash *= FNV_PRIME;
+			}
+		}
+		return hash;
+	}
+
+	private long[] fingerprints(Catalog.Section section, long[] entries) {
+		long[] copy = fingerprints.clone();
+		copy[section.ordinal()] = combine(entries);
+		return copy;
+	}
+
+	private long[][] entryFingerprints(Catalog.Section section, long[] entries) {
+		long[][] copy = entryFingerprints.clone();
+		copy[section.ordinal()] = entries;
+		return copy;
+	}
+
+	private static long[] emptyFingerprints() {
+		long[] empty = new long[Catalog.Section.values().length];
+		Arrays.fill(empty, combine(new long[0]));
+		return empty;
+	}
+
+	private static <T> List<T> freeze(Collection<? extends T> list) {
+		return Collections.unmodifiableList(new ArrayList<T>(list));
+	}
+
+	private static Map<String, Offering> indexOfferings(List<Offering> list) {
+		Map<String, Offering> map = new HashMap<String, Offering>(list.size() * 2);
+		for(Offering offering : list){
+			if(offering.getName() != null){
+				map.put(offering.getName(), offering);
+			}
+		}
+		return map;
+	}
+
+	private static Map<String, ObservedProperty> indexObservedProperties(List<ObservedProperty> list) {
+		Map<String, ObservedProperty> map = new HashMap<String, ObservedProperty>(list.size() * 2);
+		for(ObservedProperty property : list){
+			if(property.getDefinition() != null){
+				map.put(property.getDefinition(), property);
+			}
+		}
+		return map;
+	}
+
+	private static Map<String, UnitOfMeasure> indexUoms(List<UnitOfMeasure> list) {
+		Map<String, UnitOfMeasure> map = new HashMap<String, UnitOfMeasure>(list.size() * 2);
+		for(UnitOfMeasure uom : list){
+			if(uom.getUnitName() != null){
+				map.put(uom.getUnitName(), uom);
+			}
+		}
+		return map;
+	}
+
+	private static Map<Integer, DataQuality> indexDataQualities(List<DataQuality> list) {
+		Map<Integer, DataQuality> map = new HashMap<Integer, DataQuality>(list.size() * 2);
+		for(DataQuality dataQuality : list){
+			map.put(dataQuality.getDataQualityCode(), dataQuality);
+		}
+		return map;
+	}
+
+	private static Map<String, VirtualProcedure> indexVirtualProcedures(List<VirtualProcedure> list) {
+		Map<String, VirtualProcedure> map = new HashMap<String, VirtualProcedure>(list.size() * 2);
+		for(VirtualProcedure procedure : list){
+			if(procedure.getSystem() != null){
+				map.put(procedure.getSystem(), procedure);
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Primary and secondary indexes of the procedures section.
+	 */
+	private static class ProcedureIndex {
+
+		final Map<String, Procedure> byName;
+		final Map<String, List<Procedure>> byOffering = new HashMap<String, List<Procedure>>();
+		final Map<String, List<Procedure>> byObservedProperty = new HashMap<String, List<Procedure>>();
+		final Map<String, List<Procedure>> bySensorType = new HashMap<String, List<Procedure>>();
+
+		ProcedureIndex(List<Procedure> procedures) {
+
+			byName = new HashMap<String, Procedure>(procedures.size() * 2);
+
+			for(Procedure procedure : procedures){
+
+				if(procedure.getSystem() != null){
+					byName.put(procedure.getSystem(), procedure);
+				}
+
+				if(procedure.getOfferings() != null){
+					for(String offering : procedure.getOfferings()){
+						add(byOffering, offering, procedure);
+					}
+				}
+
+				// getlist returns {name, def} pairs, describeSensor returns outputs
+				if(procedure.getObservedproperties() != null){
+					for(Map<String, String> property : procedure.getObservedproperties()){
+						add(byObservedProperty, property.get("def"), procedure);
+					}
+				}else if(procedure.getOutputs() != null){
+					for(ObservedProperty output : procedure.getOutputs()){
+						add(byObservedProperty, output.getDefinition(), procedure);
+					}
+				}
+
+				add(bySensorType, procedure.getSensorType(), procedure);
+			}
+
+			freezeValues(byOffering);
+			freezeValues(byObservedProperty);
+			freezeValues(bySensorType);
+		}
+
+		private static void add(Map<String, List<Procedure>> index, String key, Procedure procedure) {
+			if(key == null){
+				return;
+			}
+			List<Procedure> list = index.get(key);
+			if(list == null){
+				list = new ArrayList<Procedure>();
+				index.put(key, list);
+			}
+			list.add(procedure);
+		}
+
+		private static void freezeValues(Map<String, List<Procedure>> index) {
+			for(Map.Entry<String, List<Procedure>> entry : index.entrySet()){
+				entry.setValue(Collections.unmodifiableList(entry.getValue()));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+package org.istsos.client;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Differences applied to a catalog section by a sync: entries inserted,
+ * updated (same key, different content) and deleted.
+ *
+ * @param <T> type of the section entries
+ */
+public class ChangeSet<T> {
+
+	private final Catalog.Section section;
+	private final List<T> inserted;
+	private final List<T> updated;
+	private final List<T> deleted;
+
+	ChangeSet(Catalog.Section section, List<T> inserted, List<T> updated, List<T> deleted) {
+		this.section = section;
+		this.inserted = Collections.unmodifiableList(inserted);
+		this.updated = Collections.unmodifiableList(updated);
+		this.deleted = Collections.unmodifiableList(deleted);
+	}
+
+	public Catalog.Section getSection() {
+		return section;
+	}
+
+	public List<T> getInserted() {
+		return inserted;
+	}
+	/**
+	 *
+	 * @return new instances of the updated entries
+	 */
+	public List<T> getUpdated() {
+		return updated;
+	}
+	/**
+	 *
+	 * @return instances removed from the catalog
+	 */
+	public List<T> getDeleted() {
+		return deleted;
+	}
+
+	public boolean isEmpty() {
+		return inserted.isEmpty() && updated.isEmpty() && deleted.isEmpty();
+	}
+
+	public int size() {
+		return inserted.size() + updated.size() + deleted.size();
+	}
+
+	@Override
+	public String toString() {
+		return section + " +" + inserted.size() + " ~" + updated.size() + " -" + deleted.size();
+	}
+
+}
@@ -8,6 +8,9 @@ public enum Event {
 	
 	// Fired at every request made
     REQUEST,
+    
+    // Fired when a request fails, carries a RequestException
+    REQUEST_FAILED,
 	
 	// Fired when services are load 
     SERVICE_LOADED,
@@ -54,6 +57,9 @@ public enum Event {
     //fired when a single procedure is loaded
     PROCEDURE_LOADED,
     
+    //fired when a bulk describeSensor completed, carries the described procedures
+    PROCEDURES_DESCRIBED,
+    
     //fired when procedure is registered to service
     PROCEDURE_REGISTERED,
     
@@ -171,4 +177,25 @@ public enum Event {
     //fired when observation is inserted
     OBSERVATION_INSERTED,
     
+    //fired when observation rows fail validation before insert
+    OBSERVATION_REJECTED,
+    
+    //fired when an observation pushed by the MQTT broker has been stored
+    OBSERVATION_RECEIVED,
+    
+    //fired when all requests of a federated query answered, carries a FederatedResult
+    FEDERATED_OBSERVATIONS_LOADED,
+    
+    //fired when metadata restored from a snapshot has been revalidated against istSOS
+    SNAPSHOT_REVALIDATED,
+    
+    //fired when a sync applied differences to a catalog section, carries a ChangeSet
+    CATALOG_CHANGED,
+    
+    //fired when the circuit breaker of a monitored server changes state, carries its health
+    HEALTH_CHANGED,
+    
+    //fired when a bootstrap of servers and service catalogs completed, carries its report
+    BOOTSTRAP_COMPLETED,
+    
 }
\ No newline at end of file
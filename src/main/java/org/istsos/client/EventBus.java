@@ -0,0 +1,368 @@
+package org.istsos.client;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.netty.util.concurrent.FastThreadLocalThread;
+
+/**
+ * Publish/subscribe of istSOS events with typed payloads and asynchronous dispatch.
+ * <p>
+ * Subscribers register for one {@link Event} with the payload type they expect
+ * and receive the payload itself; payloads of another type are not delivered.
+ * Every subscriber has its own bounded queue drained on its executor, one event
+ * at a time and in publication order, so a slow subscriber never delays the
+ * publisher nor the other subscribers. When a queue is full the
+ * {@link OverflowPolicy} decides whether the event is dropped or the publisher
+ * waits. Exceptions thrown by handlers are counted and passed to the exception
+ * handler. Results of {@link Service} requests are published after their
+ * callback ran, even if it threw. High-rate events can be attached to an
+ * {@link EventRing} delivering them without locks nor per event allocation.
+ *
+ */
+public class EventBus {
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+	/**
+	 * What to do with an event when the queue of a subscriber is full.
+	 */
+	public enum OverflowPolicy {
+		// discard the new event
+		DROP,
+		// discard the oldest queued event to make room
+		DROP_OLDEST,
+		// wait for room; events published on the HTTP client IO threads are
+		// dropped instead, waiting there would stall every request
+		BLOCK
+	}
+
+	private static final ThreadFactory daemonThreads = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "istsos-event-bus");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private final Map<Event, List<Subscription<?>>> subscriptions =
+			Collections.synchronizedMap(new EnumMap<Event, List<Subscription<?>>>(Event.class));
+
+	// ring buffers receiving events, indexed by ordinal, copied on write
+	private volatile EventRing[] rings = new EventRing[Event.values().length];
+
+	private volatile Executor defaultExecutor;
+	private volatile Thread.UncaughtExceptionHandler exceptionHandler;
+
+	/**
+	 * Initialize a bus dispatching on a shared cached pool of daemon threads.
+	 */
+	public EventBus() {
+		this(null);
+	}
+	/**
+	 * Initialize a bus.
+	 * @param defaultExecutor executor of subscribers registered without one, null for a cached daemon pool
+	 */
+	public EventBus(Executor defaultExecutor) {
+		this.defaultExecutor = defaultExecutor;
+	}
+	/**
+	 * Subscribe with the default executor, a queue of {@link #DEFAULT_QUEUE_CAPACITY}
+	 * events and {@link OverflowPolicy#DROP}.
+	 * @param event {@link Event}
+	 * @param type payload type, e.g. Procedure.class
+	 * @param handler {@link EventHandler}
+	 * @return {@link Subscription}
+	 */
+	public <T> Subscription<T> subscribe(Event event, Class<T> type, EventHandler<? super T> handler) {
+		return subscribe(event, type, handler, null, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP);
+	}
+	/**
+	 * Subscribe to an event.
+	 * @param event {@link Event}
+	 * @param type payload type, Object.class for any payload
+	 * @param handler {@link EventHandler}
+	 * @param executor executor running the handler, null for the default executor
+	 * @param queueCapacity maximum events waiting for the handler
+	 * @param policy {@link OverflowPolicy} when the queue is full
+	 * @return {@link Subscription}
+	 */
+	public <T> Subscription<T> subscribe(Event event, Class<T> type, EventHandler<? super T> handler,
+			Executor executor, int queueCapacity, OverflowPolicy policy) {
+
+		Subscription<T> subscription = new Subscription<T>(this, event, type, handler,
+				executor != null ? executor : getDefaultExecutor(), queueCapacity, policy);
+
+		synchronized (subscriptions) {
+			List<Subscription<?>> list = subscriptions.get(event);
+			if(list == null){
+				list = new CopyOnWriteArrayList<Subscription<?>>();
+				subscriptions.put(event, list);
+			}
+			list.add(subscription);
+		}
+		return subscription;
+	}
+	/**
+	 * Publish an event to its subscribers.
+	 * @param eventObject {@link EventObject}
+	 */
+	public void publish(EventObject eventObject) {
+		publish(eventObject.getEvent(), eventObject.getObject());
+	}
+	/**
+	 * Publish an event; no {@link EventObject} is allocated when the event
+	 * only goes to an attached {@link EventRing}.
+	 * @param event {@link Event}
+	 * @param payload as Object
+	 */
+	public void publish(Event event, Object payload) {
+		EventRing ring = rings[event.ordinal()];
+		if(ring != null){
+			ring.publish(event, payload);
+		}
+		List<Subscription<?>> list = subscriptions.get(event);
+		if(list == null){
+			return;
+		}
+		for(Subscription<?> subscription : list){
+			subscription.offer(payload);
+		}
+	}
+	/**
+	 * Deliver events through a ring buffer as well, for high-rate events such as
+	 * {@link Event#OBSERVATION_LOADED}. An event goes to one ring at most.
+	 * @param ring {@link EventRing}
+	 * @param events events to deliver through the ring
+	 */
+	public synchronized void attach(EventRing ring, Event... events) {
+		EventRing[] updated = rings.clone();
+		for(Event event : events){
+			updated[event.ordinal()] = ring;
+		}
+		rings = updated;
+	}
+	/**
+	 * Stop delivering events through their ring buffer.
+	 * @param events as {@link Event}
+	 */
+	public synchronized void detach(Event... events) {
+		EventRing[] updated = rings.clone();
+		for(Event event : events){
+			updated[event.ordinal()] = null;
+		}
+		rings = updated;
+	}
+	/**
+	 *
+	 * @param event {@link Event}
+	 * @return number of subscriptions to the event
+	 */
+	public int getSubscriberCount(Event event) {
+		List<Subscription<?>> list = subscriptions.get(event);
+		return list != null ? list.size() : 0;
+	}
+	/**
+	 * Replace the executor of subscribers registered from now on without one.
+	 * @param defaultExecutor {@link Executor}
+	 */
+	public void setDefaultExecutor(Executor defaultExecutor) {
+		this.defaultExecutor = defaultExecutor;
+	}
+
+	/**
+	 * Set the handler of exceptions thrown by subscribers.
+	 * @param exceptionHandler called on the subscriber thread, null for the
+	 * uncaught exception handler of that thread
+	 */
+	public void setExceptionHandler(Thread.UncaughtExceptionHandler exceptionHandler) {
+		this.exceptionHandler = exceptionHandler;
+	}
+
+	private void failed(RuntimeException e) {
+		Thread thread = Thread.currentThread();
+		Thread.UncaughtExceptionHandler handler = this.exceptionHandler;
+		if(handler == null){
+			handler = thread.getUncaughtExceptionHandler();
+		}
+		try {
+			handler.uncaughtException(thread, e);
+		} catch (RuntimeException ignored) {
+			// keep draining the queue
+		}
+	}
+
+	private Executor getDefaultExecutor() {
+		Executor executor = this.defaultExecutor;
+		if(executor == null){
+			synchronized (this) {
+				if(this.defaultExecutor == null){
+					ExecutorService pool = Executors.newCachedThreadPool(daemonThreads);
+					this.defaultExecutor = pool;
+				}
+				executor = this.defaultExecutor;
+			}
+		}
+		return executor;
+	}
+
+	private void remove(Subscription<?> subscription) {
+		List<Subscription<?>> list = subscriptions.get(subscription.event);
+		if(list != null){
+			list.remove(subscription);
+		}
+	}
+
+	/**
+	 * Registration of a handler, with its queue and delivery counters.
+	 *
+	 * @param <T> type of the event payload
+	 */
+	public static class Subscription<T> {
+
+		private final EventBus bus;
+		private final Event event;
+		private final Class<T> type;
+		private final EventHandler<? super T> handler;
+		private final Executor executor;
+		private final OverflowPolicy policy;
+
+		private final ArrayBlockingQueue<T> queue;
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+		private volatile boolean active = true;
+
+		private final AtomicLong delivered = new AtomicLong();
+		private final AtomicLong dropped = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+
+		private final Runnable drain = new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		};
+
+		Subscription(EventBus bus, Event event, Class<T> type, EventHandler<? super T> handler,
+				Executor executor, int queueCapacity, OverflowPolicy policy) {
+			this.bus = bus;
+			this.event = event;
+			this.type = type;
+			this.handler = handler;
+			this.executor = executor;
+			this.policy = policy;
+			this.queue = new ArrayBlockingQueue<T>(Math.max(1, queueCapacity));
+		}
+
+		void offer(Object object) {
+
+			if(!active || !type.isInstance(object)){
+				return;
+			}
+			T payload = type.cast(object);
+
+			OverflowPolicy policy = this.policy;
+			if(policy == OverflowPolicy.BLOCK && Thread.currentThread() instanceof FastThreadLocalThread){
+				// netty event loop, e.g. an HTTP response callback
+				policy = OverflowPolicy.DROP;
+			}
+
+			switch (policy) {
+			case BLOCK:
+				try {
+					queue.put(payload);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					dropped.incrementAndGet();
+					return;
+				}
+				break;
+			case DROP_OLDEST:
+				while(!queue.offer(payload)){
+					if(queue.poll() != null){
+						dropped.incrementAndGet();
+					}
+				}
+				break;
+			default:
+				if(!queue.offer(payload)){
+					dropped.incrementAndGet();
+					return;
+				}
+				break;
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			if(scheduled.compareAndSet(false, true)){
+				executor.execute(drain);
+			}
+		}
+
+		private void drain() {
+			T payload;
+			while(active && (payload = queue.poll()) != null){
+				try {
+					handler.onEvent(event, payload);
+					delivered.incrementAndGet();
+				} catch (RuntimeException e) {
+					failed.incrementAndGet();
+					bus.failed(e);
+				}
+			}
+			scheduled.set(false);
+			// an event may have been queued after the last poll
+			if(active && !queue.isEmpty()){
+				schedule();
+			}
+		}
+		/**
+		 * Stop delivering events; events still queued are discarded.
+		 */
+		public void unsubscribe() {
+			active = false;
+			bus.remove(this);
+			queue.clear();
+		}
+
+		public Event getEvent() {
+			return event;
+		}
+
+		public boolean isActive() {
+			return active;
+		}
+
+		public int getQueued() {
+			return queue.size();
+		}
+
+		public long getDelivered() {
+			return delivered.get();
+		}
+
+		public long getDropped() {
+			return dropped.get();
+		}
+		/**
+		 *
+		 * @return number of events whose handler threw an exception
+		 */
+		public long getFailed() {
+			return failed.get();
+		}
+	}
+
+}
@@ -0,0 +1,10 @@
+package org.istsos.client;
+
+/**
+ * Typed subscriber of the {@link EventBus}.
+ *
+ * @param <T> type of the event payload
+ */
+public interface EventHandler<T> {
+	void onEvent(Event event, T payload);
+}
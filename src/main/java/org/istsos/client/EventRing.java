@@ -0,0 +1,330 @@
+package org.istsos.client;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import io.netty.util.concurrent.FastThreadLocalThread;
+
+/**
+ * Preallocated ring buffer broadcasting high-rate events to consumer threads
+ * without locks and without allocating per event.
+ * <p>
+ * Slots are created once and reused: publishing writes the event and payload
+ * into the next slot and marks it available with an ordered store. Every
+ * consumer sees every event in publication order on its own thread, and
+ * processes everything available in one batch before advancing its sequence
+ * once. A slot is reused only after the slowest consumer passed it; until
+ * then publishers wait, or give up with {@link EventBus.OverflowPolicy#DROP}.
+ * Publishers on the HTTP client IO threads never wait: when the ring is full
+ * their event is dropped, as waiting there would stall every request.
+ * Slots are claimed with a single compare-and-set, which never contends with
+ * one producer and keeps concurrent producers, such as HTTP callback threads,
+ * safe. Exceptions thrown by handlers are counted and passed to the exception
+ * handler.
+ *
+ */
+public class EventRing {
+
+	/**
+	 * Consumer of the ring, called on the consumer thread.
+	 */
+	public interface Handler {
+		/**
+		 * @param event {@link Event}
+		 * @param payload as Object, do not keep references to mutable payloads
+		 * @param sequence position of the event in the ring
+		 * @param endOfBatch true for the last event currently available
+		 */
+		void onEvent(Event event, Object payload, long sequence, boolean endOfBatch);
+	}
+
+	// spins and yields before parking an idle consumer or a waiting producer
+	private static final int SPINS = 100;
+	private static final int YIELDS = 100;
+	private static final long PARK_NANOS = 50000;
+
+	private static final ThreadFactory daemonThreads = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "istsos-event-ring");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private final int mask;
+	private final Event[] events;
+	private final Object[] payloads;
+	// sequence published in each slot
+	private final AtomicLongArray available;
+	private final EventBus.OverflowPolicy policy;
+
+	private final PaddedSequence claimed = new PaddedSequence(-1);
+	private volatile Consumer[] consumers = new Consumer[0];
+
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile Thread.UncaughtExceptionHandler exceptionHandler;
+
+	/**
+	 * Initialize a ring.
+	 * @param capacity number of slots, rounded up to a power of two
+	 * @param policy {@link EventBus.OverflowPolicy#DROP} to drop events when full,
+	 * {@link EventBus.OverflowPolicy#BLOCK} to wait
+	 * @throws IllegalArgumentException for {@link EventBus.OverflowPolicy#DROP_OLDEST},
+	 * slots may still be read by slower consumers
+	 */
+	public EventRing(int capacity, EventBus.OverflowPolicy policy) {
+		if(policy == EventBus.OverflowPolicy.DROP_OLDEST){
+			throw new IllegalArgumentException("DROP_OLDEST is not supported by EventRing");
+		}
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.mask = size - 1;
+		this.events = new Event[size];
+		this.payloads = new Object[size];
+		this.available = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++){
+			available.set(i, -1);
+		}
+		this.policy = policy;
+	}
+
+	public int getCapacity() {
+		return mask + 1;
+	}
+	/**
+	 * Publish an event to all consumers.
+	 * @param event {@link Event}
+	 * @param payload as Object
+	 * @return false if the event was dropped because the ring is full
+	 */
+	public boolean publish(Event event, Object payload) {
+
+		long sequence;
+		int idle = 0;
+		// netty event loop, e.g. an HTTP response callback
+		boolean drop = policy == EventBus.OverflowPolicy.DROP
+				|| Thread.currentThread() instanceof FastThreadLocalThread;
+		while(true){
+			long current = claimed.get();
+			sequence = current + 1;
+			if(sequence - getCapacity() > minimumSequence()){
+				if(drop){
+					dropped.incrementAndGet();
+					return false;
+				}
+				idle = idle(idle);
+				continue;
+			}
+			if(claimed.compareAndSet(current, sequence)){
+				break;
+			}
+		}
+
+		int index = (int) sequence & mask;
+		events[index] = event;
+		payloads[index] = payload;
+		available.lazySet(index, sequence);
+		return true;
+	}
+	/**
+	 * Start a consumer thread receiving the events published from now on.
+	 * @param handler {@link Handler}
+	 * @return {@link Consumer}
+	 */
+	public Consumer addConsumer(Handler handler) {
+		return addConsumer(handler, daemonThreads);
+	}
+	/**
+	 * Start a consumer thread receiving the events published from now on.
+	 * @param handler {@link Handler}
+	 * @param threadFactory factory of the consumer thread
+	 * @return {@link Consumer}
+	 */
+	public Consumer addConsumer(Handler handler, ThreadFactory threadFactory) {
+		Consumer consumer;
+		synchronized (this) {
+			consumer = new Consumer(handler, claimed.get());
+			Consumer[] current = consumers;
+			Consumer[] updated = new Consumer[current.length + 1];
+			System.arraycopy(current, 0, updated, 0, current.length);
+			updated[current.length] = consumer;
+			consumers = updated;
+		}
+		threadFactory.newThread(consumer).start();
+		return consumer;
+	}
+	/**
+	 * Stop all consumers.
+	 */
+	public void close() {
+		for(Consumer consumer : consumers){
+			consumer.stop();
+		}
+	}
+
+	/**
+	 * Set the handler of exceptions thrown by consumers.
+	 * @param exceptionHandler called on the consumer thread, null for the
+	 * uncaught exception handler of that thread
+	 */
+	public void setExceptionHandler(Thread.UncaughtExceptionHandler exceptionHandler) {
+		this.exceptionHandler = exceptionHandler;
+	}
+
+	public long getPublished() {
+		return claimed.get() + 1;
+	}
+
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	private synchronized void remove(Consumer consumer) {
+		Consumer[] current = consumers;
+		int index = -1;
+		for(int i = 0; i < current.length; i++){
+			if(current[i] == consumer){
+				index = i;
+			}
+		}
+		if(index < 0){
+			return;
+		}
+		Consumer[] updated = new Consumer[current.length - 1];
+		System.arraycopy(current, 0, updated, 0, index);
+		System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+		consumers = updated;
+	}
+
+	private long minimumSequence() {
+		Consumer[] current = consumers;
+		long minimum = Long.MAX_VALUE;
+		for(Consumer consumer : current){
+			minimum = Math.min(minimum, consumer.sequence.get());
+		}
+		// without consumers nothing holds the slots back
+		return minimum == Long.MAX_VALUE ? claimed.get() : minimum;
+	}
+
+	private void failed(RuntimeException e) {
+		Thread thread = Thread.currentThread();
+		Thread.UncaughtExceptionHandler handler = this.exceptionHandler;
+		if(handler == null){
+			handler = thread.getUncaughtExceptionHandler();
+		}
+		try {
+			handler.uncaughtException(thread, e);
+		} catch (RuntimeException ignored) {
+			// keep consuming
+		}
+	}
+
+	private static int idle(int idle) {
+		if(idle < SPINS){
+			// busy spin
+		}else if(idle < SPINS + YIELDS){
+			Thread.yield();
+		}else{
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+		return idle + 1;
+	}
+
+	/**
+	 * Consumer thread of the ring with its own sequence.
+	 */
+	public class Consumer implements Runnable {
+
+		private final Handler handler;
+		// last sequence processed
+		private final PaddedSequence sequence;
+		private volatile boolean running = true;
+
+		private long batches = 0;
+		private final AtomicLong failed = new AtomicLong();
+
+		Consumer(Handler handler, long start) {
+			this.handler = handler;
+			this.sequence = new PaddedSequence(start);
+		}
+
+		@Override
+		public void run() {
+			long next = sequence.get() + 1;
+			int idle = 0;
+			while(running){
+				if(available.get((int) next & mask) != next){
+					idle = idle(idle);
+					continue;
+				}
+				idle = 0;
+
+				long end = next;
+				while(end - next < mask && available.get((int) (end + 1) & mask) == end + 1){
+					end++;
+				}
+
+				for(long s = next; s <= end; s++){
+					int index = (int) s & mask;
+					try {
+						handler.onEvent(events[index], payloads[index], s, s == end);
+					} catch (RuntimeException e) {
+						failed.incrementAndGet();
+						failed(e);
+					}
+				}
+				batches++;
+				sequence.lazySet(end);
+				next = end + 1;
+			}
+		}
+		/**
+		 * Stop the consumer; it no longer holds back publishers.
+		 */
+		public void stop() {
+			running = false;
+			remove(this);
+		}
+		/**
+		 *
+		 * @return last sequence processed
+		 */
+		public long getSequence() {
+			return sequence.get();
+		}
+		/**
+		 *
+		 * @return number of batches processed, read from another thread it is approximate
+		 */
+		public long getBatches() {
+			return batches;
+		}
+
+		/**
+		 *
+		 * @return number of events whose handler threw an exception
+		 */
+		public long getFailed() {
+			return failed.get();
+		}
+	}
+
+	/**
+	 * Sequence padded against false sharing with neighbouring fields.
+	 */
+	@SuppressWarnings("unused")
+	private static class PaddedSequence extends AtomicLong {
+
+		private static final long serialVersionUID = 1L;
+
+		private long p1, p2, p3, p4, p5, p6, p7;
+
+		PaddedSequence(long initial) {
+			super(initial);
+		}
+	}
+
+}
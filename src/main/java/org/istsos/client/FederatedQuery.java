@@ -0,0 +1,261 @@
+package org.istsos.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.istsos.client.observation.SeriesKey;
+import org.istsos.client.observation.SeriesSnapshot;
+
+/**
+ * Observation query spanning the services of several servers.
+ * <p>
+ * Each (procedure, observed property) pair is resolved to the first service
+ * whose catalog holds the procedure observing the property, so catalogs must
+ * be loaded first. The getObservation requests of all pairs are then sent in
+ * parallel, bounded by the maximum concurrency, and their rows are collected
+ * into a {@link FederatedResult} iterating all series merged by time. Pairs
+ * no catalog resolves, and requests that failed, are reported in the result
+ * instead of failing the whole query.
+ *
+ */
+public class FederatedQuery {
+
+	public static final int DEFAULT_MAX_CONCURRENCY = 16;
+
+	// offering holding every procedure of an istSOS service
+	private static final String ALL_PROCEDURES_OFFERING = "temporary";
+
+	private final Collection<Server> servers;
+	private final Set<SeriesKey> pairs = new LinkedHashSet<SeriesKey>();
+	private Date beginPosition;
+	private Date endPosition;
+	private int maxConcurrency = DEFAULT_MAX_CONCURRENCY;
+
+	/**
+	 * Initialize a query over the services of the given servers.
+	 * @param servers collection of {@link Server}
+	 */
+	public FederatedQuery(Collection<Server> servers) {
+		this.servers = servers;
+	}
+	/**
+	 * Request an observed property of a procedure.
+	 * @param procedure procedure name
+	 * @param definition observed property definition URN
+	 * @return this query
+	 */
+	public FederatedQuery add(String procedure, String definition) {
+		pairs.add(new SeriesKey(procedure, definition));
+		return this;
+	}
+	/**
+	 * Request all the given pairs.
+	 * @param keys collection of {@link SeriesKey}
+	 * @return this query
+	 */
+	public FederatedQuery addAll(Collection<SeriesKey> keys) {
+		pairs.addAll(keys);
+		return this;
+	}
+	/**
+	 * Set the time interval.
+	 * @param beginPosition as {@link Date}
+	 * @param endPosition as {@link Date}
+	 * @return this query
+	 */
+	public FederatedQuery between(Date beginPosition, Date endPosition) {
+		this.beginPosition = beginPosition;
+		this.endPosition = endPosition;
+		return this;
+	}
+	/**
+	 * Limit the requests in flight.
+	 * @param maxConcurrency as int
+	 * @return this query
+	 */
+	public FederatedQuery setMaxConcurrency(int maxConcurrency) {
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+		return this;
+	}
+	/**
+	 * Resolve the pairs to their owning services from the loaded catalogs.
+	 * @return map of pair to {@link Service}, unresolved pairs are missing
+	 */
+	public Map<SeriesKey, Service> resolve() {
+		Map<SeriesKey, Service> resolved = new LinkedHashMap<SeriesKey, Service>();
+		// procedures observing each property, per service, indexed once per call
+		Map<Service, Map<String, Set<Procedure>>> observing = new HashMap<Service, Map<String, Set<Procedure>>>();
+		for(SeriesKey pair : pairs){
+			Service service = find(pair, observing);
+			if(service != null){
+				resolved.put(pair, service);
+			}
+		}
+		return resolved;
+	}
+	/**
+	 * Send the requests and merge their results, notified with
+	 * {@link Event#FEDERATED_OBSERVATIONS_LOADED} carrying a {@link FederatedResult}.
+	 * @param callback as {@link IstSOSListener}
+	 * @throws IllegalStateException if the time interval is not set
+	 */
+	public void execute(final IstSOSListener callback) {
+
+		if(beginPosition == null || endPosition == null){
+			throw new IllegalStateException("The time interval of the query is not set");
+		}
+
+		final List<SeriesKey> keys = new ArrayList<SeriesKey>(pairs);
+		final Map<SeriesKey, Service> resolved = resolve();
+		final List<SeriesKey> unresolved = new ArrayList<SeriesKey>();
+		for(SeriesKey key : keys){
+			if(!resolved.containsKey(key)){
+				unresolved.add(key);
+			}
+		}
+
+		final long started = System.currentTimeMillis();
+		final ConcurrentLinkedQueue<SeriesKey> pending = new ConcurrentLinkedQueue<SeriesKey>(resolved.keySet());
+		final AtomicInteger remaining = new AtomicInteger(resolved.size());
+		final Map<SeriesKey, SeriesSnapshot> loaded = new ConcurrentHashMap<SeriesKey, SeriesSnapshot>();
+		final Map<SeriesKey, RequestException> failed = new ConcurrentHashMap<SeriesKey, RequestException>();
+
+		final Runnable complete = new Runnable() {
+			@Override
+			public void run() {
+				FederatedResult result = new FederatedResult(FederatedResult.ordered(keys, loaded), resolved,
+						unresolved, new LinkedHashMap<SeriesKey, RequestException>(failed),
+						System.currentTimeMillis() - started);
+				EventObject eventObject = new EventObject(Event.FEDERATED_OBSERVATIONS_LOADED, result);
+				if(callback != null){
+					callback.onSuccess(eventObject);
+				}
+				IstSOS.getInstance().getEventBus().publish(eventObject);
+			}
+		};
+
+		if(resolved.isEmpty()){
+			complete.run();
+			return;
+		}
+
+		int workers = Math.min(maxConcurrency, resolved.size());
+		for(int i = 0; i < workers; i++){
+			next(pending, resolved, loaded, failed, remaining, complete);
+		}
+	}
+
+	// send the next pending request, chaining the following one on its answer
+	private void next(final ConcurrentLinkedQueue<SeriesKey> pending, final Map<SeriesKey, Service> resolved,
+			final Map<SeriesKey, SeriesSnapshot> loaded, final Map<SeriesKey, RequestException> failed,
+			final AtomicInteger remaining, final Runnable complete) {
+
+		final SeriesKey key = pending.poll();
+		if(key == null){
+			return;
+		}
+		Service service = resolved.get(key);
+		Procedure procedure = service.getProcedure(key.getProcedure());
+
+		String offeringName = procedure.getOfferings() != null && !procedure.getOfferings().isEmpty()
+				? procedure.getOfferings().get(0) : ALL_PROCEDURES_OFFERING;
+		Offering offering = service.getOffering(offeringName);
+		if(offering == null){
+			offering = new Offering();
+			offering.setName(offeringName);
+		}
+		ObservedProperty observedProperty = service.getObservedProperty(key.getDefinition());
+		if(observedProperty == null){
+			observedProperty = new ObservedProperty();
+			observedProperty.setDefinition(key.getDefinition());
+		}
+
+		service.getObervation(offering, procedure, observedProperty, beginPosition, endPosition, new IstSOSListener() {
+
+			@Override
+			public void onSuccess(EventObject event) {
+				try {
+					loaded.put(key, decode(key, (Observation) event.getObject()));
+				} catch (RuntimeException e) {
+					// an answer that cannot be decoded fails its pair only
+					failed.put(key, new RequestException(e));
+				} finally {
+					done();
+				}
+			}
+
+			@Override
+			public void onError(EventObject event) {
+				Object cause = event.getObject();
+				failed.put(key, cause instanceof RequestException ? (RequestException) cause
+						: new RequestException(new IllegalStateException(String.valueOf(cause))));
+				done();
+			}
+
+			private void done() {
+				if(remaining.decrementAndGet() == 0){
+					complete.run();
+				}else{
+					next(pending, resolved, loaded, failed, remaining, complete);
+				}
+			}
+		});
+	}
+
+	private Service find(SeriesKey pair, Map<Service, Map<String, Set<Procedure>>> observing) {
+		for(Server server : servers){
+			for(Service service : server.getServices()){
+				Procedure procedure = service.getProcedure(pair.getProcedure());
+				if(procedure != null && observing(service, pair.getDefinition(), observing).contains(procedure)){
+					return service;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static Set<Procedure> observing(Service service, String definition,
+			Map<Service, Map<String, Set<Procedure>>> observing) {
+		Map<String, Set<Procedure>> byDefinition = observing.get(service);
+		if(byDefinition == null){
+			byDefinition = new HashMap<String, Set<Procedure>>();
+			observing.put(service, byDefinition);
+		}
+		Set<Procedure> procedures = byDefinition.get(definition);
+		if(procedures == null){
+			procedures = new HashSet<Procedure>(service.getCatalog().getProceduresByObservedProperty(definition));
+			byDefinition.put(definition, procedures);
+		}
+		return procedures;
+	}
+
+	// rows of the requested column, in ascending time
+	static SeriesSnapshot decode(SeriesKey key, Observation observation) {
+		ObservationStore scratch = new ObservationStore(Integer.MAX_VALUE, 0);
+		if(observation != null){
+			if(observation.getName() == null && observation.getProcedure() == null){
+				observation.setName(key.getProcedure());
+			}
+			scratch.append(observation);
+		}
+		String procedure = observation != null && observation.getName() != null
+				? observation.getName() : key.getProcedure();
+		SeriesSnapshot snapshot = scratch.snapshot(procedure, key.getDefinition());
+		if(snapshot == null){
+			return SeriesSnapshot.of(new long[0], new double[0], new int[0], 0);
+		}
+		return snapshot;
+	}
+
+}
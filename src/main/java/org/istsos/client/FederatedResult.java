@@ -0,0 +1,236 @@
+package org.istsos.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.istsos.client.observation.SeriesKey;
+import org.istsos.client.observation.SeriesSnapshot;
+
+/**
+ * Observations of a {@link FederatedQuery}, one series per requested
+ * procedure and observed property, merged by time on iteration.
+ * <p>
+ * Iterating runs a k-way merge over the series with a priority queue of
+ * cursors, so rows come out in ascending time without copying or sorting
+ * them all; rows with equal times follow the order the pairs were added in.
+ *
+ */
+public class FederatedResult implements Iterable<FederatedResult.Row> {
+
+	private final Map<SeriesKey, SeriesSnapshot> series;
+	private final Map<SeriesKey, Service> services;
+	private final List<SeriesKey> unresolved;
+	private final Map<SeriesKey, RequestException> failed;
+	private final long elapsed;
+
+	FederatedResult(Map<SeriesKey, SeriesSnapshot> series, Map<SeriesKey, Service> services,
+			List<SeriesKey> unresolved, Map<SeriesKey, RequestException> failed, long elapsed) {
+		this.series = Collections.unmodifiableMap(series);
+		this.services = Collections.unmodifiableMap(services);
+		this.unresolved = Collections.unmodifiableList(unresolved);
+		this.failed = Collections.unmodifiableMap(failed);
+		this.elapsed = elapsed;
+	}
+	/**
+	 *
+	 * @return loaded series in the order the pairs were added
+	 */
+	public Map<SeriesKey, SeriesSnapshot> getSeries() {
+		return series;
+	}
+
+	public SeriesSnapshot getSeries(SeriesKey key) {
+		return series.get(key);
+	}
+	/**
+	 *
+	 * @return service each pair was resolved to
+	 */
+	public Map<SeriesKey, Service> getServices() {
+		return services;
+	}
+	/**
+	 *
+	 * @return pairs no service offers
+	 */
+	public List<SeriesKey> getUnresolved() {
+		return unresolved;
+	}
+	/**
+	 *
+	 * @return pairs whose request failed, with the failure
+	 */
+	public Map<SeriesKey, RequestException> getFailed() {
+		return failed;
+	}
+	/**
+	 *
+	 * @return time from the first request to the last answer, in milliseconds
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+	/**
+	 *
+	 * @return total number of rows
+	 */
+	public int size() {
+		int size = 0;
+		for(SeriesSnapshot snapshot : series.values()){
+			size += snapshot.size();
+		}
+		return size;
+	}
+	/**
+	 * Iterate all rows in ascending time.
+	 */
+	@Override
+	public Iterator<Row> iterator() {
+		return new Merge();
+	}
+	/**
+	 * Collect all rows in ascending time.
+	 * @return list of {@link Row}
+	 */
+	public List<Row> getRows() {
+		List<Row> rows = new ArrayList<Row>(size());
+		for(Row row : this){
+			rows.add(row);
+		}
+		return rows;
+	}
+
+	/**
+	 * One row of a series.
+	 */
+	public static class Row {
+
+		private final SeriesKey key;
+		private final Service service;
+		private final long time;
+		private final double value;
+		private final int quality;
+
+		Row(SeriesKey key, Service service, long time, double value, int quality) {
+			this.key = key;
+			this.service = service;
+			this.time = time;
+			this.value = value;
+			this.quality = quality;
+		}
+
+		public SeriesKey getKey() {
+			return key;
+		}
+
+		public Service getService() {
+			return service;
+		}
+		/**
+		 *
+		 * @return epoch milliseconds
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		public int getQuality() {
+			return quality;
+		}
+
+		@Override
+		public String toString() {
+			return key + " " + time + " " + value;
+		}
+	}
+
+	private static class Cursor implements Comparable<Cursor> {
+
+		final SeriesKey key;
+		final Service service;
+		final SeriesSnapshot snapshot;
+		final int order;
+		int row = 0;
+
+		Cursor(SeriesKey key, Service service, SeriesSnapshot snapshot, int order) {
+			this.key = key;
+			this.service = service;
+			this.snapshot = snapshot;
+			this.order = order;
+		}
+
+		@Override
+		public int compareTo(Cursor other) {
+			long t1 = snapshot.getTime(row);
+			long t2 = other.snapshot.getTime(other.row);
+			if(t1 != t2){
+				return t1 < t2 ? -1 : 1;
+			}
+			return order - other.order;
+		}
+	}
+
+	private class Merge implements Iterator<Row> {
+
+		private final PriorityQueue<Cursor> queue;
+
+		Merge() {
+			queue = new PriorityQueue<Cursor>(Math.max(1, series.size()));
+			int order = 0;
+			for(Map.Entry<SeriesKey, SeriesSnapshot> entry : series.entrySet()){
+				if(entry.getValue().size() > 0){
+					queue.add(new Cursor(entry.getKey(), services.get(entry.getKey()), entry.getValue(), order));
+				}
+				order++;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !queue.isEmpty();
+		}
+
+		@Override
+		public Row next() {
+			Cursor cursor = queue.poll();
+			if(cursor == null){
+				throw new NoSuchElementException();
+			}
+			int row = cursor.row;
+			Row result = new Row(cursor.key, cursor.service, cursor.snapshot.getTime(row),
+					cursor.snapshot.getValue(row), cursor.snapshot.getQuality(row));
+			cursor.row++;
+			if(cursor.row < cursor.snapshot.size()){
+				queue.add(cursor);
+			}
+			return result;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	static Map<SeriesKey, SeriesSnapshot> ordered(List<SeriesKey> keys, Map<SeriesKey, SeriesSnapshot> loaded) {
+		Map<SeriesKey, SeriesSnapshot> result = new LinkedHashMap<SeriesKey, SeriesSnapshot>();
+		for(SeriesKey key : keys){
+			SeriesSnapshot snapshot = loaded.get(key);
+			if(snapshot != null){
+				result.put(key, snapshot);
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,607 @@
+package org.istsos.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Background health monitor of the registered {@link Server} instances.
+ * <p>
+ * Every server is probed with the istSOS STATUS operation on its own
+ * schedule; probes are asynchronous, so all servers are checked concurrently
+ * from a single scheduler thread and no caller ever waits for a probe. The
+ * interval of a server grows while it answers steadily and falls back to the
+ * minimum as soon as it fails or slows down. ABOUT is read once per server,
+ * and again after it recovered.
+ * <p>
+ * Each server has a rolling window of probe outcomes and latencies, and a
+ * circuit breaker. The breaker opens after consecutive failures, lets one
+ * trial through once the open timeout elapsed and closes on success. Callers
+ * can feed their own request outcomes with {@link #record(Server, long, boolean)},
+ * ask {@link #allowRequest(Server)} before sending, and rank servers with
+ * {@link #getAvailableServers()}. Breaker changes are reported with
+ * {@link Event#HEALTH_CHANGED}.
+ *
+ */
+public class HealthMonitor {
+
+	public static final long DEFAULT_MIN_INTERVAL = 5000;
+	public static final long DEFAULT_MAX_INTERVAL = 60000;
+	public static final long DEFAULT_PROBE_TIMEOUT = 10000;
+	public static final int DEFAULT_WINDOW = 20;
+	public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+	public static final long DEFAULT_OPEN_TIMEOUT = 30000;
+
+	// interval growth while a server answers steadily
+	private static final double BACKOFF = 1.5;
+	// weight of the last latency in the decaying average
+	private static final double ALPHA = 0.3;
+
+	/**
+	 * Circuit breaker state of a server.
+	 */
+	public enum State {
+		// requests allowed
+		CLOSED,
+		// requests refused until the open timeout elapsed
+		OPEN,
+		// one trial request in flight
+		HALF_OPEN
+	}
+
+	private static final ThreadFactory daemonThreads = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "istsos-health-monitor");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private final IstSOS istsos;
+	private final long minInterval;
+	private final long maxInterval;
+	private final long probeTimeout;
+	private final int window;
+	private final int failureThreshold;
+	private final long openTimeout;
+
+	private final ConcurrentHashMap<Server, Health> health = new ConcurrentHashMap<Server, Health>();
+	private volatile IstSOSListener listener;
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Initialize a monitor with the default intervals and thresholds.
+	 * @param istsos {@link IstSOS} holding the servers to monitor
+	 */
+	public HealthMonitor(IstSOS istsos) {
+		this(istsos, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_PROBE_TIMEOUT,
+				DEFAULT_WINDOW, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_TIMEOUT);
+	}
+	/**
+	 * Initialize a monitor.
+	 * @param istsos {@link IstSOS} holding the servers to monitor
+	 * @param minInterval shortest time between probes of a server in milliseconds
+	 * @param maxInterval longest time between probes of a healthy server in milliseconds
+	 * @param probeTimeout time after which an unanswered probe fails, in milliseconds
+	 * @param window number of recent outcomes the statistics are computed on
+	 * @param failureThreshold consecutive failures opening the circuit breaker
+	 * @param openTimeout time the breaker stays open before a trial, in milliseconds
+	 */
+	public HealthMonitor(IstSOS istsos, long minInterval, long maxInterval, long probeTimeout,
+			int window, int failureThreshold, long openTimeout) {
+		if(minInterval < 1 || maxInterval < minInterval || window < 1 || failureThreshold < 1){
+			throw new IllegalArgumentException("Invalid health monitor settings");
+		}
+		this.istsos = istsos;
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.probeTimeout = probeTimeout;
+		this.window = window;
+		this.failureThreshold = failureThreshold;
+		this.openTimeout = openTimeout;
+	}
+	/**
+	 * Set the listener notified with {@link Event#HEALTH_CHANGED}.
+	 * @param listener {@link IstSOSListener}
+	 */
+	public void setListener(IstSOSListener listener) {
+		this.listener = listener;
+	}
+	/**
+	 * Start probing in the background.
+	 */
+	public synchronized void start() {
+		if(scheduler != null){
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads);
+		long tick = Math.max(10, Math.min(250, minInterval / 4));
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				tick(false);
+			}
+		}, 0, tick, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop() {
+		if(scheduler != null){
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	public synchronized boolean isRunning() {
+		return scheduler != null;
+	}
+	/**
+	 * Probe every server not already being probed, regardless of its schedule.
+	 */
+	public void checkNow() {
+		tick(true);
+	}
+	/**
+	 * Retrieve the health of a server.
+	 * @param server {@link Server}
+	 * @return {@link Health}, null if the server was never probed nor recorded
+	 */
+	public Health getHealth(Server server) {
+		return health.get(server);
+	}
+
+	public List<Health> getHealth() {
+		return new ArrayList<Health>(health.values());
+	}
+	/**
+	 * Check whether a request to the server should be sent. Once the open
+	 * timeout of a failing server elapsed, one caller is let through as trial.
+	 * @param server {@link Server}
+	 * @return false while the breaker of the server is open
+	 */
+	public boolean allowRequest(Server server) {
+		Health h = health.get(server);
+		return h == null || h.tryAcquire(System.currentTimeMillis());
+	}
+	/**
+	 * Record the outcome of a request sent to a server.
+	 * @param server {@link Server}
+	 * @param latency response time in milliseconds
+	 * @param success false for timeouts, connection and server errors
+	 */
+	public void record(Server server, long latency, boolean success) {
+		outcome(get(server), latency, success, null);
+	}
+	/**
+	 * Retrieve the servers currently accepting requests, fastest first.
+	 * @return list of {@link Server}
+	 */
+	public List<Server> getAvailableServers() {
+		List<Health> available = new ArrayList<Health>();
+		for(Server server : servers()){
+			Health h = health.get(server);
+			if(h == null || h.getState() == State.CLOSED){
+				available.add(h != null ? h : get(server));
+			}
+		}
+		Collections.sort(available, new Comparator<Health>() {
+			@Override
+			public int compare(Health h1, Health h2) {
+				return Double.compare(h1.rank(), h2.rank());
+			}
+		});
+		List<Server> result = new ArrayList<Server>(available.size());
+		for(Health h : available){
+			result.add(h.server);
+		}
+		return result;
+	}
+	/**
+	 * Check whether a service can serve an operation, from the last STATUS of its server.
+	 * @param service {@link Service}
+	 * @param write true for insertObservation, false for getObservation
+	 * @return false if the breaker is open or the service reported the operation as unavailable
+	 */
+	public boolean isServiceAvailable(Service service, boolean write) {
+		Health h = health.get(service.getServer());
+		if(h == null){
+			return true;
+		}
+		if(h.getState() == State.OPEN){
+			return false;
+		}
+		Status status = h.getStatus(service.getName());
+		if(status == null){
+			return true;
+		}
+		return write ? status.isInsertobservation() : status.isGetobservation();
+	}
+	/**
+	 * Send the STATUS request of a server.
+	 * @param server {@link Server}
+	 * @param callback as IstSOSListener
+	 */
+	void probe(Server server, IstSOSListener callback) {
+		Map<String, String> urlKeyMap = new HashMap<String, String>();
+		urlKeyMap.put("url", server.getServerUrl());
+		IstSOS.executeGet(server.getEndpoints(), Requests.getUrl(Requests.Request.STATUS, urlKeyMap), callback, server.getRealm());
+	}
+	/**
+	 * Send the ABOUT request of a server.
+	 * @param server {@link Server}
+	 * @param callback as IstSOSListener
+	 */
+	void about(Server server, IstSOSListener callback) {
+		Map<String, String> urlKeyMap = new HashMap<String, String>();
+		urlKeyMap.put("url", server.getServerUrl());
+		IstSOS.executeGet(server.getEndpoints(), Requests.getUrl(Requests.Request.ABOUT, urlKeyMap), callback, server.getRealm());
+	}
+
+	Collection<Server> servers() {
+		return istsos.getServers();
+	}
+
+	private Health get(Server server) {
+		Health h = health.get(server);
+		if(h == null){
+			Health created = new Health(server);
+			h = health.putIfAbsent(server, created);
+			if(h == null){
+				h = created;
+			}
+		}
+		return h;
+	}
+
+	private void tick(boolean force) {
+		try {
+			probeAll(force);
+		} catch (RuntimeException e) {
+			// a failing tick must not cancel the following ones
+			failed(e);
+		}
+	}
+
+	private void probeAll(boolean force) {
+		long now = System.currentTimeMillis();
+		for(Server server : servers()){
+			final Health h = get(server);
+			final long probeId = h.startProbe(now, force);
+			if(probeId < 0){
+				continue;
+			}
+			final long started = System.nanoTime();
+			try {
+				probe(server, new IstSOSListener() {
+					@Override
+					public void onSuccess(EventObject event) {
+						long latency = (System.nanoTime() - started) / 1000000;
+						Map<String, Status> statuses = parse((JsonObject) event.getObject());
+						if(h.endProbe(probeId)){
+							outcome(h, latency, true, statuses);
+						}
+					}
+
+					@Override
+					public void onError(EventObject event) {
+						if(h.endProbe(probeId)){
+							outcome(h, (System.nanoTime() - started) / 1000000, false, null);
+						}
+					}
+				});
+			} catch (RuntimeException e) {
+				if(h.endProbe(probeId)){
+					outcome(h, 0, false, null);
+				}
+			}
+		}
+		// unanswered probes
+		for(Health h : health.values()){
+			if(h.expireProbe(now)){
+				outcome(h, probeTimeout, false, null);
+			}
+		}
+	}
+
+	private void outcome(final Health h, long latency, boolean success, Map<String, Status> statuses) {
+		State before;
+		State after;
+		boolean readAbout;
+		synchronized (h) {
+			before = h.state;
+			readAbout = h.record(System.currentTimeMillis(), latency, success, statuses);
+			after = h.state;
+		}
+		if(readAbout){
+			try {
+				about(h.server, new IstSOSListener() {
+					@Override
+					public void onSuccess(EventObject event) {
+						JsonObject json = (JsonObject) event.getObject();
+						JsonElement data = json.get("data");
+						synchronized (h) {
+							h.about = data != null && data.isJsonObject() ? data.getAsJsonObject() : json;
+						}
+					}
+
+					@Override
+					public void onError(EventObject event) {}
+				});
+			} catch (RuntimeException e) {
+				// retried after the next recovery
+			}
+		}
+		if(before != after){
+			EventObject eventObject = new EventObject(Event.HEALTH_CHANGED, h);
+			IstSOSListener current = listener;
+			if(current != null){
+				try {
+					current.onSuccess(eventObject);
+				} catch (RuntimeException e) {
+					failed(e);
+				}
+			}
+			istsos.getEventBus().publish(eventObject);
+		}
+	}
+
+	/**
+	 * Hand an exception to the uncaught exception handler of the current
+	 * thread, so that it never cancels the scheduled probes.
+	 */
+	private void failed(RuntimeException e) {
+		Thread thread = Thread.currentThread();
+		try {
+			thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+		} catch (RuntimeException ignored) {
+			// keep probing
+		}
+	}
+
+	static Map<String, Status> parse(JsonObject json) {
+		Map<String, Status> statuses = new HashMap<String, Status>();
+		JsonElement data = json != null ? json.get("data") : null;
+		if(data == null || !data.isJsonArray()){
+			return statuses;
+		}
+		JsonArray array = data.getAsJsonArray();
+		for(JsonElement element : array){
+			if(element.isJsonObject()){
+				Status status = Status.fromJson(element.getAsJsonObject());
+				if(status.getService() != null){
+					statuses.put(status.getService(), status);
+				}
+			}
+		}
+		return statuses;
+	}
+
+	/**
+	 * Rolling statistics and circuit breaker of one server.
+	 */
+	public class Health {
+
+		private final Server server;
+
+		private State state = State.CLOSED;
+		private long openedAt;
+		private int consecutiveFailures = 0;
+
+		private final long[] latencies = new long[window];
+		private final boolean[] outcomes = new boolean[window];
+		private int position = 0;
+		private int count = 0;
+		private double latencyAverage = -1;
+
+		private long interval = minInterval;
+		private long nextProbe = 0;
+		private long probing = 0;
+		private long probeStarted;
+		private long probeIds = 0;
+		private long lastChecked = 0;
+
+		private Map<String, Status> statuses = Collections.emptyMap();
+		private JsonObject about;
+		private boolean aboutRequested = false;
+
+		Health(Server server) {
+			this.server = server;
+		}
+
+		public Server getServer() {
+			return server;
+		}
+
+		public synchronized State getState() {
+			return state;
+		}
+		/**
+		 *
+		 * @return share of successful outcomes in the window, 1 before any outcome
+		 */
+		public synchronized double getAvailability() {
+			if(count == 0){
+				return 1;
+			}
+			int successes = 0;
+			for(int i = 0; i < count; i++){
+				if(outcomes[i]){
+					successes++;
+				}
+			}
+			return (double) successes / count;
+		}
+		/**
+		 *
+		 * @return decaying average of successful response times in milliseconds, -1 before any
+		 */
+		public synchronized double getLatencyAverage() {
+			return latencyAverage;
+		}
+		/**
+		 * Retrieve a percentile of the response times in the window.
+		 * @param rank between 0 and 1, e.g. 0.95
+		 * @return latency in milliseconds, -1 before any outcome
+		 */
+		public synchronized long getLatencyPercentile(double rank) {
+			if(count == 0){
+				return -1;
+			}
+			long[] sorted = Arrays.copyOf(latencies, count);
+			Arrays.sort(sorted);
+			return sorted[Math.min(count - 1, (int) (rank * count))];
+		}
+
+		public synchronized int getConsecutiveFailures() {
+			return consecutiveFailures;
+		}
+		/**
+		 *
+		 * @return current time between probes in milliseconds
+		 */
+		public synchronized long getInterval() {
+			return interval;
+		}
+		/**
+		 *
+		 * @return epoch milliseconds of the last outcome, 0 if none
+		 */
+		public synchronized long getLastChecked() {
+			return lastChecked;
+		}
+		/**
+		 *
+		 * @return last STATUS per service name
+		 */
+		public synchronized Map<String, Status> getStatuses() {
+			return new HashMap<String, Status>(statuses);
+		}
+
+		public synchronized Status getStatus(String serviceName) {
+			return statuses.get(serviceName);
+		}
+		/**
+		 *
+		 * @return last ABOUT data, null until read
+		 */
+		public synchronized JsonObject getAbout() {
+			return about;
+		}
+
+		// lower is better: average latency inflated by the failure rate
+		synchronized double rank() {
+			double latency = latencyAverage < 0 ? maxInterval : latencyAverage;
+			double availability = getAvailability();
+			return latency / Math.max(0.01, availability);
+		}
+
+		synchronized boolean tryAcquire(long now) {
+			switch (state) {
+			case CLOSED:
+				return true;
+			case OPEN:
+				if(now - openedAt >= openTimeout){
+					state = State.HALF_OPEN;
+					return true;
+				}
+				return false;
+			default:
+				return false;
+			}
+		}
+
+		// id of the started probe, -1 if not due or already probing
+		synchronized long startProbe(long now, boolean force) {
+			if(probing != 0 || (!force && now < nextProbe)){
+				return -1;
+			}
+			if(state == State.OPEN){
+				if(!force && now - openedAt < openTimeout){
+					return -1;
+				}
+				// the probe is the trial
+				state = State.HALF_OPEN;
+			}
+			probing = ++probeIds;
+			probeStarted = now;
+			return probing;
+		}
+
+		synchronized boolean endProbe(long probeId) {
+			if(probing != probeId){
+				return false;
+			}
+			probing = 0;
+			return true;
+		}
+
+		synchronized boolean expireProbe(long now) {
+			if(probing == 0 || now - probeStarted < probeTimeout){
+				return false;
+			}
+			probing = 0;
+			return true;
+		}
+
+		// true when ABOUT should be read
+		boolean record(long now, long latency, boolean success, Map<String, Status> statuses) {
+
+			boolean steady = count > 0 && outcomes[(position + window - 1) % window] && success;
+			boolean slow = success && latencyAverage > 0 && latency > 2 * latencyAverage;
+
+			latencies[position] = latency;
+			outcomes[position] = success;
+			position = (position + 1) % window;
+			count = Math.min(count + 1, window);
+			lastChecked = now;
+			if(statuses != null){
+				this.statuses = statuses;
+			}
+
+			boolean readAbout = false;
+			if(success){
+				latencyAverage = latencyAverage < 0 ? latency : latencyAverage + ALPHA * (latency - latencyAverage);
+				consecutiveFailures = 0;
+				// read ABOUT once, and again after a recovery
+				if(statuses != null && (!aboutRequested || state != State.CLOSED)){
+					aboutRequested = true;
+					readAbout = true;
+				}
+				state = State.CLOSED;
+				interval = steady && !slow ? Math.min(maxInterval, (long) (interval * BACKOFF)) : minInterval;
+			}else{
+				consecutiveFailures++;
+				if(state == State.HALF_OPEN || consecutiveFailures >= failureThreshold){
+					if(state != State.OPEN){
+						openedAt = now;
+					}
+					state = State.OPEN;
+				}
+				interval = minInterval;
+			}
+			nextProbe = state == State.OPEN ? openedAt + openTimeout : now + interval;
+			return readAbout;
+		}
+
+		@Override
+		public synchronized String toString() {
+			return server.getServerName() + " " + state + " availability " + getAvailability()
+					+ " latency " + Math.round(latencyAverage) + " ms";
+		}
+	}
+
+}
@@ -1,8 +1,14 @@
 package org.istsos.client;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.asynchttpclient.AsyncCompletionHandler;
 import org.asynchttpclient.AsyncHttpClient;
 import org.asynchttpclient.BoundRequestBuilder;
@@ -10,6 +16,8 @@ import org.asynchttpclient.DefaultAsyncHttpClient;
 import org.asynchttpclient.Realm;
 import org.asynchttpclient.Realm.AuthScheme;
 import org.asynchttpclient.Response;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 /**
@@ -19,10 +27,15 @@ import com.google.gson.JsonParser;
  */
 public class IstSOS{
 	
-	private HashMap<String, Server> servers = new HashMap<String, Server>(0);
+	// read by the health monitor thread while servers are added
+	private final Map<String, Server> servers = new ConcurrentHashMap<String, Server>();
 	
 	private static volatile IstSOS instance;
 	
+	private final EventBus eventBus = new EventBus();
+	
+	private volatile HealthMonitor healthMonitor;
+	
 	private static AsyncHttpClient asyncHttpClient = new DefaultAsyncHttpClient();
 		
     private IstSOS() { }
@@ -85,6 +98,67 @@ public class IstSOS{
     public Collection<Server> getServers(){
     	return this.servers.values();
     }
+    /**
+     * Retrieve the bus receiving the results of all service requests.
+     * @return {@link EventBus}
+     */
+    public EventBus getEventBus() {
+    	return eventBus;
+    }
+    /**
+     * Start an observation query across the services of all servers, e.g.
+     * {@code federatedQuery().add(procedure, definition).between(begin, end).execute(callback)}.
+     * @return {@link FederatedQuery}
+     */
+    public FederatedQuery federatedQuery() {
+    	return new FederatedQuery(this.servers.values());
+    }
+    /**
+     * Load the services of all servers and the catalog of every service in
+     * parallel, e.g. {@code bootstrap().start().get()}.
+     * @return {@link Bootstrap}
+     */
+    public Bootstrap bootstrap() {
+    	return new Bootstrap(this.servers.values());
+    }
+    /**
+     * Retrieve the health monitor of the servers, created on first use and
+     * started with {@link HealthMonitor#start()}.
+     * @return {@link HealthMonitor}
+     */
+    public HealthMonitor getHealthMonitor() {
+    	if(healthMonitor == null){
+    		synchronized (this) {
+    			if(healthMonitor == null){
+    				healthMonitor = new HealthMonitor(this);
+    			}
+    		}
+    	}
+    	return healthMonitor;
+    }
+    /**
+     * Save servers, services and their catalogs to a local snapshot file.
+     * @param file as File
+     * @throws IOException on write errors
+     */
+    public void saveSnapshot(File file) throws IOException {
+    	MetadataSnapshot.save(file, this.getServers());
+    }
+    /**
+     * Restore servers, services and their catalogs from a local snapshot file,
+     * then revalidate them against istSOS in the background.
+     * @param file as File
+     * @param callback receives {@link Event#SNAPSHOT_REVALIDATED}, null to skip revalidation
+     * @return restored servers
+     * @throws IOException on read errors or if the file is not a valid snapshot
+     */
+    public List<Server> loadSnapshot(File file, IstSOSListener callback) throws IOException {
+    	List<Server> restored = MetadataSnapshot.load(file, this);
+    	if(callback != null){
+    		MetadataSnapshot.revalidate(restored, callback);
+    	}
+    	return restored;
+    }
 
 
     /**
@@ -94,46 +168,68 @@ public class IstSOS{
      * @param realm as ArrayList<String>
      */
     protected static void executeGet(String url, final IstSOSListener callback, ArrayList<String> realm){
+    	executeGet(null, url, callback, realm);
+    }
+    /**
+     * Execute GET request to the istSOS platform, routed across the
+     * equivalent base URLs of the server.
+     * @param endpoints {@link ServerEndpoints} of the server, null to send to the URL as is
+     * @param url as String
+     * @param callback as IstSOSListener
+     * @param realm as ArrayList<String>
+     */
+    protected static void executeGet(ServerEndpoints endpoints, String url, final IstSOSListener callback, ArrayList<String> realm){
+    	
+    	// servers reachable through several base URLs route their reads
+    	if(endpoints != null && endpoints.routes(url)){
+    		route(endpoints, url, callback, realm, new ArrayList<ServerEndpoints.Endpoint>());
+    		return;
+    	}
     	
     	BoundRequestBuilder builder = asyncHttpClient.prepareGet(url);
     	
-    	if(realm != null){
-			Realm tmpRealm = new Realm.Builder(realm.get(0), realm.get(1))
-					.setUsePreemptiveAuth(true)
-					.setScheme(AuthScheme.BASIC)
-					.build();
-    		builder.setRealm(tmpRealm);
-    	}
+    	execute(builder, callback, realm, null, true);
     	
-    	builder.execute(new AsyncCompletionHandler<Integer>(){
-			
-		    @Override
-		    public Integer onCompleted(Response response) throws Exception{
-		    	
-		    	System.out.println("Request executed..");
-		    	
-		        EventObject eventObject = new EventObject(
-		        		Event.REQUEST, 
-		        		new JsonParser()
-					        .parse(response.getResponseBody())
-					        .getAsJsonObject());
-        		
-        		if(callback != null){
-        			callback.onSuccess(eventObject);
-        		}
-        		
-		        return response.getStatusCode();
-		    }
-		    
-		    @Override
-		    public void onThrowable(Throwable t){
-		    	System.out.println("Request error!!");
-		    	System.out.println(t.getMessage());
-		    	t.printStackTrace();
-		    }
-		    
-		});
+    }
+    /**
+     * Execute a GET request on the best endpoint not tried yet, failing over to
+     * the next one on timeouts, connection and server errors.
+     */
+    private static void route(final ServerEndpoints endpoints, final String url, final IstSOSListener callback,
+    		final ArrayList<String> realm, final List<ServerEndpoints.Endpoint> tried){
     	
+    	final ServerEndpoints.Endpoint endpoint = endpoints.select(tried);
+    	if(endpoint == null){
+    		// endpoints removed while the request failed over
+    		fail(callback, new RequestException(new IllegalStateException("No endpoint left to try")));
+    		return;
+    	}
+    	final long started = System.nanoTime();
+    	endpoint.start();
+    	
+    	execute(asyncHttpClient.prepareGet(endpoints.rewrite(url, endpoint)), new IstSOSListener() {
+    		
+    		@Override
+    		public void onSuccess(EventObject event) {
+    			endpoint.done((System.nanoTime() - started) / 1000000, true);
+    			if(callback != null){
+    				callback.onSuccess(event);
+    			}
+    		}
+    		
+    		@Override
+    		public void onError(EventObject event) {
+    			RequestException exception = (RequestException) event.getObject();
+    			// client errors are not the endpoint's fault
+    			endpoint.done((System.nanoTime() - started) / 1000000, !exception.isRetryable());
+    			tried.add(endpoint);
+    			if(exception.isRetryable() && tried.size() < endpoints.size()){
+    				route(endpoints, url, callback, realm, tried);
+    				return;
+    			}
+    			fail(callback, exception);
+    		}
+    	}, realm, null, false);
     }
     /**
      * Execute POST request to the istSOS platform.
@@ -146,44 +242,22 @@ public class IstSOS{
     	
     	BoundRequestBuilder builder = asyncHttpClient.preparePost(url).setBody(data);
 
-    	if(realm != null){
-			Realm tmpRealm = new Realm.Builder(realm.get(0), realm.get(1))
-					.setUsePreemptiveAuth(true)
-					.setScheme(AuthScheme.BASIC)
-					.build();
-			builder.setRealm(tmpRealm);
-    	}
+    	execute(builder, callback, realm, null, true);
     	
-    	builder.execute(new AsyncCompletionHandler<Integer>(){
-    		
-    		@Override
-		    public Integer onCompleted(Response response) throws Exception {
-    			
-		    	System.out.println("Request executed..");
-		    	
-		        EventObject eventObject = new EventObject(
-		        		Event.REQUEST, 
-		        		new JsonParser()
-					        .parse(response.getResponseBody())
-					        .getAsJsonObject());
-        		
-        		if(callback != null){
-        			callback.onSuccess(eventObject);
-        		}
-        		
-		        return response.getStatusCode();
-    			
-    		}
-    		
-		    @Override
-		    public void onThrowable(Throwable t){
-		    	System.out.println("Request error!!");
-		    	System.out.println(t.getMessage());
-		    	t.printStackTrace();
-		    }
-		    
-    	});
+    }
+    /**
+     * Execute POST request to the istSOS platform with a payload held in pooled buffers.
+     * The buffers are released once the request has completed or failed.
+     * @param url as String
+     * @param data as PooledBufferOutputStream
+     * @param callback as IstSOSListener
+     * @param realm as ArrayList<String>
+     */
+    protected static void executePost(String url, final PooledBufferOutputStream data, final IstSOSListener callback, ArrayList<String> realm) {
     	
+    	BoundRequestBuilder builder = asyncHttpClient.preparePost(url).setBody(data.toBodyGenerator());
+
+    	execute(builder, callback, realm, data, true);
     	
     }
     /**
@@ -197,44 +271,7 @@ public class IstSOS{
     	
     	BoundRequestBuilder builder = asyncHttpClient.preparePut(url).setBody(data);
     	
-    	if(realm != null){
-			Realm tmpRealm = new Realm.Builder(realm.get(0), realm.get(1))
-					.setUsePreemptiveAuth(true)
-					.setScheme(AuthScheme.BASIC)
-					.build();
-			builder.setRealm(tmpRealm);
-    	}
-    	
-    	builder.execute(new AsyncCompletionHandler<Integer>(){
-    		
-    		@Override
-		    public Integer onCompleted(Response response) throws Exception {
-    			
-		    	System.out.println("Request executed..");
-		    	
-		        EventObject eventObject = new EventObject(
-		        		Event.REQUEST, 
-		        		new JsonParser()
-					        .parse(response.getResponseBody())
-					        .getAsJsonObject());
-        		
-        		if(callback != null){
-        			callback.onSuccess(eventObject);
-        		}
-        		
-		        return response.getStatusCode();
-    			
-    		}
-    		
-		    @Override
-		    public void onThrowable(Throwable t){
-		    	System.out.println("Request error!!");
-		    	System.out.println(t.getMessage());
-		    	t.printStackTrace();
-		    }
-		    
-    	});
-   
+    	execute(builder, callback, realm, null, true);
 
     }
     /**
@@ -246,7 +283,14 @@ public class IstSOS{
      */
     protected static void executeDelete(String url, String data, final IstSOSListener callback, ArrayList<String> realm){
     	
-   	BoundRequestBuilder builder = asyncHttpClient.prepareDelete(url).setBody(data);
+    	BoundRequestBuilder builder = asyncHttpClient.prepareDelete(url).setBody(data);
+    	
+    	execute(builder, callback, realm, null, true);
+    	
+    }
+    
+    private static void execute(BoundRequestBuilder builder, final IstSOSListener callback, 
+    		ArrayList<String> realm, final PooledBufferOutputStream payload, final boolean publishFailures){
     	
     	if(realm != null){
 			Realm tmpRealm = new Realm.Builder(realm.get(0), realm.get(1))
@@ -258,16 +302,45 @@ public class IstSOS{
     	
     	builder.execute(new AsyncCompletionHandler<Integer>(){
     		
+    		// set once the callback has been answered, so each request calls back once
+    		private final AtomicBoolean answered = new AtomicBoolean();
+    		
     		@Override
 		    public Integer onCompleted(Response response) throws Exception {
     			
-		    	System.out.println("Request executed..");
+    			if(payload != null){
+    				payload.release();
+    			}
+    			answered.set(true);
+    			
+		    	// istSOS answers errors with HTML pages, do not try to parse them
+		    	if(response.getStatusCode() >= 400){
+		    		fail(callback, publishFailures, new RequestException(response.getStatusCode(), 
+		    				response.getStatusText()));
+		    		return response.getStatusCode();
+		    	}
 		    	
-		        EventObject eventObject = new EventObject(
-		        		Event.REQUEST, 
-		        		new JsonParser()
+		    	JsonObject json;
+		    	try {
+			        json = new JsonParser()
 					        .parse(response.getResponseBody())
-					        .getAsJsonObject());
+					        .getAsJsonObject();
+		    	} catch (RuntimeException e) {
+		    		fail(callback, publishFailures, new RequestException(response.getStatusCode(), e));
+		    		return response.getStatusCode();
+		    	}
+		    	
+		    	// istSOS reports application errors with status 200
+		    	JsonElement success = json.get("success");
+		    	if(success != null && success.isJsonPrimitive() && success.getAsJsonPrimitive().isBoolean()
+		    			&& !success.getAsBoolean()){
+		    		JsonElement message = json.get("message");
+		    		fail(callback, publishFailures, new RequestException(response.getStatusCode(),
+		    				message != null && message.isJsonPrimitive() ? message.getAsString() : null, true));
+		    		return response.getStatusCode();
+		    	}
+		    	
+		    	EventObject eventObject = new EventObject(Event.REQUEST, json);
         		
         		if(callback != null){
         			callback.onSuccess(eventObject);
@@ -279,13 +352,34 @@ public class IstSOS{
     		
 		    @Override
 		    public void onThrowable(Throwable t){
-		    	System.out.println("Request error!!");
-		    	System.out.println(t.getMessage());
-		    	t.printStackTrace();
+		    	if(!answered.compareAndSet(false, true)){
+		    		// thrown by a listener after the request completed, the request did not fail
+		    		Thread thread = Thread.currentThread();
+		    		thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+		    		return;
+		    	}
+		    	if(payload != null){
+		    		payload.release();
+		    	}
+		    	fail(callback, publishFailures, new RequestException(t));
 		    }
 		    
     	});
     	
     }
+    
+    private static void fail(IstSOSListener callback, RequestException e){
+    	fail(callback, true, e);
+    }
+    
+    private static void fail(IstSOSListener callback, boolean publish, RequestException e){
+    	EventObject eventObject = new EventObject(Event.REQUEST_FAILED, e);
+    	if(callback != null){
+    		callback.onError(eventObject);
+    	}
+    	if(publish){
+    		getInstance().getEventBus().publish(eventObject);
+    	}
+    }
 
 }
\ No newline at end of file
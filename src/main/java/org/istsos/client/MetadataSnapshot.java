@@ -0,0 +1,392 @@
+package org.istsos.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+/**
+ * Local binary snapshot of server, service and catalog metadata for warm startup.
+ * <p>
+ * The file is GZIP compressed and starts with a magic number and a format
+ * version. Servers hold name, url and user (never the password), services their
+ * name and configuration path, followed by the catalog sections. Every catalog
+ * entry is stored as length-prefixed JSON. After {@link #load(File, IstSOS)},
+ * {@link #revalidate(Collection, IstSOSListener)} reloads everything from istSOS
+ * in the background; sections whose content did not change keep their instances,
+ * and procedures and offerings are synchronized entry by entry.
+ *
+ */
+public final class MetadataSnapshot {
+
+	static final int MAGIC = 0x69534F53;	// "iSOS"
+	static final short VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Gson GSON = new GsonBuilder()
+			.registerTypeAdapter(Date.class, new JsonSerializer<Date>() {
+				@Override
+				public JsonElement serialize(Date date, Type type, JsonSerializationContext context) {
+					return new JsonPrimitive(date.getTime());
+				}
+			})
+			.registerTypeAdapter(Date.class, new JsonDeserializer<Date>() {
+				@Override
+				public Date deserialize(JsonElement json, Type type, JsonDeserializationContext context) {
+					return new Date(json.getAsLong());
+				}
+			})
+			.create();
+
+	private MetadataSnapshot() {}
+
+	/**
+	 * Write a snapshot to a file. The file is replaced only once completely written.
+	 * @param file target file
+	 * @param servers collection of {@link Server}
+	 * @throws IOException on write errors
+	 */
+	public static void save(File file, Collection<Server> servers) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(file.getName(), ".tmp", directory);
+		OutputStream out = new FileOutputStream(temp);
+		try {
+			write(out, servers);
+		} catch (IOException e) {
+			out.close();
+			temp.delete();
+			throw e;
+		}
+		out.close();
+		if(!temp.renameTo(file)){
+			file.delete();
+			if(!temp.renameTo(file)){
+				temp.delete();
+				throw new IOException("Cannot replace " + file);
+			}
+		}
+	}
+	/**
+	 * Write a snapshot.
+	 * @param out target stream, left open
+	 * @param servers collection of {@link Server}
+	 * @throws IOException on write errors
+	 */
+	public static void write(OutputStream out, Collection<Server> servers) throws IOException {
+
+		GZIPOutputStream gzip = new GZIPOutputStream(out, 8192);
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(gzip, 8192));
+
+		data.writeInt(MAGIC);
+		data.writeShort(VERSION);
+		data.writeLong(System.currentTimeMillis());
+
+		data.writeInt(servers.size());
+		for(Server server : servers){
+			writeString(data, server.getServerName());
+			writeString(data, server.getServerUrl());
+			writeString(data, server.getUser());
+
+			List<Service> services = server.getServices();
+			data.writeInt(services.size());
+			for(Service service : services){
+				writeString(data, service.getName());
+				writeString(data, service.getConfigPath());
+
+				CatalogSnapshot catalog = service.getCatalog().getSnapshot();
+				for(Catalog.Section section : Catalog.Section.values()){
+					List<?> entries = catalog.getSection(section);
+					data.writeInt(entries.size());
+					for(Object entry : entries){
+						writeString(data, GSON.toJson(entry));
+					}
+				}
+			}
+		}
+
+		data.flush();
+		gzip.finish();
+	}
+	/**
+	 * Restore a snapshot file into an IstSOS instance.
+	 * @param file snapshot file
+	 * @param istSOS instance receiving the servers
+	 * @return list of restored {@link Server}
+	 * @throws IOException on read errors or if the file is not a valid snapshot
+	 */
+	public static List<Server> load(File file, IstSOS istSOS) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return read(in, istSOS);
+		} finally {
+			in.close();
+		}
+	}
+	/**
+	 * Restore a snapshot. Servers already registered by name are reused and keep
+	 * their credentials, other servers are registered without authentication.
+	 * @param in source stream, left open
+	 * @param istSOS instance receiving the servers
+	 * @return list of restored {@link Server}
+	 * @throws IOException on read errors or if the stream is not a valid snapshot
+	 */
+	public static List<Server> read(InputStream in, IstSOS istSOS) throws IOException {
+
+		DataInputStream data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in, 8192), 8192));
+
+		if(data.readInt() != MAGIC){
+			throw new IOException("Not a metadata snapshot");
+		}
+		short version = data.readShort();
+		if(version != VERSION){
+			throw new IOException("Unsupported metadata snapshot version " + version);
+		}
+		data.readLong();	// creation time
+
+		int serverCount = data.readInt();
+		List<Server> servers = new ArrayList<Server>(serverCount);
+
+		for(int s = 0; s < serverCount; s++){
+			String name = readString(data);
+			String url = readString(data);
+			String user = readString(data);
+
+			int serviceCount = data.readInt();
+			List<Service> services = new ArrayList<Service>(serviceCount);
+			for(int v = 0; v < serviceCount; v++){
+				Service service = new Service();
+				service.setName(readString(data));
+				service.setConfigPath(readString(data));
+				readCatalog(data, service.getCatalog());
+				List<Procedure> procedures = service.getCatalog().getSnapshot().getProcedures();
+				service.getOfferingMembership().rebuild(procedures);
+				service.getSearchIndex().rebuild(procedures);
+				services.add(service);
+			}
+
+			Server server = istSOS.getServer(name);
+			if(server == null){
+				server = istSOS.initServer(name, url);
+				server.setUser(user);
+			}
+			server.setServices(services);
+			servers.add(server);
+		}
+
+		return servers;
+	}
+	/**
+	 * Reload services and all catalog sections of the given servers from istSOS.
+	 * Requests run asynchronously; the callback receives a {@link Changes}
+	 * with {@link Event#SNAPSHOT_REVALIDATED} once every request completed,
+	 * and every failed request through onError.
+	 * @param servers collection of {@link Server}
+	 * @param callback {@link IstSOSListener}
+	 */
+	public static void revalidate(Collection<Server> servers, final IstSOSListener callback) {
+
+		final Changes changes = new Changes();
+		final Map<Service, CatalogSnapshot> before = new ConcurrentHashMap<Service, CatalogSnapshot>();
+		final AtomicInteger pending = new AtomicInteger(servers.size() + 1);
+
+		final Runnable done = new Runnable() {
+			@Override
+			public void run() {
+				if(pending.decrementAndGet() > 0){
+					return;
+				}
+				for(Map.Entry<Service, CatalogSnapshot> entry : before.entrySet()){
+					CatalogSnapshot current = entry.getKey().getCatalog().getSnapshot();
+					Set<Catalog.Section> sections = EnumSet.noneOf(Catalog.Section.class);
+					for(Catalog.Section section : Catalog.Section.values()){
+						if(current.getFingerprint(section) != entry.getValue().getFingerprint(section)){
+							sections.add(section);
+						}
+					}
+					if(!sections.isEmpty()){
+						changes.changed.put(key(entry.getKey()), sections);
+					}
+				}
+				if(callback != null){
+					callback.onSuccess(new EventObject(Event.SNAPSHOT_REVALIDATED, changes));
+				}
+			}
+		};
+
+		for(final Server server : servers){
+
+			final List<String> known = new ArrayList<String>();
+			for(Service service : server.getServices()){
+				known.add(service.getName());
+			}
+
+			server.loadServices(new IstSOSListener() {
+
+				@Override
+				public void onSuccess(EventObject event) {
+
+					List<Service> services = server.getServices();
+					pending.addAndGet(services.size() * Catalog.Section.values().length);
+
+					List<String> loaded = new ArrayList<String>();
+					for(Service service : services){
+						loaded.add(service.getName());
+						if(!known.contains(service.getName())){
+							changes.added.add(key(service));
+						}
+						before.put(service, service.getCatalog().getSnapshot());
+						reload(service, callback, done);
+					}
+					for(String name : known){
+						if(!loaded.contains(name)){
+							changes.removed.add(server.getServerName() + "/" + name);
+						}
+					}
+					done.run();
+				}
+
+				@Override
+				public void onError(EventObject event) {
+					if(callback != null){
+						callback.onError(event);
+					}
+					done.run();
+				}
+			});
+		}
+
+		done.run();
+	}
+
+	private static void reload(Service service, final IstSOSListener callback, final Runnable done) {
+
+		IstSOSListener listener = new IstSOSListener() {
+
+			@Override
+			public void onSuccess(EventObject event) {
+				done.run();
+			}
+
+			@Override
+			public void onError(EventObject event) {
+				if(callback != null){
+					callback.onError(event);
+				}
+				done.run();
+			}
+		};
+
+		service.syncProcedures(listener);
+		service.syncOfferings(listener);
+		service.loadObservedProperties(listener);
+		service.loadUnitsOfMeasure(listener);
+		service.loadDataQualities(listener);
+		service.loadVirtualProcedures(listener);
+	}
+
+	private static void readCatalog(DataInputStream data, Catalog catalog) throws IOException {
+		catalog.replaceProcedures(readSection(data, Procedure.class));
+		catalog.replaceOfferings(readSection(data, Offering.class));
+		catalog.replaceObservedProperties(readSection(data, ObservedProperty.class));
+		catalog.replaceUnitsOfMeasure(readSection(data, UnitOfMeasure.class));
+		catalog.replaceDataQualities(readSection(data, DataQuality.class));
+		catalog.replaceVirtualProcedures(readSection(data, VirtualProcedure.class));
+	}
+
+	private static <T> List<T> readSection(DataInputStream data, Class<T> type) throws IOException {
+		int count = data.readInt();
+		List<T> entries = new ArrayList<T>(count);
+		for(int i = 0; i < count; i++){
+			entries.add(GSON.fromJson(readString(data), type));
+		}
+		return entries;
+	}
+
+	private static String key(Service service) {
+		return service.getServer().getServerName() + "/" + service.getName();
+	}
+
+	// null is written as length -1
+	private static void writeString(DataOutputStream data, String value) throws IOException {
+		if(value == null){
+			data.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		data.writeInt(bytes.length);
+		data.write(bytes);
+	}
+
+	private static String readString(DataInputStream data) throws IOException {
+		int length = data.readInt();
+		if(length < 0){
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		data.readFully(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Differences found by a revalidation, services are keyed as server/service.
+	 */
+	public static class Changes {
+
+		private final Map<String, Set<Catalog.Section>> changed =
+				Collections.synchronizedMap(new LinkedHashMap<String, Set<Catalog.Section>>());
+		private final List<String> added = Collections.synchronizedList(new ArrayList<String>());
+		private final List<String> removed = Collections.synchronizedList(new ArrayList<String>());
+
+		/**
+		 *
+		 * @return map of service to the catalog sections that changed
+		 */
+		public Map<String, Set<Catalog.Section>> getChangedSections() {
+			return changed;
+		}
+
+		public List<String> getAddedServices() {
+			return added;
+		}
+
+		public List<String> getRemovedServices() {
+			return removed;
+		}
+
+		public boolean isEmpty() {
+			return changed.isEmpty() && added.isEmpty() && removed.isEmpty();
+		}
+	}
+
+}
@@ -0,0 +1,549 @@
+package org.istsos.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.istsos.client.observation.DataArray;
+import org.istsos.client.observation.Field;
+import org.istsos.client.observation.IsoTime;
+import org.istsos.client.observation.Result;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+/**
+ * Receives the observations istSOS publishes to its MQTT broker as they are
+ * inserted, instead of polling getObservation.
+ * <p>
+ * The subscriber speaks MQTT 3.1.1 over a plain socket on its own daemon
+ * thread, subscribing at QoS 1 to the topic of the {@link MqttPublisher}
+ * configuration, or to all its sub topics when it ends with a slash. Each
+ * message is decoded into an {@link Observation}, appended to the
+ * {@link ObservationStore} of the service and reported with
+ * {@link Event#OBSERVATION_RECEIVED} to the listener and the event bus.
+ * <p>
+ * Payloads can be JSON, either an observation or its DataArray, or CSV rows
+ * of time and values. CSV rows may start with a header line of observed
+ * property definitions; otherwise the outputs of the procedure in the catalog
+ * name the columns. When the payload does not name its procedure, the last
+ * level of the topic does. Messages are acknowledged once stored or rejected;
+ * failures of a message, including exceptions thrown by the listener, are
+ * reported with {@link Event#OBSERVATION_REJECTED} and do not stop the
+ * subscriber. Lost connections are retried with an exponential backoff.
+ *
+ */
+public class MqttObservationSubscriber {
+
+	public static final int DEFAULT_KEEP_ALIVE = 30;
+
+	private static final int CONNECT = 1;
+	private static final int CONNACK = 2;
+	private static final int PUBLISH = 3;
+	private static final int PUBACK = 4;
+	private static final int PUBREC = 5;
+	private static final int PUBREL = 6;
+	private static final int PUBCOMP = 7;
+	private static final int SUBSCRIBE = 8;
+	private static final int SUBACK = 9;
+	private static final int PINGREQ = 12;
+	private static final int PINGRESP = 13;
+	private static final int DISCONNECT = 14;
+
+	private static final long MIN_BACKOFF = 500;
+	private static final long MAX_BACKOFF = 30000;
+
+	private final Service service;
+	private final MqttPublisher config;
+	private final String clientId;
+
+	private volatile String topicFilter;
+	private volatile int keepAlive = DEFAULT_KEEP_ALIVE;
+	private volatile IstSOSListener listener;
+
+	private volatile boolean running = false;
+	private volatile boolean connected = false;
+	private volatile Socket socket;
+	private Thread thread;
+
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong stored = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong reconnects = new AtomicLong();
+
+	/**
+	 * Initialize a subscriber.
+	 * @param service {@link Service} receiving the observations
+	 * @param config {@link MqttPublisher} broker configuration of the service
+	 */
+	public MqttObservationSubscriber(Service service, MqttPublisher config) {
+		if(config == null || !config.isEnabled()){
+			throw new IllegalArgumentException("No MQTT broker is configured");
+		}
+		this.service = service;
+		this.config = config;
+		this.clientId = "istsos-" + UUID.randomUUID().toString().substring(0, 8);
+		String topic = config.getBrokerTopic() == null ? "" : config.getBrokerTopic().trim();
+		this.topicFilter = topic.isEmpty() ? "#" : topic.endsWith("/") ? topic + "#" : topic;
+	}
+	/**
+	 * Set the listener notified for every stored observation and every failure.
+	 * @param listener {@link IstSOSListener}
+	 */
+	public void setListener(IstSOSListener listener) {
+		this.listener = listener;
+	}
+
+	public String getTopicFilter() {
+		return topicFilter;
+	}
+	/**
+	 * Replace the topic filter used from the next connection on.
+	 * @param topicFilter MQTT topic filter, wildcards allowed
+	 */
+	public void setTopicFilter(String topicFilter) {
+		this.topicFilter = topicFilter;
+	}
+	/**
+	 * Change the keep alive used from the next connection on.
+	 * @param keepAlive seconds between pings of an idle connection
+	 */
+	public void setKeepAlive(int keepAlive) {
+		this.keepAlive = Math.max(1, keepAlive);
+	}
+	/**
+	 * Connect to the broker and start receiving observations.
+	 */
+	public synchronized void start() {
+		if(running){
+			return;
+		}
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "istsos-mqtt-" + service.getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+	/**
+	 * Disconnect from the broker.
+	 */
+	public synchronized void stop() {
+		running = false;
+		Socket current = socket;
+		if(current != null){
+			try {
+				OutputStream out = current.getOutputStream();
+				synchronized (out) {
+					out.write(new byte[]{(byte) (DISCONNECT << 4), 0});
+					out.flush();
+				}
+			} catch (IOException e) {
+				// closing anyway
+			}
+			close(current);
+		}
+		if(thread != null){
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+	/**
+	 *
+	 * @return true while connected and subscribed
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+	/**
+	 * Retrieve subscriber statistics.
+	 * @return map of metric name to value
+	 */
+	public Map<String, Object> getMetrics() {
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		metrics.put("connected", connected);
+		metrics.put("received", received.get());
+		metrics.put("stored", stored.get());
+		metrics.put("failed", failed.get());
+		metrics.put("reconnects", reconnects.get());
+		return metrics;
+	}
+
+	private void loop() {
+		long backoff = MIN_BACKOFF;
+		while(running){
+			Socket current = null;
+			boolean established = false;
+			try {
+				current = new Socket();
+				current.connect(new InetSocketAddress(config.getBrokerUrl().trim(), config.getPort()), 10000);
+				current.setTcpNoDelay(true);
+				socket = current;
+				session(current);
+			} catch (IOException | RuntimeException e) {
+				// e.g. an invalid port, retried like a lost connection
+				if(running){
+					report(new EventObject(Event.REQUEST_FAILED, e));
+				}
+			} finally {
+				established = connected;
+				connected = false;
+				socket = null;
+				close(current);
+			}
+			if(!running){
+				break;
+			}
+			if(established){
+				backoff = MIN_BACKOFF;
+			}
+			reconnects.incrementAndGet();
+			try {
+				Thread.sleep(backoff);
+			} catch (InterruptedException e) {
+				break;
+			}
+			backoff = Math.min(MAX_BACKOFF, backoff * 2);
+		}
+	}
+
+	private void session(Socket socket) throws IOException {
+
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		OutputStream out = socket.getOutputStream();
+		int keepAlive = this.keepAlive;
+
+		write(out, CONNECT << 4, connectPacket(keepAlive));
+		int[] header = readHeader(in);
+		byte[] body = readBody(in, header[1]);
+		if(header[0] >> 4 != CONNACK || body.length < 2){
+			throw new IOException("Unexpected MQTT packet while connecting");
+		}
+		if(body[1] != 0){
+			throw new IOException("MQTT connection refused with code " + body[1]);
+		}
+
+		ByteArrayOutputStream subscribe = new ByteArrayOutputStream();
+		writeShort(subscribe, 1);
+		writeString(subscribe, topicFilter);
+		subscribe.write(1);
+		write(out, (SUBSCRIBE << 4) | 0x02, subscribe.toByteArray());
+
+		// ping when idle for half the keep alive, give up after a whole one
+		socket.setSoTimeout(keepAlive * 500);
+		boolean pinged = false;
+		while(running){
+			try {
+				header = readHeader(in);
+			} catch (SocketTimeoutException e) {
+				if(pinged){
+					throw new IOException("MQTT broker did not answer ping");
+				}
+				write(out, PINGREQ << 4, new byte[0]);
+				pinged = true;
+				continue;
+			}
+			pinged = false;
+			body = readBody(in, header[1]);
+
+			switch (header[0] >> 4) {
+			case SUBACK:
+				if(body.length < 3 || (body[2] & 0xff) == 0x80){
+					throw new IOException("MQTT subscription to " + topicFilter + " refused");
+				}
+				connected = true;
+				break;
+			case PUBLISH:
+				publish(out, header[0], body);
+				break;
+			case PUBREL:
+				write(out, PUBCOMP << 4, new byte[]{body[0], body[1]});
+				break;
+			case PINGRESP:
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private void publish(OutputStream out, int flags, byte[] body) throws IOException {
+
+		int qos = (flags >> 1) & 0x03;
+		int topicLength = ((body[0] & 0xff) << 8) | (body[1] & 0xff);
+		String topic = new String(body, 2, topicLength, StandardCharsets.UTF_8);
+		int offset = 2 + topicLength;
+		byte[] packetId = null;
+		if(qos > 0){
+			packetId = new byte[]{body[offset], body[offset + 1]};
+			offset += 2;
+		}
+		received.incrementAndGet();
+
+		String payload = new String(body, offset, body.length - offset, StandardCharsets.UTF_8);
+		Observation observation = null;
+		try {
+			observation = decode(topic, payload);
+			if(observation != null){
+				service.getObservationStore().append(observation);
+				stored.incrementAndGet();
+			}
+		} catch (RuntimeException e) {
+			observation = null;
+			failed.incrementAndGet();
+			report(new EventObject(Event.OBSERVATION_REJECTED, payload));
+		}
+
+		// acknowledged once handled, a rejected message would fail again
+		if(packetId != null){
+			write(out, (qos == 1 ? PUBACK : PUBREC) << 4, packetId);
+		}
+
+		if(observation != null){
+			try {
+				service.dispatch(listener, new EventObject(Event.OBSERVATION_RECEIVED, observation));
+			} catch (RuntimeException e) {
+				failed.incrementAndGet();
+				report(new EventObject(Event.OBSERVATION_REJECTED, payload));
+			}
+		}
+	}
+	/**
+	 * Decode a message payload.
+	 * @param topic topic the message was published to
+	 * @param payload as String
+	 * @return {@link Observation}, null for an empty payload
+	 * @throws IllegalArgumentException if the payload cannot be decoded
+	 */
+	Observation decode(String topic, String payload) {
+
+		String text = payload.trim();
+		if(text.isEmpty()){
+			return null;
+		}
+		String procedure = lastLevel(topic);
+
+		if(text.startsWith("{")){
+			JsonObject json;
+			try {
+				json = new JsonParser().parse(text).getAsJsonObject();
+			} catch (JsonParseException | IllegalStateException e) {
+				throw new IllegalArgumentException("Invalid JSON observation", e);
+			}
+			if(json.has("data") && json.get("data").isJsonObject()){
+				json = json.getAsJsonObject("data");
+			}
+			Observation observation;
+			if(json.has("result")){
+				observation = Observation.fromJson(json);
+			}else{
+				JsonElement dataArray = json.has("DataArray") ? json.get("DataArray") : json;
+				Result result = new Result();
+				result.setDataArray(new Gson().fromJson(dataArray, DataArray.class));
+				observation = new Observation();
+				observation.setResult(result);
+				if(json.has("procedure")){
+					observation.setProcedure(json.get("procedure").getAsString());
+				}
+				if(json.has("name")){
+					observation.setName(json.get("name").getAsString());
+				}
+			}
+			if(observation.getName() == null && observation.getProcedure() == null){
+				observation.setName(procedure);
+			}
+			return observation;
+		}
+
+		ArrayList<String[]> rows = new ArrayList<String[]>();
+		ArrayList<Field> fields = null;
+		for(String line : text.split("\\r?\\n")){
+			line = line.trim();
+			if(line.isEmpty()){
+				continue;
+			}
+			String[] cells = line.split(",");
+			for(int i = 0; i < cells.length; i++){
+				cells[i] = cells[i].trim();
+			}
+			if(rows.isEmpty() && fields == null && IsoTime.parseOrMin(cells[0]) == Long.MIN_VALUE){
+				fields = new ArrayList<Field>();
+				for(String definition : cells){
+					fields.add(new Field(null, definition, null));
+				}
+				continue;
+			}
+			rows.add(cells);
+		}
+		if(rows.isEmpty()){
+			throw new IllegalArgumentException("No CSV rows in message on " + topic);
+		}
+		if(fields == null){
+			fields = outputs(procedure, rows.get(0).length);
+		}
+
+		DataArray dataArray = new DataArray();
+		dataArray.setFields(fields);
+		dataArray.setValues(rows);
+		Result result = new Result();
+		result.setDataArray(dataArray);
+		Observation observation = new Observation();
+		observation.setName(procedure);
+		observation.setResult(result);
+		return observation;
+	}
+
+	// columns named by the outputs of the procedure in the catalog, if they match
+	private ArrayList<Field> outputs(String procedureName, int columns) {
+		Procedure procedure = service.getProcedure(procedureName);
+		if(procedure == null || procedure.getOutputs() == null || procedure.getOutputs().size() != columns){
+			return null;
+		}
+		ArrayList<Field> fields = new ArrayList<Field>(columns);
+		List<ObservedProperty> outputs = procedure.getOutputs();
+		for(ObservedProperty output : outputs){
+			fields.add(new Field(output.getName(), output.getDefinition(), output.getUom()));
+		}
+		return fields;
+	}
+
+	// the listener throwing again goes to the uncaught exception handler
+	private void report(EventObject event) {
+		IstSOSListener current = listener;
+		if(current == null){
+			return;
+		}
+		try {
+			current.onError(event);
+		} catch (RuntimeException e) {
+			Thread thread = Thread.currentThread();
+			thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+		}
+	}
+
+	private byte[] connectPacket(int keepAlive) throws IOException {
+		ByteArrayOutputStream packet = new ByteArrayOutputStream();
+		writeString(packet, "MQTT");
+		packet.write(4);
+
+		String user = config.getBrokerUser();
+		String password = config.getBrokerPassword();
+		boolean hasUser = user != null && !user.isEmpty();
+		boolean hasPassword = hasUser && password != null && !password.isEmpty();
+		// clean session
+		int flags = 0x02;
+		if(hasUser){
+			flags |= 0x80;
+		}
+		if(hasPassword){
+			flags |= 0x40;
+		}
+		packet.write(flags);
+		writeShort(packet, keepAlive);
+		writeString(packet, clientId);
+		if(hasUser){
+			writeString(packet, user);
+		}
+		if(hasPassword){
+			writeString(packet, password);
+		}
+		return packet.toByteArray();
+	}
+
+	private static String lastLevel(String topic) {
+		String[] levels = topic.split("/");
+		for(int i = levels.length - 1; i >= 0; i--){
+			if(!levels[i].isEmpty()){
+				return levels[i];
+			}
+		}
+		return topic;
+	}
+
+	// packet type and flags, remaining length
+	static int[] readHeader(InputStream in) throws IOException {
+		int first = in.read();
+		if(first < 0){
+			throw new EOFException("MQTT connection closed");
+		}
+		int length = 0;
+		int multiplier = 1;
+		int digit;
+		do {
+			digit = in.read();
+			if(digit < 0){
+				throw new EOFException("MQTT connection closed");
+			}
+			length += (digit & 0x7f) * multiplier;
+			multiplier *= 128;
+		} while((digit & 0x80) != 0);
+		return new int[]{first, length};
+	}
+
+	static byte[] readBody(DataInputStream in, int length) throws IOException {
+		byte[] body = new byte[length];
+		in.readFully(body);
+		return body;
+	}
+
+	static void write(OutputStream out, int header, byte[] body) throws IOException {
+		ByteArrayOutputStream packet = new ByteArrayOutputStream(body.length + 5);
+		packet.write(header);
+		int length = body.length;
+		do {
+			int digit = length % 128;
+			length /= 128;
+			packet.write(length > 0 ? digit | 0x80 : digit);
+		} while(length > 0);
+		packet.write(body);
+		synchronized (out) {
+			out.write(packet.toByteArray());
+			out.flush();
+		}
+	}
+
+	static void writeShort(ByteArrayOutputStream out, int value) {
+		out.write((value >> 8) & 0xff);
+		out.write(value & 0xff);
+	}
+
+	static void writeString(ByteArrayOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeShort(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static void close(Socket socket) {
+		if(socket != null){
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+}
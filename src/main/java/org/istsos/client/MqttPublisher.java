@@ -0,0 +1,105 @@
+package org.istsos.client;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * MqttPublisher class. Handles the MQTT broker configuration istSOS publishes
+ * inserted observations to.
+ * Supports conversion to/from JSON.
+ *
+ */
+public class MqttPublisher implements IstSOSObject<MqttPublisher>{
+
+	@SerializedName ("broker_url")
+	private String brokerUrl;
+
+	@SerializedName ("broker_port")
+	private String brokerPort;
+
+	@SerializedName ("broker_topic")
+	private String brokerTopic;
+
+	@SerializedName ("broker_user")
+	private String brokerUser;
+
+	@SerializedName ("broker_password")
+	private String brokerPassword;
+
+
+	public String getBrokerUrl() {
+		return brokerUrl;
+	}
+
+	public void setBrokerUrl(String brokerUrl) {
+		this.brokerUrl = brokerUrl;
+	}
+
+	public String getBrokerPort() {
+		return brokerPort;
+	}
+
+	public void setBrokerPort(String brokerPort) {
+		this.brokerPort = brokerPort;
+	}
+
+	public String getBrokerTopic() {
+		return brokerTopic;
+	}
+
+	public void setBrokerTopic(String brokerTopic) {
+		this.brokerTopic = brokerTopic;
+	}
+
+	public String getBrokerUser() {
+		return brokerUser;
+	}
+
+	public void setBrokerUser(String brokerUser) {
+		this.brokerUser = brokerUser;
+	}
+
+	public String getBrokerPassword() {
+		return brokerPassword;
+	}
+
+	public void setBrokerPassword(String brokerPassword) {
+		this.brokerPassword = brokerPassword;
+	}
+	/**
+	 *
+	 * @return true if a broker is configured
+	 */
+	public boolean isEnabled() {
+		return brokerUrl != null && !brokerUrl.trim().isEmpty();
+	}
+	/**
+	 *
+	 * @return broker port, 1883 if missing
+	 */
+	public int getPort() {
+		if(brokerPort == null || brokerPort.trim().isEmpty()){
+			return 1883;
+		}
+		return Integer.parseInt(brokerPort.trim());
+	}
+
+	@Override
+	public JsonObject toJson() {
+		JsonObject json = new JsonObject();
+		json.addProperty("broker_url", this.getBrokerUrl());
+		json.addProperty("broker_port", this.getBrokerPort());
+		json.addProperty("broker_topic", this.getBrokerTopic());
+		json.addProperty("broker_user", this.getBrokerUser());
+		json.addProperty("broker_password", this.getBrokerPassword());
+		return json;
+	}
+
+	static MqttPublisher fromJson(JsonObject json) {
+		Gson gson = new GsonBuilder().create();
+		return gson.fromJson(json, MqttPublisher.class);
+	}
+
+}
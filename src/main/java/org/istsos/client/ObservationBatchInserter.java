@@ -0,0 +1,397 @@
+package org.istsos.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.istsos.client.ObservationValidator.ValidationResult;
+import org.istsos.client.observation.DataArray;
+import org.istsos.client.observation.Field;
+import org.istsos.client.observation.IsoTime;
+import org.istsos.client.observation.Result;
+
+/**
+ * Collects observation rows of a procedure and inserts them in batches.
+ * <p>
+ * A batch is sent when the number of pending rows reaches the batch size or when
+ * the flush interval elapses, whichever comes first. Both settings are tuned by an
+ * {@link AimdController} from the latency and outcome of every insert. Only one
+ * insert is in flight at a time so rows reach istSOS in order; batches failing with
+ * a timeout or a server error are put back in front of the queue and retried
+ * after an exponential backoff. Rows are sent with the outputs of the procedure
+ * as DataArray fields.
+ *
+ */
+public class ObservationBatchInserter {
+
+	private static final ThreadFactory daemonThreads = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "istsos-batch-inserter");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private final Service service;
+	private final Procedure procedure;
+	private final AimdController controller;
+	private final ScheduledExecutorService scheduler;
+	private final boolean ownScheduler;
+
+	private final ArrayDeque<String[]> pending = new ArrayDeque<String[]>();
+
+	private IstSOSListener listener;
+	private int maxRetries = 3;
+	private long initialBackoff = 500;
+	private long maxBackoff = 30000;
+
+	private boolean inFlight = false;
+	private boolean closed = false;
+	private int retries = 0;
+	private ScheduledFuture<?> timer;
+
+	private ObservationValidator validator;
+	private long lastQueuedTime = Long.MIN_VALUE;
+
+	private long insertedRows = 0;
+	private long droppedRows = 0;
+	private long rejectedRows = 0;
+
+	/**
+	 * Initialize an inserter with a default {@link AimdController}.
+	 * @param service {@link Service}
+	 * @param procedure {@link Procedure}
+	 */
+	public ObservationBatchInserter(Service service, Procedure procedure) {
+		this(service, procedure, new AimdController(), null);
+	}
+	/**
+	 * Initialize an inserter.
+	 * @param service {@link Service}
+	 * @param procedure {@link Procedure}
+	 * @param controller {@link AimdController} tuning batch size and flush interval
+	 * @param scheduler executor for flush timers, a private one is created when null
+	 */
+	public ObservationBatchInserter(Service service, Procedure procedure,
+			AimdController controller, ScheduledExecutorService scheduler) {
+		this.service = service;
+		this.procedure = procedure;
+		this.controller = controller;
+		this.ownScheduler = scheduler == null;
+		this.scheduler = scheduler != null ? scheduler : Executors.newSingleThreadScheduledExecutor(daemonThreads);
+		scheduleFlush();
+	}
+	/**
+	 * Set the listener notified for every inserted batch and every dropped batch.
+	 * @param listener {@link IstSOSListener}
+	 */
+	public void setListener(IstSOSListener listener) {
+		this.listener = listener;
+	}
+	/**
+	 * Set how many times a batch is retried after a timeout or server error before being dropped.
+	 * @param maxRetries as int
+	 */
+	public synchronized void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+	/**
+	 * Set retry policy for timeouts and server errors.
+	 * @param maxRetries attempts after the first one before dropping the batch
+	 * @param initialBackoff delay before the first retry in milliseconds, doubled on every attempt
+	 * @param maxBackoff longest delay between retries in milliseconds
+	 */
+	public synchronized void setRetryPolicy(int maxRetries, long initialBackoff, long maxBackoff) {
+		this.maxRetries = maxRetries;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+	}
+	/**
+	 * Queue a row for insertion. The first value is the ISO 8601 time.
+	 * @param row as String[]
+	 */
+	public void add(String[] row) {
+		addAll(Collections.singletonList(row));
+	}
+	/**
+	 * Queue rows for insertion. When a validator is set, rows failing validation
+	 * are rejected here and reported to the listener with an
+	 * {@link Event#OBSERVATION_REJECTED} event carrying the validation result.
+	 * @param rows collection of String[]
+	 */
+	public void addAll(Collection<String[]> rows) {
+		boolean full;
+		ValidationResult rejected = null;
+		synchronized (this) {
+			if(closed){
+				throw new IllegalStateException("Inserter is closed");
+			}
+			if(validator != null){
+				ValidationResult result = validator.validate(new ArrayList<String[]>(rows), lastQueuedTime);
+				if(result.getLastTime() != Long.MIN_VALUE){
+					lastQueuedTime = result.getLastTime();
+				}
+				if(!result.isValid()){
+					rejected = result;
+					rejectedRows += result.getRejectedRows().size();
+					rows = result.getValidRows();
+				}
+			}
+			pending.addAll(rows);
+			full = pending.size() >= controller.getBatchSize();
+		}
+		if(rejected != null && listener != null){
+			listener.onError(new EventObject(Event.OBSERVATION_REJECTED, rejected));
+		}
+		if(full){
+			flush();
+		}
+	}
+	/**
+	 * Validate rows before queuing them. Rows must also follow the last queued row in time.
+	 * @param validator {@link ObservationValidator}, null to disable validation
+	 */
+	public synchronized void setValidator(ObservationValidator validator) {
+		this.validator = validator;
+		if(validator != null && lastQueuedTime == Long.MIN_VALUE){
+			SamplingTime samplingTime = procedure.getSamplingTime();
+			if(samplingTime != null && samplingTime.getEndPosition() != null){
+				lastQueuedTime = samplingTime.getEndPosition().getTime();
+			}
+		}
+	}
+	/**
+	 * Send the next batch now, unless an insert is already in flight.
+	 */
+	public void flush() {
+
+		ArrayList<String[]> batch;
+
+		synchronized (this) {
+			if(inFlight || pending.isEmpty()){
+				return;
+			}
+			int size = Math.min(controller.getBatchSize(), pending.size());
+			batch = new ArrayList<String[]>(size);
+			for(int i = 0; i < size; i++){
+				batch.add(pending.poll());
+			}
+			inFlight = true;
+		}
+
+		try {
+			send(batch);
+		} catch (RuntimeException e) {
+			synchronized (this) {
+				inFlight = false;
+				droppedRows += batch.size();
+			}
+			throw e;
+		}
+	}
+	/**
+	 * Stop the flush timer and send all pending rows, one batch after the
+	 * other. Batches failing from now on are dropped and reported to the
+	 * listener instead of retried.
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+			if(timer != null){
+				timer.cancel(false);
+			}
+		}
+		flush();
+		if(ownScheduler){
+			scheduler.shutdown();
+		}
+	}
+
+	public synchronized int getPendingRows() {
+		return pending.size();
+	}
+
+	public AimdController getController() {
+		return controller;
+	}
+	/**
+	 * Retrieve controller settings together with queue counters.
+	 * @return map of metric name to value
+	 */
+	public Map<String, Number> getMetrics() {
+		Map<String, Number> metrics = controller.getMetrics();
+		synchronized (this) {
+			metrics.put("pendingRows", pending.size());
+			metrics.put("insertedRows", insertedRows);
+			metrics.put("droppedRows", droppedRows);
+			metrics.put("rejectedRows", rejectedRows);
+		}
+		return metrics;
+	}
+
+	private void send(final ArrayList<String[]> batch) {
+
+		final Observation observation = toObservation(batch);
+		final long start = System.nanoTime();
+
+		service.insertObservation(procedure, observation, new IstSOSListener() {
+
+			@Override
+			public void onSuccess(EventObject event) {
+
+				controller.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+				synchronized (ObservationBatchInserter.this) {
+					insertedRows += batch.size();
+					retries = 0;
+				}
+				completed();
+
+				if(listener != null){
+					listener.onSuccess(event);
+				}
+			}
+
+			@Override
+			public void onError(EventObject event) {
+
+				boolean retryable = event.getObject() instanceof RequestException
+						&& ((RequestException) event.getObject()).isRetryable();
+
+				controller.onFailure(retryable);
+
+				long backoff = -1;
+				synchronized (ObservationBatchInserter.this) {
+					if(retryable && !closed && retries < maxRetries){
+						retries++;
+						backoff = Math.min(maxBackoff, initialBackoff << Math.min(retries - 1, 20));
+					}
+				}
+				if(backoff < 0 || !retryLater(batch, backoff)){
+					synchronized (ObservationBatchInserter.this) {
+						droppedRows += batch.size();
+						retries = 0;
+					}
+					completed();
+					if(listener != null){
+						listener.onError(event);
+					}
+				}
+			}
+		});
+	}
+
+	// put the batch back in front of the queue and send it again after the backoff
+	private boolean retryLater(ArrayList<String[]> batch, long backoff) {
+		synchronized (this) {
+			for(int i = batch.size() - 1; i >= 0; i--){
+				pending.addFirst(batch.get(i));
+			}
+		}
+		try {
+			// still in flight until then, so timers do not send newer rows first
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (ObservationBatchInserter.this) {
+						inFlight = false;
+					}
+					flush();
+				}
+			}, backoff, TimeUnit.MILLISECONDS);
+			return true;
+		} catch (RejectedExecutionException e) {
+			synchronized (this) {
+				for(int i = 0; i < batch.size(); i++){
+					pending.pollFirst();
+				}
+			}
+			return false;
+		}
+	}
+
+	private void completed() {
+		boolean next;
+		synchronized (this) {
+			inFlight = false;
+			// once closed, drain whatever is left
+			next = closed ? !pending.isEmpty() : pending.size() >= controller.getBatchSize();
+		}
+		if(next){
+			// do not send from the IO thread of the previous request
+			try {
+				scheduler.execute(new Runnable() {
+					@Override
+					public void run() {
+						flush();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// scheduler shut down by close(), drain from this thread
+				flush();
+			}
+		}
+	}
+
+	private synchronized void scheduleFlush() {
+		if(closed){
+			return;
+		}
+		timer = scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					flush();
+				} finally {
+					scheduleFlush();
+				}
+			}
+		}, controller.getFlushInterval(), TimeUnit.MILLISECONDS);
+	}
+
+	private Observation toObservation(ArrayList<String[]> rows) {
+
+		DataArray dataArray = new DataArray();
+		List<ObservedProperty> outputs = procedure.getOutputs();
+		if(outputs != null && !outputs.isEmpty()){
+			ArrayList<Field> fields = new ArrayList<Field>(outputs.size());
+			for(ObservedProperty output : outputs){
+				fields.add(new Field(output.getName(), output.getDefinition(), output.getUom()));
+			}
+			dataArray.setFields(fields);
+		}
+		dataArray.setValues(rows);
+
+		Result result = new Result();
+		result.setDataArray(dataArray);
+
+		Observation observation = new Observation();
+		observation.setName(procedure.getSystem());
+		observation.setProcedure(procedure.getSystemId() != null ? procedure.getSystemId() : procedure.getSystem());
+		observation.setResult(result);
+
+		long begin = IsoTime.parseOrMin(firstValue(rows.get(0)));
+		long end = IsoTime.parseOrMin(firstValue(rows.get(rows.size() - 1)));
+		if(begin != Long.MIN_VALUE && end != Long.MIN_VALUE){
+			observation.setSamplingTime(new SamplingTime(null, new Date(begin), new Date(end)));
+		}
+
+		return observation;
+	}
+
+	private static String firstValue(String[] row) {
+		return row != null && row.length > 0 ? row[0] : null;
+	}
+
+}
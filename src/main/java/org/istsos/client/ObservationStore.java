@@ -0,0 +1,334 @@
+package org.istsos.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.istsos.client.observation.DataArray;
+import org.istsos.client.observation.Field;
+import org.istsos.client.observation.IsoTime;
+import org.istsos.client.observation.SeriesBuffer;
+import org.istsos.client.observation.SeriesKey;
+import org.istsos.client.observation.SeriesSnapshot;
+import org.istsos.client.observation.UnitRegistry;
+
+/**
+ * Retention store for loaded observations.
+ * <p>
+ * Every value column of an observation is kept in its own bounded
+ * {@link SeriesBuffer}, keyed by procedure name and observed property definition,
+ * together with the time column and the matching quality index column.
+ * Series hold at most {@code maxRows} rows no older than {@code maxAge}.
+ * Loaders append concurrently; readers get snapshot copies of a series,
+ * optionally converted to another unit of measure.
+ *
+ */
+public class ObservationStore {
+
+	public static final int DEFAULT_MAX_ROWS = 100000;
+
+	private static final String TIME_SUFFIX = ":time:iso8601";
+	private static final String QUALITY_SUFFIX = ":qualityIndex";
+
+	private final ConcurrentHashMap<SeriesKey, SeriesBuffer> series = new ConcurrentHashMap<SeriesKey, SeriesBuffer>();
+	// unit of measure of the stored values, from the DataArray fields
+	private final ConcurrentHashMap<SeriesKey, String> units = new ConcurrentHashMap<SeriesKey, String>();
+
+	private volatile UnitRegistry unitRegistry = UnitRegistry.getDefault();
+
+	private volatile int maxRows;
+	private volatile long maxAge;
+
+	/**
+	 * Initialize a store keeping {@link #DEFAULT_MAX_ROWS} rows per series regardless of age.
+	 */
+	public ObservationStore() {
+		this(DEFAULT_MAX_ROWS, 0);
+	}
+	/**
+	 * Initialize a store.
+	 * @param maxRows maximum rows per series
+	 * @param maxAge maximum age of rows in milliseconds, 0 to keep rows regardless of age
+	 */
+	public ObservationStore(int maxRows, long maxAge) {
+		this.maxRows = maxRows;
+		this.maxAge = maxAge;
+	}
+	/**
+	 * Change the retention of series created from now on.
+	 * @param maxRows maximum rows per series
+	 * @param maxAge maximum age of rows in milliseconds, 0 to keep rows regardless of age
+	 */
+	public void setRetention(int maxRows, long maxAge) {
+		this.maxRows = maxRows;
+		this.maxAge = maxAge;
+	}
+	/**
+	 * Store the rows of an observation. Columns are matched to observed properties
+	 * using the DataArray fields; without fields, value columns are keyed as
+	 * {@code column:N}.
+	 * @param observation {@link Observation}
+	 * @return set of series with new or changed rows
+	 */
+	public Set<SeriesKey> append(Observation observation) {
+
+		Set<SeriesKey> changed = new HashSet<SeriesKey>();
+
+		String procedure = observation.getName() != null ? observation.getName() : observation.getProcedure();
+		if(procedure == null || observation.getResult() == null || observation.getResult().getDataArray() == null){
+			return changed;
+		}
+
+		DataArray dataArray = observation.getResult().getDataArray();
+		List<String[]> rows = dataArray.getValues();
+		if(rows == null || rows.isEmpty()){
+			return changed;
+		}
+
+		// null rows are skipped, the first other one gives the column count
+		int columns = 0;
+		for(String[] row : rows){
+			if(row != null){
+				columns = row.length;
+				break;
+			}
+		}
+		List<Field> fields = dataArray.getFields();
+
+		// parse the time column once for all series
+		long[] times = new long[rows.size()];
+		for(int r = 0; r < times.length; r++){
+			String[] row = rows.get(r);
+			times[r] = row != null && row.length > 0 ? IsoTime.parseOrMin(row[0]) : Long.MIN_VALUE;
+		}
+
+		long now = System.currentTimeMillis();
+
+		for(int c = 1; c < columns; c++){
+
+			String definition = definition(fields, c);
+			if(definition.endsWith(QUALITY_SUFFIX) || definition.endsWith(TIME_SUFFIX)){
+				continue;
+			}
+
+			int qualityColumn = -1;
+			if(c + 1 < columns && definition(fields, c + 1).endsWith(QUALITY_SUFFIX)){
+				qualityColumn = c + 1;
+			}
+
+			SeriesKey key = new SeriesKey(procedure, definition);
+			SeriesBuffer buffer = getOrCreate(key);
+			String uom = uom(fields, c);
+			if(uom != null){
+				units.put(key, uom);
+			}
+
+			boolean appended = false;
+			for(int r = 0; r < times.length; r++){
+				String[] row = rows.get(r);
+				if(times[r] == Long.MIN_VALUE || row.length <= c){
+					continue;
+				}
+				int quality = qualityColumn > 0 && row.length > qualityColumn
+						? parseQuality(row[qualityColumn]) : SeriesBuffer.NO_QUALITY;
+				appended |= buffer.append(times[r], parseValue(row[c]), quality);
+			}
+			buffer.evict(now);
+
+			if(appended){
+				changed.add(key);
+			}
+		}
+
+		return changed;
+	}
+	/**
+	 * Retrieve a snapshot of a series between two times, inclusive.
+	 * @param key {@link SeriesKey}
+	 * @param from epoch milliseconds, Long.MIN_VALUE for no lower bound
+	 * @param to epoch milliseconds, Long.MAX_VALUE for no upper bound
+	 * @return {@link SeriesSnapshot}, null if the series is unknown
+	 */
+	public SeriesSnapshot snapshot(SeriesKey key, long from, long to) {
+		SeriesBuffer buffer = series.get(key);
+		if(buffer == null){
+			return null;
+		}
+		buffer.evict(System.currentTimeMillis());
+		return buffer.snapshot(from, to);
+	}
+	/**
+	 * Retrieve a snapshot of a series between two times, inclusive, with the
+	 * values converted to the given unit of measure.
+	 * @param key {@link SeriesKey}
+	 * @param from epoch milliseconds, Long.MIN_VALUE for no lower bound
+	 * @param to epoch milliseconds, Long.MAX_VALUE for no upper bound
+	 * @param uom target unit of measure code, null to keep the stored unit
+	 * @return {@link SeriesSnapshot}, null if the series is unknown
+	 * @throws IllegalArgumentException if the stored unit is unknown or not convertible
+	 */
+	public SeriesSnapshot snapshot(SeriesKey key, long from, long to, String uom) {
+		SeriesSnapshot snapshot = snapshot(key, from, to);
+		if(snapshot == null || uom == null){
+			return snapshot;
+		}
+		String stored = units.get(key);
+		if(stored == null){
+			throw new IllegalArgumentException("Unit of measure of " + key + " is unknown");
+		}
+		return unitRegistry.getConversion(stored, uom).convert(snapshot);
+	}
+	/**
+	 * Retrieve a snapshot of a whole series.
+	 * @param procedure procedure name
+	 * @param definition observed property definition URN
+	 * @return {@link SeriesSnapshot}, null if the series is unknown
+	 */
+	public SeriesSnapshot snapshot(String procedure, String definition) {
+		return snapshot(new SeriesKey(procedure, definition), Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+	/**
+	 * Retrieve the unit of measure of the stored values of a series.
+	 * @param key {@link SeriesKey}
+	 * @return uom code, null if unknown
+	 */
+	public String getUnit(SeriesKey key) {
+		return units.get(key);
+	}
+	/**
+	 * Declare the unit of measure of a series whose fields carry none.
+	 * @param key {@link SeriesKey}
+	 * @param uom uom code
+	 */
+	public void setUnit(SeriesKey key, String uom) {
+		units.put(key, uom);
+	}
+
+	public UnitRegistry getUnitRegistry() {
+		return unitRegistry;
+	}
+	/**
+	 * Replace the registry used for conversions.
+	 * @param unitRegistry {@link UnitRegistry}
+	 */
+	public void setUnitRegistry(UnitRegistry unitRegistry) {
+		this.unitRegistry = unitRegistry;
+	}
+	/**
+	 * Retrieve the buffer of a series.
+	 * @param key {@link SeriesKey}
+	 * @return {@link SeriesBuffer}, null if the series is unknown
+	 */
+	public SeriesBuffer getSeries(SeriesKey key) {
+		return series.get(key);
+	}
+	/**
+	 * Retrieve the keys of all stored series.
+	 * @return list of {@link SeriesKey}
+	 */
+	public List<SeriesKey> getSeriesKeys() {
+		return new ArrayList<SeriesKey>(series.keySet());
+	}
+	/**
+	 * Remove a series.
+	 * @param key {@link SeriesKey}
+	 */
+	public void remove(SeriesKey key) {
+		series.remove(key);
+		units.remove(key);
+	}
+	/**
+	 * Remove all series.
+	 */
+	public void clear() {
+		series.clear();
+		units.clear();
+	}
+	/**
+	 * Retrieve the total number of rows held.
+	 * @return rows as long
+	 */
+	public long getRowCount() {
+		long rows = 0;
+		for(SeriesBuffer buffer : series.values()){
+			rows += buffer.size();
+		}
+		return rows;
+	}
+	/**
+	 * Retrieve the memory allocated for rows by all series.
+	 * @return size in bytes
+	 */
+	public long getAllocatedBytes() {
+		long bytes = 0;
+		for(SeriesBuffer buffer : series.values()){
+			bytes += buffer.getAllocatedBytes();
+		}
+		return bytes;
+	}
+	/**
+	 * Retrieve the memory allocated for rows per series.
+	 * @return map of {@link SeriesKey} to size in bytes
+	 */
+	public Map<SeriesKey, Long> getAllocatedBytesBySeries() {
+		Map<SeriesKey, Long> bytes = new HashMap<SeriesKey, Long>();
+		for(Map.Entry<SeriesKey, SeriesBuffer> entry : series.entrySet()){
+			bytes.put(entry.getKey(), entry.getValue().getAllocatedBytes());
+		}
+		return bytes;
+	}
+
+	private SeriesBuffer getOrCreate(SeriesKey key) {
+		SeriesBuffer buffer = series.get(key);
+		if(buffer == null){
+			SeriesBuffer created = new SeriesBuffer(maxRows, maxAge);
+			buffer = series.putIfAbsent(key, created);
+			if(buffer == null){
+				buffer = created;
+			}
+		}
+		return buffer;
+	}
+
+	private static String definition(List<Field> fields, int column) {
+		if(fields != null && column < fields.size() && fields.get(column) != null
+				&& fields.get(column).getDefinition() != null){
+			return fields.get(column).getDefinition();
+		}
+		return "column:" + column;
+	}
+
+	private static String uom(List<Field> fields, int column) {
+		if(fields != null && column < fields.size() && fields.get(column) != null){
+			return fields.get(column).getUom();
+		}
+		return null;
+	}
+
+	private static double parseValue(String value) {
+		if(value == null){
+			return Double.NaN;
+		}
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	private static int parseQuality(String value) {
+		if(value == null){
+			return SeriesBuffer.NO_QUALITY;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return SeriesBuffer.NO_QUALITY;
+		}
+	}
+
+}
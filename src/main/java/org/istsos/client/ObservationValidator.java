@@ -0,0 +1,379 @@
+package org.istsos.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.istsos.client.observation.DataArray;
+import org.istsos.client.observation.Field;
+import org.istsos.client.observation.IsoTime;
+import org.istsos.client.observation.Result;
+
+/**
+ * Pre-flight validation of observation rows against the outputs of a procedure.
+ * <p>
+ * Rows are checked column by column: the time column is parsed into a long array
+ * and checked to be strictly increasing and after the end of the procedure sampling
+ * time, value columns must be numeric and quality index columns must hold a data
+ * quality code known to the service. Rows with any failure are reported with their
+ * index, column and reason, so they can be rejected before the insert request.
+ *
+ */
+public class ObservationValidator {
+
+	private static final String TIME_SUFFIX = ":time:iso8601";
+	private static final String QUALITY_SUFFIX = ":qualityIndex";
+
+	private static final int TIME = 0;
+	private static final int VALUE = 1;
+	private static final int QUALITY = 2;
+
+	private final Procedure procedure;
+	private final String[] definitions;
+	private final int[] columnTypes;
+	private final Set<Integer> qualityCodes;
+
+	/**
+	 * Initialize a validator for a described procedure.
+	 * @param procedure {@link Procedure} with its outputs, as returned by describeSensor
+	 * @param dataQualities known {@link DataQuality} codes, quality columns are not checked when null or empty
+	 */
+	public ObservationValidator(Procedure procedure, Collection<DataQuality> dataQualities) {
+
+		this.procedure = procedure;
+
+		List<ObservedProperty> outputs = procedure.getOutputs();
+		if(outputs == null || outputs.isEmpty()){
+			throw new IllegalArgumentException("Procedure " + procedure.getSystem()
+					+ " has no outputs, load it with describeSensor first");
+		}
+
+		definitions = new String[outputs.size()];
+		columnTypes = new int[outputs.size()];
+		for(int i = 0; i < outputs.size(); i++){
+			String definition = outputs.get(i).getDefinition();
+			definitions[i] = definition;
+			if(i == 0 || (definition != null && definition.endsWith(TIME_SUFFIX))){
+				columnTypes[i] = TIME;
+			}else if(definition != null && definition.endsWith(QUALITY_SUFFIX)){
+				columnTypes[i] = QUALITY;
+			}else{
+				columnTypes[i] = VALUE;
+			}
+		}
+
+		Set<Integer> codes = new HashSet<Integer>();
+		if(dataQualities != null){
+			for(DataQuality dataQuality : dataQualities){
+				codes.add(dataQuality.getDataQualityCode());
+			}
+		}
+		qualityCodes = codes;
+	}
+	/**
+	 * Validate an observation. Rows must follow the end of the procedure sampling time.
+	 * @param observation {@link Observation}
+	 * @return {@link ValidationResult}
+	 */
+	public ValidationResult validate(Observation observation) {
+
+		long after = Long.MIN_VALUE;
+		SamplingTime samplingTime = procedure.getSamplingTime();
+		if(samplingTime != null && samplingTime.getEndPosition() != null){
+			after = samplingTime.getEndPosition().getTime();
+		}
+
+		Result result = observation.getResult();
+		DataArray dataArray = result != null ? result.getDataArray() : null;
+		if(dataArray == null || dataArray.getValues() == null){
+			return new ValidationResult(Collections.<String[]>emptyList(), new boolean[0],
+					Collections.<RowError>emptyList(), Long.MIN_VALUE);
+		}
+
+		List<RowError> fieldErrors = checkFields(dataArray.getFields());
+		ValidationResult rows = validate(dataArray.getValues(), after);
+		if(fieldErrors.isEmpty()){
+			return rows;
+		}
+
+		// a column mismatch invalidates every row
+		List<RowError> errors = new ArrayList<RowError>(fieldErrors);
+		errors.addAll(rows.getErrors());
+		return new ValidationResult(rows.rows, new boolean[rows.rows.size()], errors, rows.lastTime);
+	}
+	/**
+	 * Validate rows.
+	 * @param rows list of String[], time first
+	 * @param after rows must be strictly later than this epoch time in milliseconds, Long.MIN_VALUE to skip
+	 * @return {@link ValidationResult}
+	 */
+	public ValidationResult validate(List<String[]> rows, long after) {
+
+		int count = rows.size();
+		int columns = definitions.length;
+
+		boolean[] valid = new boolean[count];
+		List<RowError> errors = new ArrayList<RowError>();
+
+		// column count first: other checks only look at well formed rows
+		for(int r = 0; r < count; r++){
+			String[] row = rows.get(r);
+			int length = row == null ? 0 : row.length;
+			if(length != columns){
+				errors.add(new RowError(r, -1, "expected " + columns + " columns, found " + length));
+			}else{
+				valid[r] = true;
+			}
+		}
+
+		long[] times = new long[count];
+		long lastTime = Long.MIN_VALUE;
+
+		for(int c = 0; c < columns; c++){
+			switch (columnTypes[c]) {
+			case TIME:
+				checkTimes(rows, c, valid, times, errors);
+				break;
+			case QUALITY:
+				checkQualities(rows, c, valid, errors);
+				break;
+			default:
+				checkValues(rows, c, valid, errors);
+				break;
+			}
+		}
+
+		// monotonic time over the rows still valid
+		long previous = after;
+		for(int r = 0; r < count; r++){
+			if(!valid[r]){
+				continue;
+			}
+			if(previous != Long.MIN_VALUE && times[r] <= previous){
+				valid[r] = false;
+				errors.add(new RowError(r, 0, previous == after
+						? "time not after the end of the procedure sampling time"
+						: "time not after the previous row"));
+				continue;
+			}
+			previous = times[r];
+			lastTime = times[r];
+		}
+
+		Collections.sort(errors);
+
+		return new ValidationResult(rows, valid, errors, lastTime);
+	}
+
+	private void checkTimes(List<String[]> rows, int column, boolean[] valid, long[] times, List<RowError> errors) {
+		for(int r = 0, n = rows.size(); r < n; r++){
+			if(!valid[r]){
+				continue;
+			}
+			long time = IsoTime.parseOrMin(rows.get(r)[column]);
+			if(time == Long.MIN_VALUE){
+				valid[r] = false;
+				errors.add(new RowError(r, column, "invalid ISO 8601 time '" + rows.get(r)[column] + "'"));
+			}else if(column == 0){
+				times[r] = time;
+			}
+		}
+	}
+
+	private void checkQualities(List<String[]> rows, int column, boolean[] valid, List<RowError> errors) {
+		for(int r = 0, n = rows.size(); r < n; r++){
+			if(!valid[r]){
+				continue;
+			}
+			String value = rows.get(r)[column];
+			int code;
+			try {
+				code = Integer.parseInt(value.trim());
+			} catch (RuntimeException e) {
+				valid[r] = false;
+				errors.add(new RowError(r, column, "invalid quality index '" + value + "'"));
+				continue;
+			}
+			if(!qualityCodes.isEmpty() && !qualityCodes.contains(code)){
+				valid[r] = false;
+				errors.add(new RowError(r, column, "unknown data quality code " + code));
+			}
+		}
+	}
+
+	private void checkValues(List<String[]> rows, int column, boolean[] valid, List<RowError> errors) {
+		for(int r = 0, n = rows.size(); r < n; r++){
+			if(!valid[r]){
+				continue;
+			}
+			String value = rows.get(r)[column];
+			if(!isNumber(value)){
+				valid[r] = false;
+				errors.add(new RowError(r, column, "not a number '" + value + "'"));
+			}
+		}
+	}
+
+	private List<RowError> checkFields(List<Field> fields) {
+		if(fields == null){
+			return Collections.emptyList();
+		}
+		List<RowError> errors = new ArrayList<RowError>();
+		if(fields.size() != definitions.length){
+			errors.add(new RowError(-1, -1, "expected " + definitions.length
+					+ " fields, found " + fields.size()));
+			return errors;
+		}
+		for(int c = 0; c < definitions.length; c++){
+			Field field = fields.get(c);
+			String definition = field != null ? field.getDefinition() : null;
+			if(definitions[c] != null && !definitions[c].equals(definition)){
+				errors.add(new RowError(-1, c, "expected field " + definitions[c] + ", found " + definition));
+			}
+		}
+		return errors;
+	}
+	/**
+	 * Cheap numeric check, avoids the exception path of Double.parseDouble for the common case.
+	 */
+	static boolean isNumber(String value) {
+		if(value == null){
+			return false;
+		}
+		int length = value.length();
+		int i = 0;
+		if(i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')){
+			i++;
+		}
+		boolean digits = false;
+		boolean dot = false;
+		for(; i < length; i++){
+			char c = value.charAt(i);
+			if(c >= '0' && c <= '9'){
+				digits = true;
+			}else if(c == '.' && !dot){
+				dot = true;
+			}else{
+				break;
+			}
+		}
+		if(i == length){
+			return digits;
+		}
+		// exponents, NaN, Infinity and the like
+		try {
+			Double.parseDouble(value);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * A validation failure. Row -1 means the failure concerns the column layout.
+	 */
+	public static class RowError implements Comparable<RowError> {
+
+		private final int row;
+		private final int column;
+		private final String message;
+
+		RowError(int row, int column, String message) {
+			this.row = row;
+			this.column = column;
+			this.message = message;
+		}
+
+		public int getRow() {
+			return row;
+		}
+
+		public int getColumn() {
+			return column;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		@Override
+		public int compareTo(RowError other) {
+			if(row != other.row){
+				return row < other.row ? -1 : 1;
+			}
+			return column < other.column ? -1 : (column == other.column ? 0 : 1);
+		}
+
+		@Override
+		public String toString() {
+			return "row " + row + ", column " + column + ": " + message;
+		}
+	}
+
+	/**
+	 * Outcome of a validation: which rows passed and why the others failed.
+	 */
+	public static class ValidationResult {
+
+		private final List<String[]> rows;
+		private final boolean[] valid;
+		private final List<RowError> errors;
+		private final long lastTime;
+
+		ValidationResult(List<String[]> rows, boolean[] valid, List<RowError> errors, long lastTime) {
+			this.rows = rows;
+			this.valid = valid;
+			this.errors = errors;
+			this.lastTime = lastTime;
+		}
+
+		public boolean isValid() {
+			return errors.isEmpty();
+		}
+
+		public boolean isRowValid(int row) {
+			return valid[row];
+		}
+
+		public List<RowError> getErrors() {
+			return errors;
+		}
+		/**
+		 * Retrieve the rows that passed validation, in their original order.
+		 * @return list of String[]
+		 */
+		public ArrayList<String[]> getValidRows() {
+			ArrayList<String[]> accepted = new ArrayList<String[]>(rows.size());
+			for(int r = 0; r < valid.length; r++){
+				if(valid[r]){
+					accepted.add(rows.get(r));
+				}
+			}
+			return accepted;
+		}
+		/**
+		 * Retrieve the rows that failed validation, in their original order.
+		 * @return list of String[]
+		 */
+		public ArrayList<String[]> getRejectedRows() {
+			ArrayList<String[]> rejected = new ArrayList<String[]>();
+			for(int r = 0; r < valid.length; r++){
+				if(!valid[r]){
+					rejected.add(rows.get(r));
+				}
+			}
+			return rejected;
+		}
+		/**
+		 * Retrieve the time of the last valid row.
+		 * @return epoch milliseconds, Long.MIN_VALUE if no row is valid
+		 */
+		public long getLastTime() {
+			return lastTime;
+		}
+	}
+
+}
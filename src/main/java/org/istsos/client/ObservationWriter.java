@@ -0,0 +1,155 @@
+package org.istsos.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.istsos.client.observation.DataArray;
+import org.istsos.client.observation.Field;
+import org.istsos.client.observation.Result;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streaming serializer for the insertobservation payload.
+ * <p>
+ * Writes the same JSON produced by {@code gson.toJson(observation, Observation.class)}
+ * token by token into an OutputStream, so the DataArray values are never
+ * materialized as an intermediate String.
+ *
+ */
+class ObservationWriter {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// used only for Date values, keeps the format of the default Gson instance
+	private static final Gson gson = new GsonBuilder().create();
+
+	private ObservationWriter() { }
+
+	/**
+	 * Serialize an observation into pooled buffers.
+	 * @param observation {@link Observation}
+	 * @return stream holding the JSON payload, to be released after the request
+	 * @throws IOException when serialization fails
+	 */
+	static PooledBufferOutputStream toBuffers(Observation observation) throws IOException {
+		PooledBufferOutputStream stream = new PooledBufferOutputStream();
+		try {
+			write(observation, stream);
+		} catch (IOException e) {
+			stream.release();
+			throw e;
+		} catch (RuntimeException e) {
+			stream.release();
+			throw e;
+		}
+		return stream;
+	}
+	/**
+	 * Serialize an observation into the given stream.
+	 * @param observation {@link Observation}
+	 * @param out OutputStream, flushed but not closed
+	 * @throws IOException when the stream fails
+	 */
+	static void write(Observation observation, OutputStream out) throws IOException {
+
+		JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, UTF8));
+		// the default Gson instance escapes <, >, &, = and ' as unicode escapes
+		writer.setHtmlSafe(true);
+
+		writer.beginObject();
+
+		SamplingTime samplingTime = observation.getSamplingTime();
+		if(samplingTime != null){
+			writer.name("samplingTime");
+			writer.beginObject();
+			writeDate(writer, "beginposition", samplingTime.getBeginPosition());
+			writeDate(writer, "endposition", samplingTime.getEndPosition());
+			writer.endObject();
+		}
+		if(observation.getName() != null){
+			writer.name("name").value(observation.getName());
+		}
+		if(observation.getProcedure() != null){
+			writer.name("procedure").value(observation.getProcedure());
+		}
+
+		Result result = observation.getResult();
+		if(result != null){
+			writer.name("result");
+			writer.beginObject();
+			if(result.getDataArray() != null){
+				writer.name("DataArray");
+				writeDataArray(writer, result.getDataArray());
+			}
+			writer.endObject();
+		}
+
+		writer.endObject();
+		writer.flush();
+	}
+
+	private static void writeDate(JsonWriter writer, String name, Date date) throws IOException {
+		if(date != null){
+			writer.name(name);
+			gson.toJson(date, Date.class, writer);
+		}
+	}
+
+	private static void writeDataArray(JsonWriter writer, DataArray dataArray) throws IOException {
+
+		writer.beginObject();
+
+		ArrayList<Field> fields = dataArray.getFields();
+		if(fields != null){
+			writer.name("field");
+			writer.beginArray();
+			for(Field field : fields){
+				if(field == null){
+					writer.nullValue();
+					continue;
+				}
+				writer.beginObject();
+				if(field.getName() != null){
+					writer.name("name").value(field.getName());
+				}
+				if(field.getDefinition() != null){
+					writer.name("definition").value(field.getDefinition());
+				}
+				if(field.getUom() != null){
+					writer.name("uom").value(field.getUom());
+				}
+				writer.endObject();
+			}
+			writer.endArray();
+		}
+
+		ArrayList<String[]> values = dataArray.getValues();
+		if(values != null){
+			writer.name("values");
+			writer.beginArray();
+			for(int i = 0, n = values.size(); i < n; i++){
+				String[] row = values.get(i);
+				if(row == null){
+					writer.nullValue();
+					continue;
+				}
+				writer.beginArray();
+				for(String value : row){
+					writer.value(value);
+				}
+				writer.endArray();
+			}
+			writer.endArray();
+		}
+
+		writer.endObject();
+	}
+
+}
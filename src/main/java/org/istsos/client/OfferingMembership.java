@@ -0,0 +1,361 @@
+package org.istsos.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Procedure membership of offerings held as bitmaps.
+ * <p>
+ * Every procedure name gets a dense integer id the first time it is seen, and
+ * each offering is a bitset over those ids, so membership is a single word
+ * lookup and union, intersection and difference run over 64 procedures per
+ * step. Readers never lock: writers build a new state and publish it through a
+ * volatile field. Offerings are refreshed one at a time, either from the
+ * memberslist of istSOS or from the offerings of the procedure summaries.
+ * Ids of deleted procedures are not reused.
+ *
+ */
+public class OfferingMembership {
+
+	private volatile State state = new State(
+			Collections.<String, Integer>emptyMap(), new String[0], 0,
+			Collections.<String, long[]>emptyMap());
+
+	/**
+	 * Check if a procedure is member of an offering.
+	 * @param offeringName as String
+	 * @param procedureName as String
+	 * @return true if member
+	 */
+	public boolean contains(String offeringName, String procedureName) {
+		State current = this.state;
+		Integer id = current.ids.get(procedureName);
+		long[] bits = current.bitmaps.get(offeringName);
+		return id != null && bits != null && get(bits, id);
+	}
+	/**
+	 * Retrieve the members of an offering.
+	 * @param offeringName as String
+	 * @return {@link Members}, empty if the offering is unknown
+	 */
+	public Members getMembers(String offeringName) {
+		State current = this.state;
+		return new Members(current, bitmap(current, offeringName));
+	}
+	/**
+	 * Procedures member of at least one of the offerings.
+	 * @param offeringNames as String
+	 * @return {@link Members}
+	 */
+	public Members union(String... offeringNames) {
+		State current = this.state;
+		long[] result = new long[words(current.size)];
+		for(String offeringName : offeringNames){
+			or(result, bitmap(current, offeringName));
+		}
+		return new Members(current, result);
+	}
+	/**
+	 * Procedures member of all the offerings.
+	 * @param offeringNames as String
+	 * @return {@link Members}
+	 */
+	public Members intersection(String... offeringNames) {
+		State current = this.state;
+		if(offeringNames.length == 0){
+			return new Members(current, new long[0]);
+		}
+		long[] result = bitmap(current, offeringNames[0]).clone();
+		for(int i = 1; i < offeringNames.length; i++){
+			and(result, bitmap(current, offeringNames[i]));
+		}
+		return new Members(current, result);
+	}
+	/**
+	 * Procedures member of an offering but not of another.
+	 * @param offeringName as String
+	 * @param excludedOfferingName as String
+	 * @return {@link Members}
+	 */
+	public Members difference(String offeringName, String excludedOfferingName) {
+		State current = this.state;
+		long[] result = bitmap(current, offeringName).clone();
+		andNot(result, bitmap(current, excludedOfferingName));
+		return new Members(current, result);
+	}
+	/**
+	 *
+	 * @return names of the offerings with known membership
+	 */
+	public List<String> getOfferingNames() {
+		return new ArrayList<String>(this.state.bitmaps.keySet());
+	}
+	/**
+	 * Replace the members of an offering.
+	 * @param offeringName as String
+	 * @param procedureNames as String
+	 */
+	public synchronized void setMembers(String offeringName, Collection<String> procedureNames) {
+		Builder builder = new Builder(this.state);
+		long[] bits = new long[words(builder.size + procedureNames.size())];
+		for(String procedureName : procedureNames){
+			bits = set(bits, builder.id(procedureName));
+		}
+		builder.bitmaps.put(offeringName, bits);
+		this.state = builder.build();
+	}
+	/**
+	 * Forget an offering, e.g. after it was removed.
+	 * @param offeringName as String
+	 */
+	public synchronized void removeOffering(String offeringName) {
+		if(this.state.bitmaps.containsKey(offeringName)){
+			Builder builder = new Builder(this.state);
+			builder.bitmaps.remove(offeringName);
+			this.state = builder.build();
+		}
+	}
+	/**
+	 * Rebuild every offering from the offerings listed by the procedure summaries.
+	 * @param procedures collection of {@link Procedure}
+	 */
+	public synchronized void rebuild(Collection<Procedure> procedures) {
+		Builder builder = new Builder(this.state);
+		builder.bitmaps.clear();
+		for(Procedure procedure : procedures){
+			builder.add(procedure);
+		}
+		this.state = builder.build();
+	}
+	/**
+	 * Apply the result of a procedure sync, touching only the changed procedures.
+	 * @param changes {@link ChangeSet} of {@link Procedure}
+	 */
+	public synchronized void apply(ChangeSet<Procedure> changes) {
+		if(changes.isEmpty()){
+			return;
+		}
+		Builder builder = new Builder(this.state);
+		for(Procedure procedure : changes.getDeleted()){
+			builder.remove(procedure.getSystem());
+		}
+		for(Procedure procedure : changes.getUpdated()){
+			builder.remove(procedure.getSystem());
+			builder.add(procedure);
+		}
+		for(Procedure procedure : changes.getInserted()){
+			builder.add(procedure);
+		}
+		this.state = builder.build();
+	}
+
+	public synchronized void clear() {
+		this.state = new State(
+				Collections.<String, Integer>emptyMap(), new String[0], 0,
+				Collections.<String, long[]>emptyMap());
+	}
+
+	private static long[] bitmap(State state, String offeringName) {
+		long[] bits = state.bitmaps.get(offeringName);
+		return bits != null ? bits : new long[0];
+	}
+
+	static int words(int bits) {
+		return (bits + 63) >>> 6;
+	}
+
+	static boolean get(long[] bits, int id) {
+		int word = id >>> 6;
+		return word < bits.length && (bits[word] & (1L << id)) != 0;
+	}
+
+	// returns the same array unless it had to grow
+	static long[] set(long[] bits, int id) {
+		int word = id >>> 6;
+		if(word >= bits.length){
+			bits = Arrays.copyOf(bits, Math.max(word + 1, bits.length * 2));
+		}
+		bits[word] |= 1L << id;
+		return bits;
+	}
+
+	private static void or(long[] target, long[] bits) {
+		int n = Math.min(target.length, bits.length);
+		for(int i = 0; i < n; i++){
+			target[i] |= bits[i];
+		}
+	}
+
+	private static void and(long[] target, long[] bits) {
+		int n = Math.min(target.length, bits.length);
+		for(int i = 0; i < n; i++){
+			target[i] &= bits[i];
+		}
+		for(int i = n; i < target.length; i++){
+			target[i] = 0;
+		}
+	}
+
+	private static void andNot(long[] target, long[] bits) {
+		int n = Math.min(target.length, bits.length);
+		for(int i = 0; i < n; i++){
+			target[i] &= ~bits[i];
+		}
+	}
+
+	/**
+	 * Immutable procedure table and offering bitmaps.
+	 */
+	private static class State {
+
+		final Map<String, Integer> ids;
+		final String[] names;
+		final int size;
+		final Map<String, long[]> bitmaps;
+
+		State(Map<String, Integer> ids, String[] names, int size, Map<String, long[]> bitmaps) {
+			this.ids = ids;
+			this.names = names;
+			this.size = size;
+			this.bitmaps = bitmaps;
+		}
+	}
+
+	/**
+	 * Copy of a state under modification. Bitmaps are copied on first write only.
+	 */
+	private static class Builder {
+
+		final State base;
+		Map<String, Integer> ids;
+		String[] names;
+		int size;
+		final Map<String, long[]> bitmaps;
+		private final Map<String, Boolean> copied = new HashMap<String, Boolean>();
+
+		Builder(State base) {
+			this.base = base;
+			this.ids = base.ids;
+			this.names = base.names;
+			this.size = base.size;
+			this.bitmaps = new HashMap<String, long[]>(base.bitmaps);
+		}
+
+		int id(String procedureName) {
+			Integer id = ids.get(procedureName);
+			if(id != null){
+				return id;
+			}
+			if(ids == base.ids){
+				ids = new HashMap<String, Integer>(base.ids);
+			}
+			if(size == names.length){
+				names = Arrays.copyOf(names, Math.max(16, size * 2));
+			}
+			names[size] = procedureName;
+			ids.put(procedureName, size);
+			return size++;
+		}
+
+		void add(Procedure procedure) {
+			if(procedure.getSystem() == null || procedure.getOfferings() == null){
+				return;
+			}
+			int id = id(procedure.getSystem());
+			for(String offeringName : procedure.getOfferings()){
+				bitmaps.put(offeringName, set(writable(offeringName), id));
+			}
+		}
+
+		void remove(String procedureName) {
+			Integer id = ids.get(procedureName);
+			if(id == null){
+				return;
+			}
+			for(Map.Entry<String, long[]> entry : bitmaps.entrySet()){
+				if(get(entry.getValue(), id)){
+					long[] bits = writable(entry.getKey());
+					bits[id >>> 6] &= ~(1L << id);
+					entry.setValue(bits);
+				}
+			}
+		}
+
+		private long[] writable(String offeringName) {
+			long[] bits = bitmaps.get(offeringName);
+			if(bits == null){
+				bits = new long[words(size)];
+			}else if(!copied.containsKey(offeringName)){
+				bits = bits.clone();
+			}else{
+				return bits;
+			}
+			copied.put(offeringName, Boolean.TRUE);
+			bitmaps.put(offeringName, bits);
+			return bits;
+		}
+
+		State build() {
+			// names is only appended, published copies never see the new slots
+			return new State(ids, names, size, Collections.unmodifiableMap(bitmaps));
+		}
+	}
+
+	/**
+	 * Immutable set of procedures resulting from a membership query.
+	 */
+	public static class Members {
+
+		private final State state;
+		private final long[] bits;
+
+		private Members(State state, long[] bits) {
+			this.state = state;
+			this.bits = bits;
+		}
+
+		public boolean contains(String procedureName) {
+			Integer id = state.ids.get(procedureName);
+			return id != null && get(bits, id);
+		}
+
+		public int size() {
+			int count = 0;
+			for(long word : bits){
+				count += Long.bitCount(word);
+			}
+			return count;
+		}
+
+		public boolean isEmpty() {
+			for(long word : bits){
+				if(word != 0){
+					return false;
+				}
+			}
+			return true;
+		}
+		/**
+		 *
+		 * @return procedure names in id order
+		 */
+		public List<String> getProcedureNames() {
+			List<String> result = new ArrayList<String>();
+			for(int w = 0; w < bits.length; w++){
+				long word = bits[w];
+				while(word != 0){
+					int id = (w << 6) + Long.numberOfTrailingZeros(word);
+					result.add(state.names[id]);
+					word &= word - 1;
+				}
+			}
+			return result;
+		}
+	}
+
+}
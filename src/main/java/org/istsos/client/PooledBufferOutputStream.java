@@ -0,0 +1,157 @@
+package org.istsos.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.asynchttpclient.request.body.Body;
+import org.asynchttpclient.request.body.generator.BodyGenerator;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * OutputStream writing into a chain of pooled direct buffers.
+ * <p>
+ * The written bytes are never collected into a single array: the chain is handed
+ * to AsyncHttpClient as a {@link BodyGenerator} which transfers the chunks directly
+ * into the channel buffers. Call {@link #release()} once the request has completed
+ * to give the chunks back to the {@link ByteBufferPool}.
+ *
+ */
+public class PooledBufferOutputStream extends OutputStream {
+
+	private final ByteBufferPool pool;
+	private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+	private ByteBuffer current;
+	private long size = 0;
+	private boolean released = false;
+
+	public PooledBufferOutputStream() {
+		this(ByteBufferPool.getDefault());
+	}
+
+	public PooledBufferOutputStream(ByteBufferPool pool) {
+		this.pool = pool;
+	}
+
+	private ByteBuffer writable() {
+		if(released){
+			throw new IllegalStateException("Buffers already released");
+		}
+		if(current == null || !current.hasRemaining()){
+			current = pool.acquire();
+			chunks.add(current);
+		}
+		return current;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		writable().put((byte) b);
+		size++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while(len > 0){
+			ByteBuffer buffer = writable();
+			int n = Math.min(len, buffer.remaining());
+			buffer.put(b, off, n);
+			off += n;
+			len -= n;
+			size += n;
+		}
+	}
+	/**
+	 * Retrieve the number of bytes written so far
+	 * @return size in bytes
+	 */
+	public long size() {
+		return size;
+	}
+	/**
+	 * Read-only views over the written chunks, positioned at the beginning of the data.
+	 * @return list of ByteBuffer
+	 */
+	public List<ByteBuffer> getBuffers() {
+		List<ByteBuffer> views = new ArrayList<ByteBuffer>(chunks.size());
+		for(ByteBuffer chunk : chunks){
+			ByteBuffer view = chunk.duplicate();
+			view.flip();
+			views.add(view.asReadOnlyBuffer());
+		}
+		return views;
+	}
+	/**
+	 * Wrap the written chunks as a request body. Every body created by the
+	 * generator reads from its own views, so the request can be replayed.
+	 * @return BodyGenerator over the pooled chunks
+	 */
+	public BodyGenerator toBodyGenerator() {
+		return new BodyGenerator() {
+			@Override
+			public Body createBody() {
+				return new ChunkedBody(getBuffers(), size);
+			}
+		};
+	}
+	/**
+	 * Give the chunks back to the pool. The stream cannot be used afterwards.
+	 */
+	public void release() {
+		if(released){
+			return;
+		}
+		released = true;
+		for(ByteBuffer chunk : chunks){
+			pool.release(chunk);
+		}
+		chunks.clear();
+		current = null;
+	}
+
+	@Override
+	public void close() {
+		// chunks stay valid until release()
+	}
+
+	private static class ChunkedBody implements Body {
+
+		private final List<ByteBuffer> buffers;
+		private final long contentLength;
+		private int index = 0;
+
+		ChunkedBody(List<ByteBuffer> buffers, long contentLength) {
+			this.buffers = buffers;
+			this.contentLength = contentLength;
+		}
+
+		@Override
+		public long getContentLength() {
+			return contentLength;
+		}
+
+		@Override
+		public BodyState transferTo(ByteBuf target) throws IOException {
+			while(index < buffers.size() && target.isWritable()){
+				ByteBuffer buffer = buffers.get(index);
+				int n = Math.min(buffer.remaining(), target.writableBytes());
+				int limit = buffer.limit();
+				buffer.limit(buffer.position() + n);
+				target.writeBytes(buffer);
+				buffer.limit(limit);
+				if(!buffer.hasRemaining()){
+					index++;
+				}
+			}
+			return index < buffers.size() ? BodyState.CONTINUE : BodyState.STOP;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+}
@@ -0,0 +1,228 @@
+package org.istsos.client;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of full procedure descriptions loaded lazily with describeSensor.
+ * <p>
+ * The catalog keeps the lightweight getlist summaries; details are requested on
+ * first access only. The most recently used details are held strongly up to
+ * a budget of entries. Entries beyond the budget are kept through soft
+ * references, so the garbage collector can reclaim them under memory pressure.
+ * Concurrent first accesses to the same procedure share a single request.
+ * Invalidating a procedure detaches its request in flight, whose answer is
+ * then passed to the waiters but not cached.
+ *
+ */
+public class ProcedureDetailCache {
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private final Service service;
+	private final int capacity;
+
+	private final LinkedHashMap<String, Procedure> strong;
+	private final Map<String, NamedReference> soft = new HashMap<String, NamedReference>();
+	private final ReferenceQueue<Procedure> collected = new ReferenceQueue<Procedure>();
+
+	// requests in flight, by procedure name
+	private final Map<String, Load> inFlight = new HashMap<String, Load>();
+
+	private long hits = 0;
+	private long softHits = 0;
+	private long misses = 0;
+	private long shared = 0;
+
+	/**
+	 * Initialize a cache for a service.
+	 * @param service {@link Service}
+	 * @param capacity procedures held strongly
+	 */
+	public ProcedureDetailCache(Service service, int capacity) {
+		this.service = service;
+		this.capacity = Math.max(1, capacity);
+		this.strong = new LinkedHashMap<String, Procedure>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Procedure> eldest) {
+				if(size() > ProcedureDetailCache.this.capacity){
+					soft.put(eldest.getKey(), new NamedReference(eldest.getKey(), eldest.getValue(), collected));
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+	/**
+	 * Retrieve the details of a procedure, loading them on first access.
+	 * The callback receives {@link Event#PROCEDURE_LOADED}, immediately if cached.
+	 * @param procedureName as String
+	 * @param callback - {@link IstSOSListener}
+	 */
+	public void get(final String procedureName, IstSOSListener callback) {
+
+		Procedure cached;
+		Load load = null;
+
+		synchronized (this) {
+			cached = lookup(procedureName);
+			if(cached == null){
+				Load current = inFlight.get(procedureName);
+				if(current == null){
+					load = new Load();
+					current = load;
+					inFlight.put(procedureName, load);
+					misses++;
+				}else{
+					shared++;
+				}
+				current.waiters.add(callback);
+			}
+		}
+
+		if(cached != null){
+			if(callback != null){
+				callback.onSuccess(new EventObject(Event.PROCEDURE_LOADED, cached));
+			}
+			return;
+		}
+
+		if(load != null){
+			final Load request = load;
+			service.describeSensor(procedureName, new IstSOSListener() {
+
+				@Override
+				public void onSuccess(EventObject event) {
+					Procedure procedure = (Procedure) event.getObject();
+					List<IstSOSListener> waiters;
+					synchronized (ProcedureDetailCache.this) {
+						// not cached if invalidated meanwhile
+						if(inFlight.get(procedureName) == request){
+							inFlight.remove(procedureName);
+							strong.put(procedureName, procedure);
+							soft.remove(procedureName);
+						}
+						waiters = request.waiters;
+					}
+					EventObject loaded = new EventObject(Event.PROCEDURE_LOADED, procedure);
+					for(IstSOSListener waiter : waiters){
+						if(waiter != null){
+							waiter.onSuccess(loaded);
+						}
+					}
+				}
+
+				@Override
+				public void onError(EventObject event) {
+					List<IstSOSListener> waiters;
+					synchronized (ProcedureDetailCache.this) {
+						if(inFlight.get(procedureName) == request){
+							inFlight.remove(procedureName);
+						}
+						waiters = request.waiters;
+					}
+					for(IstSOSListener waiter : waiters){
+						if(waiter != null){
+							waiter.onError(event);
+						}
+					}
+				}
+			});
+		}
+	}
+	/**
+	 * Retrieve the details of a procedure if cached, without loading them.
+	 * @param procedureName as String
+	 * @return {@link Procedure}, null if not cached
+	 */
+	public synchronized Procedure getIfPresent(String procedureName) {
+		return lookup(procedureName);
+	}
+	/**
+	 * Drop the details of a procedure, e.g. after it was updated, and detach
+	 * its request in flight so that the next access loads them again.
+	 * @param procedureName as String
+	 */
+	public synchronized void invalidate(String procedureName) {
+		strong.remove(procedureName);
+		soft.remove(procedureName);
+		inFlight.remove(procedureName);
+	}
+
+	public synchronized void invalidateAll() {
+		strong.clear();
+		soft.clear();
+		inFlight.clear();
+	}
+	/**
+	 * Retrieve cache statistics.
+	 * @return map of metric name to value
+	 */
+	public synchronized Map<String, Object> getMetrics() {
+		purge();
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		metrics.put("strongEntries", strong.size());
+		metrics.put("softEntries", soft.size());
+		metrics.put("capacity", capacity);
+		metrics.put("hits", hits);
+		metrics.put("softHits", softHits);
+		metrics.put("misses", misses);
+		metrics.put("sharedRequests", shared);
+		metrics.put("inFlight", inFlight.size());
+		return metrics;
+	}
+
+	private Procedure lookup(String procedureName) {
+		purge();
+		Procedure procedure = strong.get(procedureName);
+		if(procedure != null){
+			hits++;
+			return procedure;
+		}
+		NamedReference reference = soft.remove(procedureName);
+		procedure = reference != null ? reference.get() : null;
+		if(procedure != null){
+			// promote back to the strong entries
+			softHits++;
+			strong.put(procedureName, procedure);
+		}
+		return procedure;
+	}
+
+	// drop soft entries whose procedure was collected
+	private void purge() {
+		NamedReference reference;
+		while((reference = (NamedReference) collected.poll()) != null){
+			if(soft.get(reference.name) == reference){
+				soft.remove(reference.name);
+			}
+		}
+	}
+
+	/**
+	 * A describeSensor request in flight and its waiters.
+	 */
+	private static class Load {
+
+		final List<IstSOSListener> waiters = new ArrayList<IstSOSListener>();
+	}
+
+	private static class NamedReference extends SoftReference<Procedure> {
+
+		final String name;
+
+		NamedReference(String name, Procedure procedure, ReferenceQueue<Procedure> queue) {
+			super(procedure, queue);
+			this.name = name;
+		}
+	}
+
+}
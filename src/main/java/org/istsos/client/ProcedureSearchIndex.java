@@ -0,0 +1,452 @@
+package org.istsos.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.istsos.client.procedure.Classification;
+
+/**
+ * Inverted index over the descriptive fields of procedures.
+ * <p>
+ * Keywords, description and identification values are tokenised (lower case,
+ * split on anything but letters and digits); classification and identification
+ * entries are also indexed as exact definition/value pairs, as is the sensor
+ * type of the summaries. Postings are bitsets over dense procedure ids like in
+ * {@link OfferingMembership}, so conjunctive queries intersect 64 procedures
+ * per step and prefix search is a range of the sorted term dictionary.
+ * Large collections are tokenised in parallel. Readers never lock, writers
+ * publish a new immutable state.
+ *
+ */
+public class ProcedureSearchIndex {
+
+	// istSOS classifier used for the sensor type
+	public static final String SYSTEM_TYPE = "urn:ogc:def:classifier:x-istsos:1.0:systemType";
+
+	// below this many procedures tokenising is not worth forking
+	private static final int PARALLEL_THRESHOLD = 256;
+
+	private static final char TEXT = 't';
+	private static final char PAIR = 'c';
+
+	private volatile State state = new State();
+
+	/**
+	 * Procedures containing every token of the text.
+	 * @param text as String
+	 * @return list of procedure names
+	 */
+	public List<String> search(String text) {
+		return query().text(text).list();
+	}
+	/**
+	 * Procedures containing a token starting with the prefix.
+	 * @param prefix as String
+	 * @return list of procedure names
+	 */
+	public List<String> searchPrefix(String prefix) {
+		return query().prefix(prefix).list();
+	}
+	/**
+	 * Procedures classified with exactly the definition and value.
+	 * @param definition as String
+	 * @param value as String
+	 * @return list of procedure names
+	 */
+	public List<String> findByClassification(String definition, String value) {
+		return query().classification(definition, value).list();
+	}
+	/**
+	 * Start a conjunctive query on the current content of the index.
+	 * @return {@link Query}
+	 */
+	public Query query() {
+		return new Query(this.state);
+	}
+
+	public int size() {
+		return this.state.live;
+	}
+	/**
+	 * Rebuild the index from a collection of procedures.
+	 * @param procedures collection of {@link Procedure}
+	 */
+	public synchronized void rebuild(Collection<Procedure> procedures) {
+		Builder builder = new Builder(new State());
+		builder.addAll(procedures);
+		this.state = builder.build();
+	}
+	/**
+	 * Add or replace procedures, e.g. after they were described.
+	 * @param procedures collection of {@link Procedure}
+	 */
+	public synchronized void putAll(Collection<Procedure> procedures) {
+		Builder builder = new Builder(this.state);
+		builder.addAll(procedures);
+		this.state = builder.build();
+	}
+	/**
+	 * Apply the result of a procedure sync.
+	 * @param changes {@link ChangeSet} of {@link Procedure}
+	 */
+	public synchronized void apply(ChangeSet<Procedure> changes) {
+		if(changes.isEmpty()){
+			return;
+		}
+		Builder builder = new Builder(this.state);
+		List<Procedure> added = new ArrayList<Procedure>(changes.getInserted().size() + changes.getUpdated().size());
+		for(Procedure procedure : changes.getDeleted()){
+			builder.remove(procedure.getSystem());
+		}
+		added.addAll(changes.getUpdated());
+		added.addAll(changes.getInserted());
+		builder.addAll(added);
+		this.state = builder.build();
+	}
+
+	public synchronized void clear() {
+		this.state = new State();
+	}
+	/**
+	 * Split a text into index tokens.
+	 * @param text as String
+	 * @return tokens in order of appearance, without duplicates
+	 */
+	public static Set<String> tokenize(String text) {
+		Set<String> tokens = new LinkedHashSet<String>();
+		if(text == null){
+			return tokens;
+		}
+		int start = -1;
+		for(int i = 0; i <= text.length(); i++){
+			boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if(letter && start < 0){
+				start = i;
+			}else if(!letter && start >= 0){
+				tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+
+	private static String pairKey(String definition, String value) {
+		return PAIR + definition + '\u0000' + value;
+	}
+
+	// index keys of a procedure, text tokens and definition/value pairs
+	static String[] keys(Procedure procedure) {
+		Set<String> keys = new LinkedHashSet<String>();
+		for(String token : tokenize(procedure.getKeywords())){
+			keys.add(TEXT + token);
+		}
+		for(String token : tokenize(procedure.getDescription())){
+			keys.add(TEXT + token);
+		}
+		if(procedure.getIdentification() != null){
+			for(Classification identification : procedure.getIdentification()){
+				for(String token : tokenize(identification.getValue())){
+					keys.add(TEXT + token);
+				}
+				keys.add(pairKey(identification.getDefinition(), identification.getValue()));
+			}
+		}
+		if(procedure.getClassifications() != null){
+			for(Classification classification : procedure.getClassifications()){
+				keys.add(pairKey(classification.getDefinition(), classification.getValue()));
+			}
+		}
+		if(procedure.getSensorType() != null){
+			keys.add(pairKey(SYSTEM_TYPE, procedure.getSensorType()));
+		}
+		return keys.toArray(new String[keys.size()]);
+	}
+
+	/**
+	 * Immutable procedure table and postings.
+	 */
+	private static class State {
+
+		final Map<String, Integer> ids;
+		final String[] names;
+		final int size;
+		final String[][] keysById;
+		final long[] all;
+		final int live;
+		final TreeMap<String, long[]> postings;
+
+		State() {
+			this(Collections.<String, Integer>emptyMap(), new String[0], 0, new String[0][],
+					new long[0], 0, new TreeMap<String, long[]>());
+		}
+
+		State(Map<String, Integer> ids, String[] names, int size, String[][] keysById,
+				long[] all, int live, TreeMap<String, long[]> postings) {
+			this.ids = ids;
+			this.names = names;
+			this.size = size;
+			this.keysById = keysById;
+			this.all = all;
+			this.live = live;
+			this.postings = postings;
+		}
+	}
+
+	/**
+	 * Copy of a state under modification. Postings are copied on first write only.
+	 */
+	private static class Builder {
+
+		Map<String, Integer> ids;
+		String[] names;
+		int size;
+		String[][] keysById;
+		long[] all;
+		int live;
+		final TreeMap<String, long[]> postings;
+		private final Set<String> copied = new HashSet<String>();
+
+		Builder(State base) {
+			this.ids = new HashMap<String, Integer>(base.ids);
+			this.names = base.names.clone();
+			this.size = base.size;
+			this.keysById = base.keysById.clone();
+			this.all = base.all.clone();
+			this.live = base.live;
+			this.postings = new TreeMap<String, long[]>(base.postings);
+		}
+
+		void addAll(Collection<Procedure> procedures) {
+			Procedure[] array = procedures.toArray(new Procedure[procedures.size()]);
+			String[][] keys = new String[array.length][];
+			if(array.length >= PARALLEL_THRESHOLD){
+				ForkJoinPool.commonPool().invoke(new Tokenize(array, keys, 0, array.length));
+			}else{
+				for(int i = 0; i < array.length; i++){
+					keys[i] = keys(array[i]);
+				}
+			}
+			for(int i = 0; i < array.length; i++){
+				if(array[i].getSystem() != null){
+					add(array[i].getSystem(), keys[i]);
+				}
+			}
+		}
+
+		private void add(String procedureName, String[] keys) {
+			Integer existing = ids.get(procedureName);
+			int id;
+			if(existing != null){
+				id = existing;
+				if(OfferingMembership.get(all, id)){
+					remove(procedureName);
+				}
+			}else{
+				id = size++;
+				if(id == names.length){
+					names = Arrays.copyOf(names, Math.max(16, id * 2));
+					keysById = Arrays.copyOf(keysById, names.length);
+				}
+				names[id] = procedureName;
+				ids.put(procedureName, id);
+			}
+			keysById[id] = keys;
+			all = OfferingMembership.set(all, id);
+			live++;
+			for(String key : keys){
+				postings.put(key, OfferingMembership.set(writable(key), id));
+			}
+		}
+
+		void remove(String procedureName) {
+			Integer id = ids.get(procedureName);
+			if(id == null || !OfferingMembership.get(all, id)){
+				return;
+			}
+			for(String key : keysById[id]){
+				long[] bits = writable(key);
+				bits[id >>> 6] &= ~(1L << id);
+				if(isEmpty(bits)){
+					postings.remove(key);
+				}
+			}
+			keysById[id] = null;
+			all[id >>> 6] &= ~(1L << id);
+			live--;
+		}
+
+		private long[] writable(String key) {
+			long[] bits = postings.get(key);
+			if(bits == null){
+				bits = new long[OfferingMembership.words(size)];
+			}else if(copied.contains(key)){
+				return bits;
+			}else{
+				bits = bits.clone();
+			}
+			copied.add(key);
+			postings.put(key, bits);
+			return bits;
+		}
+
+		State build() {
+			return new State(ids, names, size, keysById, all, live, postings);
+		}
+	}
+
+	private static boolean isEmpty(long[] bits) {
+		for(long word : bits){
+			if(word != 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tokenises a range of procedures, splitting it while large.
+	 */
+	private static class Tokenize extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Procedure[] procedures;
+		private final String[][] keys;
+		private final int from;
+		private final int to;
+
+		Tokenize(Procedure[] procedures, String[][] keys, int from, int to) {
+			this.procedures = procedures;
+			this.keys = keys;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from > PARALLEL_THRESHOLD / 4){
+				int middle = (from + to) >>> 1;
+				invokeAll(new Tokenize(procedures, keys, from, middle),
+						new Tokenize(procedures, keys, middle, to));
+				return;
+			}
+			for(int i = from; i < to; i++){
+				keys[i] = keys(procedures[i]);
+			}
+		}
+	}
+
+	/**
+	 * Conjunctive query, every clause must match.
+	 */
+	public static class Query {
+
+		private final State state;
+		private long[] result;
+
+		private Query(State state) {
+			this.state = state;
+		}
+		/**
+		 * Require every token of the text.
+		 * @param text as String
+		 * @return this query
+		 */
+		public Query text(String text) {
+			for(String token : tokenize(text)){
+				and(state.postings.get(TEXT + token));
+			}
+			return this;
+		}
+		/**
+		 * Require a token starting with the prefix.
+		 * @param prefix as String
+		 * @return this query
+		 */
+		public Query prefix(String prefix) {
+			String from = TEXT + prefix.toLowerCase(Locale.ROOT);
+			SortedMap<String, long[]> range = state.postings.subMap(from, from + Character.MAX_VALUE);
+			long[] union = new long[OfferingMembership.words(state.size)];
+			for(long[] bits : range.values()){
+				for(int i = 0; i < bits.length; i++){
+					union[i] |= bits[i];
+				}
+			}
+			and(union);
+			return this;
+		}
+		/**
+		 * Require an exact classification or identification entry.
+		 * @param definition as String
+		 * @param value as String
+		 * @return this query
+		 */
+		public Query classification(String definition, String value) {
+			and(state.postings.get(pairKey(definition, value)));
+			return this;
+		}
+		/**
+		 * Require a sensor type.
+		 * @param sensorType as String
+		 * @return this query
+		 */
+		public Query sensorType(String sensorType) {
+			return classification(SYSTEM_TYPE, sensorType);
+		}
+
+		private void and(long[] bits) {
+			if(bits == null){
+				result = new long[0];
+			}else if(result == null){
+				result = bits.clone();
+			}else{
+				int n = Math.min(result.length, bits.length);
+				for(int i = 0; i < n; i++){
+					result[i] &= bits[i];
+				}
+				for(int i = n; i < result.length; i++){
+					result[i] = 0;
+				}
+			}
+		}
+		/**
+		 *
+		 * @return names of the matching procedures, all procedures if no clause was given
+		 */
+		public List<String> list() {
+			long[] bits = result != null ? result : state.all;
+			List<String> names = new ArrayList<String>();
+			for(int w = 0; w < bits.length; w++){
+				long word = bits[w];
+				while(word != 0){
+					names.add(state.names[(w << 6) + Long.numberOfTrailingZeros(word)]);
+					word &= word - 1;
+				}
+			}
+			return names;
+		}
+
+		public int count() {
+			long[] bits = result != null ? result : state.all;
+			int count = 0;
+			for(long word : bits){
+				count += Long.bitCount(word);
+			}
+			return count;
+		}
+	}
+
+}
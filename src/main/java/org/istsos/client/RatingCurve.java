@@ -0,0 +1,276 @@
+package org.istsos.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.istsos.client.observation.IsoTime;
+import org.istsos.client.observation.SeriesSnapshot;
+
+/**
+ * Rating curve compiled from {@link RatingCurveParameters} for local
+ * stage to discharge conversion, {@code Q = A * (h + B)^C + K}.
+ * <p>
+ * Parameters sharing the same from/to validity form a period; within a
+ * period each segment applies to stages between low_val and up_val. All
+ * values are parsed once into primitive arrays. Periods and segments are
+ * found by binary search, and along an ascending time column the current
+ * period is reused until it expires. Stages outside every segment, or times
+ * outside every period, give NaN.
+ *
+ */
+public final class RatingCurve {
+
+	// validity periods, sorted by start
+	private final long[] periodFrom;
+	private final long[] periodTo;
+	private final int[] periodFirst;
+	private final int[] periodEnd;
+
+	// segments of each period, sorted by lower stage
+	private final double[] low;
+	private final double[] up;
+	private final double[] a;
+	private final double[] b;
+	private final double[] c;
+	private final double[] k;
+
+	private RatingCurve(List<Segment> segments) {
+
+		int n = segments.size();
+		low = new double[n];
+		up = new double[n];
+		a = new double[n];
+		b = new double[n];
+		c = new double[n];
+		k = new double[n];
+
+		List<Integer> starts = new ArrayList<Integer>();
+		for(int i = 0; i < n; i++){
+			Segment segment = segments.get(i);
+			if(i == 0 || segment.from != segments.get(i - 1).from || segment.to != segments.get(i - 1).to){
+				starts.add(i);
+			}
+			low[i] = segment.low;
+			up[i] = segment.up;
+			a[i] = segment.a;
+			b[i] = segment.b;
+			c[i] = segment.c;
+			k[i] = segment.k;
+		}
+
+		int periods = starts.size();
+		periodFrom = new long[periods];
+		periodTo = new long[periods];
+		periodFirst = new int[periods];
+		periodEnd = new int[periods];
+		for(int p = 0; p < periods; p++){
+			int first = starts.get(p);
+			periodFirst[p] = first;
+			periodEnd[p] = p + 1 < periods ? starts.get(p + 1) : n;
+			periodFrom[p] = segments.get(first).from;
+			periodTo[p] = segments.get(first).to;
+		}
+	}
+	/**
+	 * Compile rating curve parameters. A missing from or to leaves the
+	 * period open on that side.
+	 * @param parameters collection of {@link RatingCurveParameters}
+	 * @return {@link RatingCurve}
+	 * @throws IllegalArgumentException if a value cannot be parsed
+	 */
+	public static RatingCurve compile(Collection<RatingCurveParameters> parameters) {
+
+		List<Segment> segments = new ArrayList<Segment>(parameters.size());
+		for(RatingCurveParameters parameter : parameters){
+			segments.add(new Segment(parameter));
+		}
+
+		Collections.sort(segments, new Comparator<Segment>() {
+			@Override
+			public int compare(Segment s1, Segment s2) {
+				if(s1.from != s2.from){
+					return s1.from < s2.from ? -1 : 1;
+				}
+				if(s1.to != s2.to){
+					return s1.to < s2.to ? -1 : 1;
+				}
+				return Double.compare(s1.low, s2.low);
+			}
+		});
+
+		return new RatingCurve(segments);
+	}
+
+	public int getPeriodCount() {
+		return periodFrom.length;
+	}
+
+	public int getSegmentCount() {
+		return low.length;
+	}
+	/**
+	 * Convert one stage.
+	 * @param time epoch milliseconds
+	 * @param stage as double
+	 * @return discharge, NaN if no segment applies
+	 */
+	public double evaluate(long time, double stage) {
+		int period = findPeriod(time);
+		return period < 0 ? Double.NaN : evaluate(period, stage);
+	}
+	/**
+	 * Convert a range of a stage column in one pass.
+	 * @param times epoch milliseconds
+	 * @param stages stage column
+	 * @param from first row, inclusive
+	 * @param to last row, exclusive
+	 * @param target discharge column, written at the same rows, may be the stage column
+	 */
+	public void evaluate(long[] times, double[] stages, int from, int to, double[] target) {
+		int period = -1;
+		for(int i = from; i < to; i++){
+			long time = times[i];
+			if(period < 0 || time < periodFrom[period] || time >= periodTo[period]){
+				period = findPeriod(time);
+			}
+			target[i] = period < 0 ? Double.NaN : evaluate(period, stages[i]);
+		}
+	}
+	/**
+	 * Convert a stage series.
+	 * @param series {@link SeriesSnapshot} of stages
+	 * @return discharge column, aligned with the series rows
+	 */
+	public double[] evaluate(SeriesSnapshot series) {
+		double[] values = series.getValues();
+		evaluate(series.getTimes(), values, 0, values.length, values);
+		return values;
+	}
+	/**
+	 * Convert many stage series in parallel on the common fork/join pool.
+	 * @param series map of key to {@link SeriesSnapshot} of stages
+	 * @return map of the same keys to discharge columns
+	 */
+	public <K> Map<K, double[]> evaluateAll(Map<K, SeriesSnapshot> series) {
+
+		final List<K> keys = new ArrayList<K>(series.keySet());
+		final List<SeriesSnapshot> snapshots = new ArrayList<SeriesSnapshot>(series.values());
+		final double[][] results = new double[keys.size()][];
+
+		final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(keys.size());
+		for(int i = 0; i < keys.size(); i++){
+			final int index = i;
+			tasks.add(new RecursiveAction() {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					results[index] = evaluate(snapshots.get(index));
+				}
+			});
+		}
+
+		ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				invokeAll(tasks);
+			}
+		});
+
+		Map<K, double[]> result = new LinkedHashMap<K, double[]>(keys.size() * 2);
+		for(int i = 0; i < keys.size(); i++){
+			result.put(keys.get(i), results[i]);
+		}
+		return result;
+	}
+
+	// last period started at or before the time, if still valid
+	private int findPeriod(long time) {
+		int lo = 0;
+		int hi = periodFrom.length - 1;
+		int found = -1;
+		while(lo <= hi){
+			int mid = (lo + hi) >>> 1;
+			if(periodFrom[mid] <= time){
+				found = mid;
+				lo = mid + 1;
+			}else{
+				hi = mid - 1;
+			}
+		}
+		return found >= 0 && time < periodTo[found] ? found : -1;
+	}
+
+	private double evaluate(int period, double stage) {
+		// last segment whose lower stage is not above the stage
+		int lo = periodFirst[period];
+		int hi = periodEnd[period] - 1;
+		int found = -1;
+		while(lo <= hi){
+			int mid = (lo + hi) >>> 1;
+			if(low[mid] <= stage){
+				found = mid;
+				lo = mid + 1;
+			}else{
+				hi = mid - 1;
+			}
+		}
+		if(found < 0 || stage > up[found]){
+			return Double.NaN;
+		}
+		return a[found] * Math.pow(stage + b[found], c[found]) + k[found];
+	}
+
+	private static double parse(String name, String value) {
+		if(value == null){
+			throw new IllegalArgumentException("Rating curve parameter " + name + " is missing");
+		}
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid rating curve parameter " + name + ": " + value);
+		}
+	}
+
+	private static long parseTime(String value, long missing) {
+		return value == null || value.trim().isEmpty() ? missing : IsoTime.parse(value.trim());
+	}
+
+	/**
+	 * Parsed parameters, used while compiling only.
+	 */
+	private static class Segment {
+
+		final long from;
+		final long to;
+		final double low;
+		final double up;
+		final double a;
+		final double b;
+		final double c;
+		final double k;
+
+		Segment(RatingCurveParameters parameters) {
+			from = parseTime(parameters.getFrom(), Long.MIN_VALUE);
+			to = parseTime(parameters.getTo(), Long.MAX_VALUE);
+			low = parse("low_val", parameters.getLow_val());
+			up = parse("up_val", parameters.getUp_val());
+			a = parse("A", parameters.getA());
+			b = parse("B", parameters.getB());
+			c = parse("C", parameters.getC());
+			k = parse("K", parameters.getK());
+		}
+	}
+
+}
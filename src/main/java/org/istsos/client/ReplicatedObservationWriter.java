@@ -0,0 +1,297 @@
+package org.istsos.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes every observation batch to several services, e.g. a primary and a
+ * disaster-recovery istSOS.
+ * <p>
+ * Each target has its own queue and sends its batches one at a time, in order,
+ * independently of the other targets: a slow or unavailable replica only grows its
+ * own queue and lag. Batches failing with a timeout or server error are retried with
+ * exponential backoff; when a queue exceeds its capacity the oldest batch is dropped.
+ *
+ */
+public class ReplicatedObservationWriter {
+
+	private static final ThreadFactory daemonThreads = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "istsos-replication");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private final List<Replica> replicas;
+	private final ScheduledExecutorService scheduler;
+
+	private IstSOSListener listener;
+	private volatile boolean closed = false;
+
+	private int maxQueuedBatches = 10000;
+	private int maxRetries = 10;
+	private long initialBackoff = 500;
+	private long maxBackoff = 60000;
+
+	/**
+	 * Initialize a writer for the given targets.
+	 * @param targets list of {@link Service}, at least one
+	 */
+	public ReplicatedObservationWriter(List<Service> targets) {
+		if(targets == null || targets.isEmpty()){
+			throw new IllegalArgumentException("At least one target service is required");
+		}
+		List<Replica> list = new ArrayList<Replica>(targets.size());
+		for(Service service : targets){
+			list.add(new Replica(service));
+		}
+		this.replicas = Collections.unmodifiableList(list);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads);
+	}
+	/**
+	 * Set the listener notified for every batch written to a target (onSuccess)
+	 * and every batch dropped by a target (onError).
+	 * @param listener {@link IstSOSListener}
+	 */
+	public void setListener(IstSOSListener listener) {
+		this.listener = listener;
+	}
+	/**
+	 * Set the number of batches a target may queue before the oldest are dropped.
+	 * @param maxQueuedBatches as int
+	 */
+	public void setMaxQueuedBatches(int maxQueuedBatches) {
+		this.maxQueuedBatches = Math.max(1, maxQueuedBatches);
+	}
+	/**
+	 * Set retry policy for timeouts and server errors.
+	 * @param maxRetries attempts after the first one before dropping the batch
+	 * @param initialBackoff delay before the first retry in milliseconds, doubled on every attempt
+	 * @param maxBackoff longest delay between retries in milliseconds
+	 */
+	public void setRetryPolicy(int maxRetries, long initialBackoff, long maxBackoff) {
+		this.maxRetries = maxRetries;
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+	}
+	/**
+	 * Queue an observation batch on every target. Returns immediately.
+	 * @param procedure {@link Procedure}
+	 * @param observation {@link Observation}
+	 */
+	public void write(Procedure procedure, Observation observation) {
+		long now = System.currentTimeMillis();
+		for(Replica replica : replicas){
+			replica.enqueue(new Batch(procedure, observation, now));
+		}
+	}
+	/**
+	 * Stop retry timers. Batches still queued are not sent anymore.
+	 */
+	public void close() {
+		closed = true;
+		scheduler.shutdownNow();
+	}
+	/**
+	 * Retrieve lag and counters of every target, keyed by service name.
+	 * @return map of service name to metrics
+	 */
+	public Map<String, Map<String, Number>> getMetrics() {
+		Map<String, Map<String, Number>> metrics = new LinkedHashMap<String, Map<String, Number>>();
+		for(Replica replica : replicas){
+			metrics.put(replica.service.getName(), replica.getMetrics());
+		}
+		return metrics;
+	}
+	/**
+	 * Retrieve how far behind a target is: age of its oldest queued batch.
+	 * @param service one of the target {@link Service}s
+	 * @return lag in milliseconds, 0 when the target is up to date
+	 */
+	public long getLag(Service service) {
+		for(Replica replica : replicas){
+			if(replica.service == service){
+				return replica.getLag();
+			}
+		}
+		throw new IllegalArgumentException("Not a target of this writer");
+	}
+
+	private static class Batch {
+
+		final Procedure procedure;
+		final Observation observation;
+		final long enqueued;
+		int attempts = 0;
+
+		Batch(Procedure procedure, Observation observation, long enqueued) {
+			this.procedure = procedure;
+			this.observation = observation;
+			this.enqueued = enqueued;
+		}
+	}
+
+	private class Replica {
+
+		final Service service;
+		final ArrayDeque<Batch> queue = new ArrayDeque<Batch>();
+		boolean inFlight = false;
+
+		long written = 0;
+		long retried = 0;
+		long dropped = 0;
+		long lastLatency = -1;
+		long lastWritten = 0;
+
+		Replica(Service service) {
+			this.service = service;
+		}
+
+		void enqueue(Batch batch) {
+			Batch overflow = null;
+			synchronized (this) {
+				queue.add(batch);
+				if(queue.size() > maxQueuedBatches){
+					// never drop the batch being sent
+					overflow = inFlight ? removeSecond() : queue.poll();
+					dropped++;
+				}
+			}
+			if(overflow != null){
+				notifyDropped(overflow, null);
+			}
+			sendNext();
+		}
+
+		private Batch removeSecond() {
+			Batch head = queue.poll();
+			Batch second = queue.poll();
+			queue.addFirst(head);
+			return second;
+		}
+
+		void sendNext() {
+
+			final Batch batch;
+			synchronized (this) {
+				if(closed || inFlight || queue.isEmpty()){
+					return;
+				}
+				inFlight = true;
+				batch = queue.peek();
+			}
+
+			final long start = System.nanoTime();
+			batch.attempts++;
+
+			try {
+				service.insertObservation(batch.procedure, batch.observation, new IstSOSListener() {
+
+					@Override
+					public void onSuccess(EventObject event) {
+						synchronized (Replica.this) {
+							queue.poll();
+							inFlight = false;
+							written++;
+							lastLatency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+							lastWritten = System.currentTimeMillis();
+						}
+						if(listener != null){
+							listener.onSuccess(event);
+						}
+						sendNext();
+					}
+
+					@Override
+					public void onError(EventObject event) {
+						failed(batch, event);
+					}
+				});
+			} catch (RuntimeException e) {
+				failed(batch, new EventObject(Event.REQUEST_FAILED, new RequestException(e)));
+			}
+		}
+
+		void failed(Batch batch, EventObject event) {
+
+			boolean retryable = event.getObject() instanceof RequestException
+					&& ((RequestException) event.getObject()).isRetryable();
+
+			if(retryable && batch.attempts <= maxRetries && !closed){
+				long backoff = Math.min(maxBackoff, initialBackoff << Math.min(batch.attempts - 1, 20));
+				try {
+					scheduler.schedule(new Runnable() {
+						@Override
+						public void run() {
+							synchronized (Replica.this) {
+								inFlight = false;
+							}
+							sendNext();
+						}
+					}, backoff, TimeUnit.MILLISECONDS);
+					synchronized (this) {
+						retried++;
+					}
+					return;
+				} catch (RejectedExecutionException e) {
+					// closed meanwhile, drop the batch
+				}
+			}
+
+			synchronized (this) {
+				queue.poll();
+				inFlight = false;
+				dropped++;
+			}
+			notifyDropped(batch, event);
+			// on the scheduler, failing synchronously must not recurse through the queue
+			try {
+				scheduler.execute(new Runnable() {
+					@Override
+					public void run() {
+						sendNext();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// closed, nothing is sent anymore
+			}
+		}
+
+		void notifyDropped(Batch batch, EventObject event) {
+			if(listener != null){
+				listener.onError(event != null ? event : new EventObject(Event.REQUEST_FAILED,
+						new RequestException(new IllegalStateException(
+								"Replication queue of " + service.getName() + " full, batch dropped"))));
+			}
+		}
+
+		synchronized long getLag() {
+			Batch oldest = queue.peek();
+			return oldest == null ? 0 : System.currentTimeMillis() - oldest.enqueued;
+		}
+
+		synchronized Map<String, Number> getMetrics() {
+			Map<String, Number> metrics = new LinkedHashMap<String, Number>();
+			metrics.put("queuedBatches", queue.size());
+			metrics.put("lag", getLag());
+			metrics.put("written", written);
+			metrics.put("retried", retried);
+			metrics.put("dropped", dropped);
+			metrics.put("lastLatency", lastLatency);
+			metrics.put("lastWritten", lastWritten);
+			return metrics;
+		}
+	}
+
+}
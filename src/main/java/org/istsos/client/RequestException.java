@@ -0,0 +1,85 @@
+package org.istsos.client;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Carried by {@link Event#REQUEST_FAILED} events when a request to istSOS
+ * could not be completed.
+ * <p>
+ * Holds the HTTP status code when the server answered, or the cause when
+ * the request failed before a response was received.
+ *
+ */
+public class RequestException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int statusCode;
+	private final boolean rejected;
+
+	public RequestException(int statusCode, String message) {
+		this(statusCode, message, false);
+	}
+	/**
+	 * Initialize a failure answered by istSOS.
+	 * @param statusCode HTTP status code
+	 * @param message as String
+	 * @param rejected true if istSOS processed the request and answered
+	 * {@code "success": false}
+	 */
+	public RequestException(int statusCode, String message, boolean rejected) {
+		super("HTTP " + statusCode + (message != null ? " " + message : ""));
+		this.statusCode = statusCode;
+		this.rejected = rejected;
+	}
+
+	public RequestException(int statusCode, Throwable cause) {
+		super("HTTP " + statusCode + " " + cause.getMessage(), cause);
+		this.statusCode = statusCode;
+		this.rejected = false;
+	}
+
+	public RequestException(Throwable cause) {
+		super(cause.getMessage(), cause);
+		this.statusCode = 0;
+		this.rejected = false;
+	}
+	/**
+	 * Retrieve HTTP status code
+	 * @return status code, 0 when no response was received
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+	/**
+	 * Check whether the request timed out
+	 * @return true on timeout
+	 */
+	public boolean isTimeout() {
+		return getCause() instanceof TimeoutException;
+	}
+	/**
+	 * Check whether the server failed (5xx)
+	 * @return true on server error
+	 */
+	public boolean isServerError() {
+		return statusCode >= 500;
+	}
+	/**
+	 * Check whether istSOS answered {@code "success": false}, usually with
+	 * status 200: the request reached the service and was refused.
+	 * @return true if rejected
+	 */
+	public boolean isRejected() {
+		return rejected;
+	}
+	/**
+	 * Check whether retrying the same request may succeed: timeouts,
+	 * connection failures and server errors. Rejected requests are not.
+	 * @return true if retryable
+	 */
+	public boolean isRetryable() {
+		return !rejected && (statusCode == 0 || statusCode >= 500);
+	}
+
+}
@@ -20,7 +20,11 @@ public class Server{
 	private boolean autheticationRequired = false;
 	
 
-	private List<Service> services = new ArrayList<>();
+	// replaced as a whole, never modified once published
+	private volatile ArrayList<Service> services = new ArrayList<Service>();
+	
+	// equivalent base URLs read requests are routed across
+	private final ServerEndpoints endpoints;
 	/**
 	 * Initialize a Server instance with name and url.
 	 * @param name as String
@@ -29,6 +33,7 @@ public class Server{
 	public Server(String name, String url) {
 		this.name = name;
 		this.url = url;
+		this.endpoints = new ServerEndpoints(url);
 	}
 	
 	/**
@@ -42,6 +47,7 @@ public class Server{
 	public Server(String serverName, String url, String user, String password) {
 		this.name = serverName;
 		this.url = url;
+		this.endpoints = new ServerEndpoints(url);
 		this.setUser(user);
 		this.setPassword(password);
 		autheticationRequired = true;
@@ -76,6 +82,29 @@ public class Server{
 	public String getServerUrl(){
 		return this.url;
 	}
+	/**
+	 * Add a base URL reaching the same istSOS instance, e.g. through a VPN.
+	 * Read requests are then routed to the endpoint answering fastest and
+	 * fail over to the others on errors.
+	 * @param url as String
+	 */
+	public void addEndpoint(String url){
+		this.endpoints.add(url);
+	}
+	/**
+	 * Remove an alternative base URL
+	 * @param url as String
+	 */
+	public void removeEndpoint(String url){
+		this.endpoints.remove(url);
+	}
+	/**
+	 * Retrieve the base URLs of the server with their routing statistics
+	 * @return {@link ServerEndpoints}
+	 */
+	public ServerEndpoints getEndpoints(){
+		return this.endpoints;
+	}
 	/**
 	 * Retrieve username
 	 * @return username as String
@@ -116,17 +145,17 @@ public class Server{
 	 * Loads all available services from the server.
 	 * Note: The IstSOSListener callback modifier is set to final.
 	 * Every usage of this method will result in a new request to retrieve
-	 * services from istSOS.
+	 * services from istSOS. Services already known by name are kept together
+	 * with their loaded metadata, services no longer listed are dropped.
 	 * 
 	 * @param callback
 	 */
 	public void loadServices(final IstSOSListener callback){
-		services.clear();
 		
 		Map<String, String> urlKeyMap = new HashMap<String, String>();
 		urlKeyMap.put("url", this.url);
 		
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.SERVICE, urlKeyMap), new IstSOSListener() {
+		IstSOS.executeGet(this.endpoints, Requests.getUrl(Requests.Request.SERVICE, urlKeyMap), new IstSOSListener() {
 			
 			@Override
 			public void onSuccess(EventObject event) {
@@ -134,6 +163,7 @@ public class Server{
 				JsonObject json = (JsonObject) event.getObject();
 		        
 		        JsonArray data = json.getAsJsonArray("data");
+		        ArrayList<Service> loaded = new ArrayList<Service>(data.size());
 		      
                 for(JsonElement element : data){
 		        	if(element.isJsonObject()){
@@ -142,24 +172,38 @@ public class Server{
 		        		System.out.println(object.toString());
 		        		
 		        		Service service = Service.fromJson(object);
+		        		
+		        		// keep known services with their loaded metadata
+		        		Service existing = Server.this.getService(service.getName());
+		        		if(existing != null){
+		        			existing.setConfigPath(service.getConfigPath());
+		        			service = existing;
+		        		}
 		        		service.setServer(Server.this);
 		        		
-		        		Server.this.services.add(service);
+		        		loaded.add(service);
 		        		
 		        	}
 		        }
 		        
-		        EventObject eventObject = new EventObject(Event.SERVICE_LOADED, services);
+		        Server.this.services = loaded;
+		        
+		        EventObject eventObject = new EventObject(Event.SERVICE_LOADED, loaded);
 	    		
-	    		if(callback != null){
-	    			callback.onSuccess(eventObject);
+	    		try {
+	    			if(callback != null){
+	    				callback.onSuccess(eventObject);
+	    			}
+	    		} finally {
+	    			IstSOS.getInstance().getEventBus().publish(eventObject);
 	    		}
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// TODO Auto-generated method stub
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.getRealm());
 	}
@@ -172,6 +216,17 @@ public class Server{
 		return this.services;
 	}
 	
+	/**
+	 * Replace the services, e.g. when restoring a {@link MetadataSnapshot}.
+	 * @param services list of {@link Service}
+	 */
+	void setServices(List<Service> services) {
+		for(Service service : services){
+			service.setServer(this);
+		}
+		this.services = new ArrayList<Service>(services);
+	}
+	
 	protected ArrayList<String> getRealm(){
 		if(autheticationRequired){
 
@@ -0,0 +1,238 @@
+package org.istsos.client;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Equivalent base URLs of one istSOS server, e.g. a load balancer, a node
+ * and a VPN address, with the statistics used to route read requests.
+ * <p>
+ * Each endpoint keeps an average of its response times decaying with time,
+ * so that an endpoint not used for a while is judged on fresh samples. A
+ * request goes to the better of two endpoints picked at random, comparing
+ * their average weighted by requests in flight; endpoints never measured are
+ * tried first. An endpoint failing with a timeout, a connection error or a
+ * server error is avoided for an exponentially growing period, and the request
+ * fails over to the next endpoint. Requests are built with the primary URL of
+ * the {@link Server}; only GET requests are routed, writes keep the primary.
+ *
+ */
+public class ServerEndpoints {
+
+	// time constant of the decaying average, in milliseconds
+	private static final double DECAY = 10000;
+	private static final long MIN_BACKOFF = 1000;
+	private static final long MAX_BACKOFF = 60000;
+
+	private final String primary;
+	private final CopyOnWriteArrayList<Endpoint> endpoints = new CopyOnWriteArrayList<Endpoint>();
+
+	ServerEndpoints(String primary) {
+		this.primary = primary;
+		this.endpoints.add(new Endpoint(primary));
+	}
+	/**
+	 * Add an equivalent base URL; requests are routed once there are two.
+	 * @param url base URL, e.g. http://10.0.0.5/istsos/
+	 */
+	public synchronized void add(String url) {
+		if(find(url) == null){
+			endpoints.add(new Endpoint(url));
+		}
+	}
+	/**
+	 * Remove a base URL; the primary URL cannot be removed.
+	 * @param url base URL
+	 */
+	public synchronized void remove(String url) {
+		Endpoint endpoint = find(url);
+		if(endpoint != null && !url.equals(primary)){
+			endpoints.remove(endpoint);
+		}
+	}
+
+	public String getPrimary() {
+		return primary;
+	}
+
+	public List<Endpoint> getEndpoints() {
+		return new ArrayList<Endpoint>(endpoints);
+	}
+
+	public int size() {
+		return endpoints.size();
+	}
+	/**
+	 * Pick the endpoint for the next request.
+	 * @param excluded endpoints already tried by the request
+	 * @return {@link Endpoint}, null if all were excluded
+	 */
+	public Endpoint select(Collection<Endpoint> excluded) {
+
+		long now = System.currentTimeMillis();
+		List<Endpoint> candidates = new ArrayList<Endpoint>(endpoints.size());
+		Endpoint soonest = null;
+		for(Endpoint endpoint : endpoints){
+			if(excluded != null && excluded.contains(endpoint)){
+				continue;
+			}
+			if(endpoint.isAvailable(now)){
+				candidates.add(endpoint);
+			}else if(soonest == null || endpoint.getRetryAt() < soonest.getRetryAt()){
+				soonest = endpoint;
+			}
+		}
+
+		if(candidates.isEmpty()){
+			// every endpoint is failing, try the one recovering first
+			return soonest;
+		}
+		if(candidates.size() == 1){
+			return candidates.get(0);
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int i = random.nextInt(candidates.size());
+		int j = random.nextInt(candidates.size() - 1);
+		if(j >= i){
+			j++;
+		}
+		Endpoint first = candidates.get(i);
+		Endpoint second = candidates.get(j);
+		return first.score() <= second.score() ? first : second;
+	}
+	/**
+	 * Rewrite a request URL built with the primary URL to an endpoint.
+	 * @param url request URL
+	 * @param endpoint {@link Endpoint}
+	 * @return request URL on the endpoint
+	 */
+	public String rewrite(String url, Endpoint endpoint) {
+		return endpoint.url + url.substring(primary.length());
+	}
+	/**
+	 * Check whether a request URL is routed across the endpoints.
+	 * @param url request URL
+	 * @return true if the URL is under the primary URL and there are several endpoints
+	 */
+	boolean routes(String url) {
+		if(endpoints.size() < 2 || !url.startsWith(primary)){
+			return false;
+		}
+		// http://host/istsos is not the base of http://host/istsos2/
+		return primary.endsWith("/") || url.length() == primary.length()
+				|| "/?".indexOf(url.charAt(primary.length())) >= 0;
+	}
+
+	private Endpoint find(String url) {
+		for(Endpoint endpoint : endpoints){
+			if(endpoint.url.equals(url)){
+				return endpoint;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * One base URL with its latency average and failure state.
+	 */
+	public static class Endpoint {
+
+		private final String url;
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		private double latencyAverage = -1;
+		private long lastSample = 0;
+		private int consecutiveFailures = 0;
+		private long retryAt = 0;
+		private long requests = 0;
+		private long failures = 0;
+
+		Endpoint(String url) {
+			this.url = url;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+		/**
+		 *
+		 * @return decaying average of response times in milliseconds, -1 before any
+		 */
+		public synchronized double getLatencyAverage() {
+			return latencyAverage;
+		}
+
+		public int getInFlight() {
+			return inFlight.get();
+		}
+
+		public synchronized long getRequests() {
+			return requests;
+		}
+
+		public synchronized long getFailures() {
+			return failures;
+		}
+		/**
+		 *
+		 * @return epoch milliseconds before which the endpoint is avoided
+		 */
+		public synchronized long getRetryAt() {
+			return retryAt;
+		}
+
+		synchronized boolean isAvailable(long now) {
+			return retryAt <= now;
+		}
+
+		synchronized double score() {
+			double latency = latencyAverage < 0 ? 0 : latencyAverage;
+			return latency * (inFlight.get() + 1);
+		}
+
+		void start() {
+			inFlight.incrementAndGet();
+		}
+		/**
+		 * Record the outcome of a request.
+		 * @param latency response time in milliseconds
+		 * @param success false when the endpoint failed the request
+		 */
+		void done(long latency, boolean success) {
+			inFlight.decrementAndGet();
+			record(System.currentTimeMillis(), latency, success);
+		}
+
+		synchronized void record(long now, long latency, boolean success) {
+			requests++;
+			if(success){
+				if(latencyAverage < 0){
+					latencyAverage = latency;
+				}else{
+					double weight = 1 - Math.exp(-(now - lastSample) / DECAY);
+					// keep some weight on samples arriving together
+					weight = Math.max(0.1, weight);
+					latencyAverage += weight * (latency - latencyAverage);
+				}
+				lastSample = now;
+				consecutiveFailures = 0;
+				retryAt = 0;
+			}else{
+				failures++;
+				consecutiveFailures++;
+				long backoff = MIN_BACKOFF << Math.min(consecutiveFailures - 1, 6);
+				retryAt = now + Math.min(MAX_BACKOFF, backoff);
+			}
+		}
+
+		@Override
+		public synchronized String toString() {
+			return url + " " + Math.round(latencyAverage) + " ms, " + inFlight.get() + " in flight";
+		}
+	}
+
+}
@@ -3,10 +3,13 @@ package org.istsos.client;
 import com.google.gson.*;
 import com.google.gson.annotations.SerializedName;
 
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
+import org.istsos.client.procedure.LocationIndex;
+
 /**
  * Handles all requests for IstSOS data instances.
  * <p>
@@ -23,13 +26,18 @@ public class Service implements IstSOSObject<Service>{
 	
 	private Server server;
 
-    private ArrayList<Offering> offerings = new ArrayList<>();
-    private ArrayList<Procedure> procedures = new ArrayList<>();
-    private ArrayList<VirtualProcedure> virtualProcedures = new ArrayList<>();
-	private ArrayList<ObservedProperty> observedProperties = new ArrayList<>();
-	private ArrayList<UnitOfMeasure> uoms = new ArrayList<>();
-	private ArrayList<DataQuality> dataQualities = new ArrayList<>();
-	private ArrayList<Observation> observations = new ArrayList<>();
+	// offerings, procedures, virtual procedures, observed properties, uoms and data qualities
+	private transient Catalog catalog = new Catalog();
+	// observations of the last multi-procedure request only, history is kept in the store
+	private volatile ArrayList<Observation> observations = new ArrayList<>();
+	
+	private transient ObservationStore observationStore = new ObservationStore();
+	private transient volatile LocationIndex locationIndex;
+	private transient ProcedureDetailCache detailCache = new ProcedureDetailCache(this, ProcedureDetailCache.DEFAULT_CAPACITY);
+	private transient OfferingMembership membership = new OfferingMembership();
+	private transient ProcedureSearchIndex searchIndex = new ProcedureSearchIndex();
+	private transient VirtualProcedureEngine virtualEngine;
+	private transient volatile MqttPublisher mqttPublisher;
 	
 	public Service() {};
 	/**
@@ -65,21 +73,20 @@ public class Service implements IstSOSObject<Service>{
 	public void setServer(Server server){
 		this.server = server;
 	}
+	/**
+	 * 
+	 * @return {@link Server} holding this service
+	 */
+	public Server getServer(){
+		return this.server;
+	}
 	/**
 	 * Retrieve a procedure based on its name.
 	 * @param procedureName as String
 	 * @return {@link Procedure} instance if found, else returns null.
 	 */
 	public Procedure getProcedure(String procedureName){
-
-        for(Procedure proc : this.procedures){
-
-            if(proc.getSystem().equals(procedureName))
-                return proc;
-        }
-
-        return null;
-
+		return this.catalog.getProcedure(procedureName);
 	}
 	/**
 	 * Retrieve an offering based on its name.
@@ -87,15 +94,7 @@ public class Service implements IstSOSObject<Service>{
 	 * @return {@link Offering} instance if found, else returns null.
 	 */
 	public Offering getOffering(String offeringName){
-		
-		for(Offering offer : this.offerings){
-			
-			if(offer.getName().equals(offeringName))
-				return offer;
-		}
-		
-		return null;
-		
+		return this.catalog.getOffering(offeringName);
 	}
 	/**
 	 * Retrieve an observedProperty based on its definition URN.
@@ -103,16 +102,7 @@ public class Service implements IstSOSObject<Service>{
 	 * @return {@link ObservedProperty} instance if found, else returns null.
 	 */
 	public ObservedProperty getObservedProperty(String defUrn){
-		
-		for(ObservedProperty obsProp : this.observedProperties){
-			
-			if(obsProp.getDefinition().equals(defUrn))
-				return obsProp;
-			
-		}
-		
-		return null;
-		
+		return this.catalog.getObservedProperty(defUrn);
 	}
 	/**
 	 * Retrieve a data quality based on its code.
@@ -120,14 +110,7 @@ public class Service implements IstSOSObject<Service>{
 	 * @return {@link DataQuality} instance if found, else returns null.
 	 */
 	public DataQuality getDataQuality(int code){
-		
-		for(DataQuality dataQuality : this.dataQualities){
-			
-			if(dataQuality.getDataQualityCode() == code)
-				return dataQuality;
-		}
-		
-		return null;
+		return this.catalog.getDataQuality(code);
 	}
 	/**
 	 * Retrieve a virtual procedure based on its name.
@@ -135,14 +118,7 @@ public class Service implements IstSOSObject<Service>{
 	 * @return {@link VirtualProcedure} instance if found, else returns null.
 	 */
 	public VirtualProcedure getVirtualProcedure(String procedureName){
-		
-		for(VirtualProcedure proc : this.virtualProcedures){
-			
-			if(proc.getSystem().equals(procedureName))
-				return proc;
-		}
-		
-		return null;
+		return this.catalog.getVirtualProcedure(procedureName);
 	}
 	/**
 	 * Retrieve unit of measure based on its name.
@@ -150,16 +126,41 @@ public class Service implements IstSOSObject<Service>{
 	 * @return {@link UnitOfMeasure} instance if found, else returns null.
 	 */
 	public UnitOfMeasure getUom(String uomName){
-		
-		for(UnitOfMeasure uom : this.getUnitsOfMeasure()){
-			
-			if(uom.getUnitName().equals(uomName))
-				return uom;
-		}
-		
-		return null;
+		return this.catalog.getUom(uomName);
 	}
-	
+	/**
+	 * Retrieve the loaded procedures member of an offering.
+	 * @param offeringName as String
+	 * @return List of {@link Procedure}
+	 */
+	public ArrayList<Procedure> getProceduresByOffering(String offeringName){
+		return new ArrayList<Procedure>(this.catalog.getProceduresByOffering(offeringName));
+	}
+	/**
+	 * Retrieve the loaded procedures observing a property.
+	 * @param defUrn observed property definition URN
+	 * @return List of {@link Procedure}
+	 */
+	public ArrayList<Procedure> getProceduresByObservedProperty(String defUrn){
+		return new ArrayList<Procedure>(this.catalog.getProceduresByObservedProperty(defUrn));
+	}
+	/**
+	 * Retrieve the loaded procedures of a sensor type.
+	 * @param sensorType as String, e.g. insitu-fixed-point
+	 * @return List of {@link Procedure}
+	 */
+	public ArrayList<Procedure> getProceduresBySensorType(String sensorType){
+		return new ArrayList<Procedure>(this.catalog.getProceduresBySensorType(sensorType));
+	}
+	/**
+	 * Retrieve the indexed catalog holding offerings, procedures, virtual procedures,
+	 * observed properties, units of measure and data qualities.
+	 * @return {@link Catalog}
+	 */
+	public Catalog getCatalog() {
+		return catalog;
+	}
+
 	
 	/**
 	 * Default method for loading connection to Database
@@ -178,7 +179,7 @@ public class Service implements IstSOSObject<Service>{
 		urlKeyMap.put("url", this.server.getServerUrl());
 		urlKeyMap.put("name", this.getName());
 		
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.DATABASE, urlKeyMap), new IstSOSListener() {
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.DATABASE, urlKeyMap), new IstSOSListener() {
 			
 			@Override
 			public void onSuccess(EventObject event) {
@@ -199,16 +200,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.DATABASE_LOADED, databaseConnection);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -255,16 +255,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.DATABASE_VALIDATED, databaseConnection);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -285,7 +284,7 @@ public class Service implements IstSOSObject<Service>{
 		urlKeyMap.put("url", this.server.getServerUrl());
 		urlKeyMap.put("name", this.getName());
 		
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.PROVIDER, urlKeyMap), new IstSOSListener() {
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.PROVIDER, urlKeyMap), new IstSOSListener() {
 			
 			@Override
 			public void onSuccess(EventObject event) {
@@ -306,19 +305,86 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.PROVIDER_LOADED, provider);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
+				if(callback != null){
+					callback.onError(event);
+				}
+			}
+		}, this.server.getRealm());
+	}
+	/**
+	 * Default method for loading the MQTT publisher configuration
+	 */
+	public void loadMqttPublisher(){
+		this.loadMqttPublisher(null);
+	}
+	/**
+	 * Retrieve the MQTT broker configuration istSOS publishes inserted observations to.
+	 * 
+	 * @param callback as IstSOSListener
+	 */
+	public void loadMqttPublisher(final IstSOSListener callback){
+
+		Map<String, String> urlKeyMap = new HashMap<String, String>();
+		urlKeyMap.put("url", this.server.getServerUrl());
+		urlKeyMap.put("name", this.getName());
+		
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.MQTT_PUBLISHER, urlKeyMap), new IstSOSListener() {
+			
+			@Override
+			public void onSuccess(EventObject event) {
+				
+				JsonObject json = (JsonObject) event.getObject();
+				
+				JsonObject object = json.get("data").getAsJsonObject();
+				
+				MqttPublisher publisher = MqttPublisher.fromJson(object);
+				Service.this.mqttPublisher = publisher;
 				
+		        EventObject eventObject = new EventObject(
+		        		Event.MQTT_PUBLISHER_LOADED, publisher);
+		        
+				Service.this.dispatch(callback, eventObject);
 				
 			}
+			
+			@Override
+			public void onError(EventObject event) {
+				if(callback != null){
+					callback.onError(event);
+				}
+			}
 		}, this.server.getRealm());
 	}
+	/**
+	 * 
+	 * @return {@link MqttPublisher} configuration, null until loaded
+	 */
+	public MqttPublisher getMqttPublisher() {
+		return mqttPublisher;
+	}
+	/**
+	 * Start receiving inserted observations from the MQTT broker of the service.
+	 * Load the configuration with {@link #loadMqttPublisher(IstSOSListener)} first.
+	 * @param listener notified with {@link Event#OBSERVATION_RECEIVED}, may be null
+	 * @return started {@link MqttObservationSubscriber}
+	 * @throws IllegalStateException if no broker configuration is loaded
+	 */
+	public MqttObservationSubscriber subscribeObservations(IstSOSListener listener){
+		MqttPublisher publisher = this.mqttPublisher;
+		if(publisher == null || !publisher.isEnabled()){
+			throw new IllegalStateException("No MQTT publisher configuration loaded for " + this.getName());
+		}
+		MqttObservationSubscriber subscriber = new MqttObservationSubscriber(this, publisher);
+		subscriber.setListener(listener);
+		subscriber.start();
+		return subscriber;
+	}
 	/**
 	 * Default method for updating service provider
 	 * @param provider
@@ -362,16 +428,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.PROVIDER_UPDATED, provider);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 		
@@ -415,7 +480,7 @@ public class Service implements IstSOSObject<Service>{
 		urlKeyMap.put("begin_position", formatter.format(beginPosition)); //beginPosition.toString());
 		urlKeyMap.put("end_position", formatter.format(endPosition)); //endPosition.toString());
 
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.GETOBSERVATION, urlKeyMap), new IstSOSListener(){
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.GETOBSERVATION, urlKeyMap), new IstSOSListener(){
 			
 			@Override
 			public void onSuccess(EventObject event) {
@@ -431,18 +496,19 @@ public class Service implements IstSOSObject<Service>{
 				Observation observation = Observation.fromJson(data);
 				System.out.println(observation.toJson().toString());
 				
+				Service.this.observationStore.append(observation);
+				
 		        EventObject eventObject = new EventObject(
 		        		Event.OBSERVATION_LOADED, observation);
 
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			@Override
 			public void onError(EventObject event) {
-				
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 		
@@ -499,13 +565,15 @@ public class Service implements IstSOSObject<Service>{
 		urlKeyMap.put("begin_position", formatter.format(beginPosition));
 		urlKeyMap.put("end_position", formatter.format(endPosition));
 		
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.GETOBSERVATION, urlKeyMap), new IstSOSListener(){
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.GETOBSERVATION, urlKeyMap), new IstSOSListener(){
 			
 			@Override
 			public void onSuccess(EventObject event) {
 				
 				JsonObject json = (JsonObject) event.getObject();
 		        JsonArray data = json.getAsJsonArray("data");
+		        
+		        ArrayList<Observation> loaded = new ArrayList<>();
 
                 for(JsonElement element : data){
 		        	if(element.isJsonObject()){
@@ -514,33 +582,132 @@ public class Service implements IstSOSObject<Service>{
 		        		//converto observation object
 						Observation observation = Observation.fromJson(object);
 
-                        Service.this.observations.add(observation);
+						loaded.add(observation);
+                        Service.this.observationStore.append(observation);
 		        	}
 		        }
+		        
+		        Service.this.observations = loaded;
 				
 		        EventObject eventObject = new EventObject(
-		        		Event.OBSERVATION_LOADED, observations);
+		        		Event.OBSERVATION_LOADED, loaded);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			@Override
 			public void onError(EventObject event) {
-				
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 		
 	}
 	/**
-	 * Retrieve a list of Observations
+	 * Retrieve the Observations returned by the last request for multiple procedures.
+	 * Loaded rows are retained per series in the {@link #getObservationStore() observation store}.
 	 * @return List of Observations
 	 */
 	public ArrayList<Observation> getObservations() {
 		return observations;
 	}
+	/**
+	 * Retrieve the store retaining the rows of loaded observations.
+	 * @return {@link ObservationStore}
+	 */
+	public ObservationStore getObservationStore() {
+		return observationStore;
+	}
+	/**
+	 * Replace the store retaining loaded observations, e.g. to share one store among services
+	 * or to change retention.
+	 * @param observationStore {@link ObservationStore}
+	 */
+	public synchronized void setObservationStore(ObservationStore observationStore) {
+		this.observationStore = observationStore;
+		this.virtualEngine = null;
+	}
+	/**
+	 * Retrieve the engine evaluating virtual procedures locally over the
+	 * {@link #getObservationStore() observation store}.
+	 * @return {@link VirtualProcedureEngine}
+	 */
+	public synchronized VirtualProcedureEngine getVirtualProcedureEngine() {
+		if(this.virtualEngine == null){
+			this.virtualEngine = new VirtualProcedureEngine(this.observationStore);
+		}
+		return virtualEngine;
+	}
+	/**
+	 * Default method for loading procedure locations in the default coordinate system of the service.
+	 */
+	public void loadGeometryCollection(){
+		this.loadGeometryCollection(null, null);
+	}
+	/**
+	 * Load the locations of all procedures as GeoJSON and index them for
+	 * bounding box, radius and nearest procedure queries.
+	 * @param epsg EPSG code of the returned coordinates, null for the service default
+	 * @param callback - {@link IstSOSListener}, receives the {@link LocationIndex}
+	 */
+	public void loadGeometryCollection(String epsg, final IstSOSListener callback){
+		
+		Map<String, String> urlKeyMap = new HashMap<String, String>();
+		urlKeyMap.put("url", this.server.getServerUrl());
+		urlKeyMap.put("name", this.getName());
+		
+		String url = Requests.getUrl(Requests.Request.GEOMETRY_COLLECTION, urlKeyMap);
+		if(epsg != null){
+			url += "?epsg=" + epsg;
+		}
+		
+		IstSOS.executeGet(this.server.getEndpoints(), url, new IstSOSListener() {
+			
+			@Override
+			public void onSuccess(EventObject event) {
+				
+				JsonObject json = (JsonObject) event.getObject();
+				
+				// walib may wrap the feature collection in the usual data member
+				if(json.has("data") && json.get("data").isJsonObject()){
+					json = json.getAsJsonObject("data");
+				}
+				
+				LocationIndex index = LocationIndex.fromGeoJson(json);
+				Service.this.locationIndex = index;
+				
+				EventObject eventObject = new EventObject(Event.GEOMETRY_COLLECTION_LOADED, index);
+				
+				Service.this.dispatch(callback, eventObject);
+			}
+			
+			@Override
+			public void onError(EventObject event) {
+				if(callback != null){
+					callback.onError(event);
+				}
+			}
+		}, this.server.getRealm());
+	}
+	/**
+	 * Retrieve the spatial index of procedure locations built by the last
+	 * {@link #loadGeometryCollection(String, IstSOSListener)}.
+	 * @return {@link LocationIndex}, null if not loaded yet
+	 */
+	public LocationIndex getLocationIndex() {
+		return locationIndex;
+	}
+	/**
+	 * Retrieve the spatial index of procedure locations reprojected client side,
+	 * see {@link LocationIndex#transform(int)}.
+	 * @param epsg EPSG code, one of 4326, 3857, 21781 or 2056
+	 * @return {@link LocationIndex}, null if not loaded yet
+	 */
+	public LocationIndex getLocationIndex(int epsg) {
+		LocationIndex index = this.locationIndex;
+		return index != null ? index.transform(epsg) : null;
+	}
 	/**
 	 * Default method for describing sensor properties based on procedure name
 	 * @param procedureName as String
@@ -561,7 +728,7 @@ public class Service implements IstSOSObject<Service>{
 		urlKeyMap.put("name", this.getName());
 		urlKeyMap.put("code", procedureName);
 
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.PROCEDURE, urlKeyMap), new IstSOSListener() {
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.PROCEDURE, urlKeyMap), new IstSOSListener() {
 
 			@Override
 			public void onSuccess(EventObject event) {
@@ -575,18 +742,76 @@ public class Service implements IstSOSObject<Service>{
 
 				EventObject eventObject = new EventObject(Event.PROCEDURES_LOADED, procedure);
 
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 			}
 
 			@Override
 			public void onError(EventObject event) {
-				//
-
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
+	/**
+	 * Retrieve the full description of a procedure, requested with describeSensor
+	 * on first access only and then served from the {@link ProcedureDetailCache}.
+	 * @param procedureName as String
+	 * @param callback - {@link IstSOSListener}, receives {@link Event#PROCEDURE_LOADED}
+	 */
+	public void getProcedureDetails(String procedureName, IstSOSListener callback){
+		this.detailCache.get(procedureName, callback);
+	}
+	/**
+	 * 
+	 * @return {@link ProcedureDetailCache} of this service
+	 */
+	public ProcedureDetailCache getDetailCache() {
+		return detailCache;
+	}
+	/**
+	 * Search procedures by keywords, description and identification; every
+	 * token of the text must match. Summaries only carry the sensor type, the
+	 * other fields are indexed once procedures are described, e.g. with
+	 * {@link #describeSensors(IstSOSListener)}.
+	 * @param text as String
+	 * @return list of procedure names
+	 */
+	public List<String> searchProcedures(String text){
+		return this.searchIndex.search(text);
+	}
+	/**
+	 * 
+	 * @return {@link ProcedureSearchIndex} of this service, for conjunctive and prefix queries
+	 */
+	public ProcedureSearchIndex getSearchIndex() {
+		return searchIndex;
+	}
+	/**
+	 * Describe all procedures of the catalog, see {@link #describeSensors(Collection, int, IstSOSListener)}.
+	 * @param callback - {@link IstSOSListener}
+	 */
+	public void describeSensors(IstSOSListener callback){
+		List<String> names = new ArrayList<String>();
+		for(Procedure procedure : this.catalog.getSnapshot().getProcedures()){
+			names.add(procedure.getSystem());
+		}
+		this.describeSensors(names, BulkDescriber.DEFAULT_CONCURRENCY, callback);
+	}
+	/**
+	 * Describe many procedures in parallel with a bounded number of concurrent requests.
+	 * The callback receives {@link Event#PROCEDURE_LOADED} for every procedure as soon
+	 * as it arrives, onError for every failed request, and finally
+	 * {@link Event#PROCEDURES_DESCRIBED} with all described procedures. Details are
+	 * read from and kept in the {@link ProcedureDetailCache}, completed with the
+	 * offerings and observed properties of the summaries; the catalog is not changed.
+	 * @param procedureNames names of the procedures to describe
+	 * @param maxConcurrency maximum requests in flight
+	 * @param callback - {@link IstSOSListener}
+	 */
+	public void describeSensors(Collection<String> procedureNames, int maxConcurrency, IstSOSListener callback){
+		new BulkDescriber(this, procedureNames, callback).start(maxConcurrency);
+	}
 	/**
 	 * Default method for registering a sensor
 	 * @param procedure
@@ -623,19 +848,28 @@ public class Service implements IstSOSObject<Service>{
 
 				EventObject eventObject = new EventObject(Event.PROCEDURE_REGISTERED, procedure);
 
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 			}
 
 			@Override
 			public void onError(EventObject event) {
-				//
-
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 		
 	}
+	/**
+	 * Validate an observation against the outputs of a described procedure and
+	 * the data qualities loaded for this service, without contacting the server.
+	 * @param procedure {@link Procedure} loaded with describeSensor
+	 * @param observation {@link Observation}
+	 * @return {@link ObservationValidator.ValidationResult} with row-level errors
+	 */
+	public ObservationValidator.ValidationResult validateObservation(Procedure procedure, Observation observation){
+		return new ObservationValidator(procedure, this.getDataQualities()).validate(observation);
+	}
 	/**
 	 * Default method for inserting observation.
 	 * @param procedure {@link Procedure}
@@ -645,19 +879,40 @@ public class Service implements IstSOSObject<Service>{
 		this.insertObservation(procedure, observation, null);
 	}
 	/**
-	 * Insert Observation to service.
+	 * Insert Observation to service. When the outputs of the procedure are
+	 * known, rows are validated first and an invalid observation is not sent:
+	 * the callback receives {@link Event#OBSERVATION_REJECTED} with the
+	 * {@link ObservationValidator.ValidationResult} through onError.
 	 * @param procedure {@link Procedure}
 	 * @param observation {@link Observation}
 	 * @param callback {@link IstSOSListener}
 	 */
 	public void insertObservation(Procedure procedure, Observation observation, final IstSOSListener callback){
 		
+		// rows are checked when the procedure outputs are known, from the argument or the detail cache
+		Procedure described = procedure.getOutputs() != null && !procedure.getOutputs().isEmpty()
+				? procedure : this.detailCache.getIfPresent(procedure.getSystem());
+		if(described != null){
+			ObservationValidator.ValidationResult result = this.validateObservation(described, observation);
+			if(!result.isValid()){
+				if(callback != null){
+					callback.onError(new EventObject(Event.OBSERVATION_REJECTED, result));
+				}
+				return;
+			}
+		}
+		
 		Map<String, String> urlKeyMap = new HashMap<String, String>();
 		urlKeyMap.put("url", this.server.getServerUrl());
 		urlKeyMap.put("name", this.getName());
 		
-		Gson gson = new GsonBuilder().create();
-		String data = gson.toJson(observation, Observation.class);
+		// stream the payload into pooled buffers instead of building a String
+		PooledBufferOutputStream data;
+		try {
+			data = ObservationWriter.toBuffers(observation);
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to serialize observation", e);
+		}
 
 		IstSOS.executePost(Requests.getUrl(Requests.Request.INSERT_OBSERVATION, urlKeyMap), data, new IstSOSListener() {
 
@@ -665,23 +920,24 @@ public class Service implements IstSOSObject<Service>{
 			public void onSuccess(EventObject event) {
 
 				JsonObject json = (JsonObject) event.getObject();
-				JsonObject data = json.getAsJsonObject("data");
+				JsonElement data = json.get("data");
 
 				System.out.println(data);
 
-				Procedure procedure = Procedure.fromJson(data);
+				// istSOS may acknowledge the insert without echoing the procedure
+				Procedure procedure = data != null && data.isJsonObject()
+						? Procedure.fromJson(data.getAsJsonObject()) : null;
 
 				EventObject eventObject = new EventObject(Event.OBSERVATION_INSERTED, procedure);
 
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 			}
 
 			@Override
 			public void onError(EventObject event) {
-				//
-
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 		
@@ -702,7 +958,7 @@ public class Service implements IstSOSObject<Service>{
 		urlKeyMap.put("url", this.server.getServerUrl());
 		urlKeyMap.put("name", this.getName());
 
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.STATUS, urlKeyMap), new IstSOSListener(){
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.STATUS, urlKeyMap), new IstSOSListener(){
 			
 			@Override
 			public void onSuccess(EventObject event) {
@@ -725,16 +981,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.STATUS_LOADED, status);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -756,7 +1011,7 @@ public class Service implements IstSOSObject<Service>{
 		urlKeyMap.put("url", this.server.getServerUrl());
 		urlKeyMap.put("name", this.getName());
 		
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.DATA_QUALITIES, urlKeyMap), new IstSOSListener() {
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.DATA_QUALITIES, urlKeyMap), new IstSOSListener() {
 			
 			@Override
 			public void onSuccess(EventObject event) {
@@ -764,6 +1019,7 @@ public class Service implements IstSOSObject<Service>{
 				JsonObject json = (JsonObject) event.getObject();
 		        
 		        JsonArray data = json.getAsJsonArray("data");
+		        ArrayList<DataQuality> dataQualities = new ArrayList<DataQuality>(data.size());
 		        
                 for(JsonElement element : data){
 		        	if(element.isJsonObject()){
@@ -771,21 +1027,22 @@ public class Service implements IstSOSObject<Service>{
 
 						DataQuality dataQuality = DataQuality.fromJson(object);
 
-                        Service.this.dataQualities.add(dataQuality);
+                        dataQualities.add(dataQuality);
 		        	}
 		        }
 		        
+		        Service.this.catalog.replaceDataQualities(dataQualities);
+		        
 		        EventObject eventObject = new EventObject(Event.DATA_QUALITIES_LOADED, dataQualities);
 	    		
-	    		if(callback != null){
-	    			callback.onSuccess(eventObject);
-	    		}
+	    		Service.this.dispatch(callback, eventObject);
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				//   
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 		
@@ -795,7 +1052,7 @@ public class Service implements IstSOSObject<Service>{
 	 * @return List of data qualities
 	 */
 	public ArrayList<DataQuality> getDataQualities() {
-		return dataQualities;
+		return new ArrayList<DataQuality>(this.catalog.getSnapshot().getDataQualities());
 	}
 	/**
 	 * Default method for registering a data quality to selected service.
@@ -834,16 +1091,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.DATA_QUALITY_REGISTERED, message);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 		
@@ -890,16 +1146,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.DATA_QUALITY_UPDATED, dataQuality);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 		
@@ -944,16 +1199,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.DATA_QUALITY_REMOVED, message);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -973,7 +1227,7 @@ public class Service implements IstSOSObject<Service>{
 		urlKeyMap.put("url", this.server.getServerUrl());
 		urlKeyMap.put("name", this.getName());
 		
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.OBSERVED_PROPERTIES, urlKeyMap), new IstSOSListener() {
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.OBSERVED_PROPERTIES, urlKeyMap), new IstSOSListener() {
 			
 			@Override
 			public void onSuccess(EventObject event) {
@@ -981,6 +1235,7 @@ public class Service implements IstSOSObject<Service>{
 				JsonObject json = (JsonObject) event.getObject();
 		        
 		        JsonArray data = json.getAsJsonArray("data");
+		        ArrayList<ObservedProperty> observedProperties = new ArrayList<ObservedProperty>(data.size());
 		        
                 for(JsonElement element : data){
 		        	if(element.isJsonObject()){
@@ -988,21 +1243,22 @@ public class Service implements IstSOSObject<Service>{
 
 						ObservedProperty obsProperty = ObservedProperty.fromJson(object);
 
-                        Service.this.observedProperties.add(obsProperty);
+                        observedProperties.add(obsProperty);
 		        	}
 		        }
 		        
+		        Service.this.catalog.replaceObservedProperties(observedProperties);
+		        
 		        EventObject eventObject = new EventObject(Event.OBSERVED_PROPERTIES_LOADED, observedProperties);
 	    		
-	    		if(callback != null){
-	    			callback.onSuccess(eventObject);
-	    		}
+	    		Service.this.dispatch(callback, eventObject);
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 		
@@ -1012,7 +1268,7 @@ public class Service implements IstSOSObject<Service>{
 	 * @return List of observed properties
 	 */
 	public ArrayList<ObservedProperty> getObservedProperties() {
-		return observedProperties;
+		return new ArrayList<ObservedProperty>(this.catalog.getSnapshot().getObservedProperties());
 	}
 	/**
 	 * Default method for registering observed property to service.
@@ -1051,16 +1307,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.OBSERVED_PROPERTY_REGISTERED, message);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1107,16 +1362,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.OBSERVED_PROPERTY_UPDATED, obsProperty);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 		
@@ -1159,16 +1413,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.OBSERVED_PROPERTY_REMOVED, message);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1188,7 +1441,7 @@ public class Service implements IstSOSObject<Service>{
 		urlKeyMap.put("url", this.server.getServerUrl());
 		urlKeyMap.put("name", this.getName());
 		
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.UOMS, urlKeyMap), new IstSOSListener() {
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.UOMS, urlKeyMap), new IstSOSListener() {
 			
 			@Override
 			public void onSuccess(EventObject event) {
@@ -1196,6 +1449,7 @@ public class Service implements IstSOSObject<Service>{
 				JsonObject json = (JsonObject) event.getObject();
 		        
 		        JsonArray data = json.getAsJsonArray("data");
+		        ArrayList<UnitOfMeasure> uoms = new ArrayList<UnitOfMeasure>(data.size());
 		        
                 for(JsonElement element : data){
 		        	if(element.isJsonObject()){
@@ -1203,21 +1457,22 @@ public class Service implements IstSOSObject<Service>{
 
 						UnitOfMeasure uom = UnitOfMeasure.fromJson(object);
 
-                        Service.this.uoms.add(uom);
+                        uoms.add(uom);
 		        	}
 		        }
 		        
+		        Service.this.catalog.replaceUnitsOfMeasure(uoms);
+		        
 		        EventObject eventObject = new EventObject(Event.UOMS_LOADED, uoms);
 	    		
-	    		if(callback != null){
-	    			callback.onSuccess(eventObject);
-	    		}
+	    		Service.this.dispatch(callback, eventObject);
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 		
@@ -1227,7 +1482,7 @@ public class Service implements IstSOSObject<Service>{
 	 * @return List with units of measure
 	 */
 	public ArrayList<UnitOfMeasure> getUnitsOfMeasure() {
-		return uoms;
+		return new ArrayList<UnitOfMeasure>(this.catalog.getSnapshot().getUnitsOfMeasure());
 	}
 	/**
 	 * Default method for registering a unit of measure to service
@@ -1266,16 +1521,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.UOM_REGISTERED, message);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1323,16 +1577,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.UOM_UPDATED, response_uom);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1374,16 +1627,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.UOM_REMOVED, message);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 		
@@ -1399,18 +1651,39 @@ public class Service implements IstSOSObject<Service>{
 	 * @param callback - {@link IstSOSListener}
 	 */
 	public void loadProcedures(final IstSOSListener callback){
+		this.requestProcedures(false, callback);
+	}
+	/**
+	 * Default method for synchronizing procedures with the service.
+	 */
+	public void syncProcedures(){
+		this.syncProcedures(null);
+	}
+	/**
+	 * Reload procedures and apply only the differences to the catalog: procedures are
+	 * matched by name and compared by content fingerprint, unchanged ones keep
+	 * their instance. Fires {@link Event#CATALOG_CHANGED} with a {@link ChangeSet}
+	 * instead of the whole list.
+	 * @param callback - {@link IstSOSListener}
+	 */
+	public void syncProcedures(final IstSOSListener callback){
+		this.requestProcedures(true, callback);
+	}
+	
+	private void requestProcedures(final boolean sync, final IstSOSListener callback){
 		
 		Map<String, String> urlKeyMap = new HashMap<String, String>();
 		urlKeyMap.put("url", this.server.getServerUrl());
 		urlKeyMap.put("name", this.getName());
 		
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.PROCEDURES, urlKeyMap), new IstSOSListener() {
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.PROCEDURES, urlKeyMap), new IstSOSListener() {
 			
 			@Override
 			public void onSuccess(EventObject event) {
 				
 				JsonObject json = (JsonObject) event.getObject();
 		        JsonArray data = json.getAsJsonArray("data");
+		        ArrayList<Procedure> procedures = new ArrayList<Procedure>(data.size());
 
 
                 for(JsonElement element : data){
@@ -1419,21 +1692,39 @@ public class Service implements IstSOSObject<Service>{
 
 						Procedure procedure = Procedure.fromJson(object);
 
-                        Service.this.procedures.add(procedure);
+                        procedures.add(procedure);
 		        	}
 		        }
 		        
-		        EventObject eventObject = new EventObject(Event.PROCEDURES_LOADED, procedures);
+		        EventObject eventObject;
+		        if(sync){
+		        	ChangeSet<Procedure> changes = Service.this.catalog.syncProcedures(procedures);
+		        	for(Procedure procedure : changes.getUpdated()){
+		        		Service.this.detailCache.invalidate(procedure.getSystem());
+		        	}
+		        	for(Procedure procedure : changes.getDeleted()){
+		        		Service.this.detailCache.invalidate(procedure.getSystem());
+		        	}
+		        	Service.this.membership.apply(changes);
+		        	Service.this.searchIndex.apply(changes);
+		        	eventObject = new EventObject(Event.CATALOG_CHANGED, changes);
+		        }else{
+		        	if(Service.this.catalog.replaceProcedures(procedures)){
+		        		Service.this.detailCache.invalidateAll();
+		        	}
+		        	Service.this.membership.rebuild(procedures);
+		        	Service.this.searchIndex.rebuild(procedures);
+		        	eventObject = new EventObject(Event.PROCEDURES_LOADED, procedures);
+		        }
 	    		
-	    		if(callback != null){
-	    			callback.onSuccess(eventObject);
-	    		}
+	    		Service.this.dispatch(callback, eventObject);
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1442,7 +1733,7 @@ public class Service implements IstSOSObject<Service>{
 	 * @return List of procedures.
 	 */
 	public ArrayList<Procedure> getProcedures() {
-		return this.procedures;
+		return new ArrayList<Procedure>(this.catalog.getSnapshot().getProcedures());
 	}
 	/**
 	 * Default method for registering a procedure
@@ -1462,7 +1753,7 @@ public class Service implements IstSOSObject<Service>{
 		urlKeyMap.put("name", this.getName());
 		urlKeyMap.put("code", procedureName);
 
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.PROCEDURE, urlKeyMap), new IstSOSListener(){
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.PROCEDURE, urlKeyMap), new IstSOSListener(){
 			
 			@Override
 			public void onSuccess(EventObject event) {
@@ -1481,16 +1772,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.PROCEDURE_LOADED, response_procedure);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1524,16 +1814,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.PROCEDURE_REGISTERED, message);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1577,16 +1866,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.PROCEDURE_UPDATED, response_procedure);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1606,7 +1894,7 @@ public class Service implements IstSOSObject<Service>{
 		urlKeyMap.put("url", this.server.getServerUrl());
 		urlKeyMap.put("name", this.getName());
 		
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.VIRTUAL_PROCEDURES, urlKeyMap), new IstSOSListener() {
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.VIRTUAL_PROCEDURES, urlKeyMap), new IstSOSListener() {
 			
 			@Override
 			public void onSuccess(EventObject event) {
@@ -1614,6 +1902,7 @@ public class Service implements IstSOSObject<Service>{
 				JsonObject json = (JsonObject) event.getObject();
 		        
 		        JsonArray data = json.getAsJsonArray("data");
+		        ArrayList<VirtualProcedure> virtualProcedures = new ArrayList<VirtualProcedure>(data.size());
 		        
                 for(JsonElement element : data){
 		        	if(element.isJsonObject()){
@@ -1621,21 +1910,22 @@ public class Service implements IstSOSObject<Service>{
 
 						VirtualProcedure virtualProcedure = VirtualProcedure.fromJson(object);
 
-                        Service.this.virtualProcedures.add(virtualProcedure);
+                        virtualProcedures.add(virtualProcedure);
 		        	}
 		        }
 		        
+		        Service.this.catalog.replaceVirtualProcedures(virtualProcedures);
+		        
 		        EventObject eventObject = new EventObject(Event.VIRTUAL_PROCEDURES_LOADED, virtualProcedures);
 	    		
-	    		if(callback != null){
-	    			callback.onSuccess(eventObject);
-	    		}
+	    		Service.this.dispatch(callback, eventObject);
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1644,7 +1934,7 @@ public class Service implements IstSOSObject<Service>{
 	 * @return List
 	 */
 	public ArrayList<VirtualProcedure> getVirtualProcedures() {
-		return virtualProcedures;
+		return new ArrayList<VirtualProcedure>(this.catalog.getSnapshot().getVirtualProcedures());
 	}
 	/**
 	 * Default method for loading virtual procedure code
@@ -1665,7 +1955,7 @@ public class Service implements IstSOSObject<Service>{
 		urlKeyMap.put("name", this.getName());
 		urlKeyMap.put("code", virtualProcedure.getName());
 
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.VIRTUAL_PROCEDURES_CODE, urlKeyMap), new IstSOSListener(){
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.VIRTUAL_PROCEDURES_CODE, urlKeyMap), new IstSOSListener(){
 			
 			@Override
 			public void onSuccess(EventObject event) {
@@ -1684,16 +1974,15 @@ public class Service implements IstSOSObject<Service>{
 				
 		        EventObject eventObject = new EventObject(Event.VIRTUAL_PROCEDURE_CODE_LOADED, virtualProcedure);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1735,16 +2024,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.VIRTUAL_PROCEDURE_CODE_REGISTERED, message);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1791,16 +2079,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.VIRTUAL_PROCEDURE_CODE_UPDATED, response_vProcedure);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1844,16 +2131,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.VIRTUAL_PROCEDURE_CODE_REMOVED, message);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1876,7 +2162,7 @@ public class Service implements IstSOSObject<Service>{
 		urlKeyMap.put("name", this.getName());
 		urlKeyMap.put("code", virtualProcedure.getName());
 
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.VIRTUAL_PROCEDURES_RATINGCURVE, urlKeyMap), new IstSOSListener(){
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.VIRTUAL_PROCEDURES_RATINGCURVE, urlKeyMap), new IstSOSListener(){
 			
 			@Override
 			public void onSuccess(EventObject event) {
@@ -1894,16 +2180,15 @@ public class Service implements IstSOSObject<Service>{
 				
 		        EventObject eventObject = new EventObject(Event.VIRTUAL_PROCEDURE_RATINGCURVE_LOADED, virtualProcedure);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1945,16 +2230,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.VIRTUAL_PROCEDURE_CODE_REGISTERED, message);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -1999,16 +2283,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.VIRTUAL_PROCEDURE_RATINGCURVE_REMOVED, message);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -2024,12 +2307,32 @@ public class Service implements IstSOSObject<Service>{
 	 * @param callback - {@link IstSOSListener}
 	 */
 	public void loadOfferings(final IstSOSListener callback){
+		this.requestOfferings(false, callback);
+	}
+	/**
+	 * Default method for synchronizing offerings with the service.
+	 */
+	public void syncOfferings(){
+		this.syncOfferings(null);
+	}
+	/**
+	 * Reload offerings and apply only the differences to the catalog: offerings are
+	 * matched by name and compared by content fingerprint, unchanged ones keep
+	 * their instance. Fires {@link Event#CATALOG_CHANGED} with a {@link ChangeSet}
+	 * instead of the whole list.
+	 * @param callback - {@link IstSOSListener}
+	 */
+	public void syncOfferings(final IstSOSListener callback){
+		this.requestOfferings(true, callback);
+	}
+	
+	private void requestOfferings(final boolean sync, final IstSOSListener callback){
 		
 		Map<String, String> urlKeyMap = new HashMap<String, String>();
 		urlKeyMap.put("url", this.server.getServerUrl());
 		urlKeyMap.put("name", this.getName());
 		
-		IstSOS.executeGet(Requests.getUrl(Requests.Request.OFFERINGS, urlKeyMap), new IstSOSListener() {
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(Requests.Request.OFFERINGS, urlKeyMap), new IstSOSListener() {
 			
 			@Override
 			public void onSuccess(EventObject event) {
@@ -2037,6 +2340,7 @@ public class Service implements IstSOSObject<Service>{
 				JsonObject json = (JsonObject) event.getObject();
 		        
 		        JsonArray data = json.getAsJsonArray("data");
+		        ArrayList<Offering> offerings = new ArrayList<Offering>(data.size());
 		        
 		        for (Iterator<JsonElement> iter = data.iterator(); iter.hasNext();){
 		        	JsonElement element = iter.next();
@@ -2047,22 +2351,31 @@ public class Service implements IstSOSObject<Service>{
 		        		
 		        		Offering offering = Offering.fromJson(object);
 		        		
-                        Service.this.offerings.add(offering);
+                        offerings.add(offering);
 		        		
 		        	}
 		        }
 		        
-		        EventObject eventObject = new EventObject(Event.OFFERINGS_LOADED, offerings);
+		        EventObject eventObject;
+		        if(sync){
+		        	ChangeSet<Offering> changes = Service.this.catalog.syncOfferings(offerings);
+		        	for(Offering offering : changes.getDeleted()){
+		        		Service.this.membership.removeOffering(offering.getName());
+		        	}
+		        	eventObject = new EventObject(Event.CATALOG_CHANGED, changes);
+		        }else{
+		        	Service.this.catalog.replaceOfferings(offerings);
+		        	eventObject = new EventObject(Event.OFFERINGS_LOADED, offerings);
+		        }
 	    		
-	    		if(callback != null){
-	    			callback.onSuccess(eventObject);
-	    		}
+	    		Service.this.dispatch(callback, eventObject);
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -2071,7 +2384,7 @@ public class Service implements IstSOSObject<Service>{
 	 * @return List of {@link Offering}
 	 */
 	public ArrayList<Offering> getOfferings() {
-		return this.offerings;
+		return new ArrayList<Offering>(this.catalog.getSnapshot().getOfferings());
 	}
 	/**
 	 * Default method for registering offering to service.
@@ -2110,16 +2423,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.OFFERINGS_REGISTERED, message);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 		
@@ -2165,16 +2477,15 @@ public class Service implements IstSOSObject<Service>{
 		        EventObject eventObject = new EventObject(
 		        		Event.OFFERINGS_UPDATED, response_offering);
 		        
-				if(callback != null){
-					callback.onSuccess(eventObject);
-				}
+				Service.this.dispatch(callback, eventObject);
 				
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
@@ -2190,7 +2501,7 @@ public class Service implements IstSOSObject<Service>{
 	 * @param offering - {@link Offering}
 	 * @param callback - {@link IstSOSListener}
 	 */
-	public void removeOffering(Offering offering, final IstSOSListener callback){
+	public void removeOffering(final Offering offering, final IstSOSListener callback){
 		
 		Map<String, String> urlKeyMap = new HashMap<String, String>();
 		urlKeyMap.put("url", this.server.getServerUrl());
@@ -2213,22 +2524,124 @@ public class Service implements IstSOSObject<Service>{
 				
 				String message = json.toString();
 				
+				Service.this.membership.removeOffering(offering.getName());
+				
 		        EventObject eventObject = new EventObject(
 		        		Event.OFFERINGS_REMOVED, message);
 		        
+				Service.this.dispatch(callback, eventObject);
+				
+			}
+			
+			@Override
+			public void onError(EventObject event) {
 				if(callback != null){
-					callback.onSuccess(eventObject);
+					callback.onError(event);
+				}
+			}
+		}, this.server.getRealm());
+	}
+	/**
+	 * Default method for loading the procedures member of an offering.
+	 * @param offeringName as String
+	 */
+	public void loadOfferingMembers(String offeringName){
+		this.loadOfferingMembers(offeringName, null);
+	}
+	/**
+	 * Load the procedures member of an offering and refresh its bitmap in the
+	 * {@link OfferingMembership}. Fires {@link Event#OFFFERINGS_MEMBERS_LOADED}
+	 * with the list of procedure names.
+	 * @param offeringName as String
+	 * @param callback - {@link IstSOSListener}
+	 */
+	public void loadOfferingMembers(final String offeringName, final IstSOSListener callback){
+		this.requestOfferingMembers(Requests.Request.OFFERINGS_MEMBERS, offeringName, callback);
+	}
+	/**
+	 * Load the procedures not member of an offering. Fires
+	 * {@link Event#OFFFERINGS_NONMEMBERS_LOADED} with the list of procedure names.
+	 * @param offeringName as String
+	 * @param callback - {@link IstSOSListener}
+	 */
+	public void loadOfferingNonMembers(final String offeringName, final IstSOSListener callback){
+		this.requestOfferingMembers(Requests.Request.OFFERINGS_NONMEMBERS, offeringName, callback);
+	}
+	
+	private void requestOfferingMembers(final Requests.Request request, final String offeringName, final IstSOSListener callback){
+		
+		Map<String, String> urlKeyMap = new HashMap<String, String>();
+		urlKeyMap.put("url", this.server.getServerUrl());
+		urlKeyMap.put("name", this.getName());
+		urlKeyMap.put("code", offeringName);
+		
+		IstSOS.executeGet(this.server.getEndpoints(), Requests.getUrl(request, urlKeyMap), new IstSOSListener() {
+			
+			@Override
+			public void onSuccess(EventObject event) {
+				
+				JsonObject json = (JsonObject) event.getObject();
+				JsonArray data = json.getAsJsonArray("data");
+				ArrayList<String> procedureNames = new ArrayList<String>(data.size());
+				
+				for(JsonElement element : data){
+					if(element.isJsonObject()){
+						JsonElement name = element.getAsJsonObject().get("name");
+						if(name != null && !name.isJsonNull()){
+							procedureNames.add(name.getAsString());
+						}
+					}else if(element.isJsonPrimitive()){
+						procedureNames.add(element.getAsString());
+					}
 				}
 				
+				EventObject eventObject;
+				if(request == Requests.Request.OFFERINGS_MEMBERS){
+					Service.this.membership.setMembers(offeringName, procedureNames);
+					eventObject = new EventObject(Event.OFFFERINGS_MEMBERS_LOADED, procedureNames);
+				}else{
+					eventObject = new EventObject(Event.OFFFERINGS_NONMEMBERS_LOADED, procedureNames);
+				}
+				
+				Service.this.dispatch(callback, eventObject);
 			}
 			
 			@Override
 			public void onError(EventObject event) {
-				// 
-				
+				if(callback != null){
+					callback.onError(event);
+				}
 			}
 		}, this.server.getRealm());
 	}
+	/**
+	 * Procedure membership of the offerings, built from the procedure summaries
+	 * and refreshed per offering by {@link #loadOfferingMembers(String, IstSOSListener)}.
+	 * @return {@link OfferingMembership}
+	 */
+	public OfferingMembership getOfferingMembership() {
+		return membership;
+	}
+	/**
+	 * Check if a procedure is member of an offering, without requests.
+	 * @param offeringName as String
+	 * @param procedureName as String
+	 * @return true if member
+	 */
+	public boolean isOfferingMember(String offeringName, String procedureName) {
+		return this.membership.contains(offeringName, procedureName);
+	}
+
+	// hand a result to the callback, then to the subscribers of the event bus
+	void dispatch(IstSOSListener callback, EventObject eventObject){
+		try {
+			if(callback != null){
+				callback.onSuccess(eventObject);
+			}
+		} finally {
+			IstSOS.getInstance().getEventBus().publish(eventObject);
+		}
+	}
 
 	static Service fromJson(JsonObject json){
 		Gson gson = new GsonBuilder().create();
@@ -38,6 +38,14 @@ public class VirtualProcedure extends Procedure{
 	public void setRatingCurve(ArrayList<RatingCurveParameters> ratingCurve) {
 		this.ratingCurve = ratingCurve;
 	}
+	/**
+	 * Compile the rating curve for local evaluation.
+	 * @return {@link RatingCurve}
+	 * @throws IllegalArgumentException if a parameter cannot be parsed
+	 */
+	public RatingCurve compileRatingCurve() {
+		return RatingCurve.compile(ratingCurve != null ? ratingCurve : new ArrayList<RatingCurveParameters>());
+	}
 	
 	
 	static VirtualProcedure fromJson(JsonObject json){
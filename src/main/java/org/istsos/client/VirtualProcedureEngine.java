@@ -0,0 +1,402 @@
+package org.istsos.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.istsos.client.observation.SeriesBuffer;
+import org.istsos.client.observation.SeriesKey;
+import org.istsos.client.observation.SeriesSnapshot;
+
+/**
+ * Evaluates virtual procedures client side from the series held in an
+ * {@link ObservationStore}, instead of running them on istSOS per request.
+ * <p>
+ * Supported derivations are a rating curve applied to a stage series, a binary
+ * operation between two series and a linear combination of several series.
+ * Series are joined on equal times; the quality of a derived row is the lowest
+ * quality of its source rows. Results are memoised per name and time window.
+ * A memoised result is reused while the source buffers keep their version; when
+ * a version moved, the rows of the window are compared by stamp, so appends
+ * outside the window do not cause a recomputation.
+ *
+ */
+public class VirtualProcedureEngine {
+
+	public static final int DEFAULT_CACHE_SIZE = 256;
+
+	public enum Operation {
+		ADD, SUBTRACT, MULTIPLY, DIVIDE
+	}
+
+	private final ObservationStore store;
+	private final int cacheSize;
+
+	private final ConcurrentHashMap<String, Definition> definitions = new ConcurrentHashMap<String, Definition>();
+	private final LinkedHashMap<Window, Memo> cache;
+
+	private long hits = 0;
+	private long revalidations = 0;
+	private long computations = 0;
+
+	/**
+	 * Initialize an engine memoising {@link #DEFAULT_CACHE_SIZE} windows.
+	 * @param store {@link ObservationStore} holding the source series
+	 */
+	public VirtualProcedureEngine(ObservationStore store) {
+		this(store, DEFAULT_CACHE_SIZE);
+	}
+	/**
+	 * Initialize an engine.
+	 * @param store {@link ObservationStore} holding the source series
+	 * @param cacheSize maximum memoised windows, least recently used are dropped
+	 */
+	public VirtualProcedureEngine(ObservationStore store, final int cacheSize) {
+		this.store = store;
+		this.cacheSize = Math.max(1, cacheSize);
+		this.cache = new LinkedHashMap<Window, Memo>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Window, Memo> eldest) {
+				return size() > VirtualProcedureEngine.this.cacheSize;
+			}
+		};
+	}
+	/**
+	 * Define a discharge series from a stage series.
+	 * @param name name of the virtual procedure
+	 * @param stage {@link SeriesKey} of the stage series
+	 * @param curve {@link RatingCurve}
+	 */
+	public void defineRatingCurve(String name, SeriesKey stage, final RatingCurve curve) {
+		define(name, new Definition(new SeriesKey[]{stage}) {
+			@Override
+			SeriesSnapshot compute(SeriesSnapshot[] inputs) {
+				SeriesSnapshot input = inputs[0];
+				double[] values = curve.evaluate(input);
+				return SeriesSnapshot.of(input.getTimes(), values, input.getQualities(), input.getVersion());
+			}
+		});
+	}
+	/**
+	 * Define the discharge series of a virtual procedure from its rating curve.
+	 * @param virtualProcedure {@link VirtualProcedure}, its name names the series
+	 * @param stage {@link SeriesKey} of the stage series
+	 * @throws IllegalArgumentException if the rating curve cannot be compiled
+	 */
+	public void defineRatingCurve(VirtualProcedure virtualProcedure, SeriesKey stage) {
+		defineRatingCurve(virtualProcedure.getSystem(), stage, virtualProcedure.compileRatingCurve());
+	}
+	/**
+	 * Define a series combining two series row by row.
+	 * @param name name of the virtual procedure
+	 * @param operation {@link Operation}
+	 * @param left {@link SeriesKey} of the left operand
+	 * @param right {@link SeriesKey} of the right operand
+	 */
+	public void defineCombination(String name, final Operation operation, SeriesKey left, SeriesKey right) {
+		define(name, new RowDefinition(new SeriesKey[]{left, right}) {
+			@Override
+			double compute(double[] values) {
+				switch (operation) {
+				case ADD:
+					return values[0] + values[1];
+				case SUBTRACT:
+					return values[0] - values[1];
+				case MULTIPLY:
+					return values[0] * values[1];
+				default:
+					return values[0] / values[1];
+				}
+			}
+		});
+	}
+	/**
+	 * Define a weighted sum of series, {@code constant + sum(weights[i] * sources[i])}.
+	 * @param name name of the virtual procedure
+	 * @param sources {@link SeriesKey} of the source series
+	 * @param weights one weight per source
+	 * @param constant added to every row
+	 */
+	public void defineLinearCombination(String name, SeriesKey[] sources, double[] weights, final double constant) {
+		if(sources.length != weights.length || sources.length == 0){
+			throw new IllegalArgumentException("One weight per source is required");
+		}
+		final double[] w = weights.clone();
+		define(name, new RowDefinition(sources.clone()) {
+			@Override
+			double compute(double[] values) {
+				double result = constant;
+				for(int i = 0; i < w.length; i++){
+					result += w[i] * values[i];
+				}
+				return result;
+			}
+		});
+	}
+	/**
+	 * Remove a virtual procedure and its memoised results.
+	 * @param name as String
+	 */
+	public void remove(String name) {
+		definitions.remove(name);
+		invalidate(name);
+	}
+
+	public List<String> getNames() {
+		return new ArrayList<String>(definitions.keySet());
+	}
+	/**
+	 * Evaluate a whole virtual procedure series.
+	 * @param name as String
+	 * @return {@link SeriesSnapshot}, null if a source series is not in the store
+	 */
+	public SeriesSnapshot evaluate(String name) {
+		return evaluate(name, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+	/**
+	 * Evaluate a virtual procedure between two times, inclusive.
+	 * @param name as String
+	 * @param from epoch milliseconds, Long.MIN_VALUE for no lower bound
+	 * @param to epoch milliseconds, Long.MAX_VALUE for no upper bound
+	 * @return {@link SeriesSnapshot}, null if a source series is not in the store
+	 * @throws IllegalArgumentException if the virtual procedure is not defined
+	 */
+	public SeriesSnapshot evaluate(String name, long from, long to) {
+
+		Definition definition = definitions.get(name);
+		if(definition == null){
+			throw new IllegalArgumentException("Virtual procedure " + name + " is not defined");
+		}
+
+		SeriesBuffer[] buffers = new SeriesBuffer[definition.sources.length];
+		long[] versions = new long[buffers.length];
+		for(int i = 0; i < buffers.length; i++){
+			buffers[i] = store.getSeries(definition.sources[i]);
+			if(buffers[i] == null){
+				return null;
+			}
+			versions[i] = buffers[i].getVersion();
+		}
+
+		Window window = new Window(name, from, to);
+		Memo memo;
+		synchronized (this) {
+			memo = cache.get(window);
+		}
+
+		if(memo != null && memo.definition == definition){
+			if(Arrays.equals(memo.versions, versions)){
+				synchronized (this) {
+					hits++;
+				}
+				return memo.result;
+			}
+			SeriesBuffer.WindowStamp[] stamps = new SeriesBuffer.WindowStamp[buffers.length];
+			for(int i = 0; i < buffers.length; i++){
+				stamps[i] = buffers[i].getWindowStamp(from, to);
+			}
+			if(Arrays.equals(memo.stamps, stamps)){
+				// sources changed outside the window only
+				synchronized (this) {
+					revalidations++;
+					cache.put(window, new Memo(definition, versions, stamps, memo.result));
+				}
+				return memo.result;
+			}
+		}
+
+		SeriesSnapshot[] inputs = new SeriesSnapshot[buffers.length];
+		long[] inputVersions = new long[buffers.length];
+		SeriesBuffer.WindowStamp[] inputStamps = new SeriesBuffer.WindowStamp[buffers.length];
+		for(int i = 0; i < buffers.length; i++){
+			inputs[i] = buffers[i].snapshot(from, to);
+			inputVersions[i] = inputs[i].getVersion();
+			inputStamps[i] = inputs[i].getWindowStamp();
+		}
+
+		SeriesSnapshot result = definition.compute(inputs);
+
+		synchronized (this) {
+			computations++;
+			if(definitions.get(name) == definition){
+				cache.put(window, new Memo(definition, inputVersions, inputStamps, result));
+			}
+		}
+		return result;
+	}
+	/**
+	 * Drop the memoised results of a virtual procedure.
+	 * @param name as String
+	 */
+	public synchronized void invalidate(String name) {
+		for(Iterator<Window> iter = cache.keySet().iterator(); iter.hasNext();){
+			if(iter.next().name.equals(name)){
+				iter.remove();
+			}
+		}
+	}
+
+	public synchronized void invalidateAll() {
+		cache.clear();
+	}
+	/**
+	 * Retrieve engine statistics.
+	 * @return map of metric name to value
+	 */
+	public synchronized Map<String, Object> getMetrics() {
+		Map<String, Object> metrics = new LinkedHashMap<String, Object>();
+		metrics.put("definitions", definitions.size());
+		metrics.put("cachedWindows", cache.size());
+		metrics.put("hits", hits);
+		metrics.put("revalidations", revalidations);
+		metrics.put("computations", computations);
+		return metrics;
+	}
+
+	private void define(String name, Definition definition) {
+		definitions.put(name, definition);
+		invalidate(name);
+	}
+
+	/**
+	 * Derivation of a series from source series.
+	 */
+	private abstract static class Definition {
+
+		final SeriesKey[] sources;
+
+		Definition(SeriesKey[] sources) {
+			this.sources = sources;
+		}
+
+		abstract SeriesSnapshot compute(SeriesSnapshot[] inputs);
+	}
+
+	/**
+	 * Derivation computing each row from the source rows joined on equal times.
+	 */
+	private abstract static class RowDefinition extends Definition {
+
+		RowDefinition(SeriesKey[] sources) {
+			super(sources);
+		}
+
+		// value of a joined row from the source values
+		abstract double compute(double[] values);
+
+		@Override
+		SeriesSnapshot compute(SeriesSnapshot[] inputs) {
+
+			int n = inputs.length;
+			int capacity = Integer.MAX_VALUE;
+			for(SeriesSnapshot input : inputs){
+				capacity = Math.min(capacity, input.size());
+			}
+
+			long[] times = new long[capacity];
+			double[] values = new double[capacity];
+			int[] qualities = new int[capacity];
+			long version = 0;
+			for(SeriesSnapshot input : inputs){
+				version += input.getVersion();
+			}
+
+			int[] cursors = new int[n];
+			double[] row = new double[n];
+			int count = 0;
+
+			join:
+			while(true){
+				// advance every cursor to the latest current time
+				long time = Long.MIN_VALUE;
+				for(int i = 0; i < n; i++){
+					if(cursors[i] >= inputs[i].size()){
+						break join;
+					}
+					time = Math.max(time, inputs[i].getTime(cursors[i]));
+				}
+				boolean aligned = true;
+				for(int i = 0; i < n; i++){
+					while(cursors[i] < inputs[i].size() && inputs[i].getTime(cursors[i]) < time){
+						cursors[i]++;
+					}
+					if(cursors[i] >= inputs[i].size()){
+						break join;
+					}
+					if(inputs[i].getTime(cursors[i]) != time){
+						aligned = false;
+					}
+				}
+				if(!aligned){
+					continue;
+				}
+
+				int quality = Integer.MAX_VALUE;
+				for(int i = 0; i < n; i++){
+					row[i] = inputs[i].getValue(cursors[i]);
+					quality = Math.min(quality, inputs[i].getQuality(cursors[i]));
+					cursors[i]++;
+				}
+				times[count] = time;
+				values[count] = compute(row);
+				qualities[count] = quality;
+				count++;
+			}
+
+			return SeriesSnapshot.of(Arrays.copyOf(times, count), Arrays.copyOf(values, count),
+					Arrays.copyOf(qualities, count), version);
+		}
+	}
+
+	private static class Window {
+
+		final String name;
+		final long from;
+		final long to;
+
+		Window(String name, long from, long to) {
+			this.name = name;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof Window)){
+				return false;
+			}
+			Window window = (Window) other;
+			return from == window.from && to == window.to && name.equals(window.name);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = name.hashCode();
+			hash = 31 * hash + (int) (from ^ (from >>> 32));
+			return 31 * hash + (int) (to ^ (to >>> 32));
+		}
+	}
+
+	private static class Memo {
+
+		final Definition definition;
+		final long[] versions;
+		final SeriesBuffer.WindowStamp[] stamps;
+		final SeriesSnapshot result;
+
+		Memo(Definition definition, long[] versions, SeriesBuffer.WindowStamp[] stamps, SeriesSnapshot result) {
+			this.definition = definition;
+			this.versions = versions;
+			this.stamps = stamps;
+			this.result = result;
+		}
+	}
+
+}
@@ -13,6 +13,9 @@ import com.google.gson.annotations.SerializedName;
  */
 public class DataArray {
 	
+	@SerializedName ("field")
+	private ArrayList<Field> fields;
+	
 	@SerializedName ("values")
 	private ArrayList<String[]> values = new ArrayList<String[]>();
 	
@@ -31,6 +34,21 @@ public class DataArray {
 		this.values = values;
 	}
 
+	/**
+	 * 
+	 * @return list of {@link Field} describing the columns, null if not provided
+	 */
+	public ArrayList<Field> getFields() {
+		return fields;
+	}
+	/**
+	 * 
+	 * @param fields - {@link ArrayList}
+	 */
+	public void setFields(ArrayList<Field> fields) {
+		this.fields = fields;
+	}
+
 	@Override
 	public String toString() {
 		return "values: " + values;
@@ -0,0 +1,82 @@
+package org.istsos.client.observation;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * The Field describes one column of the {@link DataArray} values:
+ * name, observed property definition URN and unit of measure.
+ *
+ */
+public class Field {
+	
+	@SerializedName ("name")
+	private String name;
+	
+	@SerializedName ("definition")
+	private String definition;
+	
+	@SerializedName ("uom")
+	private String uom;
+	
+	public Field() {
+	}
+	/**
+	 * 
+	 * @param name - String
+	 * @param definition - String
+	 * @param uom - String
+	 */
+	public Field(String name, String definition, String uom) {
+		this.name = name;
+		this.definition = definition;
+		this.uom = uom;
+	}
+	/**
+	 * 
+	 * @return name as String
+	 */
+	public String getName() {
+		return name;
+	}
+	/**
+	 * 
+	 * @param name - String
+	 */
+	public void setName(String name) {
+		this.name = name;
+	}
+	/**
+	 * 
+	 * @return definition URN as String
+	 */
+	public String getDefinition() {
+		return definition;
+	}
+	/**
+	 * 
+	 * @param definition - String
+	 */
+	public void setDefinition(String definition) {
+		this.definition = definition;
+	}
+	/**
+	 * 
+	 * @return unit of measure as String
+	 */
+	public String getUom() {
+		return uom;
+	}
+	/**
+	 * 
+	 * @param uom - String
+	 */
+	public void setUom(String uom) {
+		this.uom = uom;
+	}
+
+	@Override
+	public String toString() {
+		return "Name: " + this.name + " definition: " + this.definition + " uom: " + this.uom;
+	}
+
+}
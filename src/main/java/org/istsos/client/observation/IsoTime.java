@@ -0,0 +1,152 @@
+package org.istsos.client.observation;
+
+/**
+ * Parses the ISO 8601 timestamps used in istSOS DataArray values into epoch
+ * milliseconds without going through SimpleDateFormat.
+ * <p>
+ * Accepted forms: {@code yyyy-MM-ddTHH:mm:ss}, optionally followed by a
+ * fraction of seconds and by {@code Z}, {@code +HH:mm}, {@code +HHmm} or {@code +HH}.
+ * A missing offset is read as UTC.
+ *
+ */
+public final class IsoTime {
+
+	private static final int[] DAYS_BEFORE_MONTH = {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334};
+
+	private IsoTime() { }
+
+	/**
+	 * Parse a timestamp.
+	 * @param value as String
+	 * @return epoch milliseconds
+	 * @throws IllegalArgumentException if the value is not a valid timestamp
+	 */
+	public static long parse(String value) {
+		long millis = parseOrMin(value);
+		if(millis == Long.MIN_VALUE){
+			throw new IllegalArgumentException("Invalid ISO 8601 time: " + value);
+		}
+		return millis;
+	}
+	/**
+	 * Parse a timestamp without throwing.
+	 * @param value as String
+	 * @return epoch milliseconds, or Long.MIN_VALUE if the value is not valid
+	 */
+	public static long parseOrMin(String value) {
+
+		if(value == null || value.length() < 19){
+			return Long.MIN_VALUE;
+		}
+
+		int year = digits(value, 0, 4);
+		int month = digits(value, 5, 2);
+		int day = digits(value, 8, 2);
+		int hour = digits(value, 11, 2);
+		int minute = digits(value, 14, 2);
+		int second = digits(value, 17, 2);
+
+		if(year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+				|| hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60
+				|| value.charAt(4) != '-' || value.charAt(7) != '-'
+				|| (value.charAt(10) != 'T' && value.charAt(10) != ' ')
+				|| value.charAt(13) != ':' || value.charAt(16) != ':'){
+			return Long.MIN_VALUE;
+		}
+		if(day > daysInMonth(year, month)){
+			return Long.MIN_VALUE;
+		}
+
+		int pos = 19;
+		int length = value.length();
+		int fraction = 0;
+
+		if(pos < length && (value.charAt(pos) == '.' || value.charAt(pos) == ',')){
+			pos++;
+			int scale = 100;
+			int start = pos;
+			while(pos < length && Character.isDigit(value.charAt(pos))){
+				fraction += (value.charAt(pos) - '0') * scale;
+				scale /= 10;
+				pos++;
+			}
+			if(pos == start){
+				return Long.MIN_VALUE;
+			}
+		}
+
+		int offsetMinutes = 0;
+
+		if(pos < length){
+			char sign = value.charAt(pos);
+			if(sign == 'Z' && pos + 1 == length){
+				pos++;
+			}else if(sign == '+' || sign == '-'){
+				int remaining = length - pos - 1;
+				int offsetHour;
+				int offsetMinute = 0;
+				if(remaining == 2){
+					offsetHour = digits(value, pos + 1, 2);
+				}else if(remaining == 4){
+					offsetHour = digits(value, pos + 1, 2);
+					offsetMinute = digits(value, pos + 3, 2);
+				}else if(remaining == 5 && value.charAt(pos + 3) == ':'){
+					offsetHour = digits(value, pos + 1, 2);
+					offsetMinute = digits(value, pos + 4, 2);
+				}else{
+					return Long.MIN_VALUE;
+				}
+				if(offsetHour < 0 || offsetMinute < 0){
+					return Long.MIN_VALUE;
+				}
+				offsetMinutes = offsetHour * 60 + offsetMinute;
+				if(sign == '-'){
+					offsetMinutes = -offsetMinutes;
+				}
+				pos = length;
+			}else{
+				return Long.MIN_VALUE;
+			}
+		}
+
+		long days = daysSinceEpoch(year, month, day);
+		long seconds = days * 86400L + hour * 3600L + minute * 60L + second - offsetMinutes * 60L;
+
+		return seconds * 1000L + fraction;
+	}
+
+	private static long daysSinceEpoch(int year, int month, int day) {
+		long y = year - 1;
+		long leapDays = y / 4 - y / 100 + y / 400;
+		long days = 365L * y + leapDays + DAYS_BEFORE_MONTH[month - 1] + (day - 1);
+		if(month > 2 && isLeap(year)){
+			days++;
+		}
+		// 719162 days between 0001-01-01 and 1970-01-01
+		return days - 719162L;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		if(month == 2){
+			return isLeap(year) ? 29 : 28;
+		}
+		return month == 12 ? 31 : DAYS_BEFORE_MONTH[month] - DAYS_BEFORE_MONTH[month - 1];
+	}
+
+	private static boolean isLeap(int year) {
+		return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+	}
+
+	private static int digits(String value, int start, int count) {
+		int result = 0;
+		for(int i = start; i < start + count; i++){
+			char c = value.charAt(i);
+			if(c < '0' || c > '9'){
+				return -1;
+			}
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+}
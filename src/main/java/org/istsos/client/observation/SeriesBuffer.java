@@ -0,0 +1,311 @@
+package org.istsos.client.observation;
+
+import java.util.Arrays;
+
+/**
+ * Bounded ring buffer holding the rows of one series: time, numeric value
+ * and quality index.
+ * <p>
+ * Rows are kept in time order. A row older than the newest one is inserted
+ * in place and a row with the time of a stored one replaces it, so
+ * overlapping polls do not duplicate data and late rows are kept. When the
+ * buffer is full the oldest row is dropped, and a row older than every stored
+ * one is rejected. Rows older than the maximum age are evicted on every
+ * append. Storage grows on demand up to the
+ * maximum number of rows. Access is synchronized; readers work on copies
+ * taken with {@link #snapshot(long, long)}.
+ *
+ */
+public class SeriesBuffer {
+
+	public static final int NO_QUALITY = Integer.MIN_VALUE;
+
+	// bytes per row: one long, one double and one int
+	static final int ROW_BYTES = 8 + 8 + 4;
+
+	private final int maxRows;
+	private final long maxAge;
+
+	private long[] times = new long[0];
+	private double[] values = new double[0];
+	private int[] qualities = new int[0];
+
+	private int head = 0;	// index of the oldest row
+	private int size = 0;
+
+	private long version = 0;
+	// rows inserted before the newest one or replaced
+	private long rewrites = 0;
+
+	/**
+	 * Initialize a buffer.
+	 * @param maxRows maximum number of rows kept
+	 * @param maxAge maximum age of rows in milliseconds, 0 to keep rows regardless of age
+	 */
+	public SeriesBuffer(int maxRows, long maxAge) {
+		if(maxRows < 1){
+			throw new IllegalArgumentException("maxRows must be positive");
+		}
+		this.maxRows = maxRows;
+		this.maxAge = maxAge;
+	}
+	/**
+	 * Append a row, in time order.
+	 * @param time epoch milliseconds
+	 * @param value as double, NaN when missing
+	 * @param quality quality index, {@link #NO_QUALITY} when missing
+	 * @return true if the rows changed, false if the row was already stored
+	 * or is older than every row of a full buffer
+	 */
+	public synchronized boolean append(long time, double value, int quality) {
+
+		if(size == 0 || time > times[index(size - 1)]){
+
+			if(size == times.length && size < maxRows){
+				grow();
+			}
+
+			if(size == maxRows){
+				// overwrite the oldest row
+				times[head] = time;
+				values[head] = value;
+				qualities[head] = quality;
+				head = (head + 1) % times.length;
+			}else{
+				set(index(size), time, value, quality);
+				size++;
+			}
+
+			version++;
+			return true;
+		}
+
+		int position = lowerBound(time);
+		if(times[index(position)] == time){
+			int i = index(position);
+			if(Double.compare(values[i], value) == 0 && qualities[i] == quality){
+				return false;
+			}
+			values[i] = value;
+			qualities[i] = quality;
+		}else{
+			if(size == maxRows){
+				if(position == 0){
+					return false;
+				}
+				// drop the oldest row
+				head = (head + 1) % times.length;
+				size--;
+				position--;
+			}else if(size == times.length){
+				grow();
+			}
+			// shift the newer rows by one
+			for(int k = size; k > position; k--){
+				int to = index(k);
+				int from = index(k - 1);
+				set(to, times[from], values[from], qualities[from]);
+			}
+			set(index(position), time, value, quality);
+			size++;
+		}
+
+		rewrites++;
+		version++;
+		return true;
+	}
+	/**
+	 * Drop rows older than the maximum age.
+	 * @param now reference time in epoch milliseconds
+	 * @return number of rows evicted
+	 */
+	public synchronized int evict(long now) {
+		if(maxAge <= 0){
+			return 0;
+		}
+		long limit = now - maxAge;
+		int evicted = 0;
+		while(size > 0 && times[head] < limit){
+			head = (head + 1) % times.length;
+			size--;
+			evicted++;
+		}
+		if(evicted > 0){
+			version++;
+		}
+		return evicted;
+	}
+	/**
+	 * Copy the rows between two times, inclusive.
+	 * @param from epoch milliseconds, Long.MIN_VALUE for no lower bound
+	 * @param to epoch milliseconds, Long.MAX_VALUE for no upper bound
+	 * @return consistent {@link SeriesSnapshot}
+	 */
+	public synchronized SeriesSnapshot snapshot(long from, long to) {
+
+		int first = lowerBound(from);
+		int last = lowerBound(to == Long.MAX_VALUE ? to : to + 1);
+		int count = Math.max(0, last - first);
+
+		long[] t = new long[count];
+		double[] v = new double[count];
+		int[] q = new int[count];
+
+		for(int k = 0; k < count; k++){
+			int i = index(first + k);
+			t[k] = times[i];
+			v[k] = values[i];
+			q[k] = qualities[i];
+		}
+
+		return new SeriesSnapshot(t, v, q, version, rewrites);
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+	/**
+	 * Retrieve a counter incremented on every change, to detect modifications.
+	 * @return version as long
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+	/**
+	 * Retrieve a stamp of the rows between two times, inclusive. Rows appended
+	 * after the newest one and dropped from the oldest change the count, first
+	 * or last time of the windows holding them, while appends outside the
+	 * window leave the stamp equal. Rows inserted before the newest one or
+	 * replaced change the stamp of every window of the buffer.
+	 * @param from epoch milliseconds, Long.MIN_VALUE for no lower bound
+	 * @param to epoch milliseconds, Long.MAX_VALUE for no upper bound
+	 * @return {@link WindowStamp}
+	 */
+	public synchronized WindowStamp getWindowStamp(long from, long to) {
+		int first = lowerBound(from);
+		int last = lowerBound(to == Long.MAX_VALUE ? to : to + 1);
+		int count = Math.max(0, last - first);
+		return count > 0
+				? new WindowStamp(count, times[index(first)], times[index(last - 1)], rewrites)
+				: new WindowStamp(0, 0, 0, rewrites);
+	}
+	/**
+	 * Retrieve the memory currently allocated for rows.
+	 * @return size in bytes
+	 */
+	public synchronized long getAllocatedBytes() {
+		return (long) times.length * ROW_BYTES;
+	}
+	/**
+	 * Retrieve the time of the newest row.
+	 * @return epoch milliseconds, Long.MIN_VALUE when empty
+	 */
+	public synchronized long getLastTime() {
+		return size == 0 ? Long.MIN_VALUE : times[index(size - 1)];
+	}
+
+	// logical position of the first row with time >= key
+	private int lowerBound(long key) {
+		int low = 0;
+		int high = size;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(times[index(mid)] < key){
+				low = mid + 1;
+			}else{
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private void set(int i, long time, double value, int quality) {
+		times[i] = time;
+		values[i] = value;
+		qualities[i] = quality;
+	}
+
+	private int index(int position) {
+		return (head + position) % times.length;
+	}
+
+	private void grow() {
+		int capacity = (int) Math.min(maxRows, Math.max(16, times.length * 2L));
+		long[] t = new long[capacity];
+		double[] v = new double[capacity];
+		int[] q = new int[capacity];
+		for(int k = 0; k < size; k++){
+			int i = index(k);
+			t[k] = times[i];
+			v[k] = values[i];
+			q[k] = qualities[i];
+		}
+		Arrays.fill(q, size, capacity, NO_QUALITY);
+		times = t;
+		values = v;
+		qualities = q;
+		head = 0;
+	}
+
+	/**
+	 * Row count, first and last time of the rows of a window, with the
+	 * rewrites of the buffer.
+	 */
+	public static final class WindowStamp {
+
+		private final int count;
+		private final long firstTime;
+		private final long lastTime;
+		private final long rewrites;
+
+		WindowStamp(int count, long firstTime, long lastTime, long rewrites) {
+			this.count = count;
+			this.firstTime = firstTime;
+			this.lastTime = lastTime;
+			this.rewrites = rewrites;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public long getFirstTime() {
+			return firstTime;
+		}
+
+		public long getLastTime() {
+			return lastTime;
+		}
+		/**
+		 *
+		 * @return rows inserted before the newest one or replaced in the buffer
+		 */
+		public long getRewrites() {
+			return rewrites;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof WindowStamp)){
+				return false;
+			}
+			WindowStamp stamp = (WindowStamp) other;
+			return count == stamp.count && firstTime == stamp.firstTime && lastTime == stamp.lastTime
+					&& rewrites == stamp.rewrites;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = count;
+			hash = 31 * hash + (int) (firstTime ^ (firstTime >>> 32));
+			hash = 31 * hash + (int) (lastTime ^ (lastTime >>> 32));
+			return 31 * hash + (int) (rewrites ^ (rewrites >>> 32));
+		}
+
+		@Override
+		public String toString() {
+			return count + " rows " + firstTime + ".." + lastTime + ", " + rewrites + " rewrites";
+		}
+	}
+
+}
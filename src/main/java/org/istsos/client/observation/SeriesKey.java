@@ -0,0 +1,55 @@
+package org.istsos.client.observation;
+
+/**
+ * Identifies a series: a procedure name and an observed property definition URN.
+ *
+ */
+public final class SeriesKey {
+
+	private final String procedure;
+	private final String definition;
+
+	/**
+	 *
+	 * @param procedure procedure name - String
+	 * @param definition observed property definition URN - String
+	 */
+	public SeriesKey(String procedure, String definition) {
+		if(procedure == null || definition == null){
+			throw new IllegalArgumentException("procedure and definition are required");
+		}
+		this.procedure = procedure;
+		this.definition = definition;
+	}
+
+	public String getProcedure() {
+		return procedure;
+	}
+
+	public String getDefinition() {
+		return definition;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if(this == other){
+			return true;
+		}
+		if(!(other instanceof SeriesKey)){
+			return false;
+		}
+		SeriesKey key = (SeriesKey) other;
+		return procedure.equals(key.procedure) && definition.equals(key.definition);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * procedure.hashCode() + definition.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return procedure + " " + definition;
+	}
+
+}
@@ -0,0 +1,104 @@
+package org.istsos.client.observation;
+
+/**
+ * Immutable copy of the rows of a series, taken from a {@link SeriesBuffer}.
+ * Times are in epoch milliseconds and in ascending order.
+ *
+ */
+public class SeriesSnapshot {
+
+	private final long[] times;
+	private final double[] values;
+	private final int[] qualities;
+	private final long version;
+	// rewrites of the buffer when the snapshot was taken
+	private final long rewrites;
+
+	SeriesSnapshot(long[] times, double[] values, int[] qualities, long version, long rewrites) {
+		this.times = times;
+		this.values = values;
+		this.qualities = qualities;
+		this.version = version;
+		this.rewrites = rewrites;
+	}
+
+	/**
+	 * Create a snapshot of computed rows, e.g. a derived series.
+	 * @param times epoch milliseconds in ascending order, copied
+	 * @param values as double, copied
+	 * @param qualities quality indexes, copied
+	 * @param version version of the source data
+	 * @return {@link SeriesSnapshot}
+	 */
+	public static SeriesSnapshot of(long[] times, double[] values, int[] qualities, long version) {
+		if(times.length != values.length || times.length != qualities.length){
+			throw new IllegalArgumentException("Columns differ in length");
+		}
+		return new SeriesSnapshot(times.clone(), values.clone(), qualities.clone(), version, 0);
+	}
+
+	public int size() {
+		return times.length;
+	}
+
+	public long getTime(int row) {
+		return times[row];
+	}
+
+	public double getValue(int row) {
+		return values[row];
+	}
+
+	public int getQuality(int row) {
+		return qualities[row];
+	}
+	/**
+	 *
+	 * @return copy of the times column
+	 */
+	public long[] getTimes() {
+		return times.clone();
+	}
+	/**
+	 *
+	 * @return copy of the values column
+	 */
+	public double[] getValues() {
+		return values.clone();
+	}
+	/**
+	 *
+	 * @return copy of the quality index column
+	 */
+	public int[] getQualities() {
+		return qualities.clone();
+	}
+	/**
+	 * Retrieve the stamp of the rows, equal to {@link SeriesBuffer#getWindowStamp(long, long)}
+	 * of the window the snapshot was taken from as long as its rows did not change.
+	 * @return {@link SeriesBuffer.WindowStamp}
+	 */
+	public SeriesBuffer.WindowStamp getWindowStamp() {
+		int count = times.length;
+		return count > 0
+				? new SeriesBuffer.WindowStamp(count, times[0], times[count - 1], rewrites)
+				: new SeriesBuffer.WindowStamp(0, 0, 0, rewrites);
+	}
+
+	// column without copy, for conversions within the package
+	double[] values() {
+		return values;
+	}
+
+	SeriesSnapshot withValues(double[] values) {
+		return new SeriesSnapshot(times, values, qualities, version, rewrites);
+	}
+	/**
+	 *
+	 * @return version of the buffer when the snapshot was taken
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+}
@@ -0,0 +1,97 @@
+package org.istsos.client.observation;
+
+/**
+ * Linear conversion between two units of the same dimension,
+ * {@code target = source * scale + offset}.
+ *
+ */
+public final class UnitConversion {
+
+	private final String source;
+	private final String target;
+	private final double scale;
+	private final double offset;
+
+	UnitConversion(String source, String target, double scale, double offset) {
+		this.source = source;
+		this.target = target;
+		this.scale = scale;
+		this.offset = offset;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public String getTarget() {
+		return target;
+	}
+
+	public double getScale() {
+		return scale;
+	}
+
+	public double getOffset() {
+		return offset;
+	}
+
+	public boolean isIdentity() {
+		return scale == 1.0 && offset == 0.0;
+	}
+
+	public double convert(double value) {
+		return value * scale + offset;
+	}
+	/**
+	 * Convert a range of a column into another array, which may be the same.
+	 * NaN values stay NaN.
+	 * @param values source column
+	 * @param from first row, inclusive
+	 * @param to last row, exclusive
+	 * @param target destination column, written at the same rows
+	 */
+	public void convert(double[] values, int from, int to, double[] target) {
+		final double scale = this.scale;
+		final double offset = this.offset;
+		if(offset == 0.0){
+			for(int i = from; i < to; i++){
+				target[i] = values[i] * scale;
+			}
+		}else{
+			for(int i = from; i < to; i++){
+				target[i] = values[i] * scale + offset;
+			}
+		}
+	}
+	/**
+	 * Convert a whole column.
+	 * @param values source column, left unchanged
+	 * @return new converted column
+	 */
+	public double[] convert(double[] values) {
+		double[] result = new double[values.length];
+		if(isIdentity()){
+			System.arraycopy(values, 0, result, 0, values.length);
+		}else{
+			convert(values, 0, values.length, result);
+		}
+		return result;
+	}
+	/**
+	 * Convert the values of a snapshot, times and qualities are shared.
+	 * @param snapshot {@link SeriesSnapshot}
+	 * @return {@link SeriesSnapshot} in the target unit
+	 */
+	public SeriesSnapshot convert(SeriesSnapshot snapshot) {
+		if(isIdentity()){
+			return snapshot;
+		}
+		return snapshot.withValues(convert(snapshot.values()));
+	}
+
+	@Override
+	public String toString() {
+		return source + " -> " + target + " (x" + scale + (offset != 0.0 ? " + " + offset : "") + ")";
+	}
+
+}
@@ -0,0 +1,201 @@
+package org.istsos.client.observation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Conversion factors of istSOS unit of measure codes.
+ * <p>
+ * Every unit belongs to a dimension and maps to the base unit of that
+ * dimension as {@code base = value * factor + offset}; any two units of the
+ * same dimension are convertible. Codes are matched exactly first, then
+ * through aliases (e.g. "degC" for "&deg;C"). Conversions are computed once
+ * per pair and cached.
+ *
+ */
+public class UnitRegistry {
+
+	private static final UnitRegistry DEFAULT = new UnitRegistry();
+
+	private final ConcurrentHashMap<String, Unit> units = new ConcurrentHashMap<String, Unit>();
+	private final ConcurrentHashMap<String, UnitConversion> conversions = new ConcurrentHashMap<String, UnitConversion>();
+
+	/**
+	 * Initialize a registry with the units commonly used by istSOS.
+	 */
+	public UnitRegistry() {
+
+		register("m", "length", 1, 0);
+		register("mm", "length", 0.001, 0);
+		register("cm", "length", 0.01, 0);
+		register("km", "length", 1000, 0);
+
+		register("K", "temperature", 1, 0);
+		register("\u00b0C", "temperature", 1, 273.15);
+		register("\u00b0F", "temperature", 5.0 / 9.0, 273.15 - 32 * 5.0 / 9.0);
+		alias("degC", "\u00b0C");
+		alias("C", "\u00b0C");
+		alias("\u2103", "\u00b0C");
+		alias("degF", "\u00b0F");
+		alias("F", "\u00b0F");
+
+		register("m3/s", "discharge", 1, 0);
+		register("l/s", "discharge", 0.001, 0);
+		register("m3/h", "discharge", 1.0 / 3600, 0);
+		register("l/min", "discharge", 0.001 / 60, 0);
+		alias("m\u00b3/s", "m3/s");
+		alias("L/s", "l/s");
+
+		register("m3", "volume", 1, 0);
+		register("l", "volume", 0.001, 0);
+		alias("L", "l");
+		alias("m\u00b3", "m3");
+
+		register("m/s", "speed", 1, 0);
+		register("km/h", "speed", 1 / 3.6, 0);
+		register("kn", "speed", 1852.0 / 3600, 0);
+
+		register("mm/h", "intensity", 1, 0);
+		register("mm/min", "intensity", 60, 0);
+		register("mm/d", "intensity", 1.0 / 24, 0);
+
+		register("Pa", "pressure", 1, 0);
+		register("hPa", "pressure", 100, 0);
+		register("kPa", "pressure", 1000, 0);
+		register("mbar", "pressure", 100, 0);
+		register("bar", "pressure", 100000, 0);
+
+		register("W/m2", "irradiance", 1, 0);
+		register("kW/m2", "irradiance", 1000, 0);
+		alias("W/m\u00b2", "W/m2");
+
+		register("s", "time", 1, 0);
+		register("min", "time", 60, 0);
+		register("h", "time", 3600, 0);
+		register("d", "time", 86400, 0);
+
+		register("%", "ratio", 0.01, 0);
+		register("ratio", "ratio", 1, 0);
+		register("\u2030", "ratio", 0.001, 0);
+	}
+	/**
+	 * Shared registry with the default units.
+	 * @return {@link UnitRegistry}
+	 */
+	public static UnitRegistry getDefault() {
+		return DEFAULT;
+	}
+	/**
+	 * Register or replace a unit.
+	 * @param code istSOS uom code
+	 * @param dimension name of the dimension, units of the same one are convertible
+	 * @param factor multiplier to the base unit of the dimension
+	 * @param offset added after the factor, e.g. 273.15 for Celsius to Kelvin
+	 */
+	public void register(String code, String dimension, double factor, double offset) {
+		units.put(code, new Unit(code, dimension, factor, offset));
+		conversions.clear();
+	}
+	/**
+	 * Make an alternative code resolve to a registered unit.
+	 * @param alias as String
+	 * @param code registered uom code
+	 */
+	public void alias(String alias, String code) {
+		Unit unit = units.get(code);
+		if(unit == null){
+			throw new IllegalArgumentException("Unknown unit " + code);
+		}
+		units.put(alias, unit);
+		conversions.clear();
+	}
+
+	public boolean isKnown(String code) {
+		return code != null && units.containsKey(code);
+	}
+	/**
+	 *
+	 * @param code istSOS uom code
+	 * @return name of the dimension, null if the unit is unknown
+	 */
+	public String getDimension(String code) {
+		Unit unit = code != null ? units.get(code) : null;
+		return unit != null ? unit.dimension : null;
+	}
+
+	public boolean isConvertible(String source, String target) {
+		Unit from = source != null ? units.get(source) : null;
+		Unit to = target != null ? units.get(target) : null;
+		return from != null && to != null && from.dimension.equals(to.dimension);
+	}
+	/**
+	 * Units the given one converts to, itself included.
+	 * @param code istSOS uom code
+	 * @return list of codes
+	 */
+	public List<String> getCompatibleUnits(String code) {
+		List<String> result = new ArrayList<String>();
+		Unit unit = code != null ? units.get(code) : null;
+		if(unit != null){
+			for(Unit other : units.values()){
+				if(other.dimension.equals(unit.dimension) && !result.contains(other.code)){
+					result.add(other.code);
+				}
+			}
+		}
+		return result;
+	}
+	/**
+	 * Retrieve the conversion between two units. Equal codes convert as identity,
+	 * even when unknown.
+	 * @param source istSOS uom code of the values
+	 * @param target istSOS uom code wanted
+	 * @return {@link UnitConversion}
+	 * @throws IllegalArgumentException if a unit is unknown or the dimensions differ
+	 */
+	public UnitConversion getConversion(String source, String target) {
+
+		String key = source + '\u0000' + target;
+		UnitConversion conversion = conversions.get(key);
+		if(conversion != null){
+			return conversion;
+		}
+
+		if(source != null && source.equals(target)){
+			conversion = new UnitConversion(source, target, 1, 0);
+		}else{
+			Unit from = source != null ? units.get(source) : null;
+			Unit to = target != null ? units.get(target) : null;
+			if(from == null || to == null){
+				throw new IllegalArgumentException("Unknown unit " + (from == null ? source : target));
+			}
+			if(!from.dimension.equals(to.dimension)){
+				throw new IllegalArgumentException("Cannot convert " + source + " (" + from.dimension
+						+ ") to " + target + " (" + to.dimension + ")");
+			}
+			// value * from.factor + from.offset = result * to.factor + to.offset
+			conversion = new UnitConversion(source, target,
+					from.factor / to.factor, (from.offset - to.offset) / to.factor);
+		}
+
+		conversions.put(key, conversion);
+		return conversion;
+	}
+
+	private static class Unit {
+
+		final String code;
+		final String dimension;
+		final double factor;
+		final double offset;
+
+		Unit(String code, String dimension, double factor, double offset) {
+			this.code = code;
+			this.dimension = dimension;
+			this.factor = factor;
+			this.offset = offset;
+		}
+	}
+
+}
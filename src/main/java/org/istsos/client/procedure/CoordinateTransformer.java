@@ -0,0 +1,221 @@
+package org.istsos.client.procedure;
+
+/**
+ * Pure Java transformation between the coordinate systems commonly used by
+ * istSOS services: EPSG:4326 (WGS84, x = longitude, y = latitude),
+ * EPSG:3857 (spherical web mercator), EPSG:21781 (Swiss CH1903 / LV03) and
+ * EPSG:2056 (Swiss CH1903+ / LV95).
+ * <p>
+ * Coordinates are transformed in place on primitive arrays, going through
+ * WGS84 when no direct formula exists. The Swiss systems use the approximate
+ * formulas published by swisstopo, accurate to about one metre, which is
+ * enough for map display and proximity queries but not for surveying.
+ *
+ */
+public final class CoordinateTransformer {
+
+	public static final int WGS84 = 4326;
+	public static final int WEB_MERCATOR = 3857;
+	public static final int CH1903_LV03 = 21781;
+	public static final int CH1903_LV95 = 2056;
+
+	private static final double EARTH_RADIUS = 6378137.0;
+	private static final double MAX_MERCATOR_LATITUDE = 85.0511287798066;
+
+	private CoordinateTransformer() {}
+
+	public static boolean isSupported(int epsg) {
+		return epsg == WGS84 || epsg == WEB_MERCATOR || epsg == CH1903_LV03 || epsg == CH1903_LV95;
+	}
+	/**
+	 * Transform a range of coordinates in place.
+	 * @param source EPSG code of the coordinates
+	 * @param target EPSG code wanted
+	 * @param xs eastings or longitudes
+	 * @param ys northings or latitudes
+	 * @param from first coordinate, inclusive
+	 * @param to last coordinate, exclusive
+	 * @throws IllegalArgumentException if a code is not supported
+	 */
+	public static void transform(int source, int target, double[] xs, double[] ys, int from, int to) {
+
+		check(source);
+		check(target);
+		if(source == target){
+			return;
+		}
+
+		// the Swiss frames differ by a constant false origin
+		if(source == CH1903_LV03 && target == CH1903_LV95){
+			shift(xs, ys, from, to, 2000000, 1000000);
+			return;
+		}
+		if(source == CH1903_LV95 && target == CH1903_LV03){
+			shift(xs, ys, from, to, -2000000, -1000000);
+			return;
+		}
+
+		switch (source) {
+		case WEB_MERCATOR:
+			mercatorToWgs84(xs, ys, from, to);
+			break;
+		case CH1903_LV95:
+			shift(xs, ys, from, to, -2000000, -1000000);
+			lv03ToWgs84(xs, ys, from, to);
+			break;
+		case CH1903_LV03:
+			lv03ToWgs84(xs, ys, from, to);
+			break;
+		default:
+			break;
+		}
+
+		switch (target) {
+		case WEB_MERCATOR:
+			wgs84ToMercator(xs, ys, from, to);
+			break;
+		case CH1903_LV95:
+			wgs84ToLv03(xs, ys, from, to);
+			shift(xs, ys, from, to, 2000000, 1000000);
+			break;
+		case CH1903_LV03:
+			wgs84ToLv03(xs, ys, from, to);
+			break;
+		default:
+			break;
+		}
+	}
+	/**
+	 * Transform whole coordinate columns in place.
+	 * @param source EPSG code of the coordinates
+	 * @param target EPSG code wanted
+	 * @param xs eastings or longitudes
+	 * @param ys northings or latitudes
+	 */
+	public static void transform(int source, int target, double[] xs, double[] ys) {
+		if(xs.length != ys.length){
+			throw new IllegalArgumentException("Coordinate columns differ in length");
+		}
+		transform(source, target, xs, ys, 0, xs.length);
+	}
+	/**
+	 * Transform a single point.
+	 * @return new array holding x and y
+	 */
+	public static double[] transform(int source, int target, double x, double y) {
+		double[] xs = {x};
+		double[] ys = {y};
+		transform(source, target, xs, ys, 0, 1);
+		return new double[]{xs[0], ys[0]};
+	}
+	/**
+	 * Extract the EPSG code of a GeoJSON named CRS, e.g. "EPSG:21781" or
+	 * "urn:ogc:def:crs:EPSG::21781".
+	 * @param crs {@link Crs}, may be null
+	 * @return EPSG code, 0 if missing or not an EPSG name
+	 */
+	public static int getEpsg(Crs crs) {
+		if(crs == null || crs.getProperties() == null){
+			return 0;
+		}
+		return parseEpsg(crs.getProperties().get("name"));
+	}
+	/**
+	 * Extract the EPSG code of a CRS name.
+	 * @param name as String
+	 * @return EPSG code, 0 if not an EPSG name
+	 */
+	public static int parseEpsg(String name) {
+		if(name == null){
+			return 0;
+		}
+		int index = name.toUpperCase().lastIndexOf("EPSG:");
+		String code = index >= 0 ? name.substring(index + 5) : name;
+		while(code.startsWith(":")){
+			code = code.substring(1);
+		}
+		try {
+			return Integer.parseInt(code.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static void check(int epsg) {
+		if(!isSupported(epsg)){
+			throw new IllegalArgumentException("Unsupported coordinate system EPSG:" + epsg);
+		}
+	}
+
+	private static void shift(double[] xs, double[] ys, int from, int to, double dx, double dy) {
+		for(int i = from; i < to; i++){
+			xs[i] += dx;
+			ys[i] += dy;
+		}
+	}
+
+	private static void wgs84ToMercator(double[] xs, double[] ys, int from, int to) {
+		final double toRadians = Math.PI / 180;
+		for(int i = from; i < to; i++){
+			double latitude = Math.max(-MAX_MERCATOR_LATITUDE, Math.min(MAX_MERCATOR_LATITUDE, ys[i]));
+			xs[i] = EARTH_RADIUS * xs[i] * toRadians;
+			ys[i] = EARTH_RADIUS * Math.log(Math.tan(Math.PI / 4 + latitude * toRadians / 2));
+		}
+	}
+
+	private static void mercatorToWgs84(double[] xs, double[] ys, int from, int to) {
+		final double toDegrees = 180 / Math.PI;
+		for(int i = from; i < to; i++){
+			xs[i] = xs[i] / EARTH_RADIUS * toDegrees;
+			ys[i] = (2 * Math.atan(Math.exp(ys[i] / EARTH_RADIUS)) - Math.PI / 2) * toDegrees;
+		}
+	}
+
+	private static void wgs84ToLv03(double[] xs, double[] ys, int from, int to) {
+		for(int i = from; i < to; i++){
+			// auxiliary values in 10000" from Bern
+			double phi = (ys[i] * 3600 - 169028.66) / 10000;
+			double lambda = (xs[i] * 3600 - 26782.5) / 10000;
+			double phi2 = phi * phi;
+			double lambda2 = lambda * lambda;
+
+			xs[i] = 600072.37
+					+ 211455.93 * lambda
+					- 10938.51 * lambda * phi
+					- 0.36 * lambda * phi2
+					- 44.54 * lambda2 * lambda;
+			ys[i] = 200147.07
+					+ 308807.95 * phi
+					+ 3745.25 * lambda2
+					+ 76.63 * phi2
+					- 194.56 * lambda2 * phi
+					+ 119.79 * phi2 * phi;
+		}
+	}
+
+	private static void lv03ToWgs84(double[] xs, double[] ys, int from, int to) {
+		for(int i = from; i < to; i++){
+			// auxiliary values in 1000 km from Bern
+			double y = (xs[i] - 600000) / 1000000;
+			double x = (ys[i] - 200000) / 1000000;
+			double y2 = y * y;
+			double x2 = x * x;
+
+			double lambda = 2.6779094
+					+ 4.728982 * y
+					+ 0.791484 * y * x
+					+ 0.1306 * y * x2
+					- 0.0436 * y2 * y;
+			double phi = 16.9023892
+					+ 3.238272 * x
+					- 0.270978 * y2
+					- 0.002528 * x2
+					- 0.0447 * y2 * x
+					- 0.0140 * x2 * x;
+
+			xs[i] = lambda * 100 / 36;
+			ys[i] = phi * 100 / 36;
+		}
+	}
+
+}
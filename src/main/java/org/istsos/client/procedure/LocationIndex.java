@@ -0,0 +1,269 @@
+package org.istsos.client.procedure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Spatial index over procedure locations, built from the GeoJSON feature
+ * collection returned by the geometry collection request.
+ * <p>
+ * Every point feature becomes a {@link Location} whose properties hold the
+ * procedure name under {@code name}. Queries use the coordinates of the
+ * collection CRS, so radii are in degrees for EPSG:4326 and in metres for
+ * projected systems such as EPSG:21781. Reprojections of the index to other
+ * EPSG codes are computed once and cached.
+ *
+ */
+public class LocationIndex {
+
+	private final List<Location> locations;
+	private final Map<String, Location> byName;
+	private final SpatialIndex<Location> index;
+	private final Crs crs;
+	private final int epsg;
+
+	// indexes reprojected to other EPSG codes
+	private final ConcurrentHashMap<Integer, LocationIndex> projections = new ConcurrentHashMap<Integer, LocationIndex>();
+
+	/**
+	 * Index point locations. Locations without point coordinates are kept
+	 * for name lookups only.
+	 * @param locations list of {@link Location}
+	 * @param crs coordinate reference system of the locations, may be null
+	 */
+	public LocationIndex(List<Location> locations, Crs crs) {
+
+		this.locations = Collections.unmodifiableList(new ArrayList<Location>(locations));
+		this.byName = new HashMap<String, Location>(locations.size() * 2);
+		this.crs = crs;
+		this.epsg = CoordinateTransformer.getEpsg(crs);
+
+		List<Location> points = new ArrayList<Location>(locations.size());
+		double[] xs = new double[locations.size()];
+		double[] ys = new double[locations.size()];
+
+		for(Location location : locations){
+			String name = getProcedureName(location);
+			if(name != null){
+				byName.put(name, location);
+			}
+			double[] coordinates = location.getGeometry() != null ? location.getGeometry().getCoordinates() : null;
+			if(coordinates != null && coordinates.length >= 2){
+				xs[points.size()] = coordinates[0];
+				ys[points.size()] = coordinates[1];
+				points.add(location);
+			}
+		}
+
+		if(points.size() < xs.length){
+			xs = Arrays.copyOf(xs, points.size());
+			ys = Arrays.copyOf(ys, points.size());
+		}
+		this.index = new SpatialIndex<Location>(points, xs, ys);
+	}
+	/**
+	 * Build the index from a GeoJSON FeatureCollection.
+	 * @param json FeatureCollection as JsonObject
+	 * @return {@link LocationIndex}
+	 */
+	public static LocationIndex fromGeoJson(JsonObject json) {
+
+		Crs crs = json.has("crs") && json.get("crs").isJsonObject()
+				? parseCrs(json.getAsJsonObject("crs")) : null;
+
+		List<Location> locations = new ArrayList<Location>();
+		JsonArray features = json.has("features") ? json.getAsJsonArray("features") : new JsonArray();
+
+		for(JsonElement element : features){
+			if(!element.isJsonObject()){
+				continue;
+			}
+			JsonObject feature = element.getAsJsonObject();
+
+			Geometry geometry = null;
+			if(feature.has("geometry") && feature.get("geometry").isJsonObject()){
+				JsonObject object = feature.getAsJsonObject("geometry");
+				String type = object.has("type") ? object.get("type").getAsString() : null;
+				double[] coordinates = null;
+				// only points carry a flat coordinate array
+				if(object.has("coordinates") && object.get("coordinates").isJsonArray()
+						&& "Point".equals(type)){
+					JsonArray array = object.getAsJsonArray("coordinates");
+					coordinates = new double[array.size()];
+					for(int i = 0; i < coordinates.length; i++){
+						coordinates[i] = array.get(i).getAsDouble();
+					}
+				}
+				geometry = new Geometry(type, coordinates);
+			}
+
+			HashMap<String, String> properties = new HashMap<String, String>();
+			if(feature.has("properties") && feature.get("properties").isJsonObject()){
+				for(Map.Entry<String, JsonElement> entry : feature.getAsJsonObject("properties").entrySet()){
+					if(entry.getValue().isJsonPrimitive()){
+						properties.put(entry.getKey(), entry.getValue().getAsString());
+					}
+				}
+			}
+
+			Crs featureCrs = feature.has("crs") && feature.get("crs").isJsonObject()
+					? parseCrs(feature.getAsJsonObject("crs")) : crs;
+
+			locations.add(new Location("Feature", geometry, featureCrs, properties));
+		}
+
+		return new LocationIndex(locations, crs);
+	}
+	/**
+	 * Retrieve the procedure name of a location.
+	 * @param location {@link Location}
+	 * @return name as String, null if missing
+	 */
+	public static String getProcedureName(Location location) {
+		return location.getProperties() != null ? location.getProperties().get("name") : null;
+	}
+
+	public Location getLocation(String procedureName) {
+		return byName.get(procedureName);
+	}
+
+	public List<Location> getLocations() {
+		return locations;
+	}
+
+	public Crs getCrs() {
+		return crs;
+	}
+
+	public int size() {
+		return locations.size();
+	}
+	/**
+	 *
+	 * @return EPSG code of the collection CRS, 0 if unknown
+	 */
+	public int getEpsg() {
+		return epsg;
+	}
+	/**
+	 * Retrieve this index reprojected to another coordinate system, computed
+	 * on first request and cached. Locations with their own CRS are transformed
+	 * from it, the others from the collection CRS.
+	 * @param target EPSG code, see {@link CoordinateTransformer}
+	 * @return {@link LocationIndex} in the target CRS
+	 * @throws IllegalArgumentException if a coordinate system is not supported
+	 */
+	public LocationIndex transform(int target) {
+		if(target == epsg){
+			return this;
+		}
+		LocationIndex projection = projections.get(target);
+		if(projection == null){
+			projection = project(target);
+			LocationIndex existing = projections.putIfAbsent(target, projection);
+			if(existing != null){
+				projection = existing;
+			}
+		}
+		return projection;
+	}
+
+	private LocationIndex project(int target) {
+
+		int n = locations.size();
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		int[] sources = new int[n];
+		for(int i = 0; i < n; i++){
+			Location location = locations.get(i);
+			double[] coordinates = location.getGeometry() != null ? location.getGeometry().getCoordinates() : null;
+			if(coordinates != null && coordinates.length >= 2){
+				xs[i] = coordinates[0];
+				ys[i] = coordinates[1];
+				int own = CoordinateTransformer.getEpsg(location.getCrs());
+				sources[i] = own != 0 ? own : epsg;
+			}else{
+				sources[i] = -1;
+			}
+		}
+
+		// transform runs of locations sharing the same source in bulk
+		int start = 0;
+		while(start < n){
+			int end = start + 1;
+			while(end < n && sources[end] == sources[start]){
+				end++;
+			}
+			if(sources[start] >= 0){
+				if(sources[start] == 0){
+					throw new IllegalArgumentException("Coordinate system of the locations is unknown");
+				}
+				CoordinateTransformer.transform(sources[start], target, xs, ys, start, end);
+			}
+			start = end;
+		}
+
+		HashMap<String, String> properties = new HashMap<String, String>();
+		properties.put("name", "EPSG:" + target);
+		Crs targetCrs = new Crs("name", properties);
+
+		List<Location> projected = new ArrayList<Location>(n);
+		for(int i = 0; i < n; i++){
+			Location location = locations.get(i);
+			Geometry geometry = location.getGeometry();
+			if(sources[i] >= 0){
+				double[] coordinates = geometry.getCoordinates().clone();
+				coordinates[0] = xs[i];
+				coordinates[1] = ys[i];
+				geometry = new Geometry(geometry.getType(), coordinates);
+			}
+			projected.add(new Location(location.getType(), geometry, targetCrs, location.getProperties()));
+		}
+		return new LocationIndex(projected, targetCrs);
+	}
+	/**
+	 * Find the procedures inside a bounding box.
+	 * @return list of {@link Location}
+	 */
+	public List<Location> search(double minX, double minY, double maxX, double maxY) {
+		return index.search(minX, minY, maxX, maxY);
+	}
+	/**
+	 * Find the procedures within a distance of a point.
+	 * @param radius distance in CRS units
+	 * @return list of {@link Location}
+	 */
+	public List<Location> within(double x, double y, double radius) {
+		return index.within(x, y, radius);
+	}
+	/**
+	 * Find the k procedures nearest to a point.
+	 * @param k maximum number of procedures
+	 * @return list of {@link Location}, nearest first
+	 */
+	public List<Location> nearest(double x, double y, int k) {
+		return index.nearest(x, y, k);
+	}
+
+	private static Crs parseCrs(JsonObject json) {
+		HashMap<String, String> properties = new HashMap<String, String>();
+		if(json.has("properties") && json.get("properties").isJsonObject()){
+			for(Map.Entry<String, JsonElement> entry : json.getAsJsonObject("properties").entrySet()){
+				if(entry.getValue().isJsonPrimitive()){
+					properties.put(entry.getKey(), entry.getValue().getAsString());
+				}
+			}
+		}
+		return new Crs(json.has("type") ? json.get("type").getAsString() : null, properties);
+	}
+
+}
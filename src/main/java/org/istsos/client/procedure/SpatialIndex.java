@@ -0,0 +1,416 @@
+package org.istsos.client.procedure;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable R-tree over points, bulk loaded with Sort-Tile-Recursive packing.
+ * <p>
+ * Points and node bounding boxes are held in primitive arrays, and the children
+ * of every node are contiguous, so queries walk the tree without allocating
+ * per node. Supports bounding box, radius and k-nearest queries. Distances are
+ * planar, in the units of the coordinates.
+ *
+ * @param <T> type of the indexed items
+ */
+public class SpatialIndex<T> {
+
+	public static final int DEFAULT_NODE_CAPACITY = 16;
+
+	private final Object[] items;
+	private final double[] xs;
+	private final double[] ys;
+
+	// nodes of all levels, leaves first, root last
+	private double[] minX;
+	private double[] minY;
+	private double[] maxX;
+	private double[] maxY;
+	private int[] firstChild;
+	private int[] childCount;
+	private boolean[] leaf;
+	private int nodes = 0;
+
+	private final int root;
+
+	/**
+	 * Build an index with {@link #DEFAULT_NODE_CAPACITY} children per node.
+	 * @param items indexed items
+	 * @param xs x coordinate of each item
+	 * @param ys y coordinate of each item
+	 */
+	public SpatialIndex(List<T> items, double[] xs, double[] ys) {
+		this(items, xs, ys, DEFAULT_NODE_CAPACITY);
+	}
+	/**
+	 * Build an index.
+	 * @param items indexed items
+	 * @param xs x coordinate of each item
+	 * @param ys y coordinate of each item
+	 * @param nodeCapacity maximum children per node
+	 */
+	public SpatialIndex(List<T> items, double[] xs, double[] ys, int nodeCapacity) {
+
+		if(items.size() != xs.length || items.size() != ys.length){
+			throw new IllegalArgumentException("items and coordinates differ in size");
+		}
+		if(nodeCapacity < 2){
+			throw new IllegalArgumentException("nodeCapacity must be at least 2");
+		}
+
+		int n = items.size();
+		int[] order = tile(xs, ys, n, nodeCapacity);
+
+		this.items = new Object[n];
+		this.xs = new double[n];
+		this.ys = new double[n];
+		for(int i = 0; i < n; i++){
+			this.items[i] = items.get(order[i]);
+			this.xs[i] = xs[order[i]];
+			this.ys[i] = ys[order[i]];
+		}
+
+		int capacity = Math.max(1, n / (nodeCapacity - 1) + 2);
+		minX = new double[capacity];
+		minY = new double[capacity];
+		maxX = new double[capacity];
+		maxY = new double[capacity];
+		firstChild = new int[capacity];
+		childCount = new int[capacity];
+		leaf = new boolean[capacity];
+
+		// leaves over consecutive items
+		int levelStart = nodes;
+		for(int i = 0; i < n; i += nodeCapacity){
+			int count = Math.min(nodeCapacity, n - i);
+			int node = addNode(i, count, true);
+			for(int k = i; k < i + count; k++){
+				extend(node, this.xs[k], this.ys[k], this.xs[k], this.ys[k]);
+			}
+		}
+		if(n == 0){
+			addNode(0, 0, true);
+		}
+
+		// pack each level until a single root is left
+		int levelSize = nodes - levelStart;
+		while(levelSize > 1){
+
+			double[] cx = new double[levelSize];
+			double[] cy = new double[levelSize];
+			for(int i = 0; i < levelSize; i++){
+				cx[i] = (minX[levelStart + i] + maxX[levelStart + i]) / 2;
+				cy[i] = (minY[levelStart + i] + maxY[levelStart + i]) / 2;
+			}
+			reorder(levelStart, tile(cx, cy, levelSize, nodeCapacity));
+
+			int nextStart = nodes;
+			for(int i = 0; i < levelSize; i += nodeCapacity){
+				int count = Math.min(nodeCapacity, levelSize - i);
+				int node = addNode(levelStart + i, count, false);
+				for(int k = levelStart + i; k < levelStart + i + count; k++){
+					extend(node, minX[k], minY[k], maxX[k], maxY[k]);
+				}
+			}
+			levelStart = nextStart;
+			levelSize = nodes - levelStart;
+		}
+
+		root = nodes - 1;
+	}
+
+	public int size() {
+		return items.length;
+	}
+	/**
+	 * Find the items inside a bounding box, borders included.
+	 * @return list of items in no particular order
+	 */
+	public List<T> search(double minX, double minY, double maxX, double maxY) {
+
+		List<T> result = new ArrayList<T>();
+		if(items.length == 0){
+			return result;
+		}
+
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = root;
+
+		while(top > 0){
+			int node = stack[--top];
+			if(this.maxX[node] < minX || this.minX[node] > maxX
+					|| this.maxY[node] < minY || this.minY[node] > maxY){
+				continue;
+			}
+			int first = firstChild[node];
+			int last = first + childCount[node];
+			if(leaf[node]){
+				for(int i = first; i < last; i++){
+					if(xs[i] >= minX && xs[i] <= maxX && ys[i] >= minY && ys[i] <= maxY){
+						result.add(item(i));
+					}
+				}
+			}else{
+				for(int child = first; child < last; child++){
+					if(top == stack.length){
+						stack = Arrays.copyOf(stack, top * 2);
+					}
+					stack[top++] = child;
+				}
+			}
+		}
+		return result;
+	}
+	/**
+	 * Find the items within a distance of a point.
+	 * @param radius distance in the units of the coordinates
+	 * @return list of items in no particular order
+	 */
+	public List<T> within(double x, double y, double radius) {
+
+		List<T> result = new ArrayList<T>();
+		if(items.length == 0){
+			return result;
+		}
+
+		double radius2 = radius * radius;
+		int[] stack = new int[64];
+		int top = 0;
+		stack[top++] = root;
+
+		while(top > 0){
+			int node = stack[--top];
+			if(boxDistance2(node, x, y) > radius2){
+				continue;
+			}
+			int first = firstChild[node];
+			int last = first + childCount[node];
+			if(leaf[node]){
+				for(int i = first; i < last; i++){
+					double dx = xs[i] - x;
+					double dy = ys[i] - y;
+					if(dx * dx + dy * dy <= radius2){
+						result.add(item(i));
+					}
+				}
+			}else{
+				for(int child = first; child < last; child++){
+					if(top == stack.length){
+						stack = Arrays.copyOf(stack, top * 2);
+					}
+					stack[top++] = child;
+				}
+			}
+		}
+		return result;
+	}
+	/**
+	 * Find the k items nearest to a point with a best-first traversal.
+	 * @param k maximum number of items
+	 * @return list of items, nearest first
+	 */
+	public List<T> nearest(double x, double y, int k) {
+
+		List<T> result = new ArrayList<T>(Math.max(0, Math.min(k, items.length)));
+		if(items.length == 0 || k <= 0){
+			return result;
+		}
+
+		// nodes are queued as their index, items as -(index + 1)
+		MinHeap queue = new MinHeap();
+		queue.push(boxDistance2(root, x, y), root);
+
+		while(!queue.isEmpty() && result.size() < k){
+			int entry = queue.popId();
+			if(entry < 0){
+				result.add(item(-entry - 1));
+				continue;
+			}
+			int first = firstChild[entry];
+			int last = first + childCount[entry];
+			if(leaf[entry]){
+				for(int i = first; i < last; i++){
+					double dx = xs[i] - x;
+					double dy = ys[i] - y;
+					queue.push(dx * dx + dy * dy, -i - 1);
+				}
+			}else{
+				for(int child = first; child < last; child++){
+					queue.push(boxDistance2(child, x, y), child);
+				}
+			}
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private T item(int i) {
+		return (T) items[i];
+	}
+
+	private double boxDistance2(int node, double x, double y) {
+		double dx = x < minX[node] ? minX[node] - x : (x > maxX[node] ? x - maxX[node] : 0);
+		double dy = y < minY[node] ? minY[node] - y : (y > maxY[node] ? y - maxY[node] : 0);
+		return dx * dx + dy * dy;
+	}
+
+	private int addNode(int first, int count, boolean isLeaf) {
+		if(nodes == minX.length){
+			int capacity = nodes * 2;
+			minX = Arrays.copyOf(minX, capacity);
+			minY = Arrays.copyOf(minY, capacity);
+			maxX = Arrays.copyOf(maxX, capacity);
+			maxY = Arrays.copyOf(maxY, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			childCount = Arrays.copyOf(childCount, capacity);
+			leaf = Arrays.copyOf(leaf, capacity);
+		}
+		minX[nodes] = Double.POSITIVE_INFINITY;
+		minY[nodes] = Double.POSITIVE_INFINITY;
+		maxX[nodes] = Double.NEGATIVE_INFINITY;
+		maxY[nodes] = Double.NEGATIVE_INFINITY;
+		firstChild[nodes] = first;
+		childCount[nodes] = count;
+		leaf[nodes] = isLeaf;
+		return nodes++;
+	}
+
+	private void extend(int node, double x0, double y0, double x1, double y1) {
+		minX[node] = Math.min(minX[node], x0);
+		minY[node] = Math.min(minY[node], y0);
+		maxX[node] = Math.max(maxX[node], x1);
+		maxY[node] = Math.max(maxY[node], y1);
+	}
+
+	// permute the nodes of one level, children ranges move with their node
+	private void reorder(int start, int[] order) {
+		int count = order.length;
+		double[] x0 = new double[count];
+		double[] y0 = new double[count];
+		double[] x1 = new double[count];
+		double[] y1 = new double[count];
+		int[] first = new int[count];
+		int[] children = new int[count];
+		boolean[] isLeaf = new boolean[count];
+		for(int i = 0; i < count; i++){
+			int from = start + order[i];
+			x0[i] = minX[from];
+			y0[i] = minY[from];
+			x1[i] = maxX[from];
+			y1[i] = maxY[from];
+			first[i] = firstChild[from];
+			children[i] = childCount[from];
+			isLeaf[i] = leaf[from];
+		}
+		System.arraycopy(x0, 0, minX, start, count);
+		System.arraycopy(y0, 0, minY, start, count);
+		System.arraycopy(x1, 0, maxX, start, count);
+		System.arraycopy(y1, 0, maxY, start, count);
+		System.arraycopy(first, 0, firstChild, start, count);
+		System.arraycopy(children, 0, childCount, start, count);
+		System.arraycopy(isLeaf, 0, leaf, start, count);
+	}
+
+	/*
+	 * Sort-Tile-Recursive order: sort by x, cut into vertical slices of
+	 * slices * capacity entries, sort each slice by y. Groups of capacity
+	 * consecutive entries then form compact nodes.
+	 */
+	private static int[] tile(final double[] xs, final double[] ys, int n, int capacity) {
+
+		Integer[] order = new Integer[n];
+		for(int i = 0; i < n; i++){
+			order[i] = i;
+		}
+
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(xs[a], xs[b]);
+			}
+		});
+
+		int pages = (n + capacity - 1) / capacity;
+		int slices = (int) Math.ceil(Math.sqrt(pages));
+		int sliceSize = Math.max(1, slices * capacity);
+
+		Comparator<Integer> byY = new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(ys[a], ys[b]);
+			}
+		};
+		for(int start = 0; start < n; start += sliceSize){
+			Arrays.sort(order, start, Math.min(n, start + sliceSize), byY);
+		}
+
+		int[] result = new int[n];
+		for(int i = 0; i < n; i++){
+			result[i] = order[i];
+		}
+		return result;
+	}
+
+	/**
+	 * Binary heap of (distance, id) pairs in primitive arrays.
+	 */
+	private static class MinHeap {
+
+		private double[] keys = new double[64];
+		private int[] ids = new int[64];
+		private int size = 0;
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void push(double key, int id) {
+			if(size == keys.length){
+				keys = Arrays.copyOf(keys, size * 2);
+				ids = Arrays.copyOf(ids, size * 2);
+			}
+			int i = size++;
+			while(i > 0){
+				int parent = (i - 1) >>> 1;
+				if(keys[parent] <= key){
+					break;
+				}
+				keys[i] = keys[parent];
+				ids[i] = ids[parent];
+				i = parent;
+			}
+			keys[i] = key;
+			ids[i] = id;
+		}
+
+		int popId() {
+			int result = ids[0];
+			size--;
+			double key = keys[size];
+			int id = ids[size];
+			int i = 0;
+			while(true){
+				int child = 2 * i + 1;
+				if(child >= size){
+					break;
+				}
+				if(child + 1 < size && keys[child + 1] < keys[child]){
+					child++;
+				}
+				if(keys[child] >= key){
+					break;
+				}
+				keys[i] = keys[child];
+				ids[i] = ids[child];
+				i = child;
+			}
+			keys[i] = key;
+			ids[i] = id;
+			return result;
+		}
+	}
+
+}
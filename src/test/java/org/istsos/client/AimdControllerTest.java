@@ -0,0 +1,56 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests for AimdController
+ */
+public class AimdControllerTest {
+
+	@Test
+	public void testAdditiveIncrease() {
+
+		AimdController controller = new AimdController(10, 1000, 100, 100, 10000, 1000, 500);
+
+		controller.onSuccess(100);
+		controller.onSuccess(200);
+
+		assertEquals(120, controller.getBatchSize());
+		assertTrue(controller.getFlushInterval() < 1000);
+	}
+
+	@Test
+	public void testMultiplicativeDecreaseOnFailure() {
+
+		AimdController controller = new AimdController(10, 1000, 100, 100, 10000, 1000, 500);
+
+		controller.onFailure(true);
+
+		assertEquals(50, controller.getBatchSize());
+		assertEquals(2000, controller.getFlushInterval());
+
+		controller.onFailure(false);
+
+		assertEquals(50, controller.getBatchSize());
+	}
+
+	@Test
+	public void testSlowAnswerAndBounds() {
+
+		AimdController controller = new AimdController(10, 1000, 20, 100, 10000, 1000, 500);
+
+		controller.onSuccess(800);
+		assertEquals(15, controller.getBatchSize());
+
+		for(int i = 0; i < 10; i++){
+			controller.onFailure(true);
+		}
+		assertEquals(10, controller.getBatchSize());
+		assertEquals(10000, controller.getFlushInterval());
+		assertEquals(10L, controller.getMetrics().get("failures").longValue());
+	}
+
+}
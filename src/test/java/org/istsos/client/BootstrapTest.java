@@ -0,0 +1,184 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests for Bootstrap
+ */
+public class BootstrapTest {
+
+	/**
+	 * Service answering every catalog request at once, failing offerings
+	 * when broken.
+	 */
+	private static class LocalService extends Service {
+
+		final boolean broken;
+		final List<String> loaded = new ArrayList<String>();
+
+		LocalService(Server server, String name, boolean broken) {
+			super(server);
+			setName(name);
+			this.broken = broken;
+		}
+
+		private void answer(String what, Event event, IstSOSListener callback) {
+			synchronized (loaded) {
+				loaded.add(what);
+			}
+			callback.onSuccess(new EventObject(event, new ArrayList<Object>()));
+		}
+
+		@Override
+		public void loadProcedures(IstSOSListener callback) {
+			answer("procedures", Event.PROCEDURES_LOADED, callback);
+		}
+
+		@Override
+		public void loadOfferings(IstSOSListener callback) {
+			if(broken){
+				callback.onError(new EventObject(Event.REQUEST_FAILED, new RequestException(500, "Error")));
+				return;
+			}
+			answer("offerings", Event.OFFERINGS_LOADED, callback);
+		}
+
+		@Override
+		public void loadObservedProperties(IstSOSListener callback) {
+			answer("observedProperties", Event.OBSERVED_PROPERTIES_LOADED, callback);
+		}
+
+		@Override
+		public void loadUnitsOfMeasure(IstSOSListener callback) {
+			answer("unitsOfMeasure", Event.UOMS_LOADED, callback);
+		}
+
+		@Override
+		public void loadDataQualities(IstSOSListener callback) {
+			answer("dataQualities", Event.DATA_QUALITIES_LOADED, callback);
+		}
+
+		@Override
+		public void loadVirtualProcedures(IstSOSListener callback) {
+			answer("virtualProcedures", Event.VIRTUAL_PROCEDURES_LOADED, callback);
+		}
+	}
+
+	/**
+	 * Server answering loadServices with its local services, or failing.
+	 */
+	private static class LocalServer extends Server {
+
+		final List<Service> local = new ArrayList<Service>();
+		boolean down = false;
+		boolean unreadable = false;
+
+		LocalServer(String name) {
+			super(name, "http://" + name + "/istsos/");
+		}
+
+		@Override
+		public void loadServices(IstSOSListener callback) {
+			if(down){
+				callback.onError(new EventObject(Event.REQUEST_FAILED, new RequestException(503, "Unavailable")));
+				return;
+			}
+			setServices(local);
+			callback.onSuccess(new EventObject(Event.SERVICE_LOADED, new ArrayList<Service>(local)));
+		}
+
+		@Override
+		public List<Service> getServices() {
+			if(unreadable){
+				throw new IllegalStateException("services not readable");
+			}
+			return super.getServices();
+		}
+	}
+
+	@Test
+	public void testLoadsEveryCatalog() throws Exception {
+		LocalServer north = new LocalServer("north");
+		LocalService alpine = new LocalService(north, "alpine", false);
+		LocalService valley = new LocalService(north, "valley", true);
+		north.local.addAll(Arrays.asList((Service) alpine, valley));
+		LocalServer south = new LocalServer("south");
+		LocalService lake = new LocalService(south, "lake", false);
+		south.local.add(lake);
+		LocalServer offline = new LocalServer("offline");
+		offline.down = true;
+
+		Bootstrap bootstrap = new Bootstrap(Arrays.asList((Server) north, south, offline), 2);
+		Bootstrap.Report report = bootstrap.start().get(10, TimeUnit.SECONDS);
+		assertSame(report, bootstrap.start().get());
+
+		assertEquals(6, alpine.loaded.size());
+		assertEquals(5, valley.loaded.size());
+		assertEquals(6, lake.loaded.size());
+		assertEquals(2, north.getServices().size());
+
+		assertEquals(3, report.getTiming(Bootstrap.Phase.SERVICES).getRequests());
+		assertEquals(1, report.getTiming(Bootstrap.Phase.SERVICES).getFailures());
+		for(Bootstrap.Phase phase : Bootstrap.Phase.values()){
+			if(phase != Bootstrap.Phase.SERVICES){
+				assertEquals(phase.name(), 3, report.getTiming(phase).getRequests());
+			}
+		}
+		assertEquals(1, report.getTiming(Bootstrap.Phase.OFFERINGS).getFailures());
+
+		assertFalse(report.isComplete());
+		List<Bootstrap.Failure> failures = report.getFailures();
+		assertEquals(2, failures.size());
+		boolean offlineFailed = false;
+		for(Bootstrap.Failure failure : failures){
+			if(failure.getPhase() == Bootstrap.Phase.SERVICES){
+				assertSame(offline, failure.getServer());
+				offlineFailed = true;
+			}else{
+				assertEquals(Bootstrap.Phase.OFFERINGS, failure.getPhase());
+				assertSame(valley, failure.getService());
+				assertTrue(failure.getCause() instanceof RequestException);
+			}
+		}
+		assertTrue(offlineFailed);
+	}
+
+	@Test
+	public void testNoServers() throws Exception {
+		Bootstrap.Report report = new Bootstrap(new ArrayList<Server>()).start().get(1, TimeUnit.SECONDS);
+		assertTrue(report.isComplete());
+		assertEquals(0, report.getTiming(Bootstrap.Phase.SERVICES).getRequests());
+	}
+
+	@Test
+	public void testFailingCatalogCompletes() throws Exception {
+		LocalServer broken = new LocalServer("broken");
+		broken.local.add(new LocalService(broken, "alpine", false));
+		broken.unreadable = true;
+		LocalServer south = new LocalServer("south");
+		LocalService lake = new LocalService(south, "lake", false);
+		south.local.add(lake);
+
+		Bootstrap.Report report = new Bootstrap(Arrays.asList((Server) broken, south), 1)
+				.start().get(10, TimeUnit.SECONDS);
+
+		assertEquals(6, lake.loaded.size());
+		assertEquals(2, report.getTiming(Bootstrap.Phase.SERVICES).getRequests());
+		assertEquals(1, report.getTiming(Bootstrap.Phase.SERVICES).getFailures());
+		List<Bootstrap.Failure> failures = report.getFailures();
+		assertEquals(1, failures.size());
+		assertSame(broken, failures.get(0).getServer());
+		assertTrue(failures.get(0).getCause() instanceof IllegalStateException);
+	}
+
+}
@@ -0,0 +1,190 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests for Catalog and CatalogSnapshot
+ */
+public class CatalogTest {
+
+	private static final String RAIN = "urn:ogc:def:parameter:x-istsos:1.0:meteo:air:rainfall";
+	private static final String TEMP = "urn:ogc:def:parameter:x-istsos:1.0:meteo:air:temperature";
+
+	private Procedure createProcedure(String name, String offering, String property, String sensorType) {
+		JsonObject json = new JsonParser().parse("{"
+				+ "\"system\": \"" + name + "\","
+				+ "\"sensortype\": \"" + sensorType + "\","
+				+ "\"offerings\": [\"temporary\", \"" + offering + "\"],"
+				+ "\"observedproperties\": [{\"name\": \"p\", \"def\": \"" + property + "\"}]"
+				+ "}").getAsJsonObject();
+		return Procedure.fromJson(json);
+	}
+
+	/**
+	 * Service answering describeSensor at once with a detailed procedure.
+	 */
+	private static class DescribingService extends Service {
+
+		int requests = 0;
+
+		@Override
+		public void describeSensor(String procedureName, IstSOSListener callback) {
+			requests++;
+			Procedure procedure = new Procedure();
+			procedure.setSystem(procedureName);
+			procedure.setDescription("Weather station " + procedureName);
+			procedure.setKeywords("weather, meteo");
+			callback.onSuccess(new EventObject(Event.PROCEDURES_LOADED, procedure));
+		}
+	}
+
+	private List<Procedure> createProcedures() {
+		List<Procedure> procedures = new ArrayList<Procedure>();
+		procedures.add(createProcedure("BELLINZONA", "ticino", RAIN, "insitu-fixed-point"));
+		procedures.add(createProcedure("LOCARNO", "ticino", TEMP, "insitu-fixed-point"));
+		procedures.add(createProcedure("GRABO", "mountain", RAIN, "insitu-mobile-point"));
+		return procedures;
+	}
+
+	@Test
+	public void testLookupByName() {
+		Catalog catalog = new Catalog();
+		catalog.replaceProcedures(createProcedures());
+
+		assertEquals("LOCARNO", catalog.getProcedure("LOCARNO").getSystem());
+		assertNull(catalog.getProcedure("LUGANO"));
+	}
+
+	@Test
+	public void testSecondaryIndexes() {
+		Catalog catalog = new Catalog();
+		catalog.replaceProcedures(createProcedures());
+
+		assertEquals(2, catalog.getProceduresByOffering("ticino").size());
+		assertEquals(3, catalog.getProceduresByOffering("temporary").size());
+		assertEquals(2, catalog.getProceduresByObservedProperty(RAIN).size());
+		assertEquals("GRABO", catalog.getProceduresBySensorType("insitu-mobile-point").get(0).getSystem());
+		assertTrue(catalog.getProceduresByOffering("unknown").isEmpty());
+	}
+
+	@Test
+	public void testReloadReplacesSection() {
+		Catalog catalog = new Catalog();
+		catalog.replaceProcedures(createProcedures());
+		catalog.replaceProcedures(createProcedures());
+
+		assertEquals(3, catalog.getSnapshot().getProcedures().size());
+
+		// other sections are untouched
+		DataQuality dataQuality = new DataQuality();
+		dataQuality.setDataQualityCode(100);
+		List<DataQuality> dataQualities = new ArrayList<DataQuality>();
+		dataQualities.add(dataQuality);
+		catalog.replaceDataQualities(dataQualities);
+
+		assertSame(dataQuality, catalog.getDataQuality(100));
+		assertEquals(3, catalog.getSnapshot().getProcedures().size());
+	}
+
+	@Test
+	public void testPutProcedure() {
+		Catalog catalog = new Catalog();
+		catalog.replaceProcedures(createProcedures());
+		CatalogSnapshot before = catalog.getSnapshot();
+
+		catalog.putProcedure(createProcedure("LOCARNO", "lake", TEMP, "insitu-fixed-point"));
+		catalog.putProcedure(createProcedure("LUGANO", "lake", TEMP, "insitu-fixed-point"));
+
+		assertEquals(4, catalog.getSnapshot().getProcedures().size());
+		assertEquals(2, catalog.getProceduresByOffering("lake").size());
+		assertEquals(1, catalog.getProceduresByOffering("ticino").size());
+		// earlier snapshots are immutable
+		assertEquals(2, before.getProceduresByOffering("ticino").size());
+	}
+
+	@Test
+	public void testSyncProcedures() {
+		Catalog catalog = new Catalog();
+		ChangeSet<Procedure> initial = catalog.syncProcedures(createProcedures());
+		assertEquals(3, initial.getInserted().size());
+
+		Procedure bellinzona = catalog.getProcedure("BELLINZONA");
+
+		List<Procedure> fresh = createProcedures();
+		fresh.remove(2);	// GRABO
+		fresh.set(1, createProcedure("LOCARNO", "lake", TEMP, "insitu-fixed-point"));
+		fresh.add(createProcedure("LUGANO", "lake", TEMP, "insitu-fixed-point"));
+
+		ChangeSet<Procedure> changes = catalog.syncProcedures(fresh);
+
+		assertEquals(Catalog.Section.PROCEDURES, changes.getSection());
+		assertEquals("LUGANO", changes.getInserted().get(0).getSystem());
+		assertEquals("LOCARNO", changes.getUpdated().get(0).getSystem());
+		assertEquals("GRABO", changes.getDeleted().get(0).getSystem());
+		assertEquals(3, changes.size());
+
+		// unchanged procedures keep their instance
+		assertSame(bellinzona, catalog.getProcedure("BELLINZONA"));
+		assertNull(catalog.getProcedure("GRABO"));
+		assertEquals(2, catalog.getProceduresByOffering("lake").size());
+	}
+
+	@Test
+	public void testSyncWithoutChanges() {
+		Catalog catalog = new Catalog();
+		catalog.syncProcedures(createProcedures());
+		CatalogSnapshot before = catalog.getSnapshot();
+
+		assertTrue(catalog.syncProcedures(createProcedures()).isEmpty());
+		assertSame(before, catalog.getSnapshot());
+	}
+
+	@Test
+	public void testBulkDescribeKeepsSummaries() {
+		DescribingService service = new DescribingService();
+		service.getCatalog().syncProcedures(createProcedures());
+
+		final List<EventObject> events = new ArrayList<EventObject>();
+		IstSOSListener listener = new IstSOSListener() {
+			@Override
+			public void onSuccess(EventObject event) {
+				events.add(event);
+			}
+
+			@Override
+			public void onError(EventObject event) {
+				events.add(event);
+			}
+		};
+		List<String> names = Arrays.asList("BELLINZONA", "LOCARNO", "GRABO");
+		service.describeSensors(names, 2, listener);
+		assertEquals(Event.PROCEDURES_DESCRIBED, events.get(events.size() - 1).getEvent());
+		assertEquals(3, ((List<?>) events.get(events.size() - 1).getObject()).size());
+
+		// details are cached, the summaries are unchanged
+		assertTrue(service.getCatalog().syncProcedures(createProcedures()).isEmpty());
+		Procedure details = service.getDetailCache().getIfPresent("LOCARNO");
+		assertEquals("Weather station LOCARNO", details.getDescription());
+		assertEquals(2, details.getOfferings().size());
+		assertNull(service.getCatalog().getProcedure("LOCARNO").getDescription());
+
+		// and served from the cache on the next bulk describe
+		events.clear();
+		service.describeSensors(names, 2, listener);
+		assertEquals(3, service.requests);
+		assertEquals(4, events.size());
+	}
+
+}
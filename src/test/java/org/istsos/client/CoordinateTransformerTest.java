@@ -0,0 +1,95 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.istsos.client.procedure.CoordinateTransformer;
+import org.istsos.client.procedure.LocationIndex;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests for CoordinateTransformer and reprojected LocationIndex
+ */
+public class CoordinateTransformerTest {
+
+	// swisstopo reference point: 46 2' 38.87" N, 8 43' 49.79" E
+	private static final double LON = 8 + 43 / 60.0 + 49.79 / 3600;
+	private static final double LAT = 46 + 2 / 60.0 + 38.87 / 3600;
+
+	@Test
+	public void testSwissReferencePoint() {
+		double[] lv03 = CoordinateTransformer.transform(4326, 21781, LON, LAT);
+		assertEquals(699999.76, lv03[0], 1);
+		assertEquals(99999.97, lv03[1], 1);
+
+		double[] lv95 = CoordinateTransformer.transform(4326, 2056, LON, LAT);
+		assertEquals(2699999.76, lv95[0], 1);
+		assertEquals(1099999.97, lv95[1], 1);
+
+		double[] wgs84 = CoordinateTransformer.transform(21781, 4326, 700000, 100000);
+		assertEquals(LON, wgs84[0], 1e-5);
+		assertEquals(LAT, wgs84[1], 1e-5);
+	}
+
+	@Test
+	public void testWebMercator() {
+		double[] mercator = CoordinateTransformer.transform(4326, 3857, 180, 0);
+		assertEquals(20037508.34, mercator[0], 0.01);
+		assertEquals(0, mercator[1], 1e-6);
+	}
+
+	@Test
+	public void testBulkRoundTrip() {
+		Random random = new Random(7);
+		int n = 10000;
+		double[] xs = new double[n];
+		double[] ys = new double[n];
+		for(int i = 0; i < n; i++){
+			xs[i] = 2550000 + random.nextDouble() * 250000;
+			ys[i] = 1100000 + random.nextDouble() * 180000;
+		}
+		double[] x0 = xs.clone();
+		double[] y0 = ys.clone();
+
+		CoordinateTransformer.transform(2056, 3857, xs, ys);
+		CoordinateTransformer.transform(3857, 2056, xs, ys);
+
+		// both approximate formulas are accurate to about one metre, errors add up
+		for(int i = 0; i < n; i++){
+			assertEquals(x0[i], xs[i], 3);
+			assertEquals(y0[i], ys[i], 3);
+		}
+	}
+
+	@Test
+	public void testLocationIndexProjection() {
+		JsonObject json = new JsonParser().parse("{\"type\": \"FeatureCollection\","
+				+ "\"crs\": {\"type\": \"name\", \"properties\": {\"name\": \"EPSG:21781\"}},"
+				+ "\"features\": ["
+				+ "{\"type\": \"Feature\", \"geometry\": {\"type\": \"Point\", \"coordinates\": [700000, 100000, 200]},"
+				+ "\"properties\": {\"name\": \"REF\"}},"
+				+ "{\"type\": \"Feature\", \"geometry\": {\"type\": \"Point\", \"coordinates\": [600000, 200000, 500]},"
+				+ "\"properties\": {\"name\": \"BERN\"}}"
+				+ "]}").getAsJsonObject();
+		LocationIndex index = LocationIndex.fromGeoJson(json);
+		assertEquals(21781, index.getEpsg());
+
+		LocationIndex wgs84 = index.transform(4326);
+		assertSame(wgs84, index.transform(4326));
+		assertEquals(4326, wgs84.getEpsg());
+
+		double[] coordinates = wgs84.getLocation("REF").getGeometry().getCoordinates();
+		assertEquals(LON, coordinates[0], 1e-5);
+		assertEquals(LAT, coordinates[1], 1e-5);
+		assertEquals(200, coordinates[2], 0);
+
+		assertEquals("BERN", LocationIndex.getProcedureName(wgs84.nearest(7.44, 46.95, 1).get(0)));
+		assertEquals(100000, index.getLocation("REF").getGeometry().getCoordinates()[1], 0);
+	}
+
+}
@@ -0,0 +1,201 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import io.netty.util.concurrent.FastThreadLocalThread;
+
+/**
+ * Tests for EventBus
+ */
+public class EventBusTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testTypedDelivery() throws InterruptedException {
+		EventBus bus = new EventBus(executor);
+		final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch latch = new CountDownLatch(3);
+
+		bus.subscribe(Event.PROCEDURE_LOADED, Procedure.class, new EventHandler<Procedure>() {
+			@Override
+			public void onEvent(Event event, Procedure payload) {
+				received.add(payload.getSystem());
+				latch.countDown();
+			}
+		});
+
+		for(String name : new String[]{"A", "B", "C"}){
+			Procedure procedure = new Procedure();
+			procedure.setSystem(name);
+			bus.publish(Event.PROCEDURE_LOADED, procedure);
+			// other payload types and events are not delivered
+			bus.publish(Event.PROCEDURE_LOADED, name);
+			bus.publish(Event.PROCEDURES_LOADED, procedure);
+		}
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(3, received.size());
+		assertEquals("A", received.get(0));
+		assertEquals("C", received.get(2));
+	}
+
+	@Test
+	public void testSlowSubscriberIsIsolated() throws InterruptedException {
+		EventBus bus = new EventBus(executor);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch fastDone = new CountDownLatch(10);
+
+		EventBus.Subscription<Integer> slow = bus.subscribe(Event.OBSERVATION_LOADED, Integer.class,
+				new EventHandler<Integer>() {
+					@Override
+					public void onEvent(Event event, Integer payload) {
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				}, null, 2, EventBus.OverflowPolicy.DROP);
+
+		bus.subscribe(Event.OBSERVATION_LOADED, Integer.class, new EventHandler<Integer>() {
+			@Override
+			public void onEvent(Event event, Integer payload) {
+				fastDone.countDown();
+			}
+		}, null, 100, EventBus.OverflowPolicy.BLOCK);
+
+		for(int i = 0; i < 10; i++){
+			bus.publish(Event.OBSERVATION_LOADED, i);
+		}
+
+		assertTrue(fastDone.await(5, TimeUnit.SECONDS));
+		// one event in the handler at most, two queued, the others dropped
+		assertTrue(slow.getDropped() >= 7);
+		assertTrue(slow.getQueued() <= 2);
+
+		release.countDown();
+		slow.unsubscribe();
+		assertEquals(1, bus.getSubscriberCount(Event.OBSERVATION_LOADED));
+	}
+
+	@Test
+	public void testHandlerExceptions() throws InterruptedException {
+		EventBus bus = new EventBus(executor);
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		final CountDownLatch latch = new CountDownLatch(2);
+		bus.setExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			@Override
+			public void uncaughtException(Thread thread, Throwable e) {
+				errors.add(e);
+				latch.countDown();
+			}
+		});
+
+		EventBus.Subscription<Integer> subscription = bus.subscribe(Event.OBSERVATION_LOADED, Integer.class,
+				new EventHandler<Integer>() {
+					@Override
+					public void onEvent(Event event, Integer payload) {
+						if(payload % 2 == 0){
+							throw new IllegalStateException("even " + payload);
+						}
+					}
+				});
+		for(int i = 0; i < 4; i++){
+			bus.publish(Event.OBSERVATION_LOADED, i);
+		}
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals("even 0", errors.get(0).getMessage());
+		assertEquals(2, subscription.getFailed());
+	}
+
+	@Test
+	public void testBlockDoesNotStallIoThreads() throws InterruptedException {
+		EventBus bus = new EventBus(executor);
+		final CountDownLatch release = new CountDownLatch(1);
+		EventBus.Subscription<Integer> subscription = bus.subscribe(Event.OBSERVATION_LOADED, Integer.class,
+				new EventHandler<Integer>() {
+					@Override
+					public void onEvent(Event event, Integer payload) {
+						try {
+							release.await();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				}, null, 1, EventBus.OverflowPolicy.BLOCK);
+
+		final EventBus publisher = bus;
+		Thread io = new FastThreadLocalThread(new Runnable() {
+			@Override
+			public void run() {
+				for(int i = 0; i < 5; i++){
+					publisher.publish(Event.OBSERVATION_LOADED, i);
+				}
+			}
+		});
+		io.start();
+		io.join(5000);
+
+		assertFalse(io.isAlive());
+		// one event in the handler at most, one queued, the others dropped
+		assertTrue(subscription.getDropped() >= 3);
+		release.countDown();
+	}
+
+	@Test
+	public void testPublishedWhenCallbackThrows() throws InterruptedException {
+		final Procedure procedure = new Procedure();
+		final CountDownLatch latch = new CountDownLatch(1);
+		EventBus.Subscription<Procedure> subscription = IstSOS.getInstance().getEventBus().subscribe(
+				Event.PROCEDURE_LOADED, Procedure.class, new EventHandler<Procedure>() {
+					@Override
+					public void onEvent(Event event, Procedure payload) {
+						if(payload == procedure){
+							latch.countDown();
+						}
+					}
+				});
+		IstSOSListener throwing = new IstSOSListener() {
+			@Override
+			public void onSuccess(EventObject event) {
+				throw new IllegalStateException();
+			}
+
+			@Override
+			public void onError(EventObject event) {
+			}
+		};
+
+		RuntimeException thrown = null;
+		try {
+			new Service().dispatch(throwing, new EventObject(Event.PROCEDURE_LOADED, procedure));
+		} catch (IllegalStateException e) {
+			thrown = e;
+		}
+		assertNotNull(thrown);
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		subscription.unsubscribe();
+	}
+
+}
@@ -0,0 +1,154 @@
+package org.istsos.client;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency of event delivery: listener callbacks with one
+ * {@link EventObject} per event, {@link EventBus} subscriptions and an
+ * {@link EventRing} attached to the bus.
+ * <p>
+ * Run with {@code java org.istsos.client.EventRingBenchmark [events] [consumers]}.
+ */
+public class EventRingBenchmark {
+
+	private static final Event EVENT = Event.OBSERVATION_LOADED;
+
+	private final int events;
+	private final int consumers;
+
+	// payloads are created up front so that only the delivery path allocates
+	private final Integer[] payloads;
+	private final long[] sent;
+	private final long[][] latencies;
+
+	public EventRingBenchmark(int events, int consumers) {
+		this.events = events;
+		this.consumers = consumers;
+		this.payloads = new Integer[events];
+		for(int i = 0; i < events; i++){
+			payloads[i] = Integer.valueOf(i);
+		}
+		this.sent = new long[events];
+		this.latencies = new long[consumers][events];
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int events = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+		int consumers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+		EventRingBenchmark benchmark = new EventRingBenchmark(events, consumers);
+		// the first rounds warm up the JIT
+		for(int round = 0; round < 3; round++){
+			boolean report = round == 2;
+			benchmark.report("callback", benchmark.runCallback(), report);
+			benchmark.report("bus", benchmark.runBus(), report);
+			benchmark.report("ring", benchmark.runRing(), report);
+		}
+	}
+
+	long runCallback() {
+		final IstSOSListener[] listeners = new IstSOSListener[consumers];
+		for(int c = 0; c < consumers; c++){
+			final long[] latency = latencies[c];
+			listeners[c] = new IstSOSListener() {
+				@Override
+				public void onSuccess(EventObject event) {
+					int index = (Integer) event.getObject();
+					latency[index] = System.nanoTime() - sent[index];
+				}
+
+				@Override
+				public void onError(EventObject event) {}
+			};
+		}
+		long start = System.nanoTime();
+		for(int i = 0; i < events; i++){
+			sent[i] = System.nanoTime();
+			EventObject eventObject = new EventObject(EVENT, payloads[i]);
+			for(IstSOSListener listener : listeners){
+				listener.onSuccess(eventObject);
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	long runBus() throws InterruptedException {
+		EventBus bus = new EventBus();
+		final CountDownLatch done = new CountDownLatch(consumers);
+		EventBus.Subscription<?>[] subscriptions = new EventBus.Subscription<?>[consumers];
+		for(int c = 0; c < consumers; c++){
+			final long[] latency = latencies[c];
+			subscriptions[c] = bus.subscribe(EVENT, Integer.class, new EventHandler<Integer>() {
+				@Override
+				public void onEvent(Event event, Integer payload) {
+					int index = payload.intValue();
+					latency[index] = System.nanoTime() - sent[index];
+					if(index == events - 1){
+						done.countDown();
+					}
+				}
+			}, null, 1024, EventBus.OverflowPolicy.BLOCK);
+		}
+		long start = System.nanoTime();
+		for(int i = 0; i < events; i++){
+			sent[i] = System.nanoTime();
+			bus.publish(EVENT, payloads[i]);
+		}
+		done.await(5, TimeUnit.MINUTES);
+		long elapsed = System.nanoTime() - start;
+		for(EventBus.Subscription<?> subscription : subscriptions){
+			subscription.unsubscribe();
+		}
+		return elapsed;
+	}
+
+	long runRing() throws InterruptedException {
+		EventBus bus = new EventBus();
+		EventRing ring = new EventRing(1024, EventBus.OverflowPolicy.BLOCK);
+		bus.attach(ring, EVENT);
+		final CountDownLatch done = new CountDownLatch(consumers);
+		for(int c = 0; c < consumers; c++){
+			final long[] latency = latencies[c];
+			ring.addConsumer(new EventRing.Handler() {
+				@Override
+				public void onEvent(Event event, Object payload, long sequence, boolean endOfBatch) {
+					int index = (int) sequence;
+					latency[index] = System.nanoTime() - sent[index];
+					if(index == events - 1){
+						done.countDown();
+					}
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for(int i = 0; i < events; i++){
+			sent[i] = System.nanoTime();
+			bus.publish(EVENT, payloads[i]);
+		}
+		done.await(5, TimeUnit.MINUTES);
+		long elapsed = System.nanoTime() - start;
+		ring.close();
+		return elapsed;
+	}
+
+	private void report(String name, long elapsed, boolean print) {
+		long[] all = new long[events * consumers];
+		for(int c = 0; c < consumers; c++){
+			System.arraycopy(latencies[c], 0, all, c * events, events);
+			Arrays.fill(latencies[c], 0);
+		}
+		if(!print){
+			return;
+		}
+		Arrays.sort(all);
+		System.out.println(String.format("%-8s %12.0f events/s  p50 %8d ns  p99 %10d ns  max %12d ns",
+				name, events / (elapsed / 1e9), percentile(all, 0.5), percentile(all, 0.99), all[all.length - 1]));
+	}
+
+	private static long percentile(long[] sorted, double rank) {
+		return sorted[Math.min(sorted.length - 1, (int) (rank * sorted.length))];
+	}
+
+}
@@ -0,0 +1,210 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import io.netty.util.concurrent.FastThreadLocalThread;
+
+/**
+ * Tests for EventRing
+ */
+public class EventRingTest {
+
+	@Test
+	public void testEveryConsumerSeesEveryEventInOrder() throws InterruptedException {
+		final int count = 100000;
+		EventRing ring = new EventRing(1000, EventBus.OverflowPolicy.BLOCK);
+		assertEquals(1024, ring.getCapacity());
+
+		final CountDownLatch done = new CountDownLatch(2);
+		final AtomicBoolean ordered = new AtomicBoolean(true);
+		EventRing.Handler handler = new EventRing.Handler() {
+
+			private int expected = 0;
+
+			@Override
+			public void onEvent(Event event, Object payload, long sequence, boolean endOfBatch) {
+				if(((Integer) payload).intValue() != expected || sequence != expected){
+					ordered.set(false);
+				}
+				expected++;
+				if(expected == count && endOfBatch){
+					done.countDown();
+				}
+			}
+		};
+		EventRing.Consumer first = ring.addConsumer(handler);
+		ring.addConsumer(new EventRing.Handler() {
+
+			private int expected = 0;
+
+			@Override
+			public void onEvent(Event event, Object payload, long sequence, boolean endOfBatch) {
+				if(((Integer) payload).intValue() != expected){
+					ordered.set(false);
+				}
+				if(++expected == count){
+					done.countDown();
+				}
+			}
+		});
+
+		for(int i = 0; i < count; i++){
+			assertTrue(ring.publish(Event.OBSERVATION_LOADED, i));
+		}
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertTrue(ordered.get());
+		assertEquals(count - 1, first.getSequence());
+		assertTrue(first.getBatches() <= count);
+		ring.close();
+	}
+
+	@Test
+	public void testDropWhenFull() throws InterruptedException {
+		EventRing ring = new EventRing(4, EventBus.OverflowPolicy.DROP);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger received = new AtomicInteger();
+
+		ring.addConsumer(new EventRing.Handler() {
+			@Override
+			public void onEvent(Event event, Object payload, long sequence, boolean endOfBatch) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				received.incrementAndGet();
+			}
+		});
+
+		int accepted = 0;
+		for(int i = 0; i < 20; i++){
+			if(ring.publish(Event.OBSERVATION_INSERTED, i)){
+				accepted++;
+			}
+		}
+		// the slowest consumer holds back the four slots
+		assertEquals(4, accepted);
+		assertEquals(16, ring.getDropped());
+		assertFalse(ring.publish(Event.OBSERVATION_INSERTED, 20));
+
+		release.countDown();
+		long deadline = System.currentTimeMillis() + 5000;
+		while(received.get() < 4 && System.currentTimeMillis() < deadline){
+			Thread.sleep(5);
+		}
+		assertEquals(4, received.get());
+		ring.close();
+	}
+
+	@Test
+	public void testIoThreadsDoNotWait() throws InterruptedException {
+		final EventRing ring = new EventRing(4, EventBus.OverflowPolicy.BLOCK);
+		final CountDownLatch release = new CountDownLatch(1);
+		ring.addConsumer(new EventRing.Handler() {
+			@Override
+			public void onEvent(Event event, Object payload, long sequence, boolean endOfBatch) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+
+		Thread io = new FastThreadLocalThread(new Runnable() {
+			@Override
+			public void run() {
+				for(int i = 0; i < 10; i++){
+					ring.publish(Event.OBSERVATION_LOADED, i);
+				}
+			}
+		});
+		io.start();
+		io.join(5000);
+
+		assertFalse(io.isAlive());
+		assertEquals(6, ring.getDropped());
+		release.countDown();
+		ring.close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDropOldestRejected() {
+		new EventRing(4, EventBus.OverflowPolicy.DROP_OLDEST);
+	}
+
+	@Test
+	public void testAttachedToBus() throws InterruptedException {
+		EventBus bus = new EventBus();
+		EventRing ring = new EventRing(64, EventBus.OverflowPolicy.BLOCK);
+		bus.attach(ring, Event.OBSERVATION_LOADED);
+
+		final CountDownLatch latch = new CountDownLatch(3);
+		ring.addConsumer(new EventRing.Handler() {
+			@Override
+			public void onEvent(Event event, Object payload, long sequence, boolean endOfBatch) {
+				if(event == Event.OBSERVATION_LOADED){
+					latch.countDown();
+				}
+			}
+		});
+
+		bus.publish(Event.OBSERVATION_LOADED, "a");
+		bus.publish(new EventObject(Event.OBSERVATION_LOADED, "b"));
+		bus.publish(Event.PROCEDURE_LOADED, "not attached");
+		bus.publish(Event.OBSERVATION_LOADED, "c");
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(3, ring.getPublished());
+
+		bus.detach(Event.OBSERVATION_LOADED);
+		bus.publish(Event.OBSERVATION_LOADED, "d");
+		assertEquals(3, ring.getPublished());
+		ring.close();
+	}
+
+	@Test
+	public void testHandlerExceptions() throws InterruptedException {
+		EventRing ring = new EventRing(16, EventBus.OverflowPolicy.BLOCK);
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(1);
+		ring.setExceptionHandler(new Thread.UncaughtExceptionHandler() {
+			@Override
+			public void uncaughtException(Thread thread, Throwable e) {
+				errors.incrementAndGet();
+			}
+		});
+		EventRing.Consumer consumer = ring.addConsumer(new EventRing.Handler() {
+			@Override
+			public void onEvent(Event event, Object payload, long sequence, boolean endOfBatch) {
+				if(sequence == 3){
+					done.countDown();
+				}
+				if(sequence % 2 == 0){
+					throw new IllegalStateException();
+				}
+			}
+		});
+
+		for(int i = 0; i < 4; i++){
+			ring.publish(Event.OBSERVATION_LOADED, i);
+		}
+
+		// the consumer keeps running after a failure
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(2, errors.get());
+		assertEquals(2, consumer.getFailed());
+		ring.close();
+	}
+
+}
@@ -0,0 +1,167 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+import org.istsos.client.observation.DataArray;
+import org.istsos.client.observation.Field;
+import org.istsos.client.observation.Result;
+import org.istsos.client.observation.SeriesKey;
+import org.junit.Test;
+
+/**
+ * Tests for FederatedQuery and FederatedResult
+ */
+public class FederatedQueryTest {
+
+	private static final String RAIN = "urn:ogc:def:parameter:x-istsos:1.0:meteo:air:rainfall";
+	private static final String TIME = "urn:ogc:def:parameter:x-istsos:1.0:time:iso8601";
+
+	/**
+	 * Service answering getObservation with hourly rows starting at a given hour,
+	 * failing for the procedures listed as broken and answering garbage for
+	 * the malformed ones.
+	 */
+	private static class LocalService extends Service {
+
+		final int firstHour;
+		final List<String> broken = new ArrayList<String>();
+		final List<String> malformed = new ArrayList<String>();
+		int requests = 0;
+
+		LocalService(Server server, String name, int firstHour, String... procedures) {
+			super(server);
+			setName(name);
+			this.firstHour = firstHour;
+			List<Procedure> list = new ArrayList<Procedure>();
+			for(String procedureName : procedures){
+				Procedure procedure = new Procedure();
+				procedure.setSystem(procedureName);
+				HashMap<String, String> property = new HashMap<String, String>();
+				property.put("def", RAIN);
+				procedure.setObservedproperties(new ArrayList<HashMap<String, String>>(Arrays.asList(property)));
+				list.add(procedure);
+			}
+			getCatalog().replaceProcedures(list);
+		}
+
+		@Override
+		public void getObervation(Offering offering, Procedure procedure, ObservedProperty defUrn,
+				Date beginPosition, Date endPosition, IstSOSListener callback) {
+			requests++;
+			assertEquals("temporary", offering.getName());
+			if(broken.contains(procedure.getSystem())){
+				callback.onError(new EventObject(Event.REQUEST_FAILED, new RequestException(500, "Error")));
+				return;
+			}
+			if(malformed.contains(procedure.getSystem())){
+				callback.onSuccess(new EventObject(Event.OBSERVATION_LOADED, "not an observation"));
+				return;
+			}
+			ArrayList<Field> fields = new ArrayList<Field>();
+			fields.add(new Field("Time", TIME, "iso8601"));
+			fields.add(new Field("rainfall", RAIN, "mm"));
+			ArrayList<String[]> values = new ArrayList<String[]>();
+			for(int hour = firstHour; hour < 24; hour += 2){
+				values.add(new String[]{String.format("2016-08-01T%02d:00:00Z", hour), String.valueOf(hour)});
+			}
+			DataArray dataArray = new DataArray();
+			dataArray.setFields(fields);
+			dataArray.setValues(values);
+			Result result = new Result();
+			result.setDataArray(dataArray);
+			Observation observation = new Observation();
+			observation.setName(procedure.getSystem());
+			observation.setResult(result);
+			callback.onSuccess(new EventObject(Event.OBSERVATION_LOADED, observation));
+		}
+	}
+
+	private static class Collector implements IstSOSListener {
+
+		FederatedResult result;
+
+		@Override
+		public void onSuccess(EventObject event) {
+			assertEquals(Event.FEDERATED_OBSERVATIONS_LOADED, event.getEvent());
+			result = (FederatedResult) event.getObject();
+		}
+
+		@Override
+		public void onError(EventObject event) {
+		}
+	}
+
+	@Test
+	public void testResolveAndMergeByTime() {
+		Server north = new Server("north", "http://north/istsos/");
+		Server south = new Server("south", "http://south/istsos/");
+		LocalService alpine = new LocalService(north, "alpine", 0, "LOCARNO");
+		LocalService lake = new LocalService(south, "lake", 1, "LUGANO", "MENDRISIO");
+		lake.broken.add("MENDRISIO");
+		north.setServices(new ArrayList<Service>(Arrays.asList((Service) alpine)));
+		south.setServices(new ArrayList<Service>(Arrays.asList((Service) lake)));
+
+		FederatedQuery query = new FederatedQuery(Arrays.asList(north, south))
+				.add("LUGANO", RAIN)
+				.add("LOCARNO", RAIN)
+				.add("MENDRISIO", RAIN)
+				.add("BELLINZONA", RAIN)
+				.setMaxConcurrency(2)
+				.between(new Date(0), new Date());
+
+		assertSame(lake, query.resolve().get(new SeriesKey("LUGANO", RAIN)));
+		assertSame(alpine, query.resolve().get(new SeriesKey("LOCARNO", RAIN)));
+
+		Collector collector = new Collector();
+		query.execute(collector);
+		FederatedResult result = collector.result;
+
+		assertEquals(Arrays.asList(new SeriesKey("BELLINZONA", RAIN)), result.getUnresolved());
+		assertEquals(1, result.getFailed().size());
+		assertTrue(result.getFailed().containsKey(new SeriesKey("MENDRISIO", RAIN)));
+		assertEquals(2, result.getSeries().size());
+		assertEquals(1, alpine.requests);
+		assertEquals(2, lake.requests);
+
+		// LOCARNO has even hours, LUGANO odd ones: merged they give every hour
+		List<FederatedResult.Row> rows = result.getRows();
+		assertEquals(24, rows.size());
+		for(int i = 0; i < rows.size(); i++){
+			assertEquals(i, rows.get(i).getValue(), 0);
+			assertSame(i % 2 == 0 ? alpine : lake, rows.get(i).getService());
+		}
+	}
+
+	@Test
+	public void testMalformedAnswerFailsItsPair() {
+		Server north = new Server("north", "http://north/istsos/");
+		LocalService alpine = new LocalService(north, "alpine", 0, "LOCARNO", "AIROLO");
+		alpine.malformed.add("AIROLO");
+		north.setServices(new ArrayList<Service>(Arrays.asList((Service) alpine)));
+
+		Collector collector = new Collector();
+		new FederatedQuery(Arrays.asList(north))
+				.add("AIROLO", RAIN)
+				.add("LOCARNO", RAIN)
+				.setMaxConcurrency(1)
+				.between(new Date(0), new Date())
+				.execute(collector);
+
+		FederatedResult result = collector.result;
+		assertNotNull(result);
+		assertEquals(2, alpine.requests);
+		assertEquals(1, result.getSeries().size());
+		RequestException failure = result.getFailed().get(new SeriesKey("AIROLO", RAIN));
+		assertTrue(failure.getCause() instanceof ClassCastException);
+	}
+
+}
@@ -0,0 +1,167 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.gson.JsonParser;
+
+/**
+ * Tests for HealthMonitor with answers simulated in place of STATUS requests
+ */
+public class HealthMonitorTest {
+
+	private static final String STATUS = "{\"success\": true, \"data\": ["
+			+ "{\"service\": \"demo\", \"getobservation\": true, \"insertobservation\": false, \"availability\": \"up\"}]}";
+
+	/**
+	 * Monitor answering probes immediately, failing the servers listed as down.
+	 */
+	private static class SimulatedMonitor extends HealthMonitor {
+
+		final List<Server> servers;
+		final List<Server> down = new ArrayList<Server>();
+		final List<Server> silent = new ArrayList<Server>();
+		final List<EventObject> changes = new ArrayList<EventObject>();
+		int abouts = 0;
+		volatile int probes = 0;
+
+		SimulatedMonitor(Server... servers) {
+			this(1000, servers);
+		}
+
+		SimulatedMonitor(long probeTimeout, Server... servers) {
+			super(IstSOS.getInstance(), 10, 40, probeTimeout, 10, 3, 50);
+			this.servers = Arrays.asList(servers);
+			setListener(new IstSOSListener() {
+				@Override
+				public void onSuccess(EventObject event) {
+					changes.add(event);
+				}
+
+				@Override
+				public void onError(EventObject event) {}
+			});
+		}
+
+		@Override
+		Collection<Server> servers() {
+			return servers;
+		}
+
+		@Override
+		void probe(Server server, IstSOSListener callback) {
+			probes++;
+			if(silent.contains(server)){
+				return;
+			}
+			if(down.contains(server)){
+				callback.onError(new EventObject(Event.REQUEST_FAILED, new RequestException(503, "Unavailable")));
+			}else{
+				callback.onSuccess(new EventObject(Event.REQUEST, new JsonParser().parse(STATUS).getAsJsonObject()));
+			}
+		}
+
+		@Override
+		void about(Server server, IstSOSListener callback) {
+			abouts++;
+		}
+	}
+
+	@Test
+	public void testStatusAndAdaptiveInterval() throws InterruptedException {
+		Server server = new Server("a", "http://a/istsos/");
+		SimulatedMonitor monitor = new SimulatedMonitor(server);
+
+		monitor.checkNow();
+		HealthMonitor.Health health = monitor.getHealth(server);
+		assertNotNull(health);
+		assertEquals(HealthMonitor.State.CLOSED, health.getState());
+		assertEquals(1.0, health.getAvailability(), 0);
+		assertEquals(10, health.getInterval());
+		assertEquals(1, monitor.abouts);
+
+		// steady answers stretch the interval up to the maximum
+		for(int i = 0; i < 10; i++){
+			monitor.checkNow();
+		}
+		assertEquals(40, health.getInterval());
+		assertEquals(1, monitor.abouts);
+
+		Service service = new Service(server);
+		service.setName("demo");
+		assertTrue(monitor.isServiceAvailable(service, false));
+		assertFalse(monitor.isServiceAvailable(service, true));
+	}
+
+	@Test
+	public void testCircuitBreaker() throws InterruptedException {
+		Server up = new Server("up", "http://up/istsos/");
+		Server down = new Server("down", "http://down/istsos/");
+		SimulatedMonitor monitor = new SimulatedMonitor(up, down);
+		monitor.down.add(down);
+
+		for(int i = 0; i < 3; i++){
+			monitor.checkNow();
+		}
+		HealthMonitor.Health health = monitor.getHealth(down);
+		assertEquals(HealthMonitor.State.OPEN, health.getState());
+		assertEquals(0.0, health.getAvailability(), 0);
+		assertFalse(monitor.allowRequest(down));
+		assertTrue(monitor.allowRequest(up));
+		assertEquals(Arrays.asList(up), monitor.getAvailableServers());
+		assertEquals(1, monitor.changes.size());
+		assertEquals(Event.HEALTH_CHANGED, monitor.changes.get(0).getEvent());
+
+		// once the open timeout elapsed a single trial goes through
+		Thread.sleep(60);
+		assertTrue(monitor.allowRequest(down));
+		assertEquals(HealthMonitor.State.HALF_OPEN, health.getState());
+		assertFalse(monitor.allowRequest(down));
+
+		monitor.down.clear();
+		monitor.record(down, 20, true);
+		assertEquals(HealthMonitor.State.CLOSED, health.getState());
+		assertEquals(2, monitor.getAvailableServers().size());
+	}
+
+	@Test
+	public void testThrowingListener() throws InterruptedException {
+		Server down = new Server("down", "http://down/istsos/");
+		SimulatedMonitor monitor = new SimulatedMonitor(20, down);
+		// unanswered probes fail on the scheduler thread once they expire
+		monitor.silent.add(down);
+		monitor.setListener(new IstSOSListener() {
+			@Override
+			public void onSuccess(EventObject event) {
+				throw new IllegalStateException("listener failure");
+			}
+
+			@Override
+			public void onError(EventObject event) {}
+		});
+
+		monitor.start();
+		try {
+			long deadline = System.currentTimeMillis() + 5000;
+			while(monitor.probes < 10 && System.currentTimeMillis() < deadline){
+				Thread.sleep(10);
+			}
+			// the breaker opened and notified the listener, probing went on
+			assertFalse(monitor.getHealth(down).getState() == HealthMonitor.State.CLOSED);
+			assertTrue(monitor.probes >= 10);
+			assertTrue(monitor.isRunning());
+		} finally {
+			monitor.stop();
+		}
+	}
+
+}
@@ -0,0 +1,924 @@
+package org.istsos.client;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process istSOS stub answering the {@code wa/istsos/...} requests of
+ * {@link Requests} with synthetic data, for offline tests and benchmarks.
+ * <p>
+ * Services, procedures and observations are generated from their indexes, so
+ * the same configuration always serves the same content: services are named
+ * {@code service0}, {@code service1}..., procedures {@code P0000},
+ * {@code P0001}..., each observing one of {@link #PROPERTIES}, and
+ * getObservation returns one row every observation step of the requested
+ * interval, up to the maximum rows. Writes are acknowledged without being
+ * stored.
+ * <p>
+ * Latency, bandwidth, error rate and padding added to every response can be
+ * changed at any time; errors are answered with an HTML page and status 500
+ * like istSOS does. Run with
+ * {@code java org.istsos.client.IstSOSStubServer [port]} to serve the client
+ * of another process.
+ */
+public class IstSOSStubServer {
+
+	public static final String TIME = "urn:ogc:def:parameter:x-istsos:1.0:time:iso8601";
+
+	// definition, name and unit of measure of the observed properties
+	public static final String[][] PROPERTIES = {
+		{"urn:ogc:def:parameter:x-istsos:1.0:meteo:air:temperature", "air-temperature", "\u00b0C"},
+		{"urn:ogc:def:parameter:x-istsos:1.0:meteo:air:rainfall", "air-rainfall", "mm"},
+		{"urn:ogc:def:parameter:x-istsos:1.0:meteo:air:humidity:relative", "air-relative-humidity", "%"}
+	};
+
+	private static final String QUALITY = ":qualityIndex";
+	private static final String SYSTEM_TYPE = "urn:ogc:def:classifier:x-istsos:1.0:systemType";
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final Gson gson = new Gson();
+
+	private volatile int services = 2;
+	private volatile int procedures = 10;
+	private volatile long observationStep = 600000;
+	private volatile int maxRows = 1000000;
+	private volatile long minLatency = 0;
+	private volatile long maxLatency = 0;
+	private volatile long bandwidth = 0;
+	private volatile double errorRate = 0;
+	private volatile int padding = 0;
+	private final Random random = new Random(42);
+
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger errors = new AtomicInteger();
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	/**
+	 * Start the stub on a free port of the loopback interface.
+	 */
+	public IstSOSStubServer() throws IOException {
+		this(0);
+	}
+	/**
+	 * Start the stub on the loopback interface.
+	 * @param port as int, 0 for a free port
+	 */
+	public IstSOSStubServer(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 50);
+		// one thread per exchange, so that injected latency does not queue requests
+		executor = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "istsos-stub-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					IstSOSStubServer.this.handle(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	public static void main(String[] args) throws IOException {
+		IstSOSStubServer stub = new IstSOSStubServer(args.length > 0 ? Integer.parseInt(args[0]) : 0);
+		System.out.println("istSOS stub serving " + stub.getUrl());
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+	/**
+	 *
+	 * @return server url to initialize a {@link Server} with
+	 */
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/istsos/";
+	}
+
+	public IstSOSStubServer setServices(int services) {
+		this.services = services;
+		return this;
+	}
+	/**
+	 * Set the procedures of every service.
+	 * @param procedures as int
+	 * @return this stub
+	 */
+	public IstSOSStubServer setProcedures(int procedures) {
+		this.procedures = procedures;
+		return this;
+	}
+	/**
+	 * Set the time between two generated observations.
+	 * @param step milliseconds
+	 * @return this stub
+	 */
+	public IstSOSStubServer setObservationStep(long step) {
+		this.observationStep = Math.max(1000, step);
+		return this;
+	}
+	/**
+	 * Limit the rows of a getObservation answer.
+	 * @param maxRows as int
+	 * @return this stub
+	 */
+	public IstSOSStubServer setMaxRows(int maxRows) {
+		this.maxRows = maxRows;
+		return this;
+	}
+	/**
+	 * Delay every answer by a random time in the given range.
+	 * @param min milliseconds
+	 * @param max milliseconds
+	 * @return this stub
+	 */
+	public IstSOSStubServer setLatency(long min, long max) {
+		this.minLatency = min;
+		this.maxLatency = Math.max(min, max);
+		return this;
+	}
+	/**
+	 * Limit the rate every response body is written at.
+	 * @param bytesPerSecond as long, 0 for unlimited
+	 * @return this stub
+	 */
+	public IstSOSStubServer setBandwidth(long bytesPerSecond) {
+		this.bandwidth = bytesPerSecond;
+		return this;
+	}
+	/**
+	 * Fail a fraction of the requests with status 500.
+	 * @param errorRate between 0 and 1
+	 * @return this stub
+	 */
+	public IstSOSStubServer setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+		return this;
+	}
+	/**
+	 * Grow every successful response by a padding member the client ignores.
+	 * @param bytes as int
+	 * @return this stub
+	 */
+	public IstSOSStubServer setPadding(int bytes) {
+		this.padding = bytes;
+		return this;
+	}
+
+	public int getRequests() {
+		return requests.get();
+	}
+
+	public int getErrors() {
+		return errors.get();
+	}
+	/**
+	 *
+	 * @return response body bytes written
+	 */
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+	/**
+	 * Value generated for a procedure at a time.
+	 * @param procedure procedure index
+	 * @param time epoch milliseconds
+	 * @return as double
+	 */
+	public static double value(int procedure, long time) {
+		double day = 2 * Math.PI * (time % 86400000L) / 86400000d;
+		return Math.round((10 + procedure % 7 + 5 * Math.sin(day)) * 100) / 100d;
+	}
+
+	public static String procedureName(int index) {
+		return String.format("P%04d", index);
+	}
+
+	public static String[] property(int procedure) {
+		return PROPERTIES[procedure % PROPERTIES.length];
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		drain(exchange.getRequestBody());
+
+		long latency;
+		boolean fail;
+		synchronized (random) {
+			latency = minLatency + (maxLatency > minLatency ? (long) (random.nextDouble() * (maxLatency - minLatency)) : 0);
+			fail = errorRate > 0 && random.nextDouble() < errorRate;
+		}
+		if(latency > 0){
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		if(fail){
+			errors.incrementAndGet();
+			sendHtml(exchange, 500, "Internal Server Error");
+			return;
+		}
+
+		String path = exchange.getRequestURI().getPath();
+		int start = path.indexOf("wa/istsos/");
+		if(start < 0){
+			sendHtml(exchange, 404, "Not Found");
+			return;
+		}
+		List<String> segments = new ArrayList<String>();
+		for(String segment : path.substring(start + "wa/istsos/".length()).split("/")){
+			if(!segment.isEmpty()){
+				segments.add(segment);
+			}
+		}
+		// the insert observation url repeats the istsos segment
+		if(!segments.isEmpty() && segments.get(0).equals("istsos")){
+			segments.remove(0);
+		}
+
+		Body body;
+		try {
+			body = route(exchange.getRequestMethod(), segments);
+		} catch (IllegalArgumentException e) {
+			body = null;
+		}
+		if(body == null){
+			sendHtml(exchange, 404, "Not Found");
+			return;
+		}
+		send(exchange, body);
+	}
+
+	/**
+	 * Writes the data member of a response.
+	 */
+	private interface Body {
+		void write(JsonWriter out) throws IOException;
+	}
+
+	private Body route(String method, List<String> s) {
+
+		if(s.size() == 2 && s.get(0).equals("operations")){
+			if(s.get(1).equals("about")){
+				return json(about());
+			}
+			if(s.get(1).equals("status")){
+				return json(status());
+			}
+			if(s.get(1).equals("validatedb")){
+				JsonObject object = new JsonObject();
+				object.addProperty("database", "active");
+				return json(object);
+			}
+			return null;
+		}
+		if(s.isEmpty() || !s.get(0).equals("services")){
+			return null;
+		}
+		if(s.size() == 1){
+			return method.equals("GET") ? json(serviceList()) : json(JsonNull.INSTANCE);
+		}
+
+		final String service = s.get(1);
+		if(serviceIndex(service) < 0 && !method.equals("POST")){
+			return null;
+		}
+		List<String> rest = s.subList(2, s.size());
+		String first = rest.isEmpty() ? "" : rest.get(0);
+
+		if(rest.size() >= 2 && first.equals("operations") && rest.get(1).equals("getobservation")){
+			return observations(rest);
+		}
+		if(rest.size() == 2 && first.equals("operations") && rest.get(1).equals("insertobservation")){
+			return json(new JsonObject());
+		}
+		if(!method.equals("GET")){
+			// writes are acknowledged and forgotten
+			return json(JsonNull.INSTANCE);
+		}
+
+		if(rest.isEmpty()){
+			return json(serviceObject(service));
+		}
+		if(first.equals("configsections")){
+			if(rest.size() == 1){
+				JsonObject sections = new JsonObject();
+				for(String section : new String[]{"connection", "geo", "getobservation", "identification",
+						"mqtt", "provider", "serviceurl"}){
+					sections.add(section, section(service, section));
+				}
+				return json(sections);
+			}
+			JsonObject section = section(service, rest.get(1));
+			return section != null ? json(section) : null;
+		}
+		if(first.equals("procedures")){
+			if(rest.equals(Arrays.asList("procedures", "operations", "getlist"))){
+				return json(procedureList());
+			}
+			if(rest.equals(Arrays.asList("procedures", "operations", "geojson"))){
+				return json(geoJson());
+			}
+			if(rest.size() == 2){
+				int index = procedureIndex(rest.get(1));
+				return index >= 0 ? json(describe(index)) : null;
+			}
+			return null;
+		}
+		if(first.equals("virtualprocedures")){
+			if(rest.size() == 3 && rest.get(1).equals("operations")){
+				return json(new JsonArray());
+			}
+			JsonObject code = new JsonObject();
+			code.addProperty("code", "");
+			return json(code);
+		}
+		if(first.equals("observedproperties")){
+			return item(observedProperties(), rest, "definition");
+		}
+		if(first.equals("uoms")){
+			return item(unitsOfMeasure(), rest, "name");
+		}
+		if(first.equals("dataqualities")){
+			return item(dataQualities(), rest, "code");
+		}
+		if(first.equals("offerings")){
+			if(rest.size() == 5 && rest.get(4).equals("memberslist")){
+				return json(members(rest.get(1), true));
+			}
+			if(rest.size() == 5 && rest.get(4).equals("nonmemberslist")){
+				return json(members(rest.get(1), false));
+			}
+			return item(offerings(), rest, "name");
+		}
+		if(first.equals("systemtypes")){
+			JsonArray types = new JsonArray();
+			for(String type : new String[]{"insitu-fixed-point", "insitu-mobile-point", "virtual"}){
+				JsonObject object = new JsonObject();
+				object.addProperty("name", type);
+				types.add(object);
+			}
+			return json(types);
+		}
+		if(first.equals("epsgs")){
+			JsonArray epsgs = new JsonArray();
+			for(String epsg : new String[]{"4326", "3857", "21781"}){
+				JsonObject object = new JsonObject();
+				object.addProperty("name", epsg);
+				epsgs.add(object);
+			}
+			return json(epsgs);
+		}
+		return null;
+	}
+
+	// the whole list, or its element with the given code
+	private Body item(JsonArray list, List<String> rest, String key) {
+		if(rest.size() == 1){
+			return json(list);
+		}
+		if(rest.size() == 2){
+			for(JsonElement element : list){
+				if(element.getAsJsonObject().get(key).getAsString().equals(rest.get(1))){
+					return json(element);
+				}
+			}
+		}
+		return null;
+	}
+
+	private Body json(final JsonElement element) {
+		return new Body() {
+			@Override
+			public void write(JsonWriter out) throws IOException {
+				gson.toJson(element, out);
+			}
+		};
+	}
+
+	private int serviceIndex(String name) {
+		if(name.startsWith("service")){
+			try {
+				int index = Integer.parseInt(name.substring("service".length()));
+				return index < services ? index : -1;
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private int procedureIndex(String name) {
+		if(name.length() == 5 && name.charAt(0) == 'P'){
+			try {
+				int index = Integer.parseInt(name.substring(1));
+				return index < procedures ? index : -1;
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private JsonObject about() {
+		JsonObject about = new JsonObject();
+		about.addProperty("title", "istSOS");
+		about.addProperty("version", "2.3.1");
+		about.addProperty("stub", true);
+		return about;
+	}
+
+	private JsonArray status() {
+		JsonArray status = new JsonArray();
+		for(int i = 0; i < services; i++){
+			JsonObject object = new JsonObject();
+			object.addProperty("service", "service" + i);
+			object.addProperty("database", "active");
+			object.addProperty("availability", "up");
+			object.addProperty("offerings", 2);
+			object.addProperty("procedures", procedures);
+			object.addProperty("observedProperties", PROPERTIES.length);
+			object.addProperty("featuresOfInterest", String.valueOf(procedures));
+			for(String operation : new String[]{"getcapabilities", "describesensor", "getobservation",
+					"getfeaturesofinterest", "insertobservation", "registersensor"}){
+				object.addProperty(operation, true);
+			}
+			status.add(object);
+		}
+		return status;
+	}
+
+	private JsonArray serviceList() {
+		JsonArray list = new JsonArray();
+		for(int i = 0; i < services; i++){
+			list.add(serviceObject("service" + i));
+		}
+		return list;
+	}
+
+	private JsonObject serviceObject(String name) {
+		JsonObject object = new JsonObject();
+		object.addProperty("service", name);
+		object.addProperty("path", "/services/" + name);
+		return object;
+	}
+
+	private JsonObject section(String service, String section) {
+		JsonObject object = new JsonObject();
+		if(section.equals("connection")){
+			object.addProperty("dbname", "istsos");
+			object.addProperty("host", "localhost");
+			object.addProperty("user", "postgres");
+			object.addProperty("password", "postgres");
+			object.addProperty("port", "5432");
+		}else if(section.equals("geo")){
+			object.addProperty("zaxisname", "altitude");
+			object.addProperty("xaxisname", "easting");
+			object.addProperty("yaxisname", "northing");
+			object.addProperty("allowedEPSG", "3857,21781");
+			object.addProperty("istsosepsg", "4326");
+		}else if(section.equals("getobservation")){
+			object.addProperty("maxgoperiod", "87600");
+			object.addProperty("aggregatenodata", "-999.9");
+			object.addProperty("aggregatenodataqi", "-100");
+			object.addProperty("defaultqi", "100");
+			object.addProperty("correct_qi", "110");
+			object.addProperty("stat_qi", "201");
+			object.addProperty("transactional_log", "False");
+		}else if(section.equals("identification")){
+			object.addProperty("title", "Synthetic " + service);
+			object.addProperty("abstract", "istSOS stub service");
+			object.addProperty("keywords", "stub,synthetic");
+			object.addProperty("fees", "NONE");
+			object.addProperty("accessconstrains", "NONE");
+			object.addProperty("authority", "x-istsos");
+			object.addProperty("urnversion", "1.0");
+		}else if(section.equals("mqtt")){
+			for(String key : new String[]{"broker_url", "broker_port", "broker_topic", "broker_user", "broker_password"}){
+				object.addProperty(key, "");
+			}
+		}else if(section.equals("provider")){
+			object.addProperty("providername", "istSOS stub");
+			object.addProperty("providersite", "http://127.0.0.1/");
+			object.addProperty("contactname", "stub");
+			object.addProperty("contactposition", "");
+			object.addProperty("contactvoice", "");
+			object.addProperty("contactfax", "");
+			object.addProperty("contactemail", "stub@localhost");
+			object.addProperty("contactdeliverypoint", "");
+			object.addProperty("contactcity", "Lugano");
+			object.addProperty("contactadminarea", "Ticino");
+			object.addProperty("contactpostalcode", "6900");
+			object.addProperty("contactcountry", "Switzerland");
+		}else if(section.equals("serviceurl")){
+			object.addProperty("url", getUrl() + service);
+		}else{
+			return null;
+		}
+		return object;
+	}
+
+	// offerings holding every procedure, and the even ones
+	private JsonArray offerings() {
+		JsonArray list = new JsonArray();
+		String[][] offerings = {{"temporary", "temporary offering to hold self-registered procedures"},
+				{"even", "procedures with an even index"}};
+		for(int i = 0; i < offerings.length; i++){
+			JsonObject object = new JsonObject();
+			object.addProperty("id", String.valueOf(i + 1));
+			object.addProperty("name", offerings[i][0]);
+			object.addProperty("description", offerings[i][1]);
+			object.addProperty("expiration", "");
+			object.addProperty("active", true);
+			object.addProperty("procedures", i == 0 ? procedures : (procedures + 1) / 2);
+			list.add(object);
+		}
+		return list;
+	}
+
+	private JsonArray members(String offering, boolean members) {
+		JsonArray list = new JsonArray();
+		for(int i = 0; i < procedures; i++){
+			boolean member = offering.equals("temporary") || (offering.equals("even") && i % 2 == 0);
+			if(member == members){
+				JsonObject object = new JsonObject();
+				object.addProperty("name", procedureName(i));
+				list.add(object);
+			}
+		}
+		return list;
+	}
+
+	private JsonArray observedProperties() {
+		JsonArray list = new JsonArray();
+		for(String[] property : PROPERTIES){
+			JsonObject object = new JsonObject();
+			object.addProperty("definition", property[0]);
+			object.addProperty("name", property[1]);
+			object.addProperty("description", "");
+			object.addProperty("uom", property[2]);
+			list.add(object);
+		}
+		return list;
+	}
+
+	private JsonArray unitsOfMeasure() {
+		JsonArray list = new JsonArray();
+		for(int p = 0; p < PROPERTIES.length; p++){
+			JsonObject object = new JsonObject();
+			object.addProperty("name", PROPERTIES[p][2]);
+			object.addProperty("description", "");
+			JsonArray names = new JsonArray();
+			for(int i = p; i < procedures; i += PROPERTIES.length){
+				names.add(procedureName(i));
+			}
+			object.add("procedures", names);
+			list.add(object);
+		}
+		return list;
+	}
+
+	private JsonArray dataQualities() {
+		JsonArray list = new JsonArray();
+		Object[][] qualities = {{100, "raw", "the format is correct"}, {101, "aggregation", "the aggregation is correct"},
+				{102, "timely", "the value is received in time"}, {110, "corrected", "the value has been manually corrected"}};
+		for(Object[] quality : qualities){
+			JsonObject object = new JsonObject();
+			object.addProperty("code", (Integer) quality[0]);
+			object.addProperty("name", (String) quality[1]);
+			object.addProperty("description", (String) quality[2]);
+			list.add(object);
+		}
+		return list;
+	}
+
+	private JsonArray procedureList() {
+		JsonArray list = new JsonArray();
+		for(int i = 0; i < procedures; i++){
+			String[] property = property(i);
+			JsonObject object = new JsonObject();
+			// the client keys procedures by system, istSOS lists them by name
+			object.addProperty("name", procedureName(i));
+			object.addProperty("system", procedureName(i));
+			object.addProperty("description", "synthetic procedure " + i);
+			object.addProperty("sensortype", "insitu-fixed-point");
+			JsonArray offerings = new JsonArray();
+			offerings.add("temporary");
+			if(i % 2 == 0){
+				offerings.add("even");
+			}
+			object.add("offerings", offerings);
+			JsonArray observed = new JsonArray();
+			JsonObject observedProperty = new JsonObject();
+			observedProperty.addProperty("name", property[1]);
+			observedProperty.addProperty("def", property[0]);
+			observedProperty.addProperty("uom", property[2]);
+			observed.add(observedProperty);
+			object.add("observedproperties", observed);
+			list.add(object);
+		}
+		return list;
+	}
+
+	private JsonObject describe(int index) {
+		String[] property = property(index);
+		JsonObject object = new JsonObject();
+		object.addProperty("system_id", procedureName(index));
+		object.addProperty("system", procedureName(index));
+		object.addProperty("description", "synthetic procedure " + index);
+		object.addProperty("keywords", "stub");
+		JsonArray classification = new JsonArray();
+		JsonObject systemType = new JsonObject();
+		systemType.addProperty("name", "System Type");
+		systemType.addProperty("definition", SYSTEM_TYPE);
+		systemType.addProperty("value", "insitu-fixed-point");
+		classification.add(systemType);
+		object.add("classification", classification);
+		object.add("location", feature(index));
+		JsonArray outputs = new JsonArray();
+		outputs.add(output("Time", TIME, "iso8601"));
+		outputs.add(output(property[1], property[0], property[2]));
+		object.add("outputs", outputs);
+		return object;
+	}
+
+	private JsonObject output(String name, String definition, String uom) {
+		JsonObject object = new JsonObject();
+		object.addProperty("name", name);
+		object.addProperty("definition", definition);
+		object.addProperty("uom", uom);
+		return object;
+	}
+
+	private JsonObject geoJson() {
+		JsonObject collection = new JsonObject();
+		collection.addProperty("type", "FeatureCollection");
+		collection.add("crs", crs());
+		JsonArray features = new JsonArray();
+		for(int i = 0; i < procedures; i++){
+			features.add(feature(i));
+		}
+		collection.add("features", features);
+		return collection;
+	}
+
+	// procedures laid out on a grid around Lugano
+	private JsonObject feature(int index) {
+		JsonObject feature = new JsonObject();
+		feature.addProperty("type", "Feature");
+		JsonObject geometry = new JsonObject();
+		geometry.addProperty("type", "Point");
+		JsonArray coordinates = new JsonArray();
+		coordinates.add(8.95 + (index % 20) * 0.01);
+		coordinates.add(46.0 + (index / 20) * 0.01);
+		coordinates.add(273 + index % 100);
+		geometry.add("coordinates", coordinates);
+		feature.add("geometry", geometry);
+		feature.add("crs", crs());
+		JsonObject properties = new JsonObject();
+		properties.addProperty("name", procedureName(index));
+		feature.add("properties", properties);
+		return feature;
+	}
+
+	private JsonObject crs() {
+		JsonObject crs = new JsonObject();
+		crs.addProperty("type", "name");
+		JsonObject properties = new JsonObject();
+		properties.addProperty("name", "4326");
+		crs.add("properties", properties);
+		return crs;
+	}
+
+	// .../getobservation/offerings/{o}/procedures/{p}/observedproperties/{d}/eventtime/{begin}/{end}
+	private Body observations(List<String> rest) {
+		if(rest.size() != 11){
+			return null;
+		}
+		final List<Integer> names = new ArrayList<Integer>();
+		for(String name : rest.get(5).split(",")){
+			if(!name.isEmpty()){
+				int index = procedureIndex(name);
+				if(index < 0){
+					return null;
+				}
+				names.add(index);
+			}
+		}
+		final List<String> definitions = Arrays.asList(rest.get(7).split(","));
+		final long begin = parseTime(rest.get(9));
+		final long end = parseTime(rest.get(10));
+		final long step = observationStep;
+		final int limit = maxRows;
+		// a single procedure is decoded as one observation, several as a list
+		final boolean single = names.size() == 1;
+
+		return new Body() {
+			@Override
+			public void write(JsonWriter out) throws IOException {
+				if(!single){
+					out.beginArray();
+				}
+				for(int index : names){
+					writeObservation(out, index, definitions, begin, end, step, limit);
+				}
+				if(!single){
+					out.endArray();
+				}
+			}
+		};
+	}
+
+	private void writeObservation(JsonWriter out, int index, List<String> definitions,
+			long begin, long end, long step, int limit) throws IOException {
+
+		String[] property = property(index);
+		boolean observed = definitions.contains(property[0]);
+		DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		out.beginObject();
+		out.name("name").value(procedureName(index));
+		out.name("procedure").value("urn:ogc:def:procedure:x-istsos:1.0:" + procedureName(index));
+		out.name("result").beginObject();
+		out.name("DataArray").beginObject();
+		out.name("field").beginArray();
+		writeField(out, "Time", TIME, "iso8601");
+		if(observed){
+			writeField(out, property[1], property[0], property[2]);
+			writeField(out, property[1] + QUALITY, property[0] + QUALITY, "-");
+		}
+		out.endArray();
+		out.name("values").beginArray();
+		if(observed){
+			long first = ((begin + step - 1) / step) * step;
+			int rows = 0;
+			for(long time = first; time <= end && rows < limit; time += step, rows++){
+				out.beginArray();
+				out.value(formatter.format(new Date(time)));
+				out.value(String.valueOf(value(index, time)));
+				out.value("100");
+				out.endArray();
+			}
+		}
+		out.endArray();
+		out.endObject();
+		out.endObject();
+		out.endObject();
+	}
+
+	private static void writeField(JsonWriter out, String name, String definition, String uom) throws IOException {
+		out.beginObject();
+		out.name("name").value(name);
+		out.name("definition").value(definition);
+		out.name("uom").value(uom);
+		out.endObject();
+	}
+
+	private static long parseTime(String value) {
+		for(String pattern : new String[]{"yyyy-MM-dd'T'HH:mm:ssXX", "yyyy-MM-dd'T'HH:mm:ssXXX"}){
+			try {
+				return new SimpleDateFormat(pattern).parse(value).getTime();
+			} catch (ParseException e) {
+				continue;
+			}
+		}
+		throw new IllegalArgumentException("Invalid event time " + value);
+	}
+
+	private void send(HttpExchange exchange, Body body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		// chunked, so that large observation sets are streamed
+		exchange.sendResponseHeaders(200, 0);
+		JsonWriter out = new JsonWriter(new OutputStreamWriter(
+				new Throttled(exchange.getResponseBody(), bandwidth), StandardCharsets.UTF_8));
+		out.beginObject();
+		out.name("success").value(true);
+		out.name("message").value("");
+		out.name("data");
+		body.write(out);
+		if(padding > 0){
+			char[] chars = new char[padding];
+			Arrays.fill(chars, 'x');
+			out.name("padding").value(new String(chars));
+		}
+		out.endObject();
+		out.close();
+	}
+
+	private void sendHtml(HttpExchange exchange, int status, String message) throws IOException {
+		byte[] bytes = ("<html><body><h1>" + status + " " + message + "</h1></body></html>")
+				.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/html");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream out = new Throttled(exchange.getResponseBody(), bandwidth);
+		out.write(bytes);
+		out.close();
+	}
+
+	private static void drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[8192];
+		while(in.read(buffer) >= 0){
+			continue;
+		}
+		in.close();
+	}
+
+	/**
+	 * Counts the bytes written and paces them to the bandwidth.
+	 */
+	private class Throttled extends FilterOutputStream {
+
+		private static final int CHUNK = 4096;
+
+		private final long bytesPerSecond;
+		private final long started = System.nanoTime();
+		private long written = 0;
+
+		Throttled(OutputStream out, long bytesPerSecond) {
+			super(out);
+			this.bytesPerSecond = bytesPerSecond;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while(len > 0){
+				int chunk = Math.min(len, CHUNK);
+				out.write(b, off, chunk);
+				off += chunk;
+				len -= chunk;
+				written += chunk;
+				bytesSent.addAndGet(chunk);
+				pace();
+			}
+		}
+
+		private void pace() throws IOException {
+			if(bytesPerSecond <= 0){
+				return;
+			}
+			long due = started + TimeUnit.SECONDS.toNanos(written) / bytesPerSecond;
+			long wait = due - System.nanoTime();
+			if(wait > 0){
+				out.flush();
+				try {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while throttling", e);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.istsos.client.observation.SeriesSnapshot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the client against the in-process istSOS stub
+ */
+public class IstSOSStubServerTest {
+
+	private IstSOSStubServer stub;
+
+	private final LinkedBlockingQueue<EventObject> results = new LinkedBlockingQueue<EventObject>();
+	private final IstSOSListener listener = new IstSOSListener() {
+		@Override
+		public void onSuccess(EventObject event) {
+			results.add(event);
+		}
+
+		@Override
+		public void onError(EventObject event) {
+			results.add(event);
+		}
+	};
+
+	@Before
+	public void setUp() throws IOException {
+		stub = new IstSOSStubServer().setServices(3).setProcedures(25);
+	}
+
+	@After
+	public void tearDown() {
+		stub.stop();
+	}
+
+	@Test
+	public void testBootstrapCatalog() throws Exception {
+		Server server = new Server("stub-catalog", stub.getUrl());
+		stub.setLatency(5, 20);
+
+		Bootstrap.Report report = new Bootstrap(Arrays.asList(server)).start().get(30, TimeUnit.SECONDS);
+
+		assertTrue(report.getFailures().toString(), report.isComplete());
+		assertEquals(3, server.getServices().size());
+		assertEquals(1 + 3 * 6, stub.getRequests());
+		Service service = server.getService("service1");
+		assertEquals(25, service.getProcedures().size());
+		assertNotNull(service.getProcedure("P0024"));
+		assertEquals(IstSOSStubServer.PROPERTIES.length, service.getObservedProperties().size());
+		assertEquals(2, service.getOfferings().size());
+	}
+
+	@Test
+	public void testGeneratedObservations() throws Exception {
+		Server server = new Server("stub-observations", stub.getUrl());
+		Service service = new Service(server);
+		service.setName("service0");
+		Procedure procedure = new Procedure();
+		procedure.setSystem("P0004");
+		Offering offering = new Offering();
+		offering.setName("temporary");
+		ObservedProperty property = new ObservedProperty();
+		String definition = IstSOSStubServer.property(4)[0];
+		property.setDefinition(definition);
+
+		// one day every ten minutes, both ends included
+		long begin = 1470009600000L;
+		long end = begin + 86400000L;
+		service.getObervation(offering, procedure, property, new Date(begin), new Date(end), listener);
+		EventObject event = results.poll(10, TimeUnit.SECONDS);
+		assertEquals(Event.OBSERVATION_LOADED, event.getEvent());
+
+		SeriesSnapshot snapshot = service.getObservationStore().snapshot("P0004", definition);
+		assertEquals(145, snapshot.size());
+		assertEquals(begin, snapshot.getTime(0));
+		assertEquals(IstSOSStubServer.value(4, begin + 600000L), snapshot.getValue(1), 0);
+		assertEquals(100, snapshot.getQuality(1));
+	}
+
+	@Test
+	public void testInjectedFailuresAndBandwidth() throws Exception {
+		Server server = new Server("stub-faults", stub.getUrl());
+
+		stub.setErrorRate(1);
+		server.loadServices(listener);
+		EventObject event = results.poll(10, TimeUnit.SECONDS);
+		assertSame(Event.REQUEST_FAILED, event.getEvent());
+		assertEquals(500, ((RequestException) event.getObject()).getStatusCode());
+		assertEquals(1, stub.getErrors());
+
+		// 40 KB of padding at 200 KB/s takes at least 200 ms
+		stub.setErrorRate(0).setPadding(40000).setBandwidth(200000);
+		long started = System.nanoTime();
+		server.loadServices(listener);
+		event = results.poll(10, TimeUnit.SECONDS);
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+		assertEquals(Event.SERVICE_LOADED, event.getEvent());
+		// listeners cast the payload to ArrayList
+		assertTrue(event.getObject() instanceof ArrayList);
+		assertEquals(3, server.getServices().size());
+		assertTrue(stub.getBytesSent() > 40000);
+		assertTrue("elapsed " + elapsed, elapsed >= 180);
+	}
+
+}
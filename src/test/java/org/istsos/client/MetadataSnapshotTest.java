@@ -0,0 +1,225 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.gson.JsonParser;
+
+/**
+ * Tests for MetadataSnapshot
+ */
+public class MetadataSnapshotTest {
+
+	/**
+	 * Service keeping the callbacks of its reloads until answered; the
+	 * procedures reload changes the catalog, data qualities fail.
+	 */
+	private static class PendingService extends Service {
+
+		final List<IstSOSListener> pending;
+
+		PendingService(Server server, String name, List<IstSOSListener> pending) {
+			super(server);
+			setName(name);
+			this.pending = pending;
+		}
+
+		@Override
+		public void syncProcedures(final IstSOSListener callback) {
+			pending.add(new IstSOSListener() {
+				@Override
+				public void onSuccess(EventObject event) {
+					Procedure procedure = new Procedure();
+					procedure.setSystem("BELLINZONA");
+					getCatalog().syncProcedures(Collections.singletonList(procedure));
+					callback.onSuccess(event);
+				}
+
+				@Override
+				public void onError(EventObject event) {
+					callback.onError(event);
+				}
+			});
+		}
+
+		@Override
+		public void syncOfferings(IstSOSListener callback) {
+			pending.add(callback);
+		}
+
+		@Override
+		public void loadObservedProperties(IstSOSListener callback) {
+			pending.add(callback);
+		}
+
+		@Override
+		public void loadUnitsOfMeasure(IstSOSListener callback) {
+			pending.add(callback);
+		}
+
+		@Override
+		public void loadDataQualities(final IstSOSListener callback) {
+			pending.add(new IstSOSListener() {
+				@Override
+				public void onSuccess(EventObject event) {
+					callback.onError(new EventObject(Event.REQUEST_FAILED, new RequestException(500, "Error")));
+				}
+
+				@Override
+				public void onError(EventObject event) {
+					callback.onError(event);
+				}
+			});
+		}
+
+		@Override
+		public void loadVirtualProcedures(IstSOSListener callback) {
+			pending.add(callback);
+		}
+	}
+
+	/**
+	 * Server listing its local services.
+	 */
+	private static class LocalServer extends Server {
+
+		final List<Service> local = new ArrayList<Service>();
+
+		LocalServer(String name) {
+			super(name, "http://" + name + "/istsos/");
+		}
+
+		@Override
+		public void loadServices(IstSOSListener callback) {
+			setServices(local);
+			callback.onSuccess(new EventObject(Event.SERVICE_LOADED, getServices()));
+		}
+	}
+
+	private Server createServer(String name) {
+
+		Server server = new Server(name, "http://localhost/istsos/");
+
+		Service service = new Service(server);
+		service.setName("demo");
+		service.setConfigPath("/services/demo");
+
+		List<Procedure> procedures = new ArrayList<Procedure>();
+		procedures.add(Procedure.fromJson(new JsonParser().parse("{\"system\": \"LOCARNO\","
+				+ "\"offerings\": [\"temporary\"],"
+				+ "\"samplingTime\": {\"beginposition\": \"2016-08-01T00:00:00+0200\"}}").getAsJsonObject()));
+		service.getCatalog().replaceProcedures(procedures);
+
+		DataQuality dataQuality = new DataQuality();
+		dataQuality.setDataQualityCode(100);
+		dataQuality.setDataQualityName("raw");
+		service.getCatalog().replaceDataQualities(Collections.singletonList(dataQuality));
+
+		List<Service> services = new ArrayList<Service>();
+		services.add(service);
+		server.setServices(services);
+
+		return server;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+
+		Server original = createServer("snapshot-source");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MetadataSnapshot.write(out, Collections.singletonList(original));
+
+		List<Server> restored = MetadataSnapshot.read(new ByteArrayInputStream(out.toByteArray()), IstSOS.getInstance());
+
+		assertEquals(1, restored.size());
+		Server server = restored.get(0);
+		assertEquals("snapshot-source", server.getServerName());
+		assertNotSame(original, server);
+
+		Service service = server.getService("demo");
+		assertEquals("/services/demo", service.getConfigPath());
+		assertSame(server, service.getServer());
+		assertEquals("LOCARNO", service.getProcedure("LOCARNO").getSystem());
+		assertEquals("raw", service.getDataQuality(100).getDataQualityName());
+
+		CatalogSnapshot expected = original.getService("demo").getCatalog().getSnapshot();
+		CatalogSnapshot actual = service.getCatalog().getSnapshot();
+		for(Catalog.Section section : Catalog.Section.values()){
+			assertEquals(expected.getFingerprint(section), actual.getFingerprint(section));
+		}
+	}
+
+	@Test
+	public void testReuseRegisteredServer() throws IOException {
+
+		Server registered = IstSOS.getInstance().initServer("snapshot-registered", "http://localhost/istsos/",
+				"admin", "secret");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MetadataSnapshot.write(out, Collections.singletonList(createServer("snapshot-registered")));
+		List<Server> restored = MetadataSnapshot.read(new ByteArrayInputStream(out.toByteArray()), IstSOS.getInstance());
+
+		assertSame(registered, restored.get(0));
+		assertEquals("secret", registered.getPassword());
+		assertEquals(1, registered.getServices().size());
+	}
+
+	@Test(expected = IOException.class)
+	public void testRejectInvalidData() throws IOException {
+		MetadataSnapshot.read(new ByteArrayInputStream(new byte[]{1, 2, 3, 4}), IstSOS.getInstance());
+	}
+
+	@Test
+	public void testRevalidate() {
+
+		List<IstSOSListener> pending = new ArrayList<IstSOSListener>();
+		LocalServer server = new LocalServer("revalidated");
+		PendingService demo = new PendingService(server, "demo", pending);
+		server.setServices(Collections.<Service>singletonList(demo));
+		server.local.addAll(Arrays.asList((Service) demo, new PendingService(server, "extra", pending)));
+
+		final List<EventObject> revalidated = new ArrayList<EventObject>();
+		final List<EventObject> errors = new ArrayList<EventObject>();
+		MetadataSnapshot.revalidate(Collections.<Server>singletonList(server), new IstSOSListener() {
+			@Override
+			public void onSuccess(EventObject event) {
+				revalidated.add(event);
+			}
+
+			@Override
+			public void onError(EventObject event) {
+				errors.add(event);
+			}
+		});
+
+		// six reloads per service, the result waits for the last one
+		assertEquals(12, pending.size());
+		for(int i = 0; i < pending.size(); i++){
+			assertTrue(revalidated.isEmpty());
+			pending.get(i).onSuccess(new EventObject(Event.REQUEST, new ArrayList<Object>()));
+		}
+		assertEquals(1, revalidated.size());
+		assertEquals(2, errors.size());
+
+		MetadataSnapshot.Changes changes = (MetadataSnapshot.Changes) revalidated.get(0).getObject();
+		assertEquals(Event.SNAPSHOT_REVALIDATED, revalidated.get(0).getEvent());
+		assertEquals(Collections.singletonList("revalidated/extra"), changes.getAddedServices());
+		assertTrue(changes.getRemovedServices().isEmpty());
+		assertEquals(EnumSet.of(Catalog.Section.PROCEDURES), changes.getChangedSections().get("revalidated/demo"));
+		assertEquals(EnumSet.of(Catalog.Section.PROCEDURES), changes.getChangedSections().get("revalidated/extra"));
+	}
+
+}
@@ -0,0 +1,162 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.istsos.client.observation.SeriesKey;
+import org.istsos.client.observation.SeriesSnapshot;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for MqttObservationSubscriber against an embedded broker
+ */
+public class MqttObservationSubscriberTest {
+
+	private static final String RAIN = "urn:ogc:def:parameter:x-istsos:1.0:meteo:air:rainfall";
+	private static final String TIME = "urn:ogc:def:parameter:x-istsos:1.0:time:iso8601";
+
+	private MqttTestBroker broker;
+	private Service service;
+	private MqttObservationSubscriber subscriber;
+	private final LinkedBlockingQueue<EventObject> events = new LinkedBlockingQueue<EventObject>();
+
+	@Before
+	public void setUp() throws IOException, InterruptedException {
+		broker = new MqttTestBroker();
+
+		service = new Service();
+		service.setName("demo");
+
+		MqttPublisher config = new MqttPublisher();
+		config.setBrokerUrl("127.0.0.1");
+		config.setBrokerPort(String.valueOf(broker.getPort()));
+		config.setBrokerTopic("istsos/demo/");
+
+		subscriber = new MqttObservationSubscriber(service, config);
+		subscriber.setKeepAlive(2);
+		subscriber.setListener(new IstSOSListener() {
+			@Override
+			public void onSuccess(EventObject event) {
+				events.add(event);
+			}
+
+			@Override
+			public void onError(EventObject event) {
+				events.add(event);
+			}
+		});
+		assertEquals("istsos/demo/#", subscriber.getTopicFilter());
+		subscriber.start();
+		assertTrue(broker.awaitSubscriber(5000));
+	}
+
+	@After
+	public void tearDown() {
+		subscriber.stop();
+		broker.close();
+	}
+
+	@Test
+	public void testCsvWithHeader() throws IOException, InterruptedException {
+		broker.publish("istsos/demo/LOCARNO", TIME + "," + RAIN + "\n"
+				+ "2016-08-01T00:00:00Z,1.5\n"
+				+ "2016-08-01T00:10:00Z,2.5\n");
+
+		EventObject event = events.poll(5, TimeUnit.SECONDS);
+		assertNotNull(event);
+		assertEquals(Event.OBSERVATION_RECEIVED, event.getEvent());
+
+		SeriesSnapshot snapshot = service.getObservationStore().snapshot("LOCARNO", RAIN);
+		assertEquals(2, snapshot.size());
+		assertEquals(2.5, snapshot.getValue(1), 0);
+	}
+
+	@Test
+	public void testJsonDataArray() throws IOException, InterruptedException {
+		broker.publish("istsos/demo/ignored", "{\"name\": \"BELLINZONA\", \"DataArray\": {"
+				+ "\"field\": [{\"name\": \"Time\", \"definition\": \"" + TIME + "\"},"
+				+ "{\"name\": \"rainfall\", \"definition\": \"" + RAIN + "\", \"uom\": \"mm\"}],"
+				+ "\"values\": [[\"2016-08-01T00:00:00Z\", 0.2]]}}");
+
+		EventObject event = events.poll(5, TimeUnit.SECONDS);
+		assertNotNull(event);
+		assertEquals(Event.OBSERVATION_RECEIVED, event.getEvent());
+
+		SeriesSnapshot snapshot = service.getObservationStore().snapshot("BELLINZONA", RAIN);
+		assertEquals(1, snapshot.size());
+		assertEquals(0.2, snapshot.getValue(0), 1e-9);
+		assertEquals("mm", service.getObservationStore().getUnit(new SeriesKey("BELLINZONA", RAIN)));
+	}
+
+	@Test
+	public void testRejectedPayloadAndReconnect() throws IOException, InterruptedException {
+		broker.publish("istsos/demo/LOCARNO", "{not json");
+		EventObject event = events.poll(5, TimeUnit.SECONDS);
+		assertNotNull(event);
+		assertEquals(Event.OBSERVATION_REJECTED, event.getEvent());
+
+		broker.disconnectAll();
+		long deadline = System.currentTimeMillis() + 5000;
+		while(broker.getConnections() < 2 && System.currentTimeMillis() < deadline){
+			Thread.sleep(10);
+		}
+		assertTrue(broker.awaitSubscriber(5000));
+
+		events.clear();
+		broker.publish("istsos/demo/LOCARNO", "2016-08-01T00:00:00Z,1\n");
+		event = events.poll(5, TimeUnit.SECONDS);
+		assertNotNull(event);
+		assertEquals(Event.OBSERVATION_RECEIVED, event.getEvent());
+		assertEquals(1, service.getObservationStore().snapshot("LOCARNO", "column:1").size());
+	}
+
+	@Test
+	public void testThrowingListener() throws IOException, InterruptedException {
+		subscriber.setListener(new IstSOSListener() {
+
+			private boolean thrown = false;
+
+			@Override
+			public void onSuccess(EventObject event) {
+				if(!thrown){
+					thrown = true;
+					throw new IllegalStateException("listener failure");
+				}
+				events.add(event);
+			}
+
+			@Override
+			public void onError(EventObject event) {
+				events.add(event);
+			}
+		});
+
+		broker.publish("istsos/demo/LOCARNO", "2016-08-01T00:00:00Z,1\n");
+		EventObject event = events.poll(5, TimeUnit.SECONDS);
+		assertNotNull(event);
+		assertEquals(Event.OBSERVATION_REJECTED, event.getEvent());
+
+		// the subscriber keeps its connection and receives the next message
+		broker.publish("istsos/demo/LOCARNO", "2016-08-01T00:10:00Z,2\n");
+		event = events.poll(5, TimeUnit.SECONDS);
+		assertNotNull(event);
+		assertEquals(Event.OBSERVATION_RECEIVED, event.getEvent());
+		assertTrue(subscriber.isConnected());
+		assertEquals(1, broker.getConnections());
+		assertEquals(2, service.getObservationStore().snapshot("LOCARNO", "column:1").size());
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while(broker.getAcknowledged() < 2 && System.currentTimeMillis() < deadline){
+			Thread.sleep(5);
+		}
+		assertEquals(2, broker.getAcknowledged());
+	}
+
+}
@@ -0,0 +1,198 @@
+package org.istsos.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal in-process MQTT 3.1.1 broker for tests: accepts any client, keeps
+ * subscriptions and forwards published messages at QoS 1.
+ */
+public class MqttTestBroker {
+
+	private final ServerSocket serverSocket;
+	private final List<Client> clients = new CopyOnWriteArrayList<Client>();
+	private final AtomicInteger packetIds = new AtomicInteger();
+	private final AtomicInteger connections = new AtomicInteger();
+	private final AtomicInteger acknowledged = new AtomicInteger();
+	private volatile boolean running = true;
+
+	public MqttTestBroker() throws IOException {
+		serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				accept();
+			}
+		}, "mqtt-test-broker");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	public int getConnections() {
+		return connections.get();
+	}
+	/**
+	 *
+	 * @return number of PUBACK packets received
+	 */
+	public int getAcknowledged() {
+		return acknowledged.get();
+	}
+	/**
+	 * Wait until a client subscribed.
+	 * @param timeout milliseconds
+	 * @return true if a client subscribed in time
+	 */
+	public boolean awaitSubscriber(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while(System.currentTimeMillis() < deadline){
+			for(Client client : clients){
+				if(!client.filters.isEmpty()){
+					return true;
+				}
+			}
+			Thread.sleep(5);
+		}
+		return false;
+	}
+	/**
+	 * Deliver a message to the matching subscribers.
+	 */
+	public void publish(String topic, String payload) throws IOException {
+		for(Client client : clients){
+			for(String filter : client.filters){
+				if(matches(filter, topic)){
+					client.send(topic, payload.getBytes(StandardCharsets.UTF_8));
+					break;
+				}
+			}
+		}
+	}
+	/**
+	 * Drop every client connection.
+	 */
+	public void disconnectAll() {
+		for(Client client : clients){
+			client.close();
+		}
+	}
+
+	public void close() {
+		running = false;
+		disconnectAll();
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// closed
+		}
+	}
+
+	private void accept() {
+		while(running){
+			try {
+				final Client client = new Client(serverSocket.accept());
+				clients.add(client);
+				connections.incrementAndGet();
+				Thread reader = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						client.read();
+					}
+				}, "mqtt-test-client");
+				reader.setDaemon(true);
+				reader.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	static boolean matches(String filter, String topic) {
+		String[] f = filter.split("/", -1);
+		String[] t = topic.split("/", -1);
+		for(int i = 0; i < f.length; i++){
+			if(f[i].equals("#")){
+				return true;
+			}
+			if(i >= t.length || (!f[i].equals("+") && !f[i].equals(t[i]))){
+				return false;
+			}
+		}
+		return f.length == t.length;
+	}
+
+	private class Client {
+
+		private final Socket socket;
+		private final List<String> filters = new CopyOnWriteArrayList<String>();
+
+		Client(Socket socket) {
+			this.socket = socket;
+		}
+
+		void read() {
+			try {
+				DataInputStream in = new DataInputStream(socket.getInputStream());
+				OutputStream out = socket.getOutputStream();
+				while(true){
+					int[] header = MqttObservationSubscriber.readHeader(in);
+					byte[] body = MqttObservationSubscriber.readBody(in, header[1]);
+					switch (header[0] >> 4) {
+					case 1:
+						MqttObservationSubscriber.write(out, 2 << 4, new byte[]{0, 0});
+						break;
+					case 8:
+						int length = ((body[2] & 0xff) << 8) | (body[3] & 0xff);
+						filters.add(new String(body, 4, length, StandardCharsets.UTF_8));
+						MqttObservationSubscriber.write(out, 9 << 4, new byte[]{body[0], body[1], 1});
+						break;
+					case 4:
+						acknowledged.incrementAndGet();
+						break;
+					case 12:
+						MqttObservationSubscriber.write(out, 13 << 4, new byte[0]);
+						break;
+					case 14:
+						close();
+						return;
+					default:
+						break;
+					}
+				}
+			} catch (IOException e) {
+				close();
+			}
+		}
+
+		void send(String topic, byte[] payload) throws IOException {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			MqttObservationSubscriber.writeString(body, topic);
+			MqttObservationSubscriber.writeShort(body, (packetIds.incrementAndGet() % 65535) + 1);
+			body.write(payload);
+			MqttObservationSubscriber.write(socket.getOutputStream(), (3 << 4) | 0x02, body.toByteArray());
+		}
+
+		void close() {
+			clients.remove(this);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// closed
+			}
+		}
+	}
+
+}
@@ -0,0 +1,230 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.istsos.client.observation.Field;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for ObservationBatchInserter
+ */
+public class ObservationBatchInserterTest {
+
+	private static final String TIME = "urn:ogc:def:parameter:x-istsos:1.0:time:iso8601";
+	private static final String HEIGHT = "urn:ogc:def:parameter:x-istsos:1.0:river:height";
+
+	private ObservationBatchInserter inserter;
+
+	/**
+	 * Service recording inserted observations. Answers at once when
+	 * automatic, otherwise keeps the callbacks until {@link #complete()}.
+	 */
+	private static class LocalService extends Service {
+
+		final boolean automatic;
+		final List<Observation> attempts = new CopyOnWriteArrayList<Observation>();
+		final List<Long> times = new CopyOnWriteArrayList<Long>();
+		final List<IstSOSListener> pending = new CopyOnWriteArrayList<IstSOSListener>();
+		// status codes to fail the next attempts with
+		final List<Integer> failures = new CopyOnWriteArrayList<Integer>();
+
+		LocalService(boolean automatic) {
+			this.automatic = automatic;
+		}
+
+		@Override
+		public void insertObservation(Procedure procedure, Observation observation, IstSOSListener callback) {
+			attempts.add(observation);
+			times.add(System.currentTimeMillis());
+			if(!failures.isEmpty()){
+				int status = failures.remove(0);
+				callback.onError(new EventObject(Event.REQUEST_FAILED, new RequestException(status, "Error")));
+				return;
+			}
+			if(automatic){
+				callback.onSuccess(new EventObject(Event.OBSERVATION_INSERTED, procedure));
+			}else{
+				pending.add(callback);
+			}
+		}
+
+		void complete() {
+			IstSOSListener callback = pending.remove(0);
+			callback.onSuccess(new EventObject(Event.OBSERVATION_INSERTED, null));
+		}
+
+		int rows(int attempt) {
+			return attempts.get(attempt).getResult().getDataArray().getValues().size();
+		}
+	}
+
+	private static class Collector implements IstSOSListener {
+
+		final List<EventObject> inserted = new CopyOnWriteArrayList<EventObject>();
+		final List<EventObject> dropped = new CopyOnWriteArrayList<EventObject>();
+
+		@Override
+		public void onSuccess(EventObject event) {
+			inserted.add(event);
+		}
+
+		@Override
+		public void onError(EventObject event) {
+			dropped.add(event);
+		}
+	}
+
+	private static Procedure createProcedure() {
+		ArrayList<ObservedProperty> outputs = new ArrayList<ObservedProperty>();
+		for(String definition : new String[]{TIME, HEIGHT}){
+			ObservedProperty output = new ObservedProperty();
+			output.setDefinition(definition);
+			outputs.add(output);
+		}
+		Procedure procedure = new Procedure();
+		procedure.setSystem("T_LUGANO");
+		procedure.setOutputs(outputs);
+		return procedure;
+	}
+
+	// fixed batch size and flush interval
+	private ObservationBatchInserter createInserter(Service service, int batchSize, long flushInterval) {
+		AimdController controller = new AimdController(batchSize, batchSize, batchSize,
+				flushInterval, flushInterval, flushInterval, 60000);
+		return new ObservationBatchInserter(service, createProcedure(), controller, null);
+	}
+
+	private static List<String[]> rows(int from, int to) {
+		List<String[]> rows = new ArrayList<String[]>();
+		for(int i = from; i < to; i++){
+			rows.add(new String[]{String.format("2016-08-01T10:%02d:00Z", i), String.valueOf(i)});
+		}
+		return rows;
+	}
+
+	private static void await(long timeout, Condition condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while(!condition.met() && System.currentTimeMillis() < deadline){
+			Thread.sleep(5);
+		}
+		assertTrue(condition.met());
+	}
+
+	private interface Condition {
+		boolean met();
+	}
+
+	@After
+	public void tearDown() {
+		if(inserter != null){
+			inserter.close();
+		}
+	}
+
+	@Test
+	public void testBatchBySize() throws InterruptedException {
+		final LocalService service = new LocalService(true);
+		inserter = createInserter(service, 5, 60000);
+
+		inserter.addAll(rows(0, 12));
+		await(2000, new Condition() {
+			@Override
+			public boolean met() {
+				return service.attempts.size() == 2;
+			}
+		});
+		assertEquals(5, service.rows(0));
+		assertEquals(5, service.rows(1));
+		assertEquals(2, inserter.getPendingRows());
+
+		// columns are named by the procedure outputs
+		List<Field> fields = service.attempts.get(0).getResult().getDataArray().getFields();
+		assertEquals(2, fields.size());
+		assertEquals(HEIGHT, fields.get(1).getDefinition());
+	}
+
+	@Test
+	public void testFlushByTime() throws InterruptedException {
+		final LocalService service = new LocalService(true);
+		inserter = createInserter(service, 100, 50);
+
+		inserter.addAll(rows(0, 3));
+		await(2000, new Condition() {
+			@Override
+			public boolean met() {
+				return service.attempts.size() == 1;
+			}
+		});
+		assertEquals(3, service.rows(0));
+		assertEquals(0, inserter.getPendingRows());
+	}
+
+	@Test
+	public void testRetryWithBackoff() throws InterruptedException {
+		final LocalService service = new LocalService(true);
+		inserter = createInserter(service, 5, 60000);
+		inserter.setRetryPolicy(3, 100, 1000);
+		Collector collector = new Collector();
+		inserter.setListener(collector);
+
+		service.failures.addAll(Arrays.asList(503, 500));
+		inserter.addAll(rows(0, 5));
+		await(3000, new Condition() {
+			@Override
+			public boolean met() {
+				return service.attempts.size() == 3;
+			}
+		});
+		// 100 ms before the first retry, 200 ms before the second
+		assertTrue(service.times.get(1) - service.times.get(0) >= 90);
+		assertTrue(service.times.get(2) - service.times.get(1) >= 190);
+		assertEquals(1, collector.inserted.size());
+		assertEquals(5L, inserter.getMetrics().get("insertedRows"));
+
+		// a client error is dropped at once
+		service.failures.add(400);
+		inserter.addAll(rows(5, 10));
+		await(2000, new Condition() {
+			@Override
+			public boolean met() {
+				return service.attempts.size() == 4;
+			}
+		});
+		assertEquals(1, collector.dropped.size());
+		assertEquals(5L, inserter.getMetrics().get("droppedRows"));
+	}
+
+	@Test
+	public void testCloseDrainsPendingRows() {
+		LocalService service = new LocalService(false);
+		inserter = createInserter(service, 5, 60000);
+		Collector collector = new Collector();
+		inserter.setListener(collector);
+
+		inserter.addAll(rows(0, 12));
+		assertEquals(1, service.attempts.size());
+		inserter.close();
+
+		// the batches queued behind the one in flight are sent in order
+		service.complete();
+		assertEquals(2, service.attempts.size());
+		service.failures.add(503);
+		service.complete();
+		assertEquals(3, service.attempts.size());
+		assertEquals(2, service.rows(2));
+
+		// failures are not retried once closed
+		assertEquals(1, collector.dropped.size());
+		assertEquals(0, inserter.getPendingRows());
+		assertEquals(10L, inserter.getMetrics().get("insertedRows"));
+		assertEquals(2L, inserter.getMetrics().get("droppedRows"));
+	}
+
+}
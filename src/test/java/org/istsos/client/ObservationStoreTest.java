@@ -0,0 +1,193 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Set;
+
+import org.istsos.client.observation.DataArray;
+import org.istsos.client.observation.Field;
+import org.istsos.client.observation.IsoTime;
+import org.istsos.client.observation.Result;
+import org.istsos.client.observation.SeriesBuffer;
+import org.istsos.client.observation.SeriesKey;
+import org.istsos.client.observation.SeriesSnapshot;
+import org.junit.Test;
+
+/**
+ * Tests for ObservationStore, SeriesBuffer and IsoTime
+ */
+public class ObservationStoreTest {
+
+	private static final String RAIN = "urn:ogc:def:parameter:x-istsos:1.0:meteo:air:rainfall";
+
+	private Observation createObservation(int from, int to) {
+
+		ArrayList<Field> fields = new ArrayList<Field>();
+		fields.add(new Field("Time", "urn:ogc:def:parameter:x-istsos:1.0:time:iso8601", "iso8601"));
+		fields.add(new Field("rainfall", RAIN, "mm"));
+		fields.add(new Field("rainfall:qualityIndex", RAIN + ":qualityIndex", "-"));
+
+		ArrayList<String[]> values = new ArrayList<String[]>();
+		for(int i = from; i < to; i++){
+			values.add(new String[]{String.format("2016-08-01T%02d:00:00Z", i), String.valueOf(i), "100"});
+		}
+
+		DataArray dataArray = new DataArray();
+		dataArray.setFields(fields);
+		dataArray.setValues(values);
+		Result result = new Result();
+		result.setDataArray(dataArray);
+
+		Observation observation = new Observation();
+		observation.setName("LOCARNO");
+		observation.setResult(result);
+		return observation;
+	}
+
+	@Test
+	public void testAppendOverlappingPolls() {
+
+		ObservationStore store = new ObservationStore(100, 0);
+
+		Set<SeriesKey> changed = store.append(createObservation(0, 10));
+		assertEquals(1, changed.size());
+
+		store.append(createObservation(5, 15));
+
+		SeriesSnapshot snapshot = store.snapshot("LOCARNO", RAIN);
+		assertEquals(15, snapshot.size());
+		assertEquals(14.0, snapshot.getValue(14), 0);
+		assertEquals(100, snapshot.getQuality(0));
+
+		assertTrue(store.append(createObservation(5, 15)).isEmpty());
+	}
+
+	@Test
+	public void testNullRowsSkipped() {
+
+		ObservationStore store = new ObservationStore(100, 0);
+
+		Observation observation = createObservation(0, 3);
+		observation.getResult().getDataArray().getValues().add(0, null);
+		observation.getResult().getDataArray().getValues().add(2, null);
+		assertEquals(1, store.append(observation).size());
+		assertEquals(3, store.snapshot("LOCARNO", RAIN).size());
+
+		ArrayList<String[]> empty = new ArrayList<String[]>();
+		empty.add(null);
+		observation.getResult().getDataArray().setValues(empty);
+		assertTrue(store.append(observation).isEmpty());
+	}
+
+	@Test
+	public void testRingBufferBounds() {
+
+		ObservationStore store = new ObservationStore(8, 0);
+		store.append(createObservation(0, 20));
+
+		SeriesSnapshot snapshot = store.snapshot("LOCARNO", RAIN);
+		assertEquals(8, snapshot.size());
+		assertEquals(12.0, snapshot.getValue(0), 0);
+		assertEquals(8L * 20, store.getAllocatedBytes());
+		assertEquals(8, store.getRowCount());
+	}
+
+	@Test
+	public void testIsoTimeDayOfMonth() {
+		assertEquals(Long.MIN_VALUE, IsoTime.parseOrMin("2017-02-31T00:00:00Z"));
+		assertEquals(Long.MIN_VALUE, IsoTime.parseOrMin("2017-02-29T00:00:00Z"));
+		assertEquals(Long.MIN_VALUE, IsoTime.parseOrMin("1900-02-29T00:00:00Z"));
+		assertEquals(Long.MIN_VALUE, IsoTime.parseOrMin("2016-04-31T00:00:00Z"));
+		assertEquals(IsoTime.parse("2016-03-01T00:00:00Z") - 86400000L, IsoTime.parse("2016-02-29T00:00:00Z"));
+		assertEquals(IsoTime.parse("2001-01-01T00:00:00Z") - 86400000L, IsoTime.parse("2000-12-31T00:00:00Z"));
+		assertEquals(951782400000L, IsoTime.parse("2000-02-29T00:00:00Z"));
+	}
+
+	@Test
+	public void testRangeAndAge() {
+
+		SeriesBuffer buffer = new SeriesBuffer(100, 3600000);
+		long start = IsoTime.parse("2016-08-01T00:00:00Z");
+		for(int i = 0; i < 10; i++){
+			assertTrue(buffer.append(start + i * 3600000L, i, SeriesBuffer.NO_QUALITY));
+		}
+		assertFalse(buffer.append(start, 0, SeriesBuffer.NO_QUALITY));
+
+		SeriesSnapshot range = buffer.snapshot(start + 2 * 3600000L, start + 4 * 3600000L);
+		assertEquals(3, range.size());
+		assertEquals(2.0, range.getValue(0), 0);
+
+		assertEquals(8, buffer.evict(start + 9 * 3600000L));
+		assertEquals(2, buffer.size());
+	}
+
+	@Test
+	public void testAppendOutOfOrder() {
+
+		SeriesBuffer buffer = new SeriesBuffer(4, 0);
+		assertTrue(buffer.append(1000, 1, SeriesBuffer.NO_QUALITY));
+		assertTrue(buffer.append(3000, 3, SeriesBuffer.NO_QUALITY));
+		SeriesBuffer.WindowStamp stamp = buffer.getWindowStamp(3000, 3000);
+
+		// a late row is inserted in place
+		assertTrue(buffer.append(2000, 2, SeriesBuffer.NO_QUALITY));
+		// the same row again is not a change, a new value replaces it
+		assertFalse(buffer.append(2000, 2, SeriesBuffer.NO_QUALITY));
+		assertTrue(buffer.append(2000, 20, 100));
+		assertFalse(stamp.equals(buffer.getWindowStamp(3000, 3000)));
+
+		SeriesSnapshot snapshot = buffer.snapshot(Long.MIN_VALUE, Long.MAX_VALUE);
+		assertEquals(3, snapshot.size());
+		assertEquals(2000, snapshot.getTime(1));
+		assertEquals(20.0, snapshot.getValue(1), 0);
+		assertEquals(100, snapshot.getQuality(1));
+
+		// when full the oldest row is dropped, rows older than every row are rejected
+		assertTrue(buffer.append(4000, 4, SeriesBuffer.NO_QUALITY));
+		assertTrue(buffer.append(1500, 1.5, SeriesBuffer.NO_QUALITY));
+		assertFalse(buffer.append(500, 0.5, SeriesBuffer.NO_QUALITY));
+		snapshot = buffer.snapshot(Long.MIN_VALUE, Long.MAX_VALUE);
+		assertEquals(4, snapshot.size());
+		assertEquals(1500, snapshot.getTime(0));
+		assertEquals(2000, snapshot.getTime(1));
+		assertEquals(4000, snapshot.getTime(3));
+		assertEquals(buffer.getWindowStamp(Long.MIN_VALUE, Long.MAX_VALUE), snapshot.getWindowStamp());
+	}
+
+	@Test
+	public void testWindowStampTuple() {
+
+		// 62 rows from 1000 and 31 rows from 1001 gave the same hashed stamp
+		SeriesBuffer first = new SeriesBuffer(100, 0);
+		for(int i = 0; i < 62; i++){
+			first.append(1000 + i, i, SeriesBuffer.NO_QUALITY);
+		}
+		SeriesBuffer second = new SeriesBuffer(100, 0);
+		for(int i = 0; i < 31; i++){
+			second.append(1001 + i, i, SeriesBuffer.NO_QUALITY);
+		}
+		assertFalse(first.getWindowStamp(0, 5000).equals(second.getWindowStamp(0, 5000)));
+		assertEquals(first.getWindowStamp(0, 5000), first.snapshot(0, 5000).getWindowStamp());
+		assertEquals(first.getWindowStamp(3000, 5000), second.getWindowStamp(3000, 5000));
+	}
+
+	@Test
+	public void testSnapshotInTargetUnit() {
+
+		ObservationStore store = new ObservationStore(100, 0);
+		store.append(createObservation(0, 10));
+
+		SeriesKey key = new SeriesKey("LOCARNO", RAIN);
+		assertEquals("mm", store.getUnit(key));
+
+		SeriesSnapshot snapshot = store.snapshot(key, Long.MIN_VALUE, Long.MAX_VALUE, "m");
+		assertEquals(10, snapshot.size());
+		assertEquals(0.009, snapshot.getValue(9), 1e-12);
+		assertEquals(100, snapshot.getQuality(9));
+		assertEquals(9, store.snapshot("LOCARNO", RAIN).getValue(9), 0);
+	}
+
+}
@@ -0,0 +1,139 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.istsos.client.ObservationValidator.ValidationResult;
+import org.istsos.client.observation.DataArray;
+import org.istsos.client.observation.IsoTime;
+import org.istsos.client.observation.Result;
+import org.junit.Test;
+
+/**
+ * Tests for ObservationValidator
+ */
+public class ObservationValidatorTest {
+
+	private ObservedProperty output(String definition) {
+		ObservedProperty property = new ObservedProperty();
+		property.setDefinition(definition);
+		return property;
+	}
+
+	private Procedure createProcedure() {
+
+		ArrayList<ObservedProperty> outputs = new ArrayList<ObservedProperty>();
+		outputs.add(output("urn:ogc:def:parameter:x-istsos:1.0:time:iso8601"));
+		outputs.add(output("urn:ogc:def:parameter:x-istsos:1.0:river:height"));
+		outputs.add(output("urn:ogc:def:parameter:x-istsos:1.0:river:height:qualityIndex"));
+
+		Procedure procedure = new Procedure();
+		procedure.setSystem("T_LUGANO");
+		procedure.setOutputs(outputs);
+		procedure.setSamplingTime(new SamplingTime(null, new Date(0),
+				new Date(IsoTime.parse("2016-08-01T10:00:00+02:00"))));
+		return procedure;
+	}
+
+	private ObservationValidator createValidator() {
+
+		Procedure procedure = createProcedure();
+
+		DataQuality raw = new DataQuality();
+		raw.setDataQualityCode(100);
+		DataQuality checked = new DataQuality();
+		checked.setDataQualityCode(200);
+
+		return new ObservationValidator(procedure, Arrays.asList(raw, checked));
+	}
+
+	private void assertError(ObservationValidator.RowError error, int row, int column) {
+		assertEquals(row, error.getRow());
+		assertEquals(column, error.getColumn());
+	}
+
+	@Test
+	public void testValidRows() {
+
+		List<String[]> rows = new ArrayList<String[]>();
+		rows.add(new String[]{"2016-08-01T10:10:00+02:00", "1.25", "100"});
+		rows.add(new String[]{"2016-08-01T10:20:00+02:00", "-0.5", "200"});
+
+		ValidationResult result = createValidator().validate(rows, Long.MIN_VALUE);
+
+		assertTrue(result.isValid());
+		assertEquals(2, result.getValidRows().size());
+		assertEquals(IsoTime.parse("2016-08-01T08:20:00Z"), result.getLastTime());
+	}
+
+	@Test
+	public void testRowLevelErrors() {
+
+		List<String[]> rows = new ArrayList<String[]>();
+		rows.add(new String[]{"2016-08-01T10:10:00+02:00", "1.25", "100"});
+		rows.add(new String[]{"2016-08-01T10:20:00+02:00", "1.25"});
+		rows.add(new String[]{"2016-08-01T10:30:00+02:00", "abc", "100"});
+		rows.add(new String[]{"2016-08-01T10:40:00+02:00", "1.0", "999"});
+		rows.add(new String[]{"2016-08-01T10:05:00+02:00", "1.0", "100"});
+		rows.add(new String[]{"not a time", "1.0", "100"});
+		rows.add(new String[]{"2016-08-01T10:50:00+02:00", "1e2", "200"});
+
+		ValidationResult result = createValidator().validate(rows, IsoTime.parse("2016-08-01T10:00:00+02:00"));
+
+		assertFalse(result.isValid());
+		assertEquals(2, result.getValidRows().size());
+		assertTrue(result.isRowValid(0));
+		assertTrue(result.isRowValid(6));
+
+		List<ObservationValidator.RowError> errors = result.getErrors();
+		assertEquals(5, errors.size());
+		assertError(errors.get(0), 1, -1);
+		assertError(errors.get(1), 2, 1);
+		assertError(errors.get(2), 3, 2);
+		assertError(errors.get(3), 4, 0);
+		assertError(errors.get(4), 5, 0);
+	}
+
+	@Test
+	public void testInsertRejectsInvalidObservation() {
+
+		// nothing listens on this port: a request sent would fail asynchronously
+		Service service = new Service(new Server("validation", "http://127.0.0.1:9/istsos/"));
+		service.setName("demo");
+
+		ArrayList<String[]> values = new ArrayList<String[]>();
+		values.add(new String[]{"2016-08-01T10:10:00+02:00", "1.25", "100"});
+		values.add(new String[]{"2016-08-01T10:20:00+02:00", "high", "100"});
+		DataArray dataArray = new DataArray();
+		dataArray.setValues(values);
+		Result result = new Result();
+		result.setDataArray(dataArray);
+		Observation observation = new Observation();
+		observation.setResult(result);
+
+		final List<EventObject> errors = new ArrayList<EventObject>();
+		service.insertObservation(createProcedure(), observation, new IstSOSListener() {
+			@Override
+			public void onSuccess(EventObject event) {
+			}
+
+			@Override
+			public void onError(EventObject event) {
+				errors.add(event);
+			}
+		});
+
+		assertEquals(1, errors.size());
+		assertEquals(Event.OBSERVATION_REJECTED, errors.get(0).getEvent());
+		ValidationResult validation = (ValidationResult) errors.get(0).getObject();
+		assertFalse(validation.isValid());
+		assertError(validation.getErrors().get(0), 1, 1);
+	}
+
+}
@@ -0,0 +1,97 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.istsos.client.observation.DataArray;
+import org.istsos.client.observation.Field;
+import org.istsos.client.observation.Result;
+import org.junit.Test;
+
+import com.google.gson.GsonBuilder;
+
+/**
+ * Tests for ObservationWriter and the pooled buffers it writes into
+ */
+public class ObservationWriterTest {
+
+	private Observation createObservation(int rows) {
+
+		ArrayList<String[]> values = new ArrayList<String[]>();
+		for(int i = 0; i < rows; i++){
+			values.add(new String[]{"2016-08-01T10:" + (i % 60) + ":00+0200", String.valueOf(i * 0.5), "100"});
+		}
+
+		ArrayList<Field> fields = new ArrayList<Field>();
+		fields.add(new Field("Time", "urn:ogc:def:parameter:x-istsos:1.0:time:iso8601", "iso8601"));
+		fields.add(new Field("air-temperature", "urn:ogc:def:parameter:x-istsos:1.0:meteo:air:temperature", "\u00b0C"));
+		fields.add(new Field("air-temperature:qualityIndex", "urn:ogc:def:parameter:x-istsos:1.0:meteo:air:temperature:qualityIndex", "-"));
+
+		DataArray dataArray = new DataArray();
+		dataArray.setFields(fields);
+		dataArray.setValues(values);
+		Result result = new Result();
+		result.setDataArray(dataArray);
+
+		Observation observation = new Observation();
+		observation.setName("BELLINZONA");
+		observation.setProcedure("urn:ogc:def:procedure:x-istsos:1.0:BELLINZONA");
+		observation.setSamplingTime(new SamplingTime(null, new Date(0), new Date(3600000)));
+		observation.setResult(result);
+
+		return observation;
+	}
+
+	@Test
+	public void testSameJsonAsGson() throws IOException {
+
+		Observation observation = createObservation(10);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObservationWriter.write(observation, out);
+
+		String expected = new GsonBuilder().create().toJson(observation, Observation.class);
+		assertEquals(expected, out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testSameEscapingAsGson() throws IOException {
+
+		Observation observation = createObservation(2);
+		observation.setName("<LUGANO> & 'PARADISO'");
+		observation.getResult().getDataArray().getValues().add(
+				new String[]{"2016-08-01T11:00:00+0200", "a=b<c>&'d'", "100"});
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObservationWriter.write(observation, out);
+
+		String expected = new GsonBuilder().create().toJson(observation, Observation.class);
+		assertEquals(expected, out.toString("UTF-8"));
+	}
+
+	@Test
+	public void testPooledBuffersSpanChunks() throws IOException {
+
+		Observation observation = createObservation(20000);
+
+		PooledBufferOutputStream stream = ObservationWriter.toBuffers(observation);
+
+		byte[] bytes = new byte[(int) stream.size()];
+		int offset = 0;
+		for(ByteBuffer buffer : stream.getBuffers()){
+			int n = buffer.remaining();
+			buffer.get(bytes, offset, n);
+			offset += n;
+		}
+		stream.release();
+
+		String expected = new GsonBuilder().create().toJson(observation, Observation.class);
+		assertEquals(expected, new String(bytes, "UTF-8"));
+	}
+
+}
@@ -0,0 +1,86 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for OfferingMembership
+ */
+public class OfferingMembershipTest {
+
+	private Procedure createProcedure(String name, String... offerings) {
+		Procedure procedure = new Procedure();
+		procedure.setSystem(name);
+		procedure.setOfferings(new ArrayList<String>(Arrays.asList(offerings)));
+		return procedure;
+	}
+
+	private List<Procedure> createProcedures() {
+		List<Procedure> procedures = new ArrayList<Procedure>();
+		procedures.add(createProcedure("BELLINZONA", "temporary", "ticino"));
+		procedures.add(createProcedure("LOCARNO", "temporary", "ticino"));
+		procedures.add(createProcedure("GRABO", "temporary", "mountain"));
+		return procedures;
+	}
+
+	@Test
+	public void testSetQueries() {
+		OfferingMembership membership = new OfferingMembership();
+		membership.rebuild(createProcedures());
+
+		assertTrue(membership.contains("ticino", "LOCARNO"));
+		assertFalse(membership.contains("mountain", "LOCARNO"));
+		assertFalse(membership.contains("unknown", "LOCARNO"));
+
+		assertEquals(3, membership.union("ticino", "mountain").size());
+		assertEquals(Arrays.asList("BELLINZONA", "LOCARNO"),
+				membership.intersection("temporary", "ticino").getProcedureNames());
+		assertEquals(Collections.singletonList("GRABO"),
+				membership.difference("temporary", "ticino").getProcedureNames());
+		assertTrue(membership.intersection("ticino", "mountain").isEmpty());
+	}
+
+	@Test
+	public void testManyProcedures() {
+		OfferingMembership membership = new OfferingMembership();
+		List<String> even = new ArrayList<String>();
+		for(int i = 0; i < 1000; i += 2){
+			even.add("P" + i);
+		}
+		membership.setMembers("even", even);
+
+		assertTrue(membership.contains("even", "P998"));
+		assertFalse(membership.contains("even", "P999"));
+		assertEquals(500, membership.getMembers("even").size());
+	}
+
+	@Test
+	public void testApplyChanges() {
+		OfferingMembership membership = new OfferingMembership();
+		membership.rebuild(createProcedures());
+		OfferingMembership.Members before = membership.getMembers("ticino");
+
+		ChangeSet<Procedure> changes = new ChangeSet<Procedure>(Catalog.Section.PROCEDURES,
+				Collections.singletonList(createProcedure("LUGANO", "ticino")),
+				Collections.singletonList(createProcedure("LOCARNO", "mountain")),
+				Collections.singletonList(createProcedure("BELLINZONA", "temporary", "ticino")));
+		membership.apply(changes);
+
+		assertEquals(Collections.singletonList("LUGANO"), membership.getMembers("ticino").getProcedureNames());
+		assertTrue(membership.contains("mountain", "LOCARNO"));
+		assertFalse(membership.contains("temporary", "BELLINZONA"));
+
+		// earlier results are not affected
+		assertEquals(2, before.size());
+		assertTrue(before.contains("LOCARNO"));
+	}
+
+}
@@ -0,0 +1,136 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests for ProcedureDetailCache
+ */
+public class ProcedureDetailCacheTest {
+
+	/**
+	 * Service answering describeSensor only when asked to.
+	 */
+	private static class PendingService extends Service {
+
+		final Map<String, IstSOSListener> pending = new HashMap<String, IstSOSListener>();
+		int requests = 0;
+
+		@Override
+		public void describeSensor(String procedureName, IstSOSListener callback) {
+			requests++;
+			pending.put(procedureName, callback);
+		}
+
+		void complete(String procedureName) {
+			answer(pending.remove(procedureName), procedureName);
+		}
+
+		static void answer(IstSOSListener callback, String procedureName) {
+			Procedure procedure = new Procedure();
+			procedure.setSystem(procedureName);
+			callback.onSuccess(new EventObject(Event.PROCEDURES_LOADED, procedure));
+		}
+	}
+
+	private static class Collector implements IstSOSListener {
+
+		final List<Procedure> loaded = new ArrayList<Procedure>();
+
+		@Override
+		public void onSuccess(EventObject event) {
+			assertEquals(Event.PROCEDURE_LOADED, event.getEvent());
+			loaded.add((Procedure) event.getObject());
+		}
+
+		@Override
+		public void onError(EventObject event) {
+		}
+	}
+
+	@Test
+	public void testSharedFirstAccess() {
+		PendingService service = new PendingService();
+		ProcedureDetailCache cache = new ProcedureDetailCache(service, 10);
+
+		Collector first = new Collector();
+		Collector second = new Collector();
+		cache.get("LOCARNO", first);
+		cache.get("LOCARNO", second);
+		assertEquals(1, service.requests);
+
+		service.complete("LOCARNO");
+		assertEquals(1, first.loaded.size());
+		assertSame(first.loaded.get(0), second.loaded.get(0));
+
+		// served from the cache
+		Collector third = new Collector();
+		cache.get("LOCARNO", third);
+		assertEquals(1, service.requests);
+		assertSame(first.loaded.get(0), third.loaded.get(0));
+	}
+
+	@Test
+	public void testEvictionToSoftReferences() {
+		PendingService service = new PendingService();
+		ProcedureDetailCache cache = new ProcedureDetailCache(service, 2);
+
+		for(String name : new String[]{"A", "B", "C"}){
+			cache.get(name, null);
+			service.complete(name);
+		}
+
+		Map<String, Object> metrics = cache.getMetrics();
+		assertEquals(2, metrics.get("strongEntries"));
+		assertEquals(1, metrics.get("softEntries"));
+	}
+
+	@Test
+	public void testInvalidate() {
+		PendingService service = new PendingService();
+		ProcedureDetailCache cache = new ProcedureDetailCache(service, 2);
+
+		cache.get("A", null);
+		service.complete("A");
+		cache.invalidate("A");
+
+		assertNull(cache.getIfPresent("A"));
+		cache.get("A", null);
+		assertEquals(2, service.requests);
+	}
+
+	@Test
+	public void testInvalidateDuringLoad() {
+		PendingService service = new PendingService();
+		ProcedureDetailCache cache = new ProcedureDetailCache(service, 2);
+
+		Collector stale = new Collector();
+		cache.get("A", stale);
+		IstSOSListener first = service.pending.remove("A");
+		cache.invalidate("A");
+
+		// the next access does not join the detached request
+		Collector fresh = new Collector();
+		cache.get("A", fresh);
+		assertEquals(2, service.requests);
+
+		// the older answer reaches its waiter but is not cached
+		PendingService.answer(first, "A");
+		assertEquals(1, stale.loaded.size());
+		assertNull(cache.getIfPresent("A"));
+		assertEquals(0, fresh.loaded.size());
+
+		service.complete("A");
+		assertEquals(1, fresh.loaded.size());
+		assertSame(fresh.loaded.get(0), cache.getIfPresent("A"));
+	}
+
+}
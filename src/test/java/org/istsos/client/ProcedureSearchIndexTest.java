@@ -0,0 +1,95 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.istsos.client.procedure.Classification;
+import org.junit.Test;
+
+/**
+ * Tests for ProcedureSearchIndex
+ */
+public class ProcedureSearchIndexTest {
+
+	private static final String SENSOR_TYPE = "urn:ogc:def:classifier:x-istsos:1.0:sensorType";
+
+	private Procedure createProcedure(String name, String keywords, String systemType, String sensor) {
+		Procedure procedure = new Procedure();
+		procedure.setSystem(name);
+		procedure.setKeywords(keywords);
+		procedure.setDescription("Station " + name);
+		ArrayList<Classification> classifications = new ArrayList<Classification>();
+		classifications.add(new Classification("System Type", ProcedureSearchIndex.SYSTEM_TYPE, systemType));
+		classifications.add(new Classification("Sensor Type", SENSOR_TYPE, sensor));
+		procedure.setClassifications(classifications);
+		return procedure;
+	}
+
+	private List<Procedure> createProcedures() {
+		List<Procedure> procedures = new ArrayList<Procedure>();
+		procedures.add(createProcedure("RIVA", "river stage, hydrology", "insitu-fixed-point", "radar"));
+		procedures.add(createProcedure("MAGGIA", "River-Stage, discharge", "insitu-fixed-point", "pressure"));
+		procedures.add(createProcedure("BOAT", "lake stage", "insitu-mobile-point", "radar"));
+		return procedures;
+	}
+
+	@Test
+	public void testConjunctiveQuery() {
+		ProcedureSearchIndex index = new ProcedureSearchIndex();
+		index.rebuild(createProcedures());
+
+		assertEquals(Arrays.asList("RIVA", "MAGGIA"), index.search("river stage"));
+		assertEquals(Collections.singletonList("MAGGIA"),
+				index.query().text("stage").classification(SENSOR_TYPE, "pressure").list());
+		assertEquals(Arrays.asList("RIVA", "MAGGIA"),
+				index.query().text("stage").sensorType("insitu-fixed-point").list());
+		assertTrue(index.search("river glacier").isEmpty());
+		assertEquals(3, index.query().count());
+	}
+
+	@Test
+	public void testPrefix() {
+		ProcedureSearchIndex index = new ProcedureSearchIndex();
+		index.rebuild(createProcedures());
+
+		assertEquals(Arrays.asList("RIVA", "MAGGIA"), index.searchPrefix("Riv"));
+		assertEquals(Collections.singletonList("RIVA"), index.query().prefix("hydro").prefix("stat").list());
+	}
+
+	@Test
+	public void testParallelBuild() {
+		List<Procedure> procedures = new ArrayList<Procedure>();
+		for(int i = 0; i < 2000; i++){
+			procedures.add(createProcedure("P" + i, i % 2 == 0 ? "river" : "lake", "insitu-fixed-point", "radar"));
+		}
+		ProcedureSearchIndex index = new ProcedureSearchIndex();
+		index.rebuild(procedures);
+
+		assertEquals(1000, index.query().text("river").count());
+		assertEquals(Collections.singletonList("P1999"), index.search("p1999"));
+	}
+
+	@Test
+	public void testApplyChanges() {
+		ProcedureSearchIndex index = new ProcedureSearchIndex();
+		List<Procedure> procedures = createProcedures();
+		index.rebuild(procedures);
+
+		ChangeSet<Procedure> changes = new ChangeSet<Procedure>(Catalog.Section.PROCEDURES,
+				Collections.singletonList(createProcedure("TICINO", "river", "insitu-fixed-point", "radar")),
+				Collections.singletonList(createProcedure("MAGGIA", "lake", "insitu-fixed-point", "radar")),
+				Collections.singletonList(procedures.get(2)));
+		index.apply(changes);
+
+		assertEquals(Arrays.asList("RIVA", "TICINO"), index.search("river"));
+		assertEquals(Collections.singletonList("MAGGIA"), index.search("lake"));
+		assertTrue(index.findByClassification(SENSOR_TYPE, "pressure").isEmpty());
+		assertEquals(3, index.size());
+	}
+
+}
@@ -0,0 +1,100 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.istsos.client.observation.IsoTime;
+import org.istsos.client.observation.SeriesBuffer;
+import org.istsos.client.observation.SeriesSnapshot;
+import org.junit.Test;
+
+/**
+ * Tests for RatingCurve
+ */
+public class RatingCurveTest {
+
+	private static final double DELTA = 1e-9;
+
+	private RatingCurveParameters createParameters(String from, String to, String low, String up,
+			String a, String b, String c, String k) {
+		RatingCurveParameters parameters = new RatingCurveParameters();
+		parameters.setFrom(from);
+		parameters.setTo(to);
+		parameters.setLow_val(low);
+		parameters.setUp_val(up);
+		parameters.setA(a);
+		parameters.setB(b);
+		parameters.setC(c);
+		parameters.setK(k);
+		return parameters;
+	}
+
+	private RatingCurve createCurve() {
+		List<RatingCurveParameters> parameters = new ArrayList<RatingCurveParameters>();
+		// listed out of order on purpose
+		parameters.add(createParameters("2016-01-01T00:00:00Z", "2100-01-01T00:00:00Z", "0", "10", "3", "0", "1", "0"));
+		parameters.add(createParameters("2000-01-01T00:00:00Z", "2016-01-01T00:00:00Z", "1", "10", "2", "0", "2", "1"));
+		parameters.add(createParameters("2000-01-01T00:00:00Z", "2016-01-01T00:00:00Z", "0", "1", "1", "0.5", "1", "0"));
+		return RatingCurve.compile(parameters);
+	}
+
+	@Test
+	public void testSegments() {
+		RatingCurve curve = createCurve();
+		assertEquals(2, curve.getPeriodCount());
+		assertEquals(3, curve.getSegmentCount());
+
+		long time = IsoTime.parse("2010-06-01T00:00:00Z");
+		assertEquals(1.0, curve.evaluate(time, 0.5), DELTA);
+		assertEquals(2 * 9 + 1, curve.evaluate(time, 3), DELTA);
+		assertTrue(Double.isNaN(curve.evaluate(time, 11)));
+		assertTrue(Double.isNaN(curve.evaluate(time, -1)));
+	}
+
+	@Test
+	public void testValidity() {
+		RatingCurve curve = createCurve();
+
+		assertEquals(6, curve.evaluate(IsoTime.parse("2016-01-01T00:00:00Z"), 2), DELTA);
+		assertEquals(9, curve.evaluate(IsoTime.parse("2015-12-31T23:59:59Z"), 2), DELTA);
+		assertTrue(Double.isNaN(curve.evaluate(IsoTime.parse("1999-12-31T00:00:00Z"), 2)));
+	}
+
+	@Test
+	public void testColumns() {
+		RatingCurve curve = createCurve();
+
+		Map<String, SeriesSnapshot> series = new LinkedHashMap<String, SeriesSnapshot>();
+		for(int s = 0; s < 8; s++){
+			SeriesBuffer buffer = new SeriesBuffer(1000, 0);
+			long start = IsoTime.parse("2015-12-31T00:00:00Z");
+			for(int i = 0; i < 48; i++){
+				buffer.append(start + i * 3600000L, 2 + s, SeriesBuffer.NO_QUALITY);
+			}
+			series.put("S" + s, buffer.snapshot(Long.MIN_VALUE, Long.MAX_VALUE));
+		}
+
+		Map<String, double[]> discharges = curve.evaluateAll(series);
+		assertEquals(8, discharges.size());
+		for(int s = 0; s < 8; s++){
+			double h = 2 + s;
+			double[] column = discharges.get("S" + s);
+			assertEquals(48, column.length);
+			assertEquals(2 * h * h + 1, column[23], DELTA);
+			assertEquals(3 * h, column[24], DELTA);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidParameter() {
+		List<RatingCurveParameters> parameters = new ArrayList<RatingCurveParameters>();
+		parameters.add(createParameters(null, null, "0", "1", "x", "0", "1", "0"));
+		RatingCurve.compile(parameters);
+	}
+
+}
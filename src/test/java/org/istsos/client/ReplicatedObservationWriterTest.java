@@ -0,0 +1,240 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for ReplicatedObservationWriter
+ */
+public class ReplicatedObservationWriterTest {
+
+	private ReplicatedObservationWriter writer;
+
+	/**
+	 * Service recording inserted observations by name. Answers at once when
+	 * automatic, otherwise keeps the callbacks until {@link #complete()}.
+	 */
+	private static class LocalService extends Service {
+
+		final boolean automatic;
+		final List<String> attempts = new CopyOnWriteArrayList<String>();
+		final List<IstSOSListener> pending = new CopyOnWriteArrayList<IstSOSListener>();
+		// status codes to fail the next attempts with
+		final List<Integer> failures = new CopyOnWriteArrayList<Integer>();
+
+		LocalService(String name, boolean automatic) {
+			super(new Server(name, "http://" + name + "/istsos/"));
+			setName(name);
+			this.automatic = automatic;
+		}
+
+		@Override
+		public void insertObservation(Procedure procedure, Observation observation, IstSOSListener callback) {
+			attempts.add(observation.getName());
+			if(!failures.isEmpty()){
+				int status = failures.remove(0);
+				callback.onError(new EventObject(Event.REQUEST_FAILED, new RequestException(status, "Error")));
+				return;
+			}
+			if(automatic){
+				callback.onSuccess(new EventObject(Event.OBSERVATION_INSERTED, procedure));
+			}else{
+				pending.add(callback);
+			}
+		}
+
+		void complete() {
+			IstSOSListener callback = pending.remove(0);
+			callback.onSuccess(new EventObject(Event.OBSERVATION_INSERTED, null));
+		}
+
+		void fail(int status) {
+			IstSOSListener callback = pending.remove(0);
+			callback.onError(new EventObject(Event.REQUEST_FAILED, new RequestException(status, "Error")));
+		}
+	}
+
+	private static class Collector implements IstSOSListener {
+
+		final List<EventObject> written = new CopyOnWriteArrayList<EventObject>();
+		final List<EventObject> dropped = new CopyOnWriteArrayList<EventObject>();
+
+		@Override
+		public void onSuccess(EventObject event) {
+			written.add(event);
+		}
+
+		@Override
+		public void onError(EventObject event) {
+			dropped.add(event);
+		}
+	}
+
+	private static Observation observation(String name) {
+		Observation observation = new Observation();
+		observation.setName(name);
+		return observation;
+	}
+
+	private static void await(long timeout, Condition condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while(!condition.met() && System.currentTimeMillis() < deadline){
+			Thread.sleep(5);
+		}
+		assertTrue(condition.met());
+	}
+
+	private interface Condition {
+		boolean met();
+	}
+
+	@After
+	public void tearDown() {
+		if(writer != null){
+			writer.close();
+		}
+	}
+
+	@Test
+	public void testOrderedPerTarget() {
+		LocalService primary = new LocalService("primary", true);
+		LocalService replica = new LocalService("replica", false);
+		writer = new ReplicatedObservationWriter(Arrays.asList((Service) primary, replica));
+
+		for(String name : new String[]{"A", "B", "C"}){
+			writer.write(new Procedure(), observation(name));
+		}
+
+		// the slow replica does not hold back the primary
+		assertEquals(Arrays.asList("A", "B", "C"), primary.attempts);
+		// one batch in flight at a time, sent in order
+		assertEquals(Arrays.asList("A"), replica.attempts);
+		replica.complete();
+		assertEquals(Arrays.asList("A", "B"), replica.attempts);
+		replica.complete();
+		replica.complete();
+		assertEquals(Arrays.asList("A", "B", "C"), replica.attempts);
+		assertEquals(3L, writer.getMetrics().get("replica").get("written"));
+	}
+
+	@Test
+	public void testRetryableFailures() throws InterruptedException {
+		final LocalService target = new LocalService("target", true);
+		writer = new ReplicatedObservationWriter(Arrays.asList((Service) target));
+		writer.setRetryPolicy(5, 10, 20);
+		Collector collector = new Collector();
+		writer.setListener(collector);
+
+		// two server errors are retried before the batch is written
+		target.failures.addAll(Arrays.asList(503, 500));
+		writer.write(new Procedure(), observation("A"));
+		await(2000, new Condition() {
+			@Override
+			public boolean met() {
+				return target.attempts.size() == 3;
+			}
+		});
+		assertEquals(1, collector.written.size());
+		assertEquals(2L, writer.getMetrics().get("target").get("retried"));
+
+		// a client error is not retried, the batch is dropped and the next one sent
+		target.failures.add(400);
+		writer.write(new Procedure(), observation("B"));
+		writer.write(new Procedure(), observation("C"));
+		assertEquals(Arrays.asList("A", "A", "A", "B", "C"), target.attempts);
+		assertEquals(1, collector.dropped.size());
+		assertEquals(1L, writer.getMetrics().get("target").get("dropped"));
+		assertEquals(2, collector.written.size());
+	}
+
+	@Test
+	public void testLag() throws InterruptedException {
+		LocalService target = new LocalService("target", false);
+		writer = new ReplicatedObservationWriter(Arrays.asList((Service) target));
+
+		assertEquals(0, writer.getLag(target));
+		writer.write(new Procedure(), observation("A"));
+		Thread.sleep(50);
+		writer.write(new Procedure(), observation("B"));
+		assertTrue(writer.getLag(target) >= 50);
+		assertEquals(2, writer.getMetrics().get("target").get("queuedBatches"));
+
+		// the lag follows the oldest batch still queued
+		target.complete();
+		assertTrue(writer.getLag(target) < 50);
+		target.complete();
+		assertEquals(0, writer.getLag(target));
+	}
+
+	@Test
+	public void testDropsOldestQueuedWhenFull() {
+		LocalService target = new LocalService("target", false);
+		writer = new ReplicatedObservationWriter(Arrays.asList((Service) target));
+		writer.setMaxQueuedBatches(2);
+		Collector collector = new Collector();
+		writer.setListener(collector);
+
+		for(String name : new String[]{"A", "B", "C", "D"}){
+			writer.write(new Procedure(), observation(name));
+		}
+		// A is in flight and kept, B and C were dropped for the newer batches
+		assertEquals(2, collector.dropped.size());
+		assertEquals(2L, writer.getMetrics().get("target").get("dropped"));
+
+		while(!target.pending.isEmpty()){
+			target.complete();
+		}
+		assertEquals(Arrays.asList("A", "D"), target.attempts);
+	}
+
+	@Test
+	public void testFailureAfterClose() {
+		LocalService target = new LocalService("target", false);
+		writer = new ReplicatedObservationWriter(Arrays.asList((Service) target));
+		Collector collector = new Collector();
+		writer.setListener(collector);
+
+		writer.write(new Procedure(), observation("A"));
+		writer.write(new Procedure(), observation("B"));
+		writer.close();
+
+		// answered after close: not retried, and B is not sent anymore
+		target.fail(503);
+		assertEquals(1, collector.dropped.size());
+		assertEquals(0L, writer.getMetrics().get("target").get("retried"));
+		assertEquals(Arrays.asList("A"), target.attempts);
+	}
+
+	@Test
+	public void testSynchronousFailuresDoNotRecurse() throws InterruptedException {
+		final int count = 20000;
+		final LocalService target = new LocalService("target", false);
+		writer = new ReplicatedObservationWriter(Arrays.asList((Service) target));
+		writer.setMaxQueuedBatches(count + 1);
+		final Collector collector = new Collector();
+		writer.setListener(collector);
+
+		writer.write(new Procedure(), observation("first"));
+		for(int i = 0; i < count; i++){
+			target.failures.add(400);
+			writer.write(new Procedure(), observation("B" + i));
+		}
+		// every queued batch fails as soon as it is sent
+		target.complete();
+		await(10000, new Condition() {
+			@Override
+			public boolean met() {
+				return collector.dropped.size() == count;
+			}
+		});
+		assertEquals(count + 1, target.attempts.size());
+	}
+
+}
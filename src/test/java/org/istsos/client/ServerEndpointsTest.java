@@ -0,0 +1,217 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests for ServerEndpoints routing
+ */
+public class ServerEndpointsTest {
+
+	@Test
+	public void testSelectPrefersFastEndpoints() {
+		ServerEndpoints endpoints = new ServerEndpoints("http://lb/istsos/");
+		endpoints.add("http://node/istsos/");
+		endpoints.add("http://vpn/istsos/");
+		List<ServerEndpoints.Endpoint> list = endpoints.getEndpoints();
+
+		long now = System.currentTimeMillis();
+		list.get(0).record(now, 80, true);
+		list.get(1).record(now, 10, true);
+		list.get(2).record(now, 300, true);
+
+		int[] picks = new int[3];
+		for(int i = 0; i < 3000; i++){
+			picks[list.indexOf(endpoints.select(null))]++;
+		}
+		// the slowest endpoint never wins a comparison
+		assertEquals(0, picks[2]);
+		assertTrue(picks[1] > picks[0]);
+
+		// a failing endpoint is avoided until its backoff expired
+		list.get(1).record(now, 10, false);
+		for(int i = 0; i < 100; i++){
+			assertTrue(endpoints.select(null) != list.get(1));
+		}
+		assertSame(list.get(2), endpoints.select(Arrays.asList(list.get(0))));
+		assertNull(endpoints.select(list));
+	}
+
+	@Test
+	public void testRoutesOwnUrlsOnly() {
+		ServerEndpoints endpoints = new ServerEndpoints("http://lb/istsos");
+		assertFalse(endpoints.routes("http://lb/istsos/wa/istsos/services"));
+
+		endpoints.add("http://node/istsos");
+		assertTrue(endpoints.routes("http://lb/istsos/wa/istsos/services"));
+		assertTrue(endpoints.routes("http://lb/istsos"));
+		assertFalse(endpoints.routes("http://lb/istsos2/wa/istsos/services"));
+		assertFalse(endpoints.routes("http://other/istsos/wa/istsos/services"));
+
+		endpoints.remove("http://node/istsos");
+		assertFalse(endpoints.routes("http://lb/istsos/wa/istsos/services"));
+	}
+
+	@Test
+	public void testFailoverOnServerError() throws IOException, InterruptedException {
+		HttpServer broken = serve(500, "Internal error");
+		HttpServer working = serve(200, "{\"success\": true, \"data\": []}");
+		try {
+			String brokenUrl = "http://127.0.0.1:" + broken.getAddress().getPort() + "/istsos/";
+			String workingUrl = "http://127.0.0.1:" + working.getAddress().getPort() + "/istsos/";
+			Server server = new Server("routed", brokenUrl);
+			server.addEndpoint(workingUrl);
+
+			final LinkedBlockingQueue<EventObject> results = new LinkedBlockingQueue<EventObject>();
+			IstSOSListener listener = new IstSOSListener() {
+				@Override
+				public void onSuccess(EventObject event) {
+					results.add(event);
+				}
+
+				@Override
+				public void onError(EventObject event) {
+					results.add(event);
+				}
+			};
+
+			List<Event> events = new ArrayList<Event>();
+			for(int i = 0; i < 4; i++){
+				IstSOS.executeGet(server.getEndpoints(), brokenUrl + "wa/istsos/services", listener, null);
+				EventObject result = results.poll(10, TimeUnit.SECONDS);
+				assertNotNull(result);
+				events.add(result.getEvent());
+			}
+			assertEquals(Arrays.asList(Event.REQUEST, Event.REQUEST, Event.REQUEST, Event.REQUEST), events);
+
+			ServerEndpoints.Endpoint first = server.getEndpoints().getEndpoints().get(0);
+			ServerEndpoints.Endpoint second = server.getEndpoints().getEndpoints().get(1);
+			// the broken endpoint failed once, then stayed in backoff
+			assertEquals(1, first.getFailures());
+			assertEquals(4, second.getRequests());
+		} finally {
+			broken.stop(0);
+			working.stop(0);
+		}
+	}
+
+	@Test
+	public void testRejectedRequestIsNotRetried() throws IOException, InterruptedException {
+		String body = "{\"success\": false, \"message\": \"Procedure not found\"}";
+		HttpServer rejecting = serve(200, body);
+		HttpServer replica = serve(200, body);
+		try {
+			String rejectingUrl = "http://127.0.0.1:" + rejecting.getAddress().getPort() + "/istsos/";
+			String replicaUrl = "http://127.0.0.1:" + replica.getAddress().getPort() + "/istsos/";
+			Server server = new Server("rejecting", rejectingUrl);
+			server.addEndpoint(replicaUrl);
+
+			final LinkedBlockingQueue<EventObject> results = new LinkedBlockingQueue<EventObject>();
+			IstSOS.executeGet(server.getEndpoints(), rejectingUrl + "wa/istsos/services/demo/procedures/X", new IstSOSListener() {
+				@Override
+				public void onSuccess(EventObject event) {
+					results.add(event);
+				}
+
+				@Override
+				public void onError(EventObject event) {
+					results.add(event);
+				}
+			}, null);
+
+			EventObject result = results.poll(10, TimeUnit.SECONDS);
+			assertNotNull(result);
+			assertEquals(Event.REQUEST_FAILED, result.getEvent());
+			RequestException exception = (RequestException) result.getObject();
+			assertTrue(exception.isRejected());
+			assertFalse(exception.isRetryable());
+			assertTrue(exception.getMessage().contains("Procedure not found"));
+			assertNull(results.poll(200, TimeUnit.MILLISECONDS));
+			// a rejection is final, the replica is not asked again
+			int requests = 0;
+			for(ServerEndpoints.Endpoint endpoint : server.getEndpoints().getEndpoints()){
+				requests += endpoint.getRequests();
+			}
+			assertEquals(1, requests);
+		} finally {
+			rejecting.stop(0);
+			replica.stop(0);
+		}
+	}
+
+	@Test
+	public void testThrowingListenerIsAnsweredOnce() throws IOException, InterruptedException {
+		HttpServer first = serve(200, "{\"success\": true, \"data\": []}");
+		HttpServer second = serve(200, "{\"success\": true, \"data\": []}");
+		try {
+			String firstUrl = "http://127.0.0.1:" + first.getAddress().getPort() + "/istsos/";
+			Server server = new Server("throwing", firstUrl);
+			server.addEndpoint("http://127.0.0.1:" + second.getAddress().getPort() + "/istsos/");
+
+			final LinkedBlockingQueue<EventObject> results = new LinkedBlockingQueue<EventObject>();
+			IstSOS.executeGet(server.getEndpoints(), firstUrl + "wa/istsos/services", new IstSOSListener() {
+				@Override
+				public void onSuccess(EventObject event) {
+					results.add(event);
+					throw new IllegalStateException("listener failure");
+				}
+
+				@Override
+				public void onError(EventObject event) {
+					results.add(event);
+				}
+			}, null);
+
+			EventObject result = results.poll(10, TimeUnit.SECONDS);
+			assertNotNull(result);
+			assertEquals(Event.REQUEST, result.getEvent());
+			assertNull(results.poll(300, TimeUnit.MILLISECONDS));
+			int requests = 0;
+			for(ServerEndpoints.Endpoint endpoint : server.getEndpoints().getEndpoints()){
+				requests += endpoint.getRequests();
+				assertEquals(0, endpoint.getFailures());
+			}
+			assertEquals(1, requests);
+		} finally {
+			first.stop(0);
+			second.stop(0);
+		}
+	}
+
+	private static HttpServer serve(final int status, final String body) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(status, bytes.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(bytes);
+				out.close();
+			}
+		});
+		server.start();
+		return server;
+	}
+
+}
@@ -0,0 +1,126 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.istsos.client.procedure.Location;
+import org.istsos.client.procedure.LocationIndex;
+import org.istsos.client.procedure.SpatialIndex;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests for SpatialIndex and LocationIndex, checked against linear scans
+ */
+public class SpatialIndexTest {
+
+	private static final int POINTS = 5000;
+
+	private final double[] xs = new double[POINTS];
+	private final double[] ys = new double[POINTS];
+	private final List<Integer> ids = new ArrayList<Integer>();
+
+	private SpatialIndex<Integer> createIndex() {
+		Random random = new Random(42);
+		for(int i = 0; i < POINTS; i++){
+			xs[i] = 5.9 + random.nextDouble() * 4.6;
+			ys[i] = 45.8 + random.nextDouble() * 2.0;
+			ids.add(i);
+		}
+		return new SpatialIndex<Integer>(ids, xs, ys);
+	}
+
+	@Test
+	public void testSearch() {
+		SpatialIndex<Integer> index = createIndex();
+
+		HashSet<Integer> expected = new HashSet<Integer>();
+		for(int i = 0; i < POINTS; i++){
+			if(xs[i] >= 8.5 && xs[i] <= 9.2 && ys[i] >= 46.0 && ys[i] <= 46.5){
+				expected.add(i);
+			}
+		}
+
+		assertEquals(expected, new HashSet<Integer>(index.search(8.5, 46.0, 9.2, 46.5)));
+		assertTrue(index.search(0, 0, 1, 1).isEmpty());
+	}
+
+	@Test
+	public void testWithin() {
+		SpatialIndex<Integer> index = createIndex();
+
+		HashSet<Integer> expected = new HashSet<Integer>();
+		for(int i = 0; i < POINTS; i++){
+			double dx = xs[i] - 8.8;
+			double dy = ys[i] - 46.2;
+			if(dx * dx + dy * dy <= 0.1 * 0.1){
+				expected.add(i);
+			}
+		}
+
+		assertEquals(expected, new HashSet<Integer>(index.within(8.8, 46.2, 0.1)));
+	}
+
+	@Test
+	public void testNearest() {
+		SpatialIndex<Integer> index = createIndex();
+
+		List<Integer> nearest = index.nearest(8.8, 46.2, 10);
+		assertEquals(10, nearest.size());
+
+		double previous = -1;
+		for(Integer id : nearest){
+			double distance = Math.hypot(xs[id] - 8.8, ys[id] - 46.2);
+			assertTrue(distance >= previous);
+			previous = distance;
+		}
+
+		// nothing outside the result is closer than its farthest item
+		int closer = 0;
+		for(int i = 0; i < POINTS; i++){
+			if(Math.hypot(xs[i] - 8.8, ys[i] - 46.2) < previous){
+				closer++;
+			}
+		}
+		assertEquals(9, closer);
+	}
+
+	@Test
+	public void testEmpty() {
+		SpatialIndex<Integer> index = new SpatialIndex<Integer>(new ArrayList<Integer>(), new double[0], new double[0]);
+		assertTrue(index.search(-180, -90, 180, 90).isEmpty());
+		assertTrue(index.nearest(0, 0, 3).isEmpty());
+	}
+
+	@Test
+	public void testFromGeoJson() {
+		JsonObject json = new JsonParser().parse("{\"type\": \"FeatureCollection\","
+				+ "\"crs\": {\"type\": \"name\", \"properties\": {\"name\": \"EPSG:4326\"}},"
+				+ "\"features\": ["
+				+ "{\"type\": \"Feature\", \"geometry\": {\"type\": \"Point\", \"coordinates\": [8.96, 46.02, 344]},"
+				+ " \"properties\": {\"name\": \"LUGANO\", \"id\": 1}},"
+				+ "{\"type\": \"Feature\", \"geometry\": {\"type\": \"Point\", \"coordinates\": [8.79, 46.17, 200]},"
+				+ " \"properties\": {\"name\": \"LOCARNO\", \"id\": 2}},"
+				+ "{\"type\": \"Feature\", \"geometry\": null, \"properties\": {\"name\": \"MOBILE\"}}"
+				+ "]}").getAsJsonObject();
+
+		LocationIndex index = LocationIndex.fromGeoJson(json);
+
+		assertEquals(3, index.size());
+		assertEquals("EPSG:4326", index.getCrs().getProperties().get("name"));
+		assertEquals("1", index.getLocation("LUGANO").getProperties().get("id"));
+
+		List<Location> nearest = index.nearest(8.8, 46.2, 5);
+		assertEquals(2, nearest.size());
+		assertEquals("LOCARNO", LocationIndex.getProcedureName(nearest.get(0)));
+		assertEquals(1, index.search(8.9, 46.0, 9.0, 46.1).size());
+	}
+
+}
@@ -0,0 +1,60 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.istsos.client.observation.UnitConversion;
+import org.istsos.client.observation.UnitRegistry;
+import org.junit.Test;
+
+/**
+ * Tests for UnitRegistry and UnitConversion
+ */
+public class UnitRegistryTest {
+
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void testFactors() {
+		UnitRegistry registry = new UnitRegistry();
+
+		assertEquals(1.5, registry.getConversion("mm", "m").convert(1500), DELTA);
+		assertEquals(250, registry.getConversion("m3/s", "l/s").convert(0.25), DELTA);
+		assertEquals(1013.25, registry.getConversion("Pa", "hPa").convert(101325), DELTA);
+	}
+
+	@Test
+	public void testOffsets() {
+		UnitRegistry registry = new UnitRegistry();
+
+		assertEquals(273.15, registry.getConversion("\u00b0C", "K").convert(0), DELTA);
+		assertEquals(-273.15, registry.getConversion("K", "degC").convert(0), DELTA);
+		assertEquals(212, registry.getConversion("\u00b0C", "\u00b0F").convert(100), 1e-6);
+		assertTrue(registry.getConversion("\u00b0C", "degC").isIdentity());
+	}
+
+	@Test
+	public void testColumn() {
+		UnitConversion conversion = new UnitRegistry().getConversion("\u00b0C", "K");
+
+		double[] values = {0, 10, Double.NaN, -273.15};
+		double[] converted = conversion.convert(values);
+
+		assertArrayEquals(new double[]{273.15, 283.15, Double.NaN, 0}, converted, DELTA);
+		assertEquals(0, values[0], DELTA);
+
+		conversion.convert(values, 1, 2, values);
+		assertEquals(283.15, values[1], DELTA);
+		assertEquals(0, values[0], DELTA);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testIncompatible() {
+		UnitRegistry registry = new UnitRegistry();
+		assertFalse(registry.isConvertible("mm", "l/s"));
+		registry.getConversion("mm", "l/s");
+	}
+
+}
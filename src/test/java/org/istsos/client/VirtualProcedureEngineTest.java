@@ -0,0 +1,127 @@
+package org.istsos.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.istsos.client.observation.DataArray;
+import org.istsos.client.observation.Field;
+import org.istsos.client.observation.Result;
+import org.istsos.client.observation.SeriesKey;
+import org.istsos.client.observation.SeriesSnapshot;
+import org.junit.Test;
+
+/**
+ * Tests for VirtualProcedureEngine
+ */
+public class VirtualProcedureEngineTest {
+
+	private static final long HOUR = 3600000L;
+
+	private static final SeriesKey STAGE = new SeriesKey("RIVER", "urn:ogc:def:parameter:x-istsos:1.0:river:height");
+	private static final SeriesKey INFLOW = new SeriesKey("LAKE", "inflow");
+	private static final SeriesKey OUTFLOW = new SeriesKey("LAKE", "outflow");
+
+	private ObservationStore store = new ObservationStore(1000, 0);
+
+	// hours since the epoch, one row per call
+	private void append(SeriesKey key, int hour, double value, int quality) {
+
+		ArrayList<Field> fields = new ArrayList<Field>();
+		fields.add(new Field("Time", "urn:ogc:def:parameter:x-istsos:1.0:time:iso8601", "iso8601"));
+		fields.add(new Field("value", key.getDefinition(), "m"));
+		fields.add(new Field("quality", key.getDefinition() + ":qualityIndex", "-"));
+
+		ArrayList<String[]> values = new ArrayList<String[]>();
+		values.add(new String[]{String.format("1970-01-01T%02d:00:00Z", hour), String.valueOf(value), String.valueOf(quality)});
+
+		DataArray dataArray = new DataArray();
+		dataArray.setFields(fields);
+		dataArray.setValues(values);
+		Result result = new Result();
+		result.setDataArray(dataArray);
+
+		Observation observation = new Observation();
+		observation.setName(key.getProcedure());
+		observation.setResult(result);
+		store.append(observation);
+	}
+
+	private RatingCurve createCurve() {
+		RatingCurveParameters parameters = new RatingCurveParameters();
+		parameters.setLow_val("0");
+		parameters.setUp_val("100");
+		parameters.setA("2");
+		parameters.setB("0");
+		parameters.setC("2");
+		parameters.setK("0");
+		List<RatingCurveParameters> list = new ArrayList<RatingCurveParameters>();
+		list.add(parameters);
+		return RatingCurve.compile(list);
+	}
+
+	@Test
+	public void testRatingCurve() {
+		for(int i = 0; i < 10; i++){
+			append(STAGE, i, i, 100);
+		}
+		VirtualProcedureEngine engine = new VirtualProcedureEngine(store);
+		engine.defineRatingCurve("DISCHARGE", STAGE, createCurve());
+
+		SeriesSnapshot discharge = engine.evaluate("DISCHARGE");
+		assertEquals(10, discharge.size());
+		assertEquals(2 * 9 * 9, discharge.getValue(9), 0);
+		assertEquals(100, discharge.getQuality(9));
+	}
+
+	@Test
+	public void testCombinationJoinsOnTime() {
+		for(int i = 0; i < 10; i++){
+			append(INFLOW, i, 10, 100);
+			if(i % 2 == 0){
+				append(OUTFLOW, i, 4, 200);
+			}
+		}
+		VirtualProcedureEngine engine = new VirtualProcedureEngine(store);
+		engine.defineCombination("BALANCE", VirtualProcedureEngine.Operation.SUBTRACT, INFLOW, OUTFLOW);
+		engine.defineLinearCombination("MEAN", new SeriesKey[]{INFLOW, OUTFLOW}, new double[]{0.5, 0.5}, 0);
+
+		SeriesSnapshot balance = engine.evaluate("BALANCE");
+		assertEquals(5, balance.size());
+		assertEquals(8 * HOUR, balance.getTime(4));
+		assertEquals(6, balance.getValue(4), 0);
+		assertEquals(100, balance.getQuality(4));
+		assertEquals(7, engine.evaluate("MEAN").getValue(0), 0);
+	}
+
+	@Test
+	public void testMemoisedPerWindow() {
+		for(int i = 0; i < 10; i++){
+			append(STAGE, i, i, 100);
+		}
+		VirtualProcedureEngine engine = new VirtualProcedureEngine(store);
+		engine.defineRatingCurve("DISCHARGE", STAGE, createCurve());
+
+		SeriesSnapshot first = engine.evaluate("DISCHARGE", 0, 5 * HOUR);
+		assertSame(first, engine.evaluate("DISCHARGE", 0, 5 * HOUR));
+
+		// appended after the window, the result is still valid
+		append(STAGE, 10, 10, 100);
+		assertSame(first, engine.evaluate("DISCHARGE", 0, 5 * HOUR));
+
+		SeriesSnapshot open = engine.evaluate("DISCHARGE", 0, Long.MAX_VALUE);
+		assertEquals(11, open.size());
+		append(STAGE, 11, 11, 100);
+		SeriesSnapshot reopened = engine.evaluate("DISCHARGE", 0, Long.MAX_VALUE);
+		assertNotSame(open, reopened);
+		assertEquals(12, reopened.size());
+
+		assertEquals(1L, engine.getMetrics().get("hits"));
+		assertEquals(1L, engine.getMetrics().get("revalidations"));
+		assertEquals(3L, engine.getMetrics().get("computations"));
+	}
+
+}